@@ -0,0 +1,254 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.matchingnotification.events;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientData;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.events.PatientChangedEvent;
+import org.phenotips.data.events.PatientDeletingEvent;
+import org.phenotips.data.permissions.EntityPermissionsManager;
+import org.phenotips.data.permissions.Visibility;
+import org.phenotips.matchingnotification.finder.MatchFinderManager;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import javax.ws.rs.core.Response;
+
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.user.api.XWikiRightService;
+
+/**
+ * Keeps the local matches of a patient up to date as the patient is modified, so that matches don't go stale until the
+ * next refresh of all the patients. Only the modified patient is searched again, and the difference with the stored
+ * matches is applied: new matches are added, changed matches are updated, and matches that are not found anymore are
+ * moved to the history. Bursts of modifications are coalesced: the matches are only updated once the patient hasn't
+ * been modified for a configurable delay, set in seconds with the {@code phenotips.matching.updateDelay} property
+ * (60 by default); a negative delay disables the automatic updates. The update of a patient is postponed while all
+ * the local matches are being refreshed, since both would save the same pairs of patients.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component
+@Named("patient-matches-updater")
+@Singleton
+public class PatientMatchesUpdater extends AbstractEventListener implements Initializable, Disposable
+{
+    private static final String NAME = "patient-matches-updater";
+
+    private static final String DELAY_KEY = "phenotips.matching.updateDelay";
+
+    private static final long DEFAULT_DELAY = 60;
+
+    private static final String LOCAL_SERVER_ID = "local";
+
+    /** How long to wait before trying again an update postponed by a refresh of all the matches, in seconds. */
+    private static final long MIN_RETRY_DELAY = 1;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Inject
+    private Provider<PatientRepository> patientRepository;
+
+    @Inject
+    private Provider<MatchFinderManager> matchFinderManager;
+
+    @Inject
+    private EntityPermissionsManager permissionsManager;
+
+    @Inject
+    @Named("matchable")
+    private Visibility matchableVisibility;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    /** The pending updates, by patient ID. */
+    private final Map<String, PendingUpdate> pending = new ConcurrentHashMap<>();
+
+    /** Runs the updates in the background, one at a time. */
+    private ScheduledExecutorService executor;
+
+    /** How long to wait after the last modification of a patient before updating its matches, in seconds. */
+    private long delay;
+
+    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
+    public PatientMatchesUpdater()
+    {
+        super(NAME, Arrays.<Event>asList(new PatientChangedEvent(), new PatientDeletingEvent()));
+    }
+
+    @Override
+    public void initialize()
+    {
+        this.delay = this.configuration.getProperty(DELAY_KEY, DEFAULT_DELAY);
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.executor.shutdownNow();
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (this.delay < 0) {
+            return;
+        }
+        String patientId = ((XWikiDocument) source).getDocumentReference().getName();
+        if (event instanceof PatientDeletingEvent) {
+            // the matches of deleted patients are removed by the PatientMatchesRemover
+            cancel(this.pending.remove(patientId));
+            return;
+        }
+        schedule(patientId, this.delay);
+    }
+
+    private void schedule(String patientId, long updateDelay)
+    {
+        // the update is only scheduled once it is pending, so that it can always remove itself when it runs
+        PendingUpdate update = new PendingUpdate(patientId);
+        cancel(this.pending.put(patientId, update));
+        update.schedule(updateDelay);
+    }
+
+    private void cancel(PendingUpdate update)
+    {
+        if (update != null && update.cancel()) {
+            this.logger.debug("Postponed the update of the matches of patient [{}]", update.patientId);
+        }
+    }
+
+    private void update(String patientId)
+    {
+        try {
+            this.executionContextManager.initialize(new ExecutionContext());
+            // matches are stored the same way regardless of who modified the patient, as with a full refresh
+            XWikiContext context = this.contextProvider.get();
+            context.setUserReference(
+                new DocumentReference(context.getWikiId(), "XWiki", XWikiRightService.SUPERADMIN_USER));
+
+            Patient patient = this.patientRepository.get().get(patientId);
+            if (patient == null) {
+                return;
+            }
+            // the local matches of patients which are not matchable anymore are moved to the history, even if solved
+            if (!isSolved(patient) || this.permissionsManager.getEntityAccess(patient).getVisibility()
+                .compareTo(this.matchableVisibility) < 0) {
+                Response response = this.matchFinderManager.get().findMatchesForPatient(patient, LOCAL_SERVER_ID);
+                if (response != null && response.getStatus() == Response.Status.CONFLICT.getStatusCode()) {
+                    // all the local matches are being refreshed, try again later unless a newer update is pending
+                    this.logger.debug("Postponed the update of the matches of patient [{}] until the end of the "
+                        + "refresh of all the matches", patientId);
+                    if (!this.pending.containsKey(patientId)) {
+                        schedule(patientId, Math.max(this.delay, MIN_RETRY_DELAY));
+                    }
+                }
+            }
+        } catch (Exception ex) {
+            this.logger.error("Failed to update the matches of patient [{}]: {}", patientId, ex.getMessage(), ex);
+        } finally {
+            this.execution.removeContext();
+        }
+    }
+
+    private boolean isSolved(Patient patient)
+    {
+        PatientData<String> data = patient.getData("solved");
+        return data != null && data.size() > 0 && "1".equals(data.get("solved"));
+    }
+
+    /** An update of the matches of a patient, scheduled after the delay. */
+    private final class PendingUpdate implements Runnable
+    {
+        private final String patientId;
+
+        private ScheduledFuture<?> future;
+
+        private boolean cancelled;
+
+        PendingUpdate(String patientId)
+        {
+            this.patientId = patientId;
+        }
+
+        synchronized void schedule(long updateDelay)
+        {
+            if (!this.cancelled) {
+                this.future = PatientMatchesUpdater.this.executor.schedule(this, updateDelay, TimeUnit.SECONDS);
+            }
+        }
+
+        synchronized boolean cancel()
+        {
+            this.cancelled = true;
+            return this.future != null && this.future.cancel(false);
+        }
+
+        @Override
+        public void run()
+        {
+            // a newer update may already have replaced this one, since running updates cannot be cancelled
+            PatientMatchesUpdater.this.pending.remove(this.patientId, this);
+            update(this.patientId);
+        }
+    }
+}
@@ -206,6 +206,12 @@ protected boolean patientIsSolved(Patient patient)
         return false;
     }
 
+    protected boolean isMatchable(Patient patient)
+    {
+        Visibility patientVisibility = this.permissionsManager.getEntityAccess(patient).getVisibility();
+        return patientVisibility.compareTo(this.matchableVisibility) >= 0;
+    }
+
     protected Patient getPatientIfShouldBeUsed(String patientId, boolean onlyUpdatedAfterLastRun, Date lastRunTime)
     {
         Patient patient = this.patientRepository.get(patientId);
@@ -213,8 +219,7 @@ protected Patient getPatientIfShouldBeUsed(String patientId, boolean onlyUpdated
             return null;
         }
 
-        Visibility patientVisibility = this.permissionsManager.getEntityAccess(patient).getVisibility();
-        if (patientVisibility.compareTo(this.matchableVisibility) < 0) {
+        if (!this.isMatchable(patient)) {
             return null;
         }
 
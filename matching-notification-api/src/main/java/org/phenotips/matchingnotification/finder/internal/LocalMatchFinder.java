@@ -18,17 +18,26 @@
 package org.phenotips.matchingnotification.finder.internal;
 
 import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
 import org.phenotips.data.similarity.PatientSimilarityView;
+import org.phenotips.data.similarity.PatientSimilarityViewFactory;
 import org.phenotips.matchingnotification.finder.MatchFinder;
 import org.phenotips.matchingnotification.match.PatientMatch;
 import org.phenotips.similarity.SimilarPatientsFinder;
 
 import org.xwiki.component.annotation.Component;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -50,9 +59,25 @@ public class LocalMatchFinder extends AbstractMatchFinder implements MatchFinder
     private static final Set<String> SUPPORTED_SERVER_IDS =
             new HashSet<>(Arrays.asList(RUN_INFO_DOCUMENT_LOCALSERVER_ID));
 
+    private static final double MIN_SCORE_TO_CONSIDER_NON_ZERO = 0.001;
+
     @Inject
     private SimilarPatientsFinder finder;
 
+    /** Re-scores the stored matches that the search doesn't find again. */
+    @Inject
+    @Named("restricted")
+    private PatientSimilarityViewFactory factory;
+
+    @Inject
+    private PatientRepository patientRepository;
+
+    /**
+     * Held while all the local matches are refreshed, so that the matches of a single patient are not updated at the
+     * same time, with either update overwriting the pairs saved by the other one.
+     */
+    private final Lock refreshLock = new ReentrantLock();
+
     @Override
     public int getPriority()
     {
@@ -65,20 +90,147 @@ public Set<String> getSupportedServerIdList()
         return SUPPORTED_SERVER_IDS;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * A full refresh of the local matches is done as one batch, comparing the phenotypes of all the patients pairwise
+     * in a single pass instead of running one search for each patient. Each pair of patients is scored and saved only
+     * once, in the orientation local matches are stored in. Refreshing only the updated patients still searches the
+     * matches of each updated patient separately.
+     * </p>
+     */
+    @Override
+    public int findMatches(List<String> patientIds, Set<String> serverIds, boolean onlyUpdatedAfterLastRun)
+    {
+        this.refreshLock.lock();
+        try {
+            return refreshMatches(patientIds, serverIds, onlyUpdatedAfterLastRun);
+        } finally {
+            this.refreshLock.unlock();
+        }
+    }
+
+    private int refreshMatches(List<String> patientIds, Set<String> serverIds, boolean onlyUpdatedAfterLastRun)
+    {
+        if (onlyUpdatedAfterLastRun || !serverIds.contains(RUN_INFO_DOCUMENT_LOCALSERVER_ID)) {
+            return super.findMatches(patientIds, serverIds, onlyUpdatedAfterLastRun);
+        }
+
+        this.recordStartMatchesSearch(RUN_INFO_DOCUMENT_LOCALSERVER_ID);
+
+        AtomicInteger numPatientsTestedForMatches = new AtomicInteger();
+        AtomicInteger numErrors = new AtomicInteger();
+        AtomicInteger totalMatchesFound = new AtomicInteger();
+        long startTime = System.currentTimeMillis();
+        try {
+            // solved patients are not searched for matches, but they can still be found by the other patients;
+            // all the pairs involving a patient with a smaller ID are saved with that patient, solved or not
+            Set<String> matchable = new HashSet<>();
+            this.finder.findAllSimilarPatients(patientIds, patient -> !this.patientIsSolved(patient),
+                (patient, localMatches) -> {
+                    numPatientsTestedForMatches.incrementAndGet();
+                    matchable.add(patient.getId());
+                    List<PatientMatch> savedMatches =
+                        this.matchStorageManager.saveLocalMatchesAsReference(localMatches, patient.getId());
+                    if (savedMatches == null) {
+                        numErrors.incrementAndGet();
+                    } else {
+                        totalMatchesFound.addAndGet(savedMatches.size());
+                    }
+                });
+
+            // the patients which are not matchable anymore are left out of the search, but the matches stored with
+            // them as the reference must still be moved to the history
+            for (String patientId : patientIds) {
+                if (!matchable.contains(patientId) && this.matchStorageManager
+                    .saveLocalMatchesAsReference(Collections.<PatientSimilarityView>emptyList(), patientId) == null) {
+                    numErrors.incrementAndGet();
+                }
+            }
+        } catch (Exception ex) {
+            this.logger.error("Error finding local matches: [{}]", ex.getMessage(), ex);
+        }
+
+        this.recordEndMatchesSearch(RUN_INFO_DOCUMENT_LOCALSERVER_ID, numPatientsTestedForMatches.get(),
+            numErrors.get(), totalMatchesFound.get(), System.currentTimeMillis() - startTime);
+
+        return totalMatchesFound.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The local matches of a patient which is not matchable anymore are all moved to the history. While all the local
+     * matches are being refreshed, the matches of a single patient are not updated, and {@code CONFLICT} is returned.
+     * </p>
+     */
     @Override
     protected Response specificFindMatches(Patient patient, String serverId, List<PatientMatch> matchesList)
     {
-        this.logger.debug("Finding local matches for patient {}.", patient.getId());
+        if (!this.refreshLock.tryLock()) {
+            this.logger.debug("Local matches are being refreshed, not updating the matches of patient {}.",
+                patient.getId());
+            return Response.status(Response.Status.CONFLICT).build();
+        }
+        try {
+            this.logger.debug("Finding local matches for patient {}.", patient.getId());
+
+            List<PatientSimilarityView> localMatches = this.isMatchable(patient)
+                ? this.getLocalMatches(patient) : Collections.<PatientSimilarityView>emptyList();
 
-        List<PatientSimilarityView> localMatches = this.finder.findSimilarPatients(patient);
+            List<PatientMatch> savedMatches = this.matchStorageManager.saveLocalMatches(localMatches, patient.getId());
 
-        List<PatientMatch> savedMatches = this.matchStorageManager.saveLocalMatches(localMatches, patient.getId());
+            if (savedMatches != null) {
+                matchesList.addAll(savedMatches);
+            }
 
-        if (savedMatches != null) {
-            matchesList.addAll(savedMatches);
+            return Response.status(Response.Status.OK).build();
+        } finally {
+            this.refreshLock.unlock();
+        }
+    }
+
+    /**
+     * Finds the local matches of a patient. A pair of local patients is matched as soon as one of the patients finds
+     * the other one, so besides the patients found by searching from this patient, the stored matches found from the
+     * other patients are scored again, and are only dropped if their score went down to zero, or if the search wouldn't
+     * return them anymore, e.g. because they are not matchable or were added to the family of the patient.
+     *
+     * @param patient the reference patient
+     * @return the local matches of the patient
+     */
+    private List<PatientSimilarityView> getLocalMatches(Patient patient)
+    {
+        Map<String, PatientSimilarityView> localMatches = new LinkedHashMap<>();
+        for (PatientSimilarityView match : this.finder.findSimilarPatients(patient)) {
+            localMatches.put(match.getId(), match);
         }
 
-        return Response.status(Response.Status.OK).build();
+        List<Patient> storedMatches = new ArrayList<>();
+        for (PatientMatch match : this.matchStorageManager.loadMatches(patient.getId(), 0, 0, 0, false, null, null)) {
+            if (!match.isLocal()) {
+                continue;
+            }
+            String otherId = match.isReference(patient.getId(), "")
+                ? match.getMatchedPatientId() : match.getReferencePatientId();
+            if (!localMatches.containsKey(otherId)) {
+                Patient otherPatient = this.patientRepository.get(otherId);
+                if (otherPatient != null) {
+                    storedMatches.add(otherPatient);
+                }
+            }
+        }
+        if (!storedMatches.isEmpty()) {
+            // apply the checks of the search, since the other patients may not be matchable with this one anymore
+            storedMatches = this.finder.filterCandidates(patient, storedMatches);
+        }
+        if (!storedMatches.isEmpty()) {
+            for (PatientSimilarityView match
+                : this.factory.makeSimilarPatients(storedMatches, patient, MIN_SCORE_TO_CONSIDER_NON_ZERO)) {
+                localMatches.put(match.getId(), match);
+            }
+        }
+        return new ArrayList<>(localMatches.values());
     }
 
     @Override
@@ -32,6 +32,7 @@
 import org.phenotips.data.permissions.Visibility;
 import org.phenotips.data.permissions.internal.EntityAccessManager;
 import org.phenotips.data.similarity.AccessType;
+import org.phenotips.data.similarity.GeneDictionary;
 import org.phenotips.data.similarity.PatientGenotype;
 import org.phenotips.data.similarity.PatientGenotypeManager;
 import org.phenotips.data.similarity.PatientSimilarityView;
@@ -40,9 +41,6 @@
 import org.phenotips.groups.GroupManager;
 import org.phenotips.matchingnotification.match.PatientInMatch;
 import org.phenotips.matchingnotification.match.PatientMatch;
-import org.phenotips.vocabulary.Vocabulary;
-import org.phenotips.vocabulary.VocabularyManager;
-import org.phenotips.vocabulary.VocabularyTerm;
 import org.phenotips.vocabulary.internal.solr.SolrVocabularyTerm;
 
 import org.xwiki.component.manager.ComponentManager;
@@ -80,7 +78,7 @@ public class DefaultPatientInMatch implements PatientInMatch
 
     private static final PatientRepository PATIENT_REPOSITORY;
 
-    private static final VocabularyManager VOCABULARY_MANAGER;
+    private static final GeneDictionary GENE_DICTIONARY;
 
     private static final EntityPermissionsManager PERMISSIONS_MANAGER;
 
@@ -140,7 +138,7 @@ public class DefaultPatientInMatch implements PatientInMatch
     static {
         PatientGenotypeManager pgm = null;
         PatientRepository patientRepository = null;
-        VocabularyManager vm = null;
+        GeneDictionary gd = null;
         EntityPermissionsManager pm = null;
         EntityAccessManager pa = null;
         UserManager um = null;
@@ -152,7 +150,7 @@ public class DefaultPatientInMatch implements PatientInMatch
             ComponentManager ccm = ComponentManagerRegistry.getContextComponentManager();
             pgm = ccm.getInstance(PatientGenotypeManager.class);
             patientRepository = ccm.getInstance(PatientRepository.class);
-            vm = ccm.getInstance(VocabularyManager.class);
+            gd = ccm.getInstance(GeneDictionary.class);
             pm = ccm.getInstance(EntityPermissionsManager.class, "secure");
             pa = ccm.getInstance(EntityAccessManager.class);
             um = ccm.getInstance(UserManager.class);
@@ -165,7 +163,7 @@ public class DefaultPatientInMatch implements PatientInMatch
         }
         PATIENT_GENOTYPE_MANAGER = pgm;
         PATIENT_REPOSITORY = patientRepository;
-        VOCABULARY_MANAGER = vm;
+        GENE_DICTIONARY = gd;
         PERMISSIONS_MANAGER = pm;
         ACCESS_HELPER = pa;
         USER_MANAGER = um;
@@ -484,15 +482,7 @@ private Set<String> getMatchedExomeGenes(Set<String> matchedGenes)
     // convert gene Ensembl IDs to gene symbols
     private Set<String> getGeneSymbols(Set<String> set)
     {
-        Set<String> result = new HashSet<>();
-        Vocabulary hgnc = VOCABULARY_MANAGER.getVocabulary("HGNC");
-        for (String geneEnsemblId : set) {
-            VocabularyTerm term = hgnc.getTerm(geneEnsemblId);
-            String symbol = (term != null) ? (String) term.get("symbol") : null;
-            symbol = StringUtils.isBlank(symbol) ? geneEnsemblId : symbol;
-            result.add(symbol);
-        }
-        return result;
+        return new HashSet<>(GENE_DICTIONARY.getSymbols(set).values());
     }
 
     private Set<String> getModeOfInheritance(PatientData<List<SolrVocabularyTerm>> globalControllers)
@@ -116,6 +116,22 @@ List<PatientMatch> loadMatches(String patientId, double score, double phenScore,
      */
     List<PatientMatch> saveLocalMatches(Collection<? extends PatientSimilarityView> similarityViews, String patientId);
 
+    /**
+     * Saves the local matches of a patient with the patients that have a greater ID. Local matches are stored once for
+     * each pair of patients, with the patient having the smaller ID as the reference, so these are exactly the stored
+     * matches where the patient is the reference. Unlike {@link #saveLocalMatches(Collection, String)}, the stored
+     * matches with patients having a smaller ID are left untouched: they are saved along with the other patient. This
+     * allows a full refresh of the local matches to score and save each pair of patients only once.
+     *
+     * @param similarityViews list of matches as "similarity views" between the local patient and local patients with
+     *        a greater ID
+     * @param patientId local patient ID for whom to save matches
+     * @return null if saving failed, otherwise list of saved PatientMatches
+     * @since 1.3
+     */
+    List<PatientMatch> saveLocalMatchesAsReference(Collection<? extends PatientSimilarityView> similarityViews,
+        String patientId);
+
     /**
      * Saves a list of matches that were found by a remote outgoing/incoming request.
      *
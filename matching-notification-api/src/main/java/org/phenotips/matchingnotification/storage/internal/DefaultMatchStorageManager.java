@@ -21,6 +21,7 @@
 import org.phenotips.groups.Group;
 import org.phenotips.groups.GroupManager;
 import org.phenotips.matchingnotification.match.PatientMatch;
+import org.phenotips.matchingnotification.match.internal.AbstractPatientMatch;
 import org.phenotips.matchingnotification.match.internal.CurrentPatientMatch;
 import org.phenotips.matchingnotification.match.internal.HistoricPatientMatch;
 import org.phenotips.matchingnotification.storage.MatchStorageManager;
@@ -115,7 +116,21 @@ public class DefaultMatchStorageManager implements MatchStorageManager
     public List<PatientMatch> saveLocalMatches(Collection<? extends PatientSimilarityView> similarityViews,
         String patientId)
     {
-        return this.saveMatches(similarityViews, patientId, "", "");
+        return this.saveMatches(similarityViews, patientId, "", "", false);
+    }
+
+    @Override
+    public List<PatientMatch> saveLocalMatchesAsReference(Collection<? extends PatientSimilarityView> similarityViews,
+        String patientId)
+    {
+        for (PatientSimilarityView similarityView : similarityViews) {
+            if (similarityView.getId().compareTo(patientId) <= 0) {
+                this.logger.error("Local match [{}] is not stored with patient [{}] as the reference",
+                    similarityView.getId(), patientId);
+                return null;
+            }
+        }
+        return this.saveMatches(similarityViews, patientId, "", "", true);
     }
 
     @Override
@@ -125,7 +140,7 @@ public List<PatientMatch> saveRemoteMatches(Collection<? extends PatientSimilari
         String referenceServerId = isIncoming ? serverId : "";
         String matchedServerId = isIncoming ? "" : serverId;
 
-        return this.saveMatches(similarityViews, patientId, referenceServerId, matchedServerId);
+        return this.saveMatches(similarityViews, patientId, referenceServerId, matchedServerId, false);
     }
 
     private Map<PatientSimilarityView, PatientMatch>
@@ -142,7 +157,7 @@ public List<PatientMatch> saveRemoteMatches(Collection<? extends PatientSimilari
     }
 
     private List<PatientMatch> saveMatches(Collection<? extends PatientSimilarityView> similarityViews,
-        String patientId, String referenceServerId, String matchedServerId)
+        String patientId, String referenceServerId, String matchedServerId, boolean onlyAsReference)
     {
         this.logger.debug("[debug] saving [{}] matches for patient [{}] @ server [{}]...",
                 similarityViews.size(), patientId, referenceServerId);
@@ -166,6 +181,12 @@ private List<PatientMatch> saveMatches(Collection<? extends PatientSimilarityVie
             // to speed up searches matches are returned as a mapping between otherPatientId and a match
             Map<String, PatientMatch> existingMatchesByMatchedPatient =
                     getExistingMatchesByPatient(patientId, referenceServerId, matchedServerId);
+            if (onlyAsReference) {
+                // local matches are stored with the smaller patient ID as the reference; the matches where this
+                // patient is stored as the matched patient are saved along with the other patient, leave them alone
+                existingMatchesByMatchedPatient.keySet().removeIf(otherId -> otherId.compareTo(patientId) < 0);
+            }
+            boolean local = isLocal(referenceServerId, matchedServerId);
 
             // there are 4 cases:
             //
@@ -195,7 +216,8 @@ private List<PatientMatch> saveMatches(Collection<? extends PatientSimilarityVie
                 if (existingMatchesByMatchedPatient.containsKey(match.getMatchedPatientId())) {
                     PatientMatch existingMatch = existingMatchesByMatchedPatient.get(match.getMatchedPatientId());
 
-                    if (existingMatch.hasSameMatchData(match)) {
+                    if (existingMatch.hasSameMatchData(match)
+                        || local && hasSameStoredMatchData(existingMatch, match)) {
                         // case #1: assign existing match to matchMapping, but no need to do anything with the DB
                         matchMapping.put(entry.getKey(), existingMatch);
                         existingMatchesByMatchedPatient.remove(match.getMatchedPatientId());
@@ -272,6 +294,35 @@ private boolean validateAllMatchesForSingleReferencePatient(
         return true;
     }
 
+    /**
+     * Checks whether a stored local match has the same data as a new match. Local matches are stored with the smaller
+     * patient ID as the reference, so the new match may be in the stored orientation or mirrored; unlike
+     * {@link PatientMatch#hasSameMatchData(PatientMatch)}, the details of each patient are compared with the details
+     * of the same patient in both cases.
+     *
+     * @param existingMatch the stored match
+     * @param match the new match
+     * @return true if both matches link the same patients, with the same data
+     */
+    private boolean hasSameStoredMatchData(PatientMatch existingMatch, PatientMatch match)
+    {
+        if (!((AbstractPatientMatch) existingMatch).sameScore(match)) {
+            return false;
+        }
+        if (existingMatch.equals(match)) {
+            return StringUtils.equals(existingMatch.getReferenceDetails(), match.getReferenceDetails())
+                && StringUtils.equals(existingMatch.getMatchedDetails(), match.getMatchedDetails());
+        }
+        return existingMatch.isEquivalent(match)
+            && StringUtils.equals(existingMatch.getReferenceDetails(), match.getMatchedDetails())
+            && StringUtils.equals(existingMatch.getMatchedDetails(), match.getReferenceDetails());
+    }
+
+    private boolean isLocal(String referenceServerId, String matchedServerId)
+    {
+        return StringUtils.isEmpty(referenceServerId) && StringUtils.isEmpty(matchedServerId);
+    }
+
     private void preserveOriginalMatchMetaInfo(PatientMatch match, PatientMatch existingMatch)
     {
         match.setFoundTimestamp(existingMatch.getFoundTimestamp());
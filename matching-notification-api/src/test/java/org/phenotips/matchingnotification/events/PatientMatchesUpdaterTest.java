@@ -0,0 +1,228 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.matchingnotification.events;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientData;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.events.PatientChangedEvent;
+import org.phenotips.data.events.PatientDeletingEvent;
+import org.phenotips.data.permissions.EntityAccess;
+import org.phenotips.data.permissions.EntityPermissionsManager;
+import org.phenotips.data.permissions.Visibility;
+import org.phenotips.matchingnotification.finder.MatchFinderManager;
+
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import javax.inject.Provider;
+import javax.ws.rs.core.Response;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link PatientMatchesUpdater}.
+ *
+ * @version $Id$
+ */
+public class PatientMatchesUpdaterTest
+{
+    private static final String DELAY_KEY = "phenotips.matching.updateDelay";
+
+    private static final String LOCAL = "local";
+
+    private static final long WAIT = 10000;
+
+    @Rule
+    public final MockitoComponentMockingRule<EventListener> mocker =
+        new MockitoComponentMockingRule<EventListener>(PatientMatchesUpdater.class);
+
+    private ConfigurationSource configuration;
+
+    private PatientRepository repository;
+
+    private MatchFinderManager finderManager;
+
+    private Visibility matchable;
+
+    private Patient first;
+
+    private Patient second;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.configuration = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(this.configuration.getProperty(DELAY_KEY, 60L)).thenReturn(1L);
+
+        this.repository = mock(PatientRepository.class);
+        Provider<PatientRepository> repositoryProvider =
+            this.mocker.getInstance(new DefaultParameterizedType(null, Provider.class, PatientRepository.class));
+        when(repositoryProvider.get()).thenReturn(this.repository);
+        this.finderManager = mock(MatchFinderManager.class);
+        Provider<MatchFinderManager> finderProvider =
+            this.mocker.getInstance(new DefaultParameterizedType(null, Provider.class, MatchFinderManager.class));
+        when(finderProvider.get()).thenReturn(this.finderManager);
+
+        XWikiContext context = mock(XWikiContext.class);
+        when(context.getWikiId()).thenReturn("xwiki");
+        Provider<XWikiContext> contextProvider = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
+        when(contextProvider.get()).thenReturn(context);
+
+        this.matchable = this.mocker.getInstance(Visibility.class, "matchable");
+        this.first = mockPatient("P0000001");
+        this.second = mockPatient("P0000002");
+    }
+
+    @Test
+    public void successiveModificationsAreCoalesced() throws Exception
+    {
+        EventListener listener = this.mocker.getComponentUnderTest();
+        for (int i = 0; i < 3; i++) {
+            modify(listener, this.first);
+        }
+        modify(listener, this.second);
+
+        // updates run one at a time, in the order they were scheduled in
+        verify(this.finderManager, timeout(WAIT)).findMatchesForPatient(this.second, LOCAL);
+        verify(this.finderManager).findMatchesForPatient(this.first, LOCAL);
+    }
+
+    @Test
+    public void deletedPatientsAreNotUpdated() throws Exception
+    {
+        EventListener listener = this.mocker.getComponentUnderTest();
+        modify(listener, this.first);
+        listener.onEvent(new PatientDeletingEvent(), mockDocument(this.first), null);
+        modify(listener, this.second);
+
+        verify(this.finderManager, timeout(WAIT)).findMatchesForPatient(this.second, LOCAL);
+        verify(this.repository, never()).get("P0000001");
+    }
+
+    @Test
+    public void solvedPatientsAreOnlyUpdatedOnceNotMatchableAnymore() throws Exception
+    {
+        // the local match finder moves the matches of patients which are not matchable anymore to the history
+        Visibility hidden = mock(Visibility.class);
+        when(hidden.compareTo(this.matchable)).thenReturn(-1);
+        EntityAccess access = mock(EntityAccess.class);
+        when(access.getVisibility()).thenReturn(hidden);
+        EntityPermissionsManager permissions = this.mocker.getInstance(EntityPermissionsManager.class);
+        when(permissions.getEntityAccess(this.first)).thenReturn(access);
+        solve(this.first);
+        solve(this.second);
+
+        EventListener listener = this.mocker.getComponentUnderTest();
+        modify(listener, this.second);
+        modify(listener, this.first);
+
+        verify(this.finderManager, timeout(WAIT)).findMatchesForPatient(this.first, LOCAL);
+        verify(this.finderManager, never()).findMatchesForPatient(this.second, LOCAL);
+    }
+
+    @Test
+    public void updatesAreRetriedAfterARefreshOfAllTheMatches() throws Exception
+    {
+        when(this.configuration.getProperty(DELAY_KEY, 60L)).thenReturn(0L);
+        Response conflict = mock(Response.class);
+        when(conflict.getStatus()).thenReturn(Response.Status.CONFLICT.getStatusCode());
+        Response ok = mock(Response.class);
+        when(ok.getStatus()).thenReturn(Response.Status.OK.getStatusCode());
+        when(this.finderManager.findMatchesForPatient(this.first, LOCAL)).thenReturn(conflict, ok);
+
+        modify(this.mocker.getComponentUnderTest(), this.first);
+
+        verify(this.finderManager, timeout(WAIT).times(2)).findMatchesForPatient(this.first, LOCAL);
+        Thread.sleep(2000);
+        verify(this.finderManager, times(2)).findMatchesForPatient(this.first, LOCAL);
+    }
+
+    @Test
+    public void patientsModifiedAgainAreUpdatedAgainWithoutDelay() throws Exception
+    {
+        when(this.configuration.getProperty(DELAY_KEY, 60L)).thenReturn(0L);
+        EventListener listener = this.mocker.getComponentUnderTest();
+
+        for (int i = 1; i <= 3; i++) {
+            modify(listener, this.first);
+            verify(this.finderManager, timeout(WAIT).times(i)).findMatchesForPatient(this.first, LOCAL);
+        }
+    }
+
+    @Test
+    public void negativeDelayDisablesTheUpdates() throws Exception
+    {
+        when(this.configuration.getProperty(DELAY_KEY, 60L)).thenReturn(-1L);
+
+        modify(this.mocker.getComponentUnderTest(), this.first);
+
+        verifyZeroInteractions(this.repository, this.finderManager);
+    }
+
+    private void modify(EventListener listener, Patient patient)
+    {
+        listener.onEvent(new PatientChangedEvent(), mockDocument(patient), null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void solve(Patient patient)
+    {
+        PatientData<String> solved = mock(PatientData.class);
+        when(solved.size()).thenReturn(1);
+        when(solved.get("solved")).thenReturn("1");
+        doReturn(solved).when(patient).getData("solved");
+    }
+
+    private Patient mockPatient(String id) throws Exception
+    {
+        Patient patient = mock(Patient.class);
+        when(patient.getId()).thenReturn(id);
+        when(this.repository.get(id)).thenReturn(patient);
+        EntityAccess access = mock(EntityAccess.class);
+        when(access.getVisibility()).thenReturn(this.matchable);
+        EntityPermissionsManager permissions = this.mocker.getInstance(EntityPermissionsManager.class);
+        when(permissions.getEntityAccess(patient)).thenReturn(access);
+        return patient;
+    }
+
+    private XWikiDocument mockDocument(Patient patient)
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        DocumentReference reference = new DocumentReference("xwiki", "data", patient.getId());
+        when(document.getDocumentReference()).thenReturn(reference);
+        return document;
+    }
+}
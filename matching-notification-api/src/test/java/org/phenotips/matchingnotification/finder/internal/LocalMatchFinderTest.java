@@ -0,0 +1,253 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.matchingnotification.finder.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.permissions.EntityAccess;
+import org.phenotips.data.permissions.EntityPermissionsManager;
+import org.phenotips.data.permissions.Visibility;
+import org.phenotips.data.similarity.PatientSimilarityView;
+import org.phenotips.data.similarity.PatientSimilarityViewFactory;
+import org.phenotips.matchingnotification.finder.MatchFinder;
+import org.phenotips.matchingnotification.match.PatientMatch;
+import org.phenotips.matchingnotification.storage.MatchStorageManager;
+import org.phenotips.similarity.SimilarPatientsFinder;
+
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.ext.RuntimeDelegate;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Matchers;
+
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link LocalMatchFinder}.
+ *
+ * @version $Id$
+ */
+public class LocalMatchFinderTest
+{
+    private static final String LOCAL = "local";
+
+    private static final double MIN_SCORE = 0.001;
+
+    @Rule
+    public final MockitoComponentMockingRule<MatchFinder> mocker =
+        new MockitoComponentMockingRule<MatchFinder>(LocalMatchFinder.class);
+
+    private Patient reference;
+
+    private Patient found;
+
+    private Patient stored;
+
+    private Patient relative;
+
+    private PatientSimilarityView foundView;
+
+    private PatientSimilarityView storedView;
+
+    private SimilarPatientsFinder finder;
+
+    private PatientSimilarityViewFactory factory;
+
+    private MatchStorageManager storage;
+
+    private EntityPermissionsManager permissions;
+
+    @BeforeClass
+    public static void setUpResponses()
+    {
+        // there is no JAX-RS implementation in the tests, the built responses only hold their status
+        ResponseBuilder builder = mock(ResponseBuilder.class);
+        AtomicInteger status = new AtomicInteger();
+        when(builder.status(Matchers.any(Response.Status.class))).thenAnswer(invocation -> {
+            status.set(((Response.Status) invocation.getArguments()[0]).getStatusCode());
+            return builder;
+        });
+        when(builder.build()).thenAnswer(invocation -> {
+            Response response = mock(Response.class);
+            when(response.getStatus()).thenReturn(status.get());
+            return response;
+        });
+        RuntimeDelegate delegate = mock(RuntimeDelegate.class);
+        when(delegate.createResponseBuilder()).thenReturn(builder);
+        RuntimeDelegate.setInstance(delegate);
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        PatientRepository repository = this.mocker.getInstance(PatientRepository.class);
+        this.reference = mockPatient("P0000002", repository);
+        this.found = mockPatient("P0000003", repository);
+        this.stored = mockPatient("P0000001", repository);
+        this.relative = mockPatient("P0000004", repository);
+        // all the patients are matchable
+        this.permissions = this.mocker.getInstance(EntityPermissionsManager.class, "secure");
+        EntityAccess access = mock(EntityAccess.class);
+        when(access.getVisibility()).thenReturn(mock(Visibility.class));
+        when(this.permissions.getEntityAccess(Matchers.any(Patient.class))).thenReturn(access);
+        this.foundView = mockView(this.found);
+        this.storedView = mockView(this.stored);
+
+        this.finder = this.mocker.getInstance(SimilarPatientsFinder.class);
+        when(this.finder.findSimilarPatients(this.reference)).thenReturn(Collections.singletonList(this.foundView));
+        this.factory = this.mocker.getInstance(PatientSimilarityViewFactory.class, "restricted");
+
+        // the local matches are stored once, with the patient having the smaller identifier as the reference
+        this.storage = this.mocker.getInstance(MatchStorageManager.class);
+        List<PatientMatch> matches = Arrays.asList(mockMatch(this.stored, this.reference),
+            mockMatch(this.reference, this.found), mockMatch(this.reference, this.relative), mock(PatientMatch.class));
+        when(this.storage.loadMatches("P0000002", 0, 0, 0, false, null, null)).thenReturn(matches);
+    }
+
+    @Test
+    public void storedMatchesFoundByTheOtherPatientAreScoredAgain() throws Exception
+    {
+        List<Patient> accepted = Collections.singletonList(this.stored);
+        when(this.finder.filterCandidates(this.reference, Arrays.asList(this.stored, this.relative)))
+            .thenReturn(accepted);
+        when(this.factory.makeSimilarPatients(accepted, this.reference, MIN_SCORE))
+            .thenReturn(Collections.singletonList(this.storedView));
+
+        this.mocker.getComponentUnderTest().findMatches(this.reference, LOCAL);
+
+        verify(this.storage).saveLocalMatches(Arrays.asList(this.foundView, this.storedView), "P0000002");
+    }
+
+    @Test
+    public void storedMatchesRejectedByTheFinderAreNotScored() throws Exception
+    {
+        when(this.finder.filterCandidates(this.reference, Arrays.asList(this.stored, this.relative)))
+            .thenReturn(Collections.<Patient>emptyList());
+
+        this.mocker.getComponentUnderTest().findMatches(this.reference, LOCAL);
+
+        verify(this.factory, never()).makeSimilarPatients(Matchers.anyCollectionOf(Patient.class),
+            Matchers.any(Patient.class), Matchers.anyDouble());
+        verify(this.storage).saveLocalMatches(Collections.singletonList(this.foundView), "P0000002");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void fullRefreshMovesTheMatchesOfPatientsWhichAreNotMatchableAnymoreToTheHistory() throws Exception
+    {
+        // P0000001 is not matchable anymore, so the search leaves it out
+        List<String> ids = Arrays.asList("P0000001", "P0000002", "P0000003");
+        doAnswer(invocation -> {
+            BiConsumer<Patient, List<PatientSimilarityView>> consumer =
+                (BiConsumer<Patient, List<PatientSimilarityView>>) invocation.getArguments()[2];
+            consumer.accept(this.reference, Collections.singletonList(this.foundView));
+            consumer.accept(this.found, Collections.<PatientSimilarityView>emptyList());
+            return null;
+        }).when(this.finder).findAllSimilarPatients(Matchers.eq(ids), Matchers.any(Predicate.class),
+            Matchers.any(BiConsumer.class));
+
+        this.mocker.getComponentUnderTest().findMatches(ids, Collections.singleton(LOCAL), false);
+
+        verify(this.storage).saveLocalMatchesAsReference(Collections.singletonList(this.foundView), "P0000002");
+        verify(this.storage).saveLocalMatchesAsReference(Collections.<PatientSimilarityView>emptyList(), "P0000003");
+        // the match stored between P0000001 and P0000002 is moved to the history
+        verify(this.storage).saveLocalMatchesAsReference(Collections.<PatientSimilarityView>emptyList(), "P0000001");
+    }
+
+    @Test
+    public void patientsWhichAreNotMatchableAnymoreLoseTheirLocalMatches() throws Exception
+    {
+        Visibility matchable = this.mocker.getInstance(Visibility.class, "matchable");
+        Visibility hidden = mock(Visibility.class);
+        when(hidden.compareTo(matchable)).thenReturn(-1);
+        EntityAccess access = mock(EntityAccess.class);
+        when(access.getVisibility()).thenReturn(hidden);
+        when(this.permissions.getEntityAccess(this.reference)).thenReturn(access);
+
+        this.mocker.getComponentUnderTest().findMatches(this.reference, LOCAL);
+
+        verify(this.finder, never()).findSimilarPatients(this.reference);
+        verify(this.storage).saveLocalMatches(Collections.<PatientSimilarityView>emptyList(), "P0000002");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void patientsAreNotUpdatedDuringAFullRefresh() throws Exception
+    {
+        MatchFinder localFinder = this.mocker.getComponentUnderTest();
+        List<Response> responses = new ArrayList<>();
+        doAnswer(invocation -> {
+            // the full refresh runs in another thread than the update of a patient
+            responses.add(CompletableFuture.supplyAsync(() -> localFinder.findMatches(this.reference, LOCAL)).get());
+            return null;
+        }).when(this.finder).findAllSimilarPatients(Matchers.anyCollectionOf(String.class),
+            Matchers.any(Predicate.class), Matchers.any(BiConsumer.class));
+
+        localFinder.findMatches(Collections.<String>emptyList(), Collections.singleton(LOCAL), false);
+
+        Assert.assertEquals(Response.Status.CONFLICT.getStatusCode(), responses.get(0).getStatus());
+        verify(this.storage, never()).saveLocalMatches(Matchers.anyCollectionOf(PatientSimilarityView.class),
+            Matchers.anyString());
+    }
+
+    private Patient mockPatient(String id, PatientRepository repository)
+    {
+        Patient patient = mock(Patient.class);
+        when(patient.getId()).thenReturn(id);
+        when(repository.get(id)).thenReturn(patient);
+        return patient;
+    }
+
+    private PatientSimilarityView mockView(Patient patient)
+    {
+        PatientSimilarityView view = mock(PatientSimilarityView.class);
+        String id = patient.getId();
+        when(view.getId()).thenReturn(id);
+        return view;
+    }
+
+    private PatientMatch mockMatch(Patient referencePatient, Patient matchedPatient)
+    {
+        PatientMatch match = mock(PatientMatch.class);
+        when(match.isLocal()).thenReturn(true);
+        when(match.getReferencePatientId()).thenReturn(referencePatient.getId());
+        when(match.getMatchedPatientId()).thenReturn(matchedPatient.getId());
+        when(match.isReference(referencePatient.getId(), "")).thenReturn(true);
+        return match;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Resolves gene identifiers without querying the HGNC vocabulary for each gene. Genes can be identified by their
+ * approved symbol, a previous or alias symbol, their Ensembl gene ID, or their HGNC ID, and each method accepts any of
+ * them. Genes unknown to the dictionary are returned unchanged, so that the data entered for a patient is never lost.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Unstable
+@Role
+public interface GeneDictionary
+{
+    /**
+     * Get the approved symbol of a gene.
+     *
+     * @param gene any identifier of the gene, e.g. {@code ENSG00000080603}
+     * @return the approved symbol of the gene, e.g. {@code SRCAP}, or {@code gene} itself if the gene is unknown
+     */
+    String getSymbol(String gene);
+
+    /**
+     * Get the Ensembl ID of a gene.
+     *
+     * @param gene any identifier of the gene, e.g. {@code SRCAP}
+     * @return the Ensembl gene ID, e.g. {@code ENSG00000080603}, or {@code gene} itself if the gene is unknown or has
+     *         no Ensembl ID
+     */
+    String getEnsemblId(String gene);
+
+    /**
+     * Get the HGNC ID of a gene.
+     *
+     * @param gene any identifier of the gene, e.g. {@code SRCAP}
+     * @return the HGNC ID of the gene, e.g. {@code HGNC:16974}, or {@code null} if the gene is unknown
+     */
+    String getId(String gene);
+
+    /**
+     * Get the approved symbols of several genes at once.
+     *
+     * @param genes identifiers of genes, of any kind
+     * @return the approved symbol of each gene, keyed by the identifier it was resolved from, in iteration order;
+     *         unknown genes are mapped to themselves
+     */
+    Map<String, String> getSymbols(Collection<String> genes);
+
+    /**
+     * Get the Ensembl IDs of several genes at once.
+     *
+     * @param genes identifiers of genes, of any kind
+     * @return the Ensembl ID of each gene, keyed by the identifier it was resolved from, in iteration order; unknown
+     *         genes are mapped to themselves
+     */
+    Map<String, String> getEnsemblIds(Collection<String> genes);
+}
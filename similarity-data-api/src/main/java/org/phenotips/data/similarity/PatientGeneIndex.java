@@ -0,0 +1,62 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity;
+
+import org.phenotips.data.Patient;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+import java.util.List;
+
+/**
+ * In-memory index of the genes of all the local patients, used for finding the patients sharing genes with a reference
+ * patient without querying the patients index. Genes listed as solved or candidate are always indexed, and the top
+ * genes of the patient's exome may also be indexed, depending on the configuration.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Unstable
+@Role
+public interface PatientGeneIndex
+{
+    /**
+     * Find the indexed patients that may have a gene match with a reference patient: the patients listing one of the
+     * solved or candidate genes of the reference patient, and, if exome genes are indexed, the patients whose exome
+     * highlights one of these genes, or listing one of the top genes of the reference exome.
+     *
+     * @param reference the reference patient, which is never part of the result
+     * @return the identifiers of the matched patients, in no particular order; may be empty
+     */
+    List<String> findMatches(Patient reference);
+
+    /**
+     * Add a patient to the index, or replace its indexed genes if it is already indexed.
+     *
+     * @param patient the patient to index
+     */
+    void index(Patient patient);
+
+    /**
+     * Remove a patient from the index.
+     *
+     * @param id the document ID of the patient to remove
+     */
+    void remove(String id);
+}
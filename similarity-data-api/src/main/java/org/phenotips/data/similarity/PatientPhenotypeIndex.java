@@ -0,0 +1,67 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity;
+
+import org.phenotips.data.Patient;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * In-memory index of the phenotypes of all the local patients, used for finding the patients most similar to a
+ * reference patient without scoring the whole cohort. The similarity used for ranking is the phenotype score of the
+ * {@link PatientPhenotypeProfile profiles}, i.e. the information content of the shared implied terms divided by the
+ * information content of all the implied terms, not adjusted for shared disorders.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Unstable
+@Role
+public interface PatientPhenotypeIndex
+{
+    /**
+     * Find the indexed patients with the best phenotype score against a reference patient. The result is exact: no
+     * accepted patient outside the result has a strictly better score than a patient in the result.
+     *
+     * @param reference the reference patient, which is never part of the result
+     * @param maxResults the maximum number of patients to return, {@code 0} or less to return all the patients with a
+     *            non-zero score
+     * @param filter called for patients which would enter the result, only the patients it accepts are returned;
+     *            {@code null} to accept all the patients
+     * @return the identifiers of the matched patients, in decreasing order of score; may be empty
+     */
+    List<String> findTopMatches(Patient reference, int maxResults, Predicate<String> filter);
+
+    /**
+     * Add a patient to the index, or replace its indexed phenotype if it is already indexed.
+     *
+     * @param patient the patient to index
+     */
+    void index(Patient patient);
+
+    /**
+     * Remove a patient from the index.
+     *
+     * @param id the document ID of the patient to remove
+     */
+    void remove(String id);
+}
@@ -0,0 +1,49 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+import java.util.List;
+
+/**
+ * Computes the phenotype similarity between all the pairs of a set of {@link PatientPhenotypeProfile profiles} in one
+ * pass, for batch jobs that need the similar patients of every patient in the cohort. Since the similarity is
+ * symmetric, each unordered pair is only scored once, and pairs that cannot reach the requested threshold are skipped
+ * without being scored.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Unstable
+@Role
+public interface PatientPhenotypeMatrix
+{
+    /**
+     * Find all the pairs of profiles with a high enough phenotype similarity, as returned by
+     * {@link PatientPhenotypeProfile#getSimilarity(PatientPhenotypeProfile)}.
+     *
+     * @param profiles the profiles to compare, {@code null} items are ignored
+     * @param minSimilarity only pairs with a similarity strictly above this threshold are returned, must not be
+     *            negative
+     * @return one row for each of the {@code profiles}, listing the indexes of the other profiles similar to it in
+     *         increasing order; {@code j} is listed in row {@code i} iff {@code i} is listed in row {@code j}
+     */
+    int[][] findSimilarPairs(List<PatientPhenotypeProfile> profiles, double minSimilarity);
+}
@@ -0,0 +1,114 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity;
+
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.stability.Unstable;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * The phenotype of a patient, pre-processed for similarity scoring: the vocabulary terms resolved from the present
+ * features, and the closure of all the terms they imply, stored as a bitset over the term ordinals used for scoring.
+ * Profiles are immutable, and can be shared by all the similarity views involving the same patient.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Unstable
+public interface PatientPhenotypeProfile
+{
+    /**
+     * Return the identifier of the patient this profile was computed for.
+     *
+     * @return the patient identifier, may be {@code null} for patients not stored locally
+     */
+    String getPatientId();
+
+    /**
+     * Return whether the patient has any present feature that could be resolved to a vocabulary term.
+     *
+     * @return {@code true} iff there are no present terms
+     */
+    boolean isEmpty();
+
+    /**
+     * Return the vocabulary terms corresponding to the present features of the patient.
+     *
+     * @return a (potentially empty) unmodifiable collection of terms
+     */
+    Collection<VocabularyTerm> getPresentTerms();
+
+    /**
+     * Return the identifiers of the present terms and of all their ancestors.
+     *
+     * @return a (potentially empty) unmodifiable set of term identifiers
+     */
+    Set<String> getAncestorIds();
+
+    /**
+     * Return the ordinals of the present terms that have a known information content.
+     *
+     * @return a (potentially empty) array of distinct term ordinals, in increasing order; must not be modified
+     */
+    int[] getTermOrdinals();
+
+    /**
+     * Return the bitset of the terms implied by the present terms that have a known information content, where bit
+     * {@code i} is set iff the term with ordinal {@code i} is implied.
+     *
+     * @return the ancestor closure; must not be modified
+     */
+    long[] getAncestorClosure();
+
+    /**
+     * Return the total information content of the terms in the {@link #getAncestorClosure() ancestor closure}.
+     *
+     * @return the total information content, {@code 0} for an empty profile
+     */
+    double getTotalIC();
+
+    /**
+     * Return the information content of the terms implied by both this profile and another one.
+     *
+     * @param other the profile to compare against, must not be {@code null}
+     * @return the information content of the shared implied terms
+     */
+    double getCommonIC(PatientPhenotypeProfile other);
+
+    /**
+     * Return the information content of the terms implied by either this profile or another one.
+     *
+     * @param other the profile to compare against, must not be {@code null}
+     * @return the information content of all the implied terms
+     */
+    double getUnionIC(PatientPhenotypeProfile other);
+
+    /**
+     * Return the phenotype similarity between this profile and another one, i.e. the information content of the terms
+     * implied by both profiles divided by the information content of the terms implied by either of them, i.e.
+     * {@link #getCommonIC(PatientPhenotypeProfile)} divided by {@link #getUnionIC(PatientPhenotypeProfile)}.
+     *
+     * @param other the profile to compare against, must not be {@code null}
+     * @return the similarity, a number between {@code 0} and {@code 1}; {@code NaN} if no implied term has a positive
+     *         information content, for example when both profiles are empty
+     */
+    double getSimilarity(PatientPhenotypeProfile other);
+}
@@ -0,0 +1,64 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity;
+
+import org.phenotips.data.Patient;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+/**
+ * This class allows access to the {@link PatientPhenotypeProfile} of a given {@link Patient}. Profiles are cached per
+ * patient and version of the patient record, so the same profile is reused until the patient is modified.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Unstable
+@Role
+public interface PatientPhenotypeProfileManager
+{
+    /**
+     * Get the (potentially-cached) {@link PatientPhenotypeProfile} for the given {@link Patient}.
+     *
+     * @param patient the {@link Patient} for which the profile will be retrieved
+     * @return the corresponding profile, or {@code null} if the patient is {@code null}
+     */
+    PatientPhenotypeProfile getProfile(Patient patient);
+
+    /**
+     * Return the information content of a term, as used for scoring profiles.
+     *
+     * @param ordinal the ordinal of the term, as found in {@link PatientPhenotypeProfile#getTermOrdinals()} or in the
+     *            bits of {@link PatientPhenotypeProfile#getAncestorClosure()}
+     * @return the information content of the term, {@code 0} if the ordinal is not valid
+     */
+    double getTermIC(int ordinal);
+
+    /**
+     * Clear all cached profiles.
+     */
+    void clearCache();
+
+    /**
+     * Clear the cached profile of a particular patient.
+     *
+     * @param id the document ID of the patient to remove from the cache
+     */
+    void clearPatientCache(String id);
+}
@@ -21,6 +21,9 @@
 
 import org.xwiki.component.annotation.Role;
 
+import java.util.Collection;
+import java.util.List;
+
 /**
  * Creates a custom view of the similarities between two patients, a reference patients and a patient matching the
  * reference patient's phenotypic profile. The resulting object is an extended version of the {@link Patient base
@@ -44,6 +47,39 @@
      */
     PatientSimilarityView makeSimilarPatient(Patient match, Patient reference) throws IllegalArgumentException;
 
+    /**
+     * Instantiates {@link PatientSimilarityView}s specific to this factory, linking each of the matched patients to the
+     * same reference patient. This is equivalent to calling {@link #makeSimilarPatient(Patient, Patient)} for each
+     * matched patient and discarding the views with a low score, but the reference patient is only processed once, and
+     * no view is created for the discarded patients.
+     *
+     * @param matches the candidate matched patients, {@code null} items are ignored
+     * @param reference the patient used as the reference against which to compare
+     * @param minScore only patients with a {@link PatientSimilarityView#getScore() score} strictly above this
+     *            threshold are returned
+     * @return the extended patients with a high enough score, in decreasing order of score; may be empty
+     * @throws IllegalArgumentException if the candidates or the reference patient are {@code null}
+     * @since 1.3
+     */
+    List<PatientSimilarityView> makeSimilarPatients(Collection<? extends Patient> matches, Patient reference,
+        double minScore) throws IllegalArgumentException;
+
+    /**
+     * Same as {@link #makeSimilarPatients(Collection, Patient, double)}, but only the views of the best scoring
+     * patients are created and returned.
+     *
+     * @param matches the candidate matched patients, {@code null} items are ignored
+     * @param reference the patient used as the reference against which to compare
+     * @param minScore only patients with a {@link PatientSimilarityView#getScore() score} strictly above this
+     *            threshold are returned
+     * @param maxResults the maximum number of patients to return, {@code 0} or less for no limit
+     * @return at most {@code maxResults} extended patients with a high enough score, in decreasing order of score
+     * @throws IllegalArgumentException if the candidates or the reference patient are {@code null}
+     * @since 1.3
+     */
+    List<PatientSimilarityView> makeSimilarPatients(Collection<? extends Patient> matches, Patient reference,
+        double minScore, int maxResults) throws IllegalArgumentException;
+
     /**
      * Converts a different type of {@link PatientSimilarityView} to the type managed by this factory. Useful for
      * converting between restricted and open patient similarity views.
@@ -0,0 +1,138 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.similarity.PatientPhenotypeIndex;
+import org.phenotips.data.similarity.PatientPhenotypeProfile;
+import org.phenotips.data.similarity.PatientPhenotypeProfileManager;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Predicate;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+
+import org.slf4j.Logger;
+
+/**
+ * Base class for implementations of the {@link PatientPhenotypeIndex} backed by a {@link PatientTermIndex}. The index
+ * is filled with all the local patients the first time it is queried, and is then kept up to date by the
+ * {@link PatientSimilarityCacheInvalidator} as patients are saved and deleted.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public abstract class AbstractPatientPhenotypeIndex implements PatientPhenotypeIndex
+{
+    /** Logging helper object. */
+    @Inject
+    protected Logger logger;
+
+    /** Provides the phenotype profiles of patients, and the information content of terms. */
+    @Inject
+    protected PatientPhenotypeProfileManager profileManager;
+
+    /** Provides access to all the local patients, lazily since it is only needed for building the index. */
+    @Inject
+    private Provider<PatientRepository> patientRepository;
+
+    /** The index, {@code null} until it is first needed; updates are applied to it while it is being filled. */
+    private volatile PatientTermIndex index;
+
+    /** Whether the index was filled with all the local patients. */
+    private volatile boolean built;
+
+    @Override
+    public List<String> findTopMatches(Patient reference, int maxResults, Predicate<String> filter)
+    {
+        PatientPhenotypeProfile profile = this.profileManager.getProfile(reference);
+        if (profile == null || profile.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // Temporary in-memory patients, e.g. remote patients, may share their identifier with a local patient
+        String excludedId = reference.getDocumentReference() == null ? null : reference.getId();
+        return getIndex().findTopMatches(PhenotypeInvertedIndex.toOrdinals(profile.getAncestorClosure()),
+            profile.getTotalIC(), excludedId, maxResults, filter);
+    }
+
+    @Override
+    public void index(Patient patient)
+    {
+        // Until the index is first needed there is nothing to update, building it will pick up the latest version
+        PatientTermIndex current = this.index;
+        if (current != null && patient != null) {
+            add(current, patient);
+        }
+    }
+
+    @Override
+    public void remove(String id)
+    {
+        PatientTermIndex current = this.index;
+        if (current != null) {
+            current.remove(id);
+        }
+    }
+
+    /**
+     * Create the empty index that will hold the closures of all the local patients.
+     *
+     * @return a new index
+     */
+    protected abstract PatientTermIndex createIndex();
+
+    private PatientTermIndex getIndex()
+    {
+        if (!this.built) {
+            synchronized (this) {
+                if (!this.built) {
+                    buildIndex();
+                    this.built = true;
+                }
+            }
+        }
+        return this.index;
+    }
+
+    private void buildIndex()
+    {
+        this.logger.info("Indexing the phenotypes of all patients...");
+        // Published before being filled, so that patients saved or deleted meanwhile are not missed
+        PatientTermIndex result = createIndex();
+        this.index = result;
+        Iterator<Patient> patients = this.patientRepository.get().getAll();
+        while (patients.hasNext()) {
+            Patient patient = patients.next();
+            if (patient != null) {
+                add(result, patient);
+            }
+        }
+        this.logger.info("  ... indexed {} patients with phenotypes.", result.size());
+    }
+
+    private void add(PatientTermIndex target, Patient patient)
+    {
+        PatientPhenotypeProfile profile = this.profileManager.getProfile(patient);
+        target.put(patient.getId(), PhenotypeInvertedIndex.toOrdinals(profile.getAncestorClosure()),
+            profile.getTotalIC());
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Computes the information content of ancestor closures of vocabulary terms using bitsets. The set of terms implied by
+ * a patient's phenotype (the present terms together with all their ancestors) is stored as a {@code long[]} where bit
+ * {@code i} is set iff the term with ordinal {@code i} in the {@link TermICTable} is implied. Terms without a known
+ * information content would only contribute {@code 0} to the sums, so they are left out of the closures. All the sums
+ * are delegated to a {@link ClosureKernel}, which is the single code path used for scoring closures.
+ * <p>
+ * The terms of a closure are added up in ordinal order, while the set-based scoring it replaces added them up in hash
+ * set iteration order. Floating point addition is not associative, so sums and scores may differ from the set-based
+ * ones in the last bits; they are otherwise the same, and stable for a given IC table.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class AncestorClosureEngine
+{
+    /** Number of bits needed to address a bit inside a {@code long} word. */
+    private static final int ADDRESS_BITS_PER_WORD = 6;
+
+    /** The information content of each term, indexed by ordinal. */
+    private final TermICTable termICs;
+
+    /** Adds up the information content of closures. */
+    private final ClosureKernel kernel;
+
+    /** The number of {@code long} words needed to store one closure. */
+    private final int words;
+
+    /**
+     * Simple constructor passing the pre-computed information content of each term. Closures are scored with a
+     * {@link ScalarClosureKernel}.
+     *
+     * @param termICs the information content of each term, must not be {@code null}
+     */
+    public AncestorClosureEngine(TermICTable termICs)
+    {
+        this(termICs, new ScalarClosureKernel(termICs));
+    }
+
+    /**
+     * Constructor passing the pre-computed information content of each term, and the kernel used for scoring.
+     *
+     * @param termICs the information content of each term, must not be {@code null}
+     * @param kernel the kernel used for adding up the information content of closures, built for the same terms
+     */
+    public AncestorClosureEngine(TermICTable termICs, ClosureKernel kernel)
+    {
+        this.termICs = termICs;
+        this.kernel = kernel;
+        this.words = wordIndex(termICs.size() - 1) + 1;
+    }
+
+    /**
+     * Returns the table of term information content used for scoring.
+     *
+     * @return the term information content table
+     */
+    public TermICTable getTermICs()
+    {
+        return this.termICs;
+    }
+
+    /**
+     * Computes the ancestor closure of a collection of terms, i.e. the terms themselves and all their ancestors.
+     *
+     * @param terms the terms present in a patient, may be empty
+     * @return a bitset with one bit set for each implied term having a known information content
+     */
+    public long[] getClosure(Collection<VocabularyTerm> terms)
+    {
+        long[] closure = new long[this.words];
+        for (VocabularyTerm term : terms) {
+            for (VocabularyTerm ancestor : term.getAncestorsAndSelf()) {
+                int ordinal = this.termICs.getOrdinal(ancestor.getId());
+                if (ordinal != TermICTable.UNKNOWN) {
+                    closure[wordIndex(ordinal)] |= 1L << ordinal;
+                }
+            }
+        }
+        return closure;
+    }
+
+    /**
+     * Computes the closure corresponding to a set of term identifiers, i.e. the bitset of the terms from the set that
+     * have a known information content. Unlike {@link #getClosure(Collection)}, ancestors are not added.
+     *
+     * @param ids identifiers of terms, usually already including all their ancestors
+     * @return a bitset with one bit set for each term having a known information content
+     */
+    public long[] getClosureOfIds(Collection<String> ids)
+    {
+        long[] closure = new long[this.words];
+        for (String id : ids) {
+            int ordinal = this.termICs.getOrdinal(id);
+            if (ordinal != TermICTable.UNKNOWN) {
+                closure[wordIndex(ordinal)] |= 1L << ordinal;
+            }
+        }
+        return closure;
+    }
+
+    /**
+     * Returns the ordinals of the terms that have a known information content.
+     *
+     * @param terms the terms to look up
+     * @return the distinct ordinals of the known terms, in increasing order
+     */
+    public int[] getOrdinals(Collection<VocabularyTerm> terms)
+    {
+        int[] ordinals = new int[terms.size()];
+        int count = 0;
+        for (VocabularyTerm term : terms) {
+            int ordinal = this.termICs.getOrdinal(term.getId());
+            if (ordinal != TermICTable.UNKNOWN) {
+                ordinals[count++] = ordinal;
+            }
+        }
+        Arrays.sort(ordinals, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || ordinals[distinct - 1] != ordinals[i]) {
+                ordinals[distinct++] = ordinals[i];
+            }
+        }
+        return Arrays.copyOf(ordinals, distinct);
+    }
+
+    /**
+     * Returns the total information content of the terms in a closure.
+     *
+     * @param closure a closure computed by {@link #getClosure(Collection)}
+     * @return the sum of the information content of all the terms in the closure
+     */
+    public double getTotalIC(long[] closure)
+    {
+        return this.kernel.sum(closure);
+    }
+
+    /**
+     * Returns the information content of the terms shared by two closures.
+     *
+     * @param a a closure computed by {@link #getClosure(Collection)}
+     * @param b another closure computed by {@link #getClosure(Collection)}
+     * @return the sum of the information content of the terms present in both closures
+     */
+    public double getCommonIC(long[] a, long[] b)
+    {
+        return this.kernel.sumAnd(a, b);
+    }
+
+    /**
+     * Returns the information content of the terms found in either of two closures.
+     *
+     * @param a a closure computed by {@link #getClosure(Collection)}
+     * @param b another closure computed by {@link #getClosure(Collection)}
+     * @return the sum of the information content of the terms present in at least one of the closures
+     */
+    public double getUnionIC(long[] a, long[] b)
+    {
+        return this.kernel.sumOr(a, b);
+    }
+
+    private static int wordIndex(int ordinal)
+    {
+        return ordinal >> ADDRESS_BITS_PER_WORD;
+    }
+}
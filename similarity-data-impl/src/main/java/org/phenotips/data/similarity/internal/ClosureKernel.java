@@ -0,0 +1,55 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+/**
+ * Adds up the information content of the terms set in ancestor closure bitsets, where bit {@code i} stands for the term
+ * with ordinal {@code i} in a {@link TermICTable}. This is the inner loop of all phenotype similarity computations;
+ * implementations may use platform specific tricks for speed, but must all return the same sums up to rounding errors.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public interface ClosureKernel
+{
+    /**
+     * Returns the total information content of the terms in a closure.
+     *
+     * @param closure the closure bitset
+     * @return the sum of the information content of the set terms
+     */
+    double sum(long[] closure);
+
+    /**
+     * Returns the information content of the terms set in both closures.
+     *
+     * @param a a closure bitset
+     * @param b another closure bitset, with the same length
+     * @return the sum of the information content of the terms set in both closures
+     */
+    double sumAnd(long[] a, long[] b);
+
+    /**
+     * Returns the information content of the terms set in either closure.
+     *
+     * @param a a closure bitset
+     * @param b another closure bitset, with the same length
+     * @return the sum of the information content of the terms set in at least one of the closures
+     */
+    double sumOr(long[] a, long[] b);
+}
@@ -0,0 +1,237 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import org.phenotips.data.Gene;
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientData;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.similarity.Exome;
+import org.phenotips.data.similarity.ExomeManager;
+import org.phenotips.data.similarity.GeneDictionary;
+import org.phenotips.data.similarity.PatientGeneIndex;
+import org.phenotips.data.similarity.genotype.ExomiserExomeManager;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+/**
+ * Default implementation of the {@link PatientGeneIndex}, backed by two {@link GenePostingIndex} instances: one for
+ * the solved and candidate genes of patients, and one for the top genes of their exomes. Genes are indexed by their
+ * approved HGNC symbol, so that a gene entered by symbol matches the same gene entered by Ensembl ID. The index is
+ * filled with all the local patients the first time it is queried, and is then kept up to date by the
+ * {@link PatientSimilarityCacheInvalidator} as patients are saved and deleted, and as exomes are loaded.
+ * <p>
+ * Exome genes are not indexed by default; {@code phenotips.similarity.geneIndex.exomeGenes} in
+ * {@code xwiki.properties} sets how many of the top genes of each exome are indexed. Since only genes listed as solved
+ * or candidate in at least one of the two patients are scored, exome genes are only matched against listed genes.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component
+@Singleton
+public class DefaultPatientGeneIndex implements PatientGeneIndex, Initializable
+{
+    /** The configuration key holding the number of top exome genes to index for each patient. */
+    private static final String EXOME_GENES_KEY = "phenotips.similarity.geneIndex.exomeGenes";
+
+    private static final String STATUS_SOLVED = "solved";
+
+    private static final String STATUS_CANDIDATE = "candidate";
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
+    /** Normalizes gene identifiers to symbols. */
+    @Inject
+    private GeneDictionary geneDictionary;
+
+    /** Provides the exomes of patients. */
+    @Inject
+    @Named("exomiser")
+    private ExomeManager exomeManager;
+
+    /** Provides the number of exome genes to index. */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /** Provides access to all the local patients, lazily since it is only needed for building the index. */
+    @Inject
+    private Provider<PatientRepository> patientRepository;
+
+    /** The solved or candidate genes of each patient. */
+    private final GenePostingIndex listedGenes = new GenePostingIndex();
+
+    /** The top genes of the exome of each patient. */
+    private final GenePostingIndex exomeGenes = new GenePostingIndex();
+
+    /** The number of top exome genes indexed for each patient, {@code 0} if exomes are not indexed. */
+    private int exomeGeneCount;
+
+    /** Whether the index was filled with all the local patients. */
+    private volatile boolean built;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.exomeGeneCount = Math.max(0, this.configuration.getProperty(EXOME_GENES_KEY, 0));
+        if (this.exomeGeneCount > 0 && this.exomeManager instanceof ExomiserExomeManager) {
+            ((ExomiserExomeManager) this.exomeManager).addLoadListener(this::indexExome);
+        }
+    }
+
+    @Override
+    public List<String> findMatches(Patient reference)
+    {
+        Set<String> genes = getListedGenes(reference);
+        Set<String> topExomeGenes = this.exomeGeneCount == 0 ? Collections.<String>emptySet()
+            : getTopExomeGenes(this.exomeManager.getExome(reference));
+        if (genes.isEmpty() && topExomeGenes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        ensureBuilt();
+
+        // Temporary in-memory patients, e.g. remote patients, may share their identifier with a local patient
+        String excludedId = reference.getDocumentReference() == null ? null : reference.getId();
+        Set<String> searched = new LinkedHashSet<>(genes);
+        searched.addAll(topExomeGenes);
+        Set<String> result = new LinkedHashSet<>(this.listedGenes.find(searched, excludedId));
+        if (this.exomeGeneCount > 0 && !genes.isEmpty()) {
+            result.addAll(this.exomeGenes.find(genes, excludedId));
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only the listed genes are indexed again: saving a patient doesn't change its exome, and exome genes are kept up
+     * to date as exomes are loaded, so reading the exome again would only reparse it after it was evicted.
+     * </p>
+     */
+    @Override
+    public void index(Patient patient)
+    {
+        // Updates are applied even before the index is built, building it will then pick up the latest version
+        if (patient != null) {
+            this.listedGenes.put(patient.getId(), getListedGenes(patient));
+        }
+    }
+
+    @Override
+    public void remove(String id)
+    {
+        this.listedGenes.remove(id);
+        this.exomeGenes.remove(id);
+    }
+
+    private void indexExome(String id, Exome exome)
+    {
+        this.exomeGenes.put(id, getTopExomeGenes(exome));
+    }
+
+    private void ensureBuilt()
+    {
+        if (!this.built) {
+            synchronized (this) {
+                if (!this.built) {
+                    buildIndex();
+                    this.built = true;
+                }
+            }
+        }
+    }
+
+    private void buildIndex()
+    {
+        this.logger.info("Indexing the genes of all patients...");
+        Iterator<Patient> patients = this.patientRepository.get().getAll();
+        while (patients.hasNext()) {
+            Patient patient = patients.next();
+            index(patient);
+            if (this.exomeGeneCount > 0) {
+                indexExome(patient.getId(), this.exomeManager.getExome(patient));
+            }
+        }
+        this.logger.info("  ... indexed {} patients with solved or candidate genes, and {} patients with exomes.",
+            this.listedGenes.size(), this.exomeGenes.size());
+    }
+
+    /**
+     * Return the symbols of the genes listed as solved or candidate for a patient.
+     *
+     * @param patient the patient to read
+     * @return the symbols of the solved and candidate genes, may be empty
+     */
+    private Set<String> getListedGenes(Patient patient)
+    {
+        PatientData<Gene> allGenes = patient.getData("genes");
+        if (allGenes == null || allGenes.size() == 0 || !allGenes.isIndexed()) {
+            return Collections.emptySet();
+        }
+        Collection<String> ids = new ArrayList<>();
+        for (Gene gene : allGenes) {
+            String geneId = StringUtils.trim(gene.getId());
+            if (StringUtils.isBlank(geneId)) {
+                continue;
+            }
+            String status = gene.getStatus();
+            // Treat empty status as candidate
+            if (StringUtils.isBlank(status) || STATUS_SOLVED.equals(status) || STATUS_CANDIDATE.equals(status)) {
+                ids.add(geneId);
+            }
+        }
+        return new LinkedHashSet<>(this.geneDictionary.getSymbols(ids).values());
+    }
+
+    /**
+     * Return the symbols of the top genes of an exome.
+     *
+     * @param exome the exome to read, may be {@code null}
+     * @return the symbols of the indexed number of top genes, may be empty
+     */
+    private Set<String> getTopExomeGenes(Exome exome)
+    {
+        if (exome == null) {
+            return Collections.emptySet();
+        }
+        return new LinkedHashSet<>(this.geneDictionary.getSymbols(exome.getTopGenes(this.exomeGeneCount)).values());
+    }
+}
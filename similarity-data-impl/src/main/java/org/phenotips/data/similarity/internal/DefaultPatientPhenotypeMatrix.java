@@ -0,0 +1,268 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import org.phenotips.data.similarity.PatientPhenotypeMatrix;
+import org.phenotips.data.similarity.PatientPhenotypeProfile;
+
+import org.xwiki.component.annotation.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import javax.inject.Singleton;
+
+/**
+ * Default implementation of the {@link PatientPhenotypeMatrix}. The upper triangle of the similarity matrix is cut
+ * into square tiles of {@link #TILE_SIZE} profiles, so that the closures of the two blocks of profiles compared by a
+ * tile stay in the processor cache while the tile is scored, and the tiles are spread across a fork-join pool using
+ * all the available processors.
+ * <p>
+ * Profiles are first sorted by increasing total information content. Since the similarity of two profiles can't be
+ * larger than the ratio between the smaller and the larger total, a row of a tile stops as soon as this ratio drops to
+ * the threshold, and whole tiles are skipped when even their closest totals are too far apart.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component
+@Singleton
+public class DefaultPatientPhenotypeMatrix implements PatientPhenotypeMatrix
+{
+    /** The number of profiles in each block of a tile. */
+    private static final int TILE_SIZE = 128;
+
+    /** Number of tiles below which a task is processed sequentially instead of being split further. */
+    private static final int SEQUENTIAL_THRESHOLD = 4;
+
+    @Override
+    public int[][] findSimilarPairs(List<PatientPhenotypeProfile> profiles, double minSimilarity)
+    {
+        return findSimilarPairs(profiles, minSimilarity, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Find all the pairs of profiles with a high enough phenotype similarity.
+     *
+     * @param profiles the profiles to compare, {@code null} items are ignored
+     * @param minSimilarity only pairs with a similarity strictly above this threshold are returned
+     * @param parallelism the number of worker threads to use
+     * @return one row for each of the {@code profiles}, see {@link #findSimilarPairs(List, double)}
+     */
+    public int[][] findSimilarPairs(List<PatientPhenotypeProfile> profiles, double minSimilarity, int parallelism)
+    {
+        // empty profiles have a similarity of 0 with everyone, so they never make it into the result
+        List<Integer> order = new ArrayList<>(profiles.size());
+        for (int i = 0; i < profiles.size(); i++) {
+            PatientPhenotypeProfile profile = profiles.get(i);
+            if (profile != null && profile.getTotalIC() > 0) {
+                order.add(i);
+            }
+        }
+        Collections.sort(order, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer o1, Integer o2)
+            {
+                return Double.compare(profiles.get(o1).getTotalIC(), profiles.get(o2).getTotalIC());
+            }
+        });
+
+        Matrix matrix = new Matrix(profiles, order, Math.max(0, minSimilarity));
+        List<int[]> tiles = matrix.getTiles();
+        PairList pairs;
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        try {
+            pairs = pool.invoke(new TileTask(matrix, tiles, 0, tiles.size()));
+        } finally {
+            pool.shutdown();
+        }
+        return pairs.toRows(profiles.size());
+    }
+
+    /**
+     * The sorted profiles being compared.
+     */
+    private static final class Matrix
+    {
+        private final int[] indexes;
+
+        private final PatientPhenotypeProfile[] profiles;
+
+        private final double[] totals;
+
+        private final double minSimilarity;
+
+        Matrix(List<PatientPhenotypeProfile> profiles, List<Integer> order, double minSimilarity)
+        {
+            int size = order.size();
+            this.indexes = new int[size];
+            this.profiles = new PatientPhenotypeProfile[size];
+            this.totals = new double[size];
+            for (int i = 0; i < size; i++) {
+                this.indexes[i] = order.get(i);
+                this.profiles[i] = profiles.get(this.indexes[i]);
+                this.totals[i] = this.profiles[i].getTotalIC();
+            }
+            this.minSimilarity = minSimilarity;
+        }
+
+        /**
+         * Lists the tiles of the upper triangle that may contain a similar pair.
+         *
+         * @return the tiles, as pairs of the first row and the first column of the tile
+         */
+        List<int[]> getTiles()
+        {
+            List<int[]> tiles = new ArrayList<>();
+            for (int row = 0; row < this.totals.length; row += TILE_SIZE) {
+                int lastRow = Math.min(row + TILE_SIZE, this.totals.length) - 1;
+                for (int column = row; column < this.totals.length; column += TILE_SIZE) {
+                    if (!mayBeSimilar(lastRow, column)) {
+                        // columns are sorted, the next tiles of this row are even further apart
+                        break;
+                    }
+                    tiles.add(new int[] { row, column });
+                }
+            }
+            return tiles;
+        }
+
+        void scoreTile(int[] tile, PairList pairs)
+        {
+            int rowEnd = Math.min(tile[0] + TILE_SIZE, this.totals.length);
+            int columnEnd = Math.min(tile[1] + TILE_SIZE, this.totals.length);
+            for (int row = tile[0]; row < rowEnd; row++) {
+                PatientPhenotypeProfile profile = this.profiles[row];
+                for (int column = Math.max(tile[1], row + 1); column < columnEnd; column++) {
+                    if (!mayBeSimilar(row, column)) {
+                        break;
+                    }
+                    if (profile.getSimilarity(this.profiles[column]) > this.minSimilarity) {
+                        pairs.add(this.indexes[row], this.indexes[column]);
+                    }
+                }
+            }
+        }
+
+        /** The similarity of two profiles is at most the ratio between the smaller and the larger totals. */
+        private boolean mayBeSimilar(int row, int column)
+        {
+            return this.totals[row] > this.minSimilarity * this.totals[column];
+        }
+    }
+
+    /**
+     * Growable list of pairs of profile indexes.
+     */
+    private static final class PairList
+    {
+        private int[] items = new int[64];
+
+        private int size;
+
+        void add(int first, int second)
+        {
+            if (this.size + 2 > this.items.length) {
+                this.items = Arrays.copyOf(this.items, this.items.length * 2);
+            }
+            this.items[this.size++] = first;
+            this.items[this.size++] = second;
+        }
+
+        PairList addAll(PairList other)
+        {
+            if (this.size + other.size > this.items.length) {
+                this.items = Arrays.copyOf(this.items, Math.max(this.size + other.size, this.items.length * 2));
+            }
+            System.arraycopy(other.items, 0, this.items, this.size, other.size);
+            this.size += other.size;
+            return this;
+        }
+
+        int[][] toRows(int count)
+        {
+            int[] lengths = new int[count];
+            for (int i = 0; i < this.size; i++) {
+                lengths[this.items[i]]++;
+            }
+            int[][] rows = new int[count][];
+            for (int i = 0; i < count; i++) {
+                rows[i] = new int[lengths[i]];
+                lengths[i] = 0;
+            }
+            for (int i = 0; i < this.size; i += 2) {
+                int first = this.items[i];
+                int second = this.items[i + 1];
+                rows[first][lengths[first]++] = second;
+                rows[second][lengths[second]++] = first;
+            }
+            for (int[] row : rows) {
+                Arrays.sort(row);
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Scores a range of tiles, splitting the range in two while it is large.
+     */
+    private static final class TileTask extends RecursiveTask<PairList>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Matrix matrix;
+
+        private final transient List<int[]> tiles;
+
+        private final int from;
+
+        private final int to;
+
+        TileTask(Matrix matrix, List<int[]> tiles, int from, int to)
+        {
+            this.matrix = matrix;
+            this.tiles = tiles;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected PairList compute()
+        {
+            if (this.to - this.from <= SEQUENTIAL_THRESHOLD) {
+                PairList pairs = new PairList();
+                for (int i = this.from; i < this.to; i++) {
+                    this.matrix.scoreTile(this.tiles.get(i), pairs);
+                }
+                return pairs;
+            }
+            int middle = (this.from + this.to) >>> 1;
+            TileTask left = new TileTask(this.matrix, this.tiles, this.from, middle);
+            left.fork();
+            PairList right = new TileTask(this.matrix, this.tiles, middle, this.to).compute();
+            return left.join().addAll(right);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import org.phenotips.data.similarity.PatientPhenotypeProfile;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Implementation of {@link PatientPhenotypeProfile} backed by an {@link AncestorClosureEngine}.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class DefaultPatientPhenotypeProfile implements PatientPhenotypeProfile
+{
+    /** See {@link #getPatientId()}. */
+    private final String patientId;
+
+    /** See {@link #getVersion()}. */
+    private final String version;
+
+    /** See {@link #getPresentTerms()}. */
+    private final Collection<VocabularyTerm> presentTerms;
+
+    /** See {@link #getAncestorIds()}. */
+    private final Set<String> ancestorIds;
+
+    /** See {@link #getTermOrdinals()}. */
+    private final int[] termOrdinals;
+
+    /** See {@link #getAncestorClosure()}. */
+    private final long[] closure;
+
+    /** See {@link #getTotalIC()}. */
+    private final double totalIC;
+
+    /** The engine used for computing the closure, and for scoring it against other closures. */
+    private final AncestorClosureEngine engine;
+
+    /**
+     * Computes the profile of a patient from the vocabulary terms resolved from its present features.
+     *
+     * @param patientId the identifier of the patient, may be {@code null}
+     * @param version the version of the patient record the terms were resolved from, may be {@code null}
+     * @param presentTerms the terms present in the patient, without duplicates
+     * @param engine the engine used for computing closures
+     */
+    public DefaultPatientPhenotypeProfile(String patientId, String version, Collection<VocabularyTerm> presentTerms,
+        AncestorClosureEngine engine)
+    {
+        this.patientId = patientId;
+        this.version = version;
+        this.presentTerms = Collections.unmodifiableCollection(presentTerms);
+        this.engine = engine;
+
+        Set<String> ancestors = new HashSet<>();
+        for (VocabularyTerm term : presentTerms) {
+            for (VocabularyTerm ancestor : term.getAncestorsAndSelf()) {
+                ancestors.add(ancestor.getId());
+            }
+        }
+        this.ancestorIds = Collections.unmodifiableSet(ancestors);
+        this.closure = engine.getClosureOfIds(ancestors);
+        this.totalIC = engine.getTotalIC(this.closure);
+        this.termOrdinals = engine.getOrdinals(presentTerms);
+    }
+
+    @Override
+    public String getPatientId()
+    {
+        return this.patientId;
+    }
+
+    /**
+     * Return the version of the patient record this profile was computed from.
+     *
+     * @return the version, or {@code null} if the patient is not stored locally
+     */
+    public String getVersion()
+    {
+        return this.version;
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return this.presentTerms.isEmpty();
+    }
+
+    @Override
+    public Collection<VocabularyTerm> getPresentTerms()
+    {
+        return this.presentTerms;
+    }
+
+    @Override
+    public Set<String> getAncestorIds()
+    {
+        return this.ancestorIds;
+    }
+
+    @Override
+    public int[] getTermOrdinals()
+    {
+        return this.termOrdinals;
+    }
+
+    @Override
+    public long[] getAncestorClosure()
+    {
+        return this.closure;
+    }
+
+    @Override
+    public double getTotalIC()
+    {
+        return this.totalIC;
+    }
+
+    @Override
+    public double getCommonIC(PatientPhenotypeProfile other)
+    {
+        return this.engine.getCommonIC(this.closure, other.getAncestorClosure());
+    }
+
+    @Override
+    public double getUnionIC(PatientPhenotypeProfile other)
+    {
+        return this.engine.getUnionIC(this.closure, other.getAncestorClosure());
+    }
+
+    @Override
+    public double getSimilarity(PatientPhenotypeProfile other)
+    {
+        // the union is added up from the closures rather than derived from the totals, to get the exact same value
+        return getCommonIC(other) / getUnionIC(other);
+    }
+}
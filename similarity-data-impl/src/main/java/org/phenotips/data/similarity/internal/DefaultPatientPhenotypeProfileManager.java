@@ -0,0 +1,328 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import org.phenotips.data.Feature;
+import org.phenotips.data.Patient;
+import org.phenotips.data.similarity.PatientPhenotypeProfile;
+import org.phenotips.data.similarity.PatientPhenotypeProfileManager;
+import org.phenotips.data.similarity.genotype.PatientVersions;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.eviction.LRUEvictionConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.environment.Environment;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.solr.common.params.CommonParams;
+import org.slf4j.Logger;
+
+/**
+ * Default implementation of the {@link PatientPhenotypeProfileManager}. It owns the pre-computed information content of
+ * the HPO terms, and keeps the profiles of local patients in a bounded cache, tagged with the version of the patient
+ * document they were computed from, so that a profile is never reused after the patient was modified.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component
+@Singleton
+public class DefaultPatientPhenotypeProfileManager implements PatientPhenotypeProfileManager, Initializable
+{
+    /** The root of the phenotypic abnormality portion of HPO. */
+    private static final String HP_ROOT = "HP:0000118";
+
+    /** Small value used to round things too close to 0 or 1. */
+    private static final double EPS = 1e-9;
+
+    /** The name of the data subdirectory which stores pre-computed similarity data. */
+    private static final String SIMILARITY_SUBDIR = "similarity";
+
+    /** The name of the file storing the snapshot of the term information content. */
+    private static final String TERM_IC_SNAPSHOT = "termICs.bin";
+
+    /** The maximum number of profiles kept in the cache. */
+    private static final int CACHE_SIZE = 10000;
+
+    /** Logging helper object. */
+    @Inject
+    protected Logger logger;
+
+    /** Provides access to the term vocabulary. */
+    @Inject
+    protected VocabularyManager vocabularyManager;
+
+    /** Environment handle, to store pre-computed similarity data on the filesystem. */
+    @Inject
+    protected Environment environment;
+
+    /** Manager to create the profile cache. */
+    @Inject
+    protected CacheManager cacheManager;
+
+    /** Cache for storing the profiles of local patients. */
+    protected Cache<DefaultPatientPhenotypeProfile> profileCache;
+
+    /** Scores ancestor closures using the pre-computed term information content (-logp). */
+    private AncestorClosureEngine closureEngine;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        // Load the OMIM/HPO mappings
+        Vocabulary mim = this.vocabularyManager.getVocabulary("MIM");
+        Vocabulary hpo = this.vocabularyManager.getVocabulary("HPO");
+
+        // Pre-compute term information content (-logp), for each node t (i.e. t.inf),
+        // or reuse the values computed on a previous start if the vocabularies haven't changed since.
+        this.closureEngine = new AncestorClosureEngine(loadTermICs(mim, hpo));
+
+        try {
+            LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
+            lru.setMaxEntries(CACHE_SIZE);
+            CacheConfiguration configuration = new CacheConfiguration();
+            configuration.put(LRUEvictionConfiguration.CONFIGURATIONID, lru);
+            this.profileCache = this.cacheManager.createNewLocalCache(configuration);
+        } catch (CacheException e) {
+            this.logger.error("Unable to create patient phenotype profile cache: " + e.toString());
+        }
+    }
+
+    @Override
+    public PatientPhenotypeProfile getProfile(Patient patient)
+    {
+        if (patient == null) {
+            return null;
+        }
+        String version = PatientVersions.getVersion(patient);
+        if (version == null || this.profileCache == null) {
+            // this must be a remote patient, which can't be tracked for changes
+            return createProfile(patient, null);
+        }
+
+        String id = patient.getId();
+        DefaultPatientPhenotypeProfile profile = this.profileCache.get(id);
+        if (profile == null || !version.equals(profile.getVersion())) {
+            profile = createProfile(patient, version);
+            this.profileCache.set(id, profile);
+        }
+        return profile;
+    }
+
+    @Override
+    public double getTermIC(int ordinal)
+    {
+        TermICTable termICs = this.closureEngine.getTermICs();
+        return ordinal >= 0 && ordinal < termICs.size() ? termICs.getIC(ordinal) : 0;
+    }
+
+    @Override
+    public void clearCache()
+    {
+        if (this.profileCache != null) {
+            this.profileCache.removeAll();
+            this.logger.info("Cleared phenotype profile cache.");
+        }
+    }
+
+    @Override
+    public void clearPatientCache(String id)
+    {
+        if (this.profileCache != null) {
+            this.profileCache.remove(id);
+            this.logger.debug("Cleared patient from phenotype profile cache: {}", id);
+        }
+    }
+
+    /**
+     * Return the engine used for scoring ancestor closures.
+     *
+     * @return the closure engine
+     */
+    public AncestorClosureEngine getClosureEngine()
+    {
+        return this.closureEngine;
+    }
+
+    /**
+     * Compute the profile of a patient.
+     *
+     * @param patient the patient to process
+     * @param version the version of the patient record, may be {@code null}
+     * @return the computed profile
+     */
+    protected DefaultPatientPhenotypeProfile createProfile(Patient patient, String version)
+    {
+        return new DefaultPatientPhenotypeProfile(patient.getId(), version,
+            getPresentPatientTerms(patient.getFeatures()), this.closureEngine);
+    }
+
+    /**
+     * Return a (potentially empty) collection of terms present in the patient.
+     *
+     * @param features the patient features to process
+     * @return a collection of terms present in the patient
+     */
+    private Collection<VocabularyTerm> getPresentPatientTerms(Set<? extends Feature> features)
+    {
+        Set<VocabularyTerm> terms = new LinkedHashSet<>();
+        for (Feature feature : features) {
+            if (!feature.isPresent()) {
+                continue;
+            }
+
+            VocabularyTerm term = this.vocabularyManager.resolveTerm(feature.getId());
+            if (term != null) {
+                // Only add resolvable terms
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Bound probability to between (0, 1) exclusive.
+     *
+     * @param prob the input value to bound
+     * @return probability bounded between (0, 1) exclusive
+     */
+    private static double limitProb(double prob)
+    {
+        return Math.min(Math.max(prob, EPS), 1 - EPS);
+    }
+
+    /**
+     * Return all terms in the vocabulary.
+     *
+     * @param vocabulary the vocabulary to query
+     * @return a Collection of all VocabularyTerms in the vocabulary
+     */
+    private Collection<VocabularyTerm> queryAllTerms(Vocabulary vocabulary)
+    {
+        this.logger.info("Querying all terms in vocabulary: " + vocabulary.getAliases().iterator().next());
+        Map<String, String> queryAll = new HashMap<>();
+        queryAll.put("id", "*");
+        Map<String, String> queryAllParams = new HashMap<>();
+        queryAllParams.put(CommonParams.ROWS, String.valueOf(vocabulary.size()));
+        Collection<VocabularyTerm> results = vocabulary.search(queryAll, queryAllParams);
+        this.logger.info(String.format("  ... found %d entries.", results.size()));
+        return results;
+    }
+
+    /**
+     * Return the observed information content across provided HPO terms seen in MIM.
+     *
+     * @param mim the MIM vocabulary with diseases and symptom frequencies
+     * @param hpo the human phenotype ontology
+     * @return the information content of each HPO term seen in MIM
+     */
+    private TermICTable getTermICs(Vocabulary mim, Vocabulary hpo)
+    {
+        // Add up frequencies of each term across diseases
+        List<VocabularyTerm> diseases = new ArrayList<>(queryAllTerms(mim));
+        TermFrequencyCounter counter = new TermFrequencyCounter(hpo, this.logger);
+        int[] termFreq = counter.count(diseases, Runtime.getRuntime().availableProcessors());
+        String[] ids = counter.getTermIds();
+
+        this.logger.info("Normalizing term frequency distribution...");
+        // Normalize all the term frequencies to be a proper distribution
+        int root = Arrays.asList(ids).indexOf(HP_ROOT);
+        if (root < 0) {
+            throw new IllegalStateException("The root phenotype term is not implied by any disease: " + HP_ROOT);
+        }
+        double maxFreq = termFreq[root];
+        double[] ics = new double[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            double p = limitProb(termFreq[i] / maxFreq);
+            ics[i] = -Math.log(p);
+        }
+
+        return new TermICTable(ids, ics);
+    }
+
+    /**
+     * Return the information content of each HPO term, loaded from the snapshot stored on disk if it was computed for
+     * the current versions of the vocabularies, or computed from the vocabularies and stored for the next start.
+     *
+     * @param mim the MIM vocabulary with diseases and symptom frequencies
+     * @param hpo the human phenotype ontology
+     * @return the information content of each HPO term seen in MIM
+     */
+    private TermICTable loadTermICs(Vocabulary mim, Vocabulary hpo)
+    {
+        TermICSnapshot snapshot = getTermICSnapshot();
+        String key = TermICSnapshot.getKey(hpo.getVersion(), hpo.size(), mim.getVersion(), mim.size());
+        if (snapshot != null) {
+            try {
+                TermICTable termICs = snapshot.load(key);
+                if (termICs != null) {
+                    this.logger.info("Loaded the information content of {} terms from the stored snapshot",
+                        termICs.size());
+                    return termICs;
+                }
+            } catch (IOException | RuntimeException e) {
+                this.logger.warn("Failed to read the stored term information content: {}", e.getMessage());
+            }
+        }
+
+        TermICTable termICs = getTermICs(mim, hpo);
+        if (snapshot != null) {
+            try {
+                snapshot.store(key, termICs);
+            } catch (IOException e) {
+                this.logger.warn("Failed to store the term information content: {}", e.getMessage());
+            }
+        }
+        return termICs;
+    }
+
+    /**
+     * Get the snapshot used for storing the term information content between restarts.
+     *
+     * @return the snapshot, or {@code null} if there is no permanent directory available
+     */
+    private TermICSnapshot getTermICSnapshot()
+    {
+        if (this.environment == null || this.environment.getPermanentDirectory() == null) {
+            return null;
+        }
+        File directory = new File(this.environment.getPermanentDirectory(), SIMILARITY_SUBDIR);
+        return new TermICSnapshot(new File(directory, TERM_IC_SNAPSHOT));
+    }
+}
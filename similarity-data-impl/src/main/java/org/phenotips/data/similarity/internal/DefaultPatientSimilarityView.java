@@ -27,22 +27,21 @@
 import org.phenotips.data.similarity.AccessType;
 import org.phenotips.data.similarity.DisorderSimilarityView;
 import org.phenotips.data.similarity.PatientGenotypeSimilarityView;
+import org.phenotips.data.similarity.PatientPhenotypeProfile;
+import org.phenotips.data.similarity.PatientPhenotypeProfileManager;
 import org.phenotips.data.similarity.PatientPhenotypeSimilarityView;
 import org.phenotips.data.similarity.genotype.RestrictedPatientGenotypeSimilarityView;
 import org.phenotips.data.similarity.phenotype.DefaultPatientPhenotypeSimilarityView;
 import org.phenotips.vocabulary.VocabularyManager;
-import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.users.UserManager;
 
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -76,8 +75,8 @@ public class DefaultPatientSimilarityView extends AbstractPatientSimilarityView
         userManager = um;
     }
 
-    /** Pre-computed term information content (-logp), for each node t (i.e. t.inf). */
-    private static Map<VocabularyTerm, Double> termICs;
+    /** Provides the cached phenotype profiles of patients. */
+    private static PatientPhenotypeProfileManager profileManager;
 
     /** Provides access to the term vocabulary. */
     private static VocabularyManager vocabularyManager;
@@ -85,6 +84,12 @@ public class DefaultPatientSimilarityView extends AbstractPatientSimilarityView
     /** Memoized match score. */
     private Double score;
 
+    /** Memoized phenotype profile of the matched patient. */
+    private PatientPhenotypeProfile matchProfile;
+
+    /** Memoized phenotype profile of the reference patient. */
+    private PatientPhenotypeProfile referenceProfile;
+
     /** Links disorder values from this patient to the reference. */
     private Set<DisorderSimilarityView> matchedDisorders;
 
@@ -101,8 +106,8 @@ public class DefaultPatientSimilarityView extends AbstractPatientSimilarityView
      * @param reference the reference patient against which to compare, must not be {@code null}
      * @param access the access level the current user has on the matched patient
      * @throws IllegalArgumentException if one of the patients is {@code null}
-     * @throws NullPointerException if the class was not statically initialized with {#initializeStaticData(Map, Map,
-     *             VocabularyManager, Logger)} before use
+     * @throws NullPointerException if the class was not statically initialized with
+     *             {#initializeStaticData(PatientPhenotypeProfileManager, VocabularyManager)} before use
      */
     public DefaultPatientSimilarityView(Patient match, Patient reference, AccessType access)
         throws IllegalArgumentException
@@ -122,36 +127,42 @@ public DefaultPatientSimilarityView(Patient match, Patient reference, AccessType
      */
     public static boolean isInitialized()
     {
-        return termICs != null && vocabularyManager != null;
+        return profileManager != null && vocabularyManager != null;
     }
 
     /**
      * Set the static information for the class. Must be run before creating instances of this class.
      *
-     * @param termICs the information content of each term
+     * @param profileManager the manager providing the phenotype profiles of patients
      * @param vocabularyManager the vocabulary manager
      */
-    public static void initializeStaticData(Map<VocabularyTerm, Double> termICs, VocabularyManager vocabularyManager)
+    public static void initializeStaticData(PatientPhenotypeProfileManager profileManager,
+        VocabularyManager vocabularyManager)
     {
-        DefaultPatientSimilarityView.termICs = termICs;
+        DefaultPatientSimilarityView.profileManager = profileManager;
         DefaultPatientSimilarityView.vocabularyManager = vocabularyManager;
     }
 
     /**
-     * Create an instance of the PatientPhenotypeSimilarityView for this PatientSimilarityView.
+     * Create an instance of the PatientPhenotypeSimilarityView for this PatientSimilarityView, reusing the terms
+     * already resolved in the phenotype profiles of the two patients.
      *
      * @param match the features in the matched patient
      * @param reference the features in the reference patient
+     * @param matchProfile the phenotype profile of the matched patient
+     * @param referenceProfile the phenotype profile of the reference patient
      * @param access the access level of the match
      * @return the PatientPhenotypeSimilarityView for the pair of patients
      */
     protected PatientPhenotypeSimilarityView createPhenotypeSimilarityView(Set<? extends Feature> match,
-        Set<? extends Feature> reference, AccessType access)
+        Set<? extends Feature> reference, PatientPhenotypeProfile matchProfile,
+        PatientPhenotypeProfile referenceProfile, AccessType access)
     {
         if (!DefaultPatientPhenotypeSimilarityView.isInitialized()) {
             DefaultPatientPhenotypeSimilarityView.initializeStaticData(vocabularyManager);
         }
-        return new DefaultPatientPhenotypeSimilarityView(match, reference);
+        return new DefaultPatientPhenotypeSimilarityView(match, reference, matchProfile.getPresentTerms(),
+            referenceProfile.getPresentTerms());
     }
 
     /**
@@ -268,7 +279,7 @@ private PatientPhenotypeSimilarityView getMatchedFeatures()
         if (this.matchedFeatures == null) {
             this.matchedFeatures =
                 createPhenotypeSimilarityView(this.match.getFeatures(), this.reference.getFeatures(),
-                    this.access);
+                    getMatchProfile(), getReferenceProfile(), this.access);
         }
         return this.matchedFeatures;
     }
@@ -291,84 +302,54 @@ public double getPhenotypeScore()
         if (this.match == null || this.reference == null) {
             return 0.0;
         } else {
-            // Get ancestors for both patients
-            Set<VocabularyTerm> refAncestors = getAncestors(getPresentPatientTerms(this.reference));
-            Set<VocabularyTerm> matchAncestors = getAncestors(getPresentPatientTerms(this.match));
+            PatientPhenotypeProfile refProfile = getReferenceProfile();
+            PatientPhenotypeProfile matchProfile = getMatchProfile();
 
-            if (refAncestors.isEmpty() || matchAncestors.isEmpty()) {
+            if (refProfile.isEmpty() || matchProfile.isEmpty()) {
                 return 0.0;
             } else {
                 // Score overlapping ancestors
-                Set<VocabularyTerm> commonAncestors = new HashSet<>();
-                commonAncestors.addAll(refAncestors);
-                commonAncestors.retainAll(matchAncestors);
-
-                Set<VocabularyTerm> allAncestors = new HashSet<>();
-                allAncestors.addAll(refAncestors);
-                allAncestors.addAll(matchAncestors);
-
-                double baseScore = getTermICs(commonAncestors) / getTermICs(allAncestors);
+                double baseScore = refProfile.getSimilarity(matchProfile);
                 return adjustScoreWithDisordersScore(baseScore);
             }
         }
     }
 
     /**
-     * Return a (potentially empty) collection of terms present in the patient.
+     * Get the phenotype profile of the matched patient, lazily evaluated and memoized.
      *
-     * @param features the patient features to process
-     * @return a collection of terms present in the patient
+     * @return the phenotype profile of the matched patient
      */
-    private Collection<VocabularyTerm> getPresentPatientTerms(Patient patient)
+    private PatientPhenotypeProfile getMatchProfile()
     {
-        Set<VocabularyTerm> terms = new HashSet<>();
-        for (Feature feature : patient.getFeatures()) {
-            if (!feature.isPresent()) {
-                continue;
-            }
-
-            VocabularyTerm term = vocabularyManager.resolveTerm(feature.getId());
-            if (term != null) {
-                // Only add resolvable terms
-                terms.add(term);
-            }
+        if (this.matchProfile == null) {
+            this.matchProfile = getProfile(this.match);
         }
-        return terms;
+        return this.matchProfile;
     }
 
     /**
-     * Return the set of terms implied by a collection of features in the vocabulary.
+     * Get the phenotype profile of the reference patient, lazily evaluated and memoized.
      *
-     * @param terms a collection of terms
-     * @return all provided VocabularyTerm terms and their ancestors
+     * @return the phenotype profile of the reference patient
      */
-    private Set<VocabularyTerm> getAncestors(Collection<VocabularyTerm> terms)
+    private PatientPhenotypeProfile getReferenceProfile()
     {
-        Set<VocabularyTerm> ancestors = new HashSet<>(terms);
-        for (VocabularyTerm term : terms) {
-            // Add all ancestors
-            ancestors.addAll(term.getAncestorsAndSelf());
+        if (this.referenceProfile == null) {
+            this.referenceProfile = getProfile(this.reference);
         }
-        return ancestors;
+        return this.referenceProfile;
     }
 
     /**
-     * Return the total IC across a collection of terms.
+     * Get the phenotype profile of a patient from the profile manager.
      *
-     * @param terms (should include implied ancestors) that are present in the patient
-     * @return the total IC for all the terms
+     * @param patient the patient to process
+     * @return the phenotype profile of the patient
      */
-    private double getTermICs(Collection<VocabularyTerm> terms)
+    private static PatientPhenotypeProfile getProfile(Patient patient)
     {
-        double cost = 0;
-        for (VocabularyTerm term : terms) {
-            Double ic = termICs.get(term);
-            if (ic == null) {
-                ic = 0.0;
-            }
-            cost += ic;
-        }
-        return cost;
+        return profileManager.getProfile(patient);
     }
 
     /**
@@ -383,19 +364,13 @@ private double getTermICs(Collection<VocabularyTerm> terms)
      */
     private double adjustScoreWithDisordersScore(double baseScore)
     {
-        Set<DisorderSimilarityView> disorders = getMatchedDisorders();
-        if (disorders.isEmpty()) {
-            return baseScore;
-        }
-        double adjustedScore = baseScore;
-        double bias = 3;
-        for (DisorderSimilarityView disorder : disorders) {
+        int matchingDisorders = 0;
+        for (DisorderSimilarityView disorder : getMatchedDisorders()) {
             if (disorder.isMatchingPair()) {
-                // For each disorder match, reduce the distance between the current score to 1 by 1/3
-                adjustedScore = adjustedScore + (1 - adjustedScore) / bias;
+                matchingDisorders++;
             }
         }
-        return adjustedScore;
+        return PatientSimilarityScorer.adjustScoreWithDisorders(baseScore, matchingDisorders);
     }
 
     @Override
@@ -23,27 +23,27 @@
 import org.phenotips.data.permissions.EntityPermissionsManager;
 import org.phenotips.data.permissions.Visibility;
 import org.phenotips.data.similarity.AccessType;
+import org.phenotips.data.similarity.PatientGenotypeManager;
+import org.phenotips.data.similarity.PatientPhenotypeProfileManager;
 import org.phenotips.data.similarity.PatientSimilarityView;
 import org.phenotips.data.similarity.PatientSimilarityViewFactory;
-import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.data.similarity.genotype.PatientVersions;
 import org.phenotips.vocabulary.VocabularyManager;
-import org.phenotips.vocabulary.VocabularyTerm;
 
-import org.xwiki.cache.CacheException;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
-import org.apache.solr.common.params.CommonParams;
 import org.slf4j.Logger;
 
 /**
@@ -57,12 +57,6 @@
 @Singleton
 public class DefaultPatientSimilarityViewFactory implements PatientSimilarityViewFactory, Initializable
 {
-    /** The root of the phenotypic abnormality portion of HPO. */
-    private static final String HP_ROOT = "HP:0000118";
-
-    /** Small value used to round things too close to 0 or 1. */
-    private static final double EPS = 1e-9;
-
     /** Logging helper object. */
     @Inject
     protected Logger logger;
@@ -91,6 +85,17 @@ public class DefaultPatientSimilarityViewFactory implements PatientSimilarityVie
     @Inject
     protected VocabularyManager vocabularyManager;
 
+    /** Provides the phenotype profiles of patients, shared by all the views. */
+    @Inject
+    protected PatientPhenotypeProfileManager profileManager;
+
+    /** Provides the genotypes of patients, used when scoring many candidates at once. */
+    @Inject
+    protected PatientGenotypeManager genotypeManager;
+
+    /** The maximum number of patient similarity views to keep in the cache. */
+    private static final int CACHE_SIZE = 10000;
+
     /** Cache for patient similarity views. */
     private PairCache<PatientSimilarityView> viewCache;
 
@@ -119,16 +124,19 @@ protected PatientSimilarityView createPatientSimilarityView(Patient match, Patie
     protected PatientSimilarityView getCachedPatientSimilarityView(Patient match, Patient reference, AccessType access)
     {
         // Get potentially-cached patient similarity view
-        String cacheKey = match.getId() + '|' + reference.getId() + '|' + access.getAccessLevel().getName();
-        PatientSimilarityView result = null;
-        if (this.viewCache != null) {
-            // result = this.viewCache.get(cacheKey);
+        String matchVersion = PatientVersions.getVersion(match);
+        String referenceVersion = PatientVersions.getVersion(reference);
+        if (this.viewCache == null || matchVersion == null || referenceVersion == null) {
+            // remote patients can't be tracked for changes, so their views are never cached
+            return createPatientSimilarityView(match, reference, access);
         }
+
+        String cacheKey = match.getId() + '|' + reference.getId() + '|' + access.getAccessLevel().getName();
+        String version = matchVersion + '|' + referenceVersion;
+        PatientSimilarityView result = this.viewCache.get(cacheKey, version);
         if (result == null) {
             result = createPatientSimilarityView(match, reference, access);
-            if (this.viewCache != null) {
-                this.viewCache.set(match.getId(), reference.getId(), cacheKey, result);
-            }
+            this.viewCache.set(match.getId(), reference.getId(), cacheKey, version, result);
         }
         return result;
     }
@@ -139,7 +147,47 @@ public PatientSimilarityView makeSimilarPatient(Patient match, Patient reference
         if (match == null || reference == null) {
             throw new IllegalArgumentException("Similar patients require both a match and a reference");
         }
+        return getCachedPatientSimilarityView(match, reference, getAccessType(match));
+    }
+
+    @Override
+    public List<PatientSimilarityView> makeSimilarPatients(Collection<? extends Patient> matches, Patient reference,
+        double minScore) throws IllegalArgumentException
+    {
+        return makeSimilarPatients(matches, reference, minScore, 0);
+    }
+
+    @Override
+    public List<PatientSimilarityView> makeSimilarPatients(Collection<? extends Patient> matches, Patient reference,
+        double minScore, int maxResults) throws IllegalArgumentException
+    {
+        if (matches == null || reference == null) {
+            throw new IllegalArgumentException("Similar patients require both matches and a reference");
+        }
 
+        // Score all the candidates first, without building any view
+        PatientSimilarityScorer scorer = new PatientSimilarityScorer(reference, this.profileManager,
+            this.genotypeManager);
+        List<PatientSimilarityScorer.ScoredPatient> retained = scorer.score(matches, minScore, maxResults);
+
+        // Then check access rights and build views only for the candidates that made the cut
+        List<PatientSimilarityView> results = new ArrayList<>(retained.size());
+        for (PatientSimilarityScorer.ScoredPatient candidate : retained) {
+            Patient match = candidate.getPatient();
+            // Views may be shared through the cache, so they compute and memoize their own score
+            results.add(getCachedPatientSimilarityView(match, reference, getAccessType(match)));
+        }
+        return results;
+    }
+
+    /**
+     * Compute the access type the current user has on a matched patient.
+     *
+     * @param match the matched patient
+     * @return the access type to use for the view of the matched patient
+     */
+    private AccessType getAccessType(Patient match)
+    {
         // FIXME: a patient may have visibility level "matchable" but have access level below "match".
         //        this does not allow MME code to return matchable patients, and so a workaround is
         //        implemented below. The workaround should be removed if the condition is no longer possible
@@ -154,8 +202,7 @@ public PatientSimilarityView makeSimilarPatient(Patient match, Patient reference
             useAccess = this.matchAccess;
         }
 
-        AccessType access = new DefaultAccessType(useAccess, this.viewAccess, this.matchAccess);
-        return getCachedPatientSimilarityView(match, reference, access);
+        return new DefaultAccessType(useAccess, this.viewAccess, this.matchAccess);
     }
 
     @Override
@@ -177,137 +224,38 @@ public PatientSimilarityView convert(PatientSimilarityView patientPair)
         return getCachedPatientSimilarityView(match, reference, access);
     }
 
-    /**
-     * Bound probability to between (0, 1) exclusive.
-     *
-     * @param prob the input value to bound
-     * @return probability bounded between (0, 1) exclusive
-     */
-    private static double limitProb(double prob)
-    {
-        return Math.min(Math.max(prob, EPS), 1 - EPS);
-    }
-
-    /**
-     * Return all terms in the vocabulary.
-     *
-     * @param vocabulary the vocabulary to query
-     * @return a Collection of all VocabularyTerms in the vocabulary
-     */
-    private Collection<VocabularyTerm> queryAllTerms(Vocabulary vocabulary)
-    {
-        this.logger.info("Querying all terms in vocabulary: " + vocabulary.getAliases().iterator().next());
-        Map<String, String> queryAll = new HashMap<>();
-        queryAll.put("id", "*");
-        Map<String, String> queryAllParams = new HashMap<>();
-        queryAllParams.put(CommonParams.ROWS, String.valueOf(vocabulary.size()));
-        Collection<VocabularyTerm> results = vocabulary.search(queryAll, queryAllParams);
-        this.logger.info(String.format("  ... found %d entries.", results.size()));
-        return results;
-    }
-
-    /**
-     * Return the observed information content across provided HPO terms seen in MIM.
-     *
-     * @param mim the MIM vocabulary with diseases and symptom frequencies
-     * @param hpo the human phenotype ontology
-     * @return a map from VocabularyTerm to the absolute frequency (sum over all terms ~1)
-     */
-    private Map<VocabularyTerm, Double> getTermICs(Vocabulary mim, Vocabulary hpo)
-    {
-        Map<VocabularyTerm, Double> termFreq = new HashMap<>();
-        Map<VocabularyTerm, Double> termICs = new HashMap<>();
-        // Add up frequencies of each term across diseases
-        Collection<VocabularyTerm> diseases = queryAllTerms(mim);
-        for (VocabularyTerm disease : diseases) {
-            // Get a Collection<String> of symptom HP IDs, or null
-            Collection<VocabularyTerm> symptoms = getDiseaseVocabularyTerms(hpo, disease);
-
-            for (VocabularyTerm symptom : symptoms) {
-                for (VocabularyTerm impliedTerm : symptom.getAncestorsAndSelf()) {
-                    double freq = 1.0;
-                    // Add to accumulated term frequency
-                    Double prevFreq = termFreq.get(impliedTerm);
-                    if (prevFreq != null) {
-                        freq += prevFreq;
-                    }
-                    termFreq.put(impliedTerm, freq);
-                }
-            }
-        }
-
-        this.logger.info("Normalizing term frequency distribution...");
-        // Normalize all the term frequencies to be a proper distribution
-        VocabularyTerm root = hpo.getTerm(HP_ROOT);
-        double maxFreq = termFreq.get(root);
-        for (Map.Entry<VocabularyTerm, Double> entry : termFreq.entrySet()) {
-            double p = limitProb(entry.getValue() / maxFreq);
-            termICs.put(entry.getKey(), -Math.log(p));
-        }
-
-        return termICs;
-    }
-
-    /**
-     * Return all terms associated with a particular disease.
-     *
-     * @param hpo the human phenotype ontology
-     * @param disease the MIM disease vocabulary term
-     * @return a collection of resolved VocabularyTerms associated with the disease, excluding terms that could not be
-     *         resolved to a VocubularyTerm
-     */
-    @SuppressWarnings("unchecked")
-    private Collection<VocabularyTerm> getDiseaseVocabularyTerms(Vocabulary hpo, VocabularyTerm disease)
-    {
-        Collection<VocabularyTerm> terms = new LinkedList<>();
-        Object symptomNames = disease.get("actual_symptom");
-        if (symptomNames != null) {
-            if (symptomNames instanceof Collection<?>) {
-                for (String symptomName : ((Collection<String>) symptomNames)) {
-                    VocabularyTerm symptom = hpo.getTerm(symptomName);
-                    // Ideally use frequency with which symptom occurs in disease
-                    // This information isn't prevalent or reliable yet, however
-                    if (symptom == null) {
-                        this.logger.warn("Unable to find term in HPO: " + symptomName);
-                    } else {
-                        terms.add(symptom);
-                    }
-                }
-            } else {
-                String err = "Solr returned non-collection symptoms: " + String.valueOf(symptomNames);
-                this.logger.error(err);
-                throw new RuntimeException(err);
-            }
-        }
-        return terms;
-    }
-
     @Override
     public void initialize() throws InitializationException
     {
         this.logger.info("Initializing...");
         if (this.viewCache == null) {
-            try {
-                this.viewCache = new PairCache<>();
-            } catch (CacheException e) {
-                this.logger.warn("Unable to create cache for PatientSimilarityViews");
-            }
+            this.viewCache = new PairCache<>(CACHE_SIZE);
         }
         if (!DefaultPatientSimilarityView.isInitialized()) {
-            // Load the OMIM/HPO mappings
-            Vocabulary mim = this.vocabularyManager.getVocabulary("MIM");
-            Vocabulary hpo = this.vocabularyManager.getVocabulary("HPO");
-
-            // Pre-compute term information content (-logp), for each node t (i.e. t.inf).
-            Map<VocabularyTerm, Double> termICs = getTermICs(mim, hpo);
-
             // Give data to views to use
             this.logger.info("Setting view globals...");
-            DefaultPatientSimilarityView.initializeStaticData(termICs, this.vocabularyManager);
+            DefaultPatientSimilarityView.initializeStaticData(this.profileManager, this.vocabularyManager);
         }
         this.logger.info("Initialized.");
     }
 
+    /**
+     * Return the statistics of the patient similarity view cache.
+     *
+     * @return the number of cached views, and the number of hits, misses and evictions since the cache was created
+     */
+    public Map<String, Long> getCacheStatistics()
+    {
+        Map<String, Long> result = new LinkedHashMap<>();
+        if (this.viewCache != null) {
+            result.put("size", (long) this.viewCache.size());
+            result.put("hits", this.viewCache.getHitCount());
+            result.put("misses", this.viewCache.getMissCount());
+            result.put("evictions", this.viewCache.getEvictionCount());
+        }
+        return result;
+    }
+
     /**
      * Clear all cached patient similarity data.
      */
@@ -317,6 +265,7 @@ public void clearCache()
             this.viewCache.removeAll();
             this.logger.info("Cleared cache.");
         }
+        this.profileManager.clearCache();
     }
 
     /**
@@ -325,10 +274,21 @@ public void clearCache()
      * @param id the document ID of the patient to remove from the cache
      */
     public void clearPatientCache(String id)
+    {
+        clearPatientViews(id);
+        this.profileManager.clearPatientCache(id);
+    }
+
+    /**
+     * Clear the cached similarity views involving a particular patient, leaving the shared phenotype profiles alone.
+     *
+     * @param id the document ID of the patient to remove from the cache
+     */
+    public void clearPatientViews(String id)
     {
         if (this.viewCache != null) {
             this.viewCache.removeAssociated(id);
-            this.logger.info("Cleared patient from cache: " + id);
+            this.logger.debug("Cleared patient from cache: {}", id);
         }
     }
 }
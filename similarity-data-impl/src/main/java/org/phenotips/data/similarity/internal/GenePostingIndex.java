@@ -0,0 +1,255 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Inverted index from genes to the patients listing them. Each patient gets a dense ordinal when it is added, and each
+ * gene a posting list holding the ordinals of its patients in increasing order, so that the patients sharing any of
+ * several genes are found by marking the union of a few short posting lists. Updating a patient gives it a new ordinal,
+ * and removed ordinals are only skipped until there are enough of them to make compacting the posting lists
+ * worthwhile.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class GenePostingIndex
+{
+    /** Removed patients are compacted away once there are at least this many of them, and more than live ones. */
+    private static final int MIN_REMOVED_TO_COMPACT = 1024;
+
+    /** Number of bits needed to address a bit inside a {@code long} word. */
+    private static final int ADDRESS_BITS_PER_WORD = 6;
+
+    /** Initial capacity of the per-patient array. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Initial capacity of the posting lists, most genes are only listed for a few patients. */
+    private static final int INITIAL_POSTING_CAPACITY = 4;
+
+    /** Guards all the fields below; queries can run in parallel, updates are exclusive. */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Maps gene names to their ordinal, which is the index of their posting list. */
+    private final Map<String, Integer> geneOrdinals = new HashMap<>();
+
+    /** Maps patient identifiers to their current ordinal. */
+    private final Map<String, Integer> patientOrdinals = new HashMap<>();
+
+    /** The identifier of each patient, indexed by ordinal, {@code null} for removed patients. */
+    private String[] patientIds = new String[INITIAL_CAPACITY];
+
+    /** The number of patient ordinals assigned so far, including the removed ones. */
+    private int patientCount;
+
+    /** The number of removed patients whose ordinals are still present in the posting lists. */
+    private int removedCount;
+
+    /** The patient ordinals listing each gene, indexed by gene ordinal. */
+    private int[][] postings = new int[0][];
+
+    /** The number of valid entries in each posting list. */
+    private int[] postingSizes = new int[0];
+
+    /**
+     * Returns the number of indexed patients.
+     *
+     * @return the number of patients listing at least one gene
+     */
+    public int size()
+    {
+        this.lock.readLock().lock();
+        try {
+            return this.patientOrdinals.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a patient to the index, or replaces its genes if it is already indexed.
+     *
+     * @param id the identifier of the patient
+     * @param genes the genes listed for the patient, patients without genes are only removed from the index
+     */
+    public void put(String id, Collection<String> genes)
+    {
+        this.lock.writeLock().lock();
+        try {
+            removeUnlocked(id);
+            if (genes.isEmpty()) {
+                return;
+            }
+            int ordinal = this.patientCount++;
+            if (ordinal == this.patientIds.length) {
+                this.patientIds = Arrays.copyOf(this.patientIds, ordinal * 2);
+            }
+            this.patientIds[ordinal] = id;
+            this.patientOrdinals.put(id, ordinal);
+            for (String gene : genes) {
+                Integer geneOrdinal = this.geneOrdinals.get(gene);
+                if (geneOrdinal == null) {
+                    geneOrdinal = this.geneOrdinals.size();
+                    this.geneOrdinals.put(gene, geneOrdinal);
+                }
+                addPosting(geneOrdinal, ordinal);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a patient from the index.
+     *
+     * @param id the identifier of the patient
+     */
+    public void remove(String id)
+    {
+        this.lock.writeLock().lock();
+        try {
+            removeUnlocked(id);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the patients listing at least one of the given genes.
+     *
+     * @param genes the genes to look for
+     * @param excludedId the identifier of a patient to leave out of the result, usually the reference patient, may be
+     *            {@code null}
+     * @return the identifiers of the matched patients, in the order they were indexed; may be empty
+     */
+    public List<String> find(Collection<String> genes, String excludedId)
+    {
+        this.lock.readLock().lock();
+        try {
+            long[] matched = new long[(this.patientCount >> ADDRESS_BITS_PER_WORD) + 1];
+            boolean found = false;
+            for (String gene : genes) {
+                Integer geneOrdinal = this.geneOrdinals.get(gene);
+                if (geneOrdinal == null) {
+                    continue;
+                }
+                int[] posting = this.postings[geneOrdinal];
+                for (int i = 0; i < this.postingSizes[geneOrdinal]; i++) {
+                    matched[posting[i] >> ADDRESS_BITS_PER_WORD] |= 1L << posting[i];
+                    found = true;
+                }
+            }
+            if (!found) {
+                return new ArrayList<>();
+            }
+            List<String> result = new ArrayList<>();
+            for (int i = 0; i < matched.length; i++) {
+                long remaining = matched[i];
+                while (remaining != 0) {
+                    String id = this.patientIds[(i << ADDRESS_BITS_PER_WORD) + Long.numberOfTrailingZeros(remaining)];
+                    if (id != null && !id.equals(excludedId)) {
+                        result.add(id);
+                    }
+                    remaining &= remaining - 1;
+                }
+            }
+            return result;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private void addPosting(int gene, int ordinal)
+    {
+        if (gene >= this.postings.length) {
+            int length = Math.max(gene + 1, this.postings.length * 2);
+            this.postings = Arrays.copyOf(this.postings, length);
+            this.postingSizes = Arrays.copyOf(this.postingSizes, length);
+        }
+        int[] posting = this.postings[gene];
+        int size = this.postingSizes[gene];
+        if (posting == null) {
+            posting = new int[INITIAL_POSTING_CAPACITY];
+            this.postings[gene] = posting;
+        } else if (size == posting.length) {
+            posting = Arrays.copyOf(posting, size * 2);
+            this.postings[gene] = posting;
+        }
+        if (size > 0 && posting[size - 1] == ordinal) {
+            // the same gene listed twice for a patient
+            return;
+        }
+        posting[size] = ordinal;
+        this.postingSizes[gene] = size + 1;
+    }
+
+    private void removeUnlocked(String id)
+    {
+        Integer ordinal = this.patientOrdinals.remove(id);
+        if (ordinal == null) {
+            return;
+        }
+        this.patientIds[ordinal] = null;
+        this.removedCount++;
+        if (this.removedCount >= MIN_REMOVED_TO_COMPACT && this.removedCount > this.patientOrdinals.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Renumbers the remaining patients so that removed ordinals disappear from the posting lists. Renumbering
+     * preserves the relative order of the patients, so the posting lists stay sorted.
+     */
+    private void compact()
+    {
+        int[] renumbered = new int[this.patientCount];
+        int live = 0;
+        for (int ordinal = 0; ordinal < this.patientCount; ordinal++) {
+            if (this.patientIds[ordinal] == null) {
+                renumbered[ordinal] = -1;
+                continue;
+            }
+            renumbered[ordinal] = live;
+            this.patientIds[live] = this.patientIds[ordinal];
+            this.patientOrdinals.put(this.patientIds[live], live);
+            live++;
+        }
+        Arrays.fill(this.patientIds, live, this.patientCount, null);
+        this.patientCount = live;
+        this.removedCount = 0;
+        for (int gene = 0; gene < this.postings.length; gene++) {
+            int[] posting = this.postings[gene];
+            int size = 0;
+            for (int i = 0; i < this.postingSizes[gene]; i++) {
+                int ordinal = renumbered[posting[i]];
+                if (ordinal >= 0) {
+                    posting[size++] = ordinal;
+                }
+            }
+            this.postingSizes[gene] = size;
+        }
+    }
+}
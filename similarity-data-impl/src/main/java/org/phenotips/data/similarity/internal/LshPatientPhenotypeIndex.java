@@ -0,0 +1,72 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import org.phenotips.data.similarity.PatientPhenotypeIndex;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Approximate implementation of the {@link PatientPhenotypeIndex}, which only scores the patients found through a
+ * {@link MinHashLshIndex}, and may thus miss some of the best matches. The shape of the index can be configured in
+ * {@code xwiki.properties}: {@code phenotips.similarity.lsh.bands} (default {@value #DEFAULT_BANDS}) increases recall,
+ * while {@code phenotips.similarity.lsh.rows} (default {@value #DEFAULT_ROWS}) reduces the number of candidates scored
+ * for each query.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component
+@Named("lsh")
+@Singleton
+public class LshPatientPhenotypeIndex extends AbstractPatientPhenotypeIndex
+{
+    /** Default number of bands, see {@link MinHashLshIndex}. */
+    public static final int DEFAULT_BANDS = 64;
+
+    /** Default number of hashes in each band, see {@link MinHashLshIndex}. */
+    public static final int DEFAULT_ROWS = 3;
+
+    /** The configuration key holding the number of bands. */
+    private static final String BANDS_KEY = "phenotips.similarity.lsh.bands";
+
+    /** The configuration key holding the number of hashes in each band. */
+    private static final String ROWS_KEY = "phenotips.similarity.lsh.rows";
+
+    /** Fixed seed, so that sketches don't depend on when the index was built. */
+    private static final long SEED = 0x5EED5EEDL;
+
+    /** Provides the configured shape of the index. */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Override
+    protected PatientTermIndex createIndex()
+    {
+        int bands = this.configuration.getProperty(BANDS_KEY, DEFAULT_BANDS);
+        int rows = this.configuration.getProperty(ROWS_KEY, DEFAULT_ROWS);
+        this.logger.debug("Using a MinHash index with {} bands of {} rows", bands, rows);
+        return new MinHashLshIndex(this.profileManager::getTermIC, bands, rows, SEED);
+    }
+}
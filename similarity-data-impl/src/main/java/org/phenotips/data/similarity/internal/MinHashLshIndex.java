@@ -0,0 +1,347 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.Predicate;
+
+/**
+ * Approximate {@link PatientTermIndex} based on weighted MinHash sketches stored in a locality sensitive hashing
+ * banding index. Each hash function draws, for every term, an exponential variable divided by the information content
+ * of the term, and keeps the term with the smallest value; two closures then get the same term with probability equal
+ * to their similarity score, the information content of the shared terms divided by the one of all their terms. The
+ * hashes are grouped in {@code bands} bands of {@code rows} hashes, and patients sharing all the hashes of at least
+ * one band with the reference are scored exactly. A pair with score {@code s} is thus found with probability
+ * {@code 1 - (1 - s^rows)^bands}: more bands increase recall, more rows reduce the number of candidates to score.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class MinHashLshIndex implements PatientTermIndex
+{
+    /** Multiplier spreading the hash function numbers, the 64-bit golden ratio. */
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /** Multiplier spreading the term ordinals. */
+    private static final long TERM_GAMMA = 0xC2B2AE3D27D4EB4FL;
+
+    /** Scales the 53 random bits of a hash to a double in {@code [0, 1)}. */
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    /** Number of low bits dropped from a hash when converting it to a double. */
+    private static final int DROPPED_BITS = 11;
+
+    /** Orders scored candidates by decreasing score. */
+    private static final Comparator<Candidate> BY_DECREASING_SCORE = new Comparator<Candidate>()
+    {
+        @Override
+        public int compare(Candidate o1, Candidate o2)
+        {
+            return Double.compare(o2.score, o1.score);
+        }
+    };
+
+    /** Provides the information content of each term ordinal. */
+    private final IntToDoubleFunction termICs;
+
+    /** The number of bands. */
+    private final int bands;
+
+    /** The number of hashes in each band. */
+    private final int rows;
+
+    /** Seed of the hash functions. */
+    private final long seed;
+
+    /** Guards all the fields below; queries can run in parallel, updates are exclusive. */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** The indexed patients, by identifier. */
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /** For each band, the patients having each combination of hashes in that band. */
+    private final List<Map<Long, Set<String>>> buckets;
+
+    /**
+     * Constructor passing the information content of terms and the shape of the banding index.
+     *
+     * @param termICs returns the information content of a term ordinal
+     * @param bands the number of bands, at least {@code 1}
+     * @param rows the number of hashes in each band, at least {@code 1}
+     * @param seed seed of the hash functions
+     * @throws IllegalArgumentException if the number of bands or rows is not positive
+     */
+    public MinHashLshIndex(IntToDoubleFunction termICs, int bands, int rows, long seed)
+    {
+        if (bands < 1 || rows < 1) {
+            throw new IllegalArgumentException("The number of bands and rows must be positive");
+        }
+        this.termICs = termICs;
+        this.bands = bands;
+        this.rows = rows;
+        this.seed = seed;
+        this.buckets = new ArrayList<>(bands);
+        for (int i = 0; i < bands; i++) {
+            this.buckets.add(new HashMap<Long, Set<String>>());
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        this.lock.readLock().lock();
+        try {
+            return this.entries.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void put(String id, int[] terms, double totalIC)
+    {
+        // Sketching is the expensive part, and doesn't need the lock
+        long[] keys = getBandKeys(terms);
+        this.lock.writeLock().lock();
+        try {
+            removeUnlocked(id);
+            if (keys == null) {
+                return;
+            }
+            this.entries.put(id, new Entry(terms, totalIC, keys));
+            for (int band = 0; band < this.bands; band++) {
+                Map<Long, Set<String>> bucketsInBand = this.buckets.get(band);
+                Set<String> bucket = bucketsInBand.get(keys[band]);
+                if (bucket == null) {
+                    bucket = new HashSet<>();
+                    bucketsInBand.put(keys[band], bucket);
+                }
+                bucket.add(id);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(String id)
+    {
+        this.lock.writeLock().lock();
+        try {
+            removeUnlocked(id);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> findTopMatches(int[] terms, double totalIC, String excludedId, int maxResults,
+        Predicate<String> filter)
+    {
+        long[] keys = getBandKeys(terms);
+        if (keys == null || totalIC <= 0) {
+            return Collections.emptyList();
+        }
+        List<Candidate> candidates = new ArrayList<>();
+        this.lock.readLock().lock();
+        try {
+            Set<String> seen = new HashSet<>();
+            for (int band = 0; band < this.bands; band++) {
+                Set<String> bucket = this.buckets.get(band).get(keys[band]);
+                if (bucket == null) {
+                    continue;
+                }
+                for (String id : bucket) {
+                    if (id.equals(excludedId) || !seen.add(id)) {
+                        continue;
+                    }
+                    Entry entry = this.entries.get(id);
+                    double score = ScoredMatches.score(getCommonIC(terms, entry.terms), totalIC, entry.totalIC);
+                    if (score > 0) {
+                        candidates.add(new Candidate(id, score));
+                    }
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+        // The filter may be expensive, so only call it for the best candidates, until enough of them are accepted
+        Collections.sort(candidates, BY_DECREASING_SCORE);
+        List<String> result = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (maxResults > 0 && result.size() == maxResults) {
+                break;
+            }
+            if (filter == null || filter.test(candidate.id)) {
+                result.add(candidate.id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Computes the weighted MinHash sketch of a closure, and hashes each band of the sketch into a single key.
+     *
+     * @param terms the ordinals of the terms in the closure
+     * @return the key of each band, or {@code null} if no term has a positive information content
+     */
+    long[] getBandKeys(int[] terms)
+    {
+        int hashes = this.bands * this.rows;
+        int[] sketch = new int[hashes];
+        double[] minValues = new double[hashes];
+        Arrays.fill(minValues, Double.POSITIVE_INFINITY);
+        boolean empty = true;
+        for (int term : terms) {
+            double ic = this.termICs.applyAsDouble(term);
+            if (ic <= 0) {
+                continue;
+            }
+            empty = false;
+            for (int i = 0; i < hashes; i++) {
+                double value = -Math.log(uniform(i, term)) / ic;
+                if (value < minValues[i]) {
+                    minValues[i] = value;
+                    sketch[i] = term;
+                }
+            }
+        }
+        if (empty) {
+            return null;
+        }
+        long[] keys = new long[this.bands];
+        for (int band = 0; band < this.bands; band++) {
+            long key = band;
+            for (int row = 0; row < this.rows; row++) {
+                key = mix(key * TERM_GAMMA + sketch[band * this.rows + row]);
+            }
+            keys[band] = key;
+        }
+        return keys;
+    }
+
+    private void removeUnlocked(String id)
+    {
+        Entry entry = this.entries.remove(id);
+        if (entry == null) {
+            return;
+        }
+        for (int band = 0; band < this.bands; band++) {
+            Map<Long, Set<String>> bucketsInBand = this.buckets.get(band);
+            Set<String> bucket = bucketsInBand.get(entry.keys[band]);
+            bucket.remove(id);
+            if (bucket.isEmpty()) {
+                bucketsInBand.remove(entry.keys[band]);
+            }
+        }
+    }
+
+    private double getCommonIC(int[] a, int[] b)
+    {
+        double common = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                common += this.termICs.applyAsDouble(a[i]);
+                i++;
+                j++;
+            }
+        }
+        return common;
+    }
+
+    /**
+     * Returns the value drawn by a hash function for a term.
+     *
+     * @param hash the number of the hash function
+     * @param term the ordinal of the term
+     * @return a pseudo-random number in {@code (0, 1)}, always the same for the same hash function and term
+     */
+    private double uniform(int hash, int term)
+    {
+        long bits = mix(this.seed + (hash + 1) * GOLDEN_GAMMA + term * TERM_GAMMA);
+        return ((bits >>> DROPPED_BITS) + 0.5) * DOUBLE_UNIT;
+    }
+
+    /**
+     * The SplitMix64 finalizer, turning consecutive inputs into well distributed outputs.
+     *
+     * @param value the value to mix
+     * @return the mixed value
+     */
+    @SuppressWarnings("checkstyle:MagicNumber")
+    private static long mix(long value)
+    {
+        long z = value;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * An indexed patient.
+     */
+    private static final class Entry
+    {
+        private final int[] terms;
+
+        private final double totalIC;
+
+        private final long[] keys;
+
+        Entry(int[] terms, double totalIC, long[] keys)
+        {
+            this.terms = terms;
+            this.totalIC = totalIC;
+            this.keys = keys;
+        }
+    }
+
+    /**
+     * A candidate patient together with its exact score.
+     */
+    private static final class Candidate
+    {
+        private final String id;
+
+        private final double score;
+
+        Candidate(String id, double score)
+        {
+            this.id = id;
+            this.score = score;
+        }
+    }
+}
@@ -17,22 +17,18 @@
  */
 package org.phenotips.data.similarity.internal;
 
-import org.phenotips.components.ComponentManagerRegistry;
-
-import org.xwiki.cache.Cache;
-import org.xwiki.cache.CacheException;
-import org.xwiki.cache.CacheManager;
-import org.xwiki.cache.config.CacheConfiguration;
-import org.xwiki.component.manager.ComponentLookupException;
-import org.xwiki.component.manager.ComponentManager;
-
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Wrapper over an xwiki cache to better handle keys corresponding to pairs of entities.
+ * Bounded, thread safe cache for values computed from a pair of entities. Each entry is tagged with the version of the
+ * data it was computed from, and is only returned for the same version, so a value computed from an outdated entity is
+ * never served. The cache is split into segments, each evicting its least recently used entries once full, and keeps
+ * track of the keys of the entries involving each entity, so that all the entries of an entity can be dropped at once.
  *
  * @param <T> the type of data to put in the cache
  * @version $Id$
@@ -40,48 +36,37 @@
  */
 public class PairCache<T>
 {
-    /** The cache being wrapped. */
-    private Cache<T> cache;
+    /** The number of independently locked segments. */
+    private static final int SEGMENTS = 16;
+
+    /** The segments holding the entries, selected by the hash of the keys. */
+    private final Segment[] segments;
 
     /** Keys of all cache entries involving one of the IDs. */
-    private Map<String, Collection<String>> idEntries;
+    private final Map<String, Collection<String>> idEntries = new ConcurrentHashMap<>();
 
-    /**
-     * Create a cache that associates a pair of IDs with each cache entry.
-     *
-     * @throws CacheException if the cache cannot be created.
-     */
-    public PairCache() throws CacheException
-    {
-        this.idEntries = new HashMap<>();
-
-        try {
-            ComponentManager componentManager = ComponentManagerRegistry.getContextComponentManager();
-            CacheManager cacheManager = componentManager.getInstance(CacheManager.class);
-            this.cache = cacheManager.createNewLocalCache(new CacheConfiguration());
-        } catch (ComponentLookupException e) {
-            this.cache = null;
-        }
+    /** The number of lookups that found a value. */
+    private final LongAdder hits = new LongAdder();
 
-        if (this.cache == null) {
-            throw new CacheException("Error getting local cache factory");
-        }
-    }
+    /** The number of lookups that didn't find a value, or found an outdated one. */
+    private final LongAdder misses = new LongAdder();
+
+    /** The number of entries removed to make room for new ones. */
+    private final LongAdder evictions = new LongAdder();
 
     /**
-     * Add the cacheKey to the collection of cache keys associated with the given ID.
+     * Create a cache that associates a pair of IDs with each cache entry.
      *
-     * @param id the unique ID to associate with the cache key.
-     * @param cacheKey the cache key to associate with.
+     * @param capacity the maximum number of entries to keep
      */
-    private void associateWithCacheKey(String id, String cacheKey)
+    @SuppressWarnings("unchecked")
+    public PairCache(int capacity)
     {
-        Collection<String> associatedKeys = this.idEntries.get(id);
-        if (associatedKeys == null) {
-            associatedKeys = new HashSet<>();
-            this.idEntries.put(id, associatedKeys);
+        int segmentCapacity = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+        this.segments = new PairCache.Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            this.segments[i] = new Segment(segmentCapacity);
         }
-        associatedKeys.add(cacheKey);
     }
 
     /**
@@ -90,26 +75,27 @@ private void associateWithCacheKey(String id, String cacheKey)
      * @param id1 an id to associate with the entry.
      * @param id2 another id to associate with the entry.
      * @param cacheKey the key for the cache entry.
+     * @param version the version of the data the value was computed from
      * @param value the value to insert into the cache.
      */
-    public void set(String id1, String id2, String cacheKey, T value)
+    public void set(String id1, String id2, String cacheKey, String version, T value)
     {
-        this.cache.set(cacheKey, value);
-
-        // Associate each key with the cacheKey
-        associateWithCacheKey(id1, cacheKey);
-        associateWithCacheKey(id2, cacheKey);
+        getSegment(cacheKey).put(cacheKey, new Entry<>(id1, id2, version, value));
     }
 
     /**
-     * Get the value associated with the given cacheKey.
+     * Get the value associated with the given cacheKey, if it was computed from the given version of the data.
      *
      * @param cacheKey the key to query from the cache.
-     * @return the value associated with the key, or null if there is no value.
+     * @param version the current version of the data
+     * @return the value associated with the key, or null if there is no value or if it was computed from another
+     *         version of the data
      */
-    public T get(String cacheKey)
+    public T get(String cacheKey, String version)
     {
-        return this.cache.get(cacheKey);
+        T value = getSegment(cacheKey).get(cacheKey, version);
+        (value == null ? this.misses : this.hits).increment();
+        return value;
     }
 
     /**
@@ -123,7 +109,7 @@ public void removeAssociated(String id)
         Collection<String> cacheKeys = this.idEntries.remove(id);
         if (cacheKeys != null) {
             for (String cacheKey : cacheKeys) {
-                this.cache.remove(cacheKey);
+                getSegment(cacheKey).remove(cacheKey);
             }
         }
     }
@@ -133,7 +119,179 @@ public void removeAssociated(String id)
      */
     public void removeAll()
     {
-        this.cache.removeAll();
-        this.idEntries.clear();
+        for (Segment segment : this.segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Return the number of entries in the cache.
+     *
+     * @return the number of cached values
+     */
+    public int size()
+    {
+        int size = 0;
+        for (Segment segment : this.segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Return the number of lookups that found a value since the cache was created.
+     *
+     * @return the number of cache hits
+     */
+    public long getHitCount()
+    {
+        return this.hits.sum();
+    }
+
+    /**
+     * Return the number of lookups that didn't find a value for the requested version since the cache was created.
+     *
+     * @return the number of cache misses
+     */
+    public long getMissCount()
+    {
+        return this.misses.sum();
+    }
+
+    /**
+     * Return the number of entries removed to make room for new ones since the cache was created.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount()
+    {
+        return this.evictions.sum();
+    }
+
+    private Segment getSegment(String cacheKey)
+    {
+        int hash = cacheKey.hashCode();
+        return this.segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private void associate(String id, String cacheKey)
+    {
+        this.idEntries.compute(id, (key, keys) -> {
+            Collection<String> result = keys == null ? new HashSet<String>() : keys;
+            result.add(cacheKey);
+            return result;
+        });
+    }
+
+    private void dissociate(String id, String cacheKey)
+    {
+        this.idEntries.computeIfPresent(id, (key, keys) -> {
+            keys.remove(cacheKey);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    /**
+     * A cached value, with the IDs and the version of the data it was computed from.
+     *
+     * @param <T> the type of the value
+     */
+    private static final class Entry<T>
+    {
+        private final String id1;
+
+        private final String id2;
+
+        private final String version;
+
+        private final T value;
+
+        Entry(String id1, String id2, String version, T value)
+        {
+            this.id1 = id1;
+            this.id2 = id2;
+            this.version = version;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A part of the cache, guarded by its own lock. The reverse index of the IDs is updated under the same lock as the
+     * entries, so that it stays consistent with the entries when they are replaced, evicted or removed.
+     */
+    private final class Segment
+    {
+        private final LinkedHashMap<String, Entry<T>> entries;
+
+        Segment(int capacity)
+        {
+            this.entries = new LinkedHashMap<String, Entry<T>>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry<T>> eldest)
+                {
+                    if (size() <= capacity) {
+                        return false;
+                    }
+                    evictions.increment();
+                    dissociate(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+            };
+        }
+
+        synchronized T get(String cacheKey, String version)
+        {
+            Entry<T> entry = this.entries.get(cacheKey);
+            if (entry == null) {
+                return null;
+            }
+            if (!entry.version.equals(version)) {
+                // computed from an outdated version of one of the entities, it won't be used again
+                this.entries.remove(cacheKey);
+                dissociate(cacheKey, entry);
+                return null;
+            }
+            return entry.value;
+        }
+
+        synchronized void put(String cacheKey, Entry<T> entry)
+        {
+            Entry<T> previous = this.entries.put(cacheKey, entry);
+            if (previous != null) {
+                dissociate(cacheKey, previous);
+            }
+            associate(entry.id1, cacheKey);
+            associate(entry.id2, cacheKey);
+        }
+
+        synchronized void remove(String cacheKey)
+        {
+            Entry<T> entry = this.entries.remove(cacheKey);
+            if (entry != null) {
+                dissociate(cacheKey, entry);
+            }
+        }
+
+        synchronized void clear()
+        {
+            for (Map.Entry<String, Entry<T>> entry : this.entries.entrySet()) {
+                dissociate(entry.getKey(), entry.getValue());
+            }
+            this.entries.clear();
+        }
+
+        synchronized int size()
+        {
+            return this.entries.size();
+        }
+
+        private void dissociate(String cacheKey, Entry<T> entry)
+        {
+            PairCache.this.dissociate(entry.id1, cacheKey);
+            PairCache.this.dissociate(entry.id2, cacheKey);
+        }
     }
 }
@@ -0,0 +1,169 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.events.PatientChangedEvent;
+import org.phenotips.data.events.PatientDeletingEvent;
+import org.phenotips.data.similarity.ExomeManager;
+import org.phenotips.data.similarity.PatientGeneIndex;
+import org.phenotips.data.similarity.PatientGenotypeManager;
+import org.phenotips.data.similarity.PatientPhenotypeIndex;
+import org.phenotips.data.similarity.PatientPhenotypeProfileManager;
+import org.phenotips.data.similarity.PatientSimilarityViewFactory;
+import org.phenotips.data.similarity.genotype.DefaultPatientGenotypeManager;
+import org.phenotips.data.similarity.genotype.ExomiserExomeManager;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Drops the cached similarity data of a patient as soon as the patient is modified or deleted, so that stale data is
+ * not kept in memory until it is evicted, and keeps all the {@link PatientPhenotypeIndex} implementations and the
+ * {@link PatientGeneIndex} in sync with the stored patients. This covers the phenotype profiles, the similarity
+ * views of all the view factories, the genotype and the exome of the patient. The views of a patient are also dropped
+ * when its exome file changes on disk, as long as the exome directory is watched; otherwise the
+ * {@code PhenoTips.ClearPatientCache} page is needed when the exome files are changed outside of the wiki.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component
+@Named("patient-similarity-cache-invalidator")
+@Singleton
+public class PatientSimilarityCacheInvalidator extends AbstractEventListener implements Initializable
+{
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
+    /** Provides the cached phenotype profiles of patients. */
+    @Inject
+    private PatientPhenotypeProfileManager profileManager;
+
+    /** Provides the cached exomes of patients. */
+    @Inject
+    @Named("exomiser")
+    private ExomeManager exomeManager;
+
+    /** Provides the cached genotypes of patients. */
+    @Inject
+    private PatientGenotypeManager genotypeManager;
+
+    /** Finds the patients sharing genes. */
+    @Inject
+    private PatientGeneIndex geneIndex;
+
+    /** Used for looking up all the phenotype indexes and view factories. */
+    @Inject
+    @Named("wiki")
+    private ComponentManager componentManager;
+
+    /** Loads patients from the modified documents. */
+    @Inject
+    private Provider<PatientRepository> patientRepository;
+
+    /** Default constructor, sets up the listener name and the list of events to subscribe to. */
+    public PatientSimilarityCacheInvalidator()
+    {
+        super("patient-similarity-cache-invalidator",
+            Arrays.<Event>asList(new PatientChangedEvent(), new PatientDeletingEvent()));
+    }
+
+    @Override
+    public void initialize()
+    {
+        if (this.exomeManager instanceof ExomiserExomeManager) {
+            // the views hold the genotype scores computed from the previous exome
+            ((ExomiserExomeManager) this.exomeManager).addChangeListener(this::clearViews);
+        }
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument doc = (XWikiDocument) source;
+        String patientId = doc.getDocumentReference().getName();
+        this.profileManager.clearPatientCache(patientId);
+        clearViews(patientId);
+        if (this.exomeManager instanceof ExomiserExomeManager) {
+            ((ExomiserExomeManager) this.exomeManager).clearPatientCache(patientId);
+        }
+        if (this.genotypeManager instanceof DefaultPatientGenotypeManager) {
+            ((DefaultPatientGenotypeManager) this.genotypeManager).clearPatientCache(patientId);
+        }
+
+        Patient patient = event instanceof PatientDeletingEvent ? null : this.patientRepository.get().load(doc);
+        if (patient == null) {
+            this.geneIndex.remove(patientId);
+        } else {
+            this.geneIndex.index(patient);
+        }
+
+        List<PatientPhenotypeIndex> indexes;
+        try {
+            indexes = this.componentManager.getInstanceList(PatientPhenotypeIndex.class);
+        } catch (ComponentLookupException ex) {
+            this.logger.error("Failed to look up the phenotype indexes: {}", ex.getMessage());
+            return;
+        }
+        for (PatientPhenotypeIndex index : indexes) {
+            if (patient == null) {
+                index.remove(patientId);
+            } else {
+                index.index(patient);
+            }
+        }
+    }
+
+    /**
+     * Drop the cached views involving a patient from all the view factories, each of them keeping its own cache.
+     *
+     * @param patientId the identifier of the modified patient
+     */
+    private void clearViews(String patientId)
+    {
+        try {
+            for (PatientSimilarityViewFactory factory : this.componentManager
+                .<PatientSimilarityViewFactory>getInstanceList(PatientSimilarityViewFactory.class)) {
+                if (factory instanceof DefaultPatientSimilarityViewFactory) {
+                    ((DefaultPatientSimilarityViewFactory) factory).clearPatientViews(patientId);
+                }
+            }
+        } catch (ComponentLookupException ex) {
+            this.logger.error("Failed to look up the similarity view factories: {}", ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import org.phenotips.data.Disorder;
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientData;
+import org.phenotips.data.similarity.PatientGenotype;
+import org.phenotips.data.similarity.PatientGenotypeManager;
+import org.phenotips.data.similarity.PatientPhenotypeProfile;
+import org.phenotips.data.similarity.PatientPhenotypeProfileManager;
+import org.phenotips.data.similarity.genotype.DefaultPatientGenotypeSimilarityView;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Scores many candidate patients against the same reference patient, without building any similarity view. Everything
+ * that only depends on the reference patient (its phenotype profile, genotype and disorders) is computed once, when the
+ * scorer is created. Scores are the same as the ones returned by {@link DefaultPatientSimilarityView#getScore()}.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class PatientSimilarityScorer
+{
+    /** The name of the patient data holding the clinical diagnosis. */
+    private static final String CLINICAL_DIAGNOSIS = "clinical-diagnosis";
+
+    /** Each matching disorder reduces the distance between the phenotype score and 1 by 1/3. */
+    private static final double DISORDER_BIAS = 3;
+
+    /** Orders scored patients by increasing score. */
+    private static final Comparator<ScoredPatient> BY_SCORE = new Comparator<ScoredPatient>()
+    {
+        @Override
+        public int compare(ScoredPatient o1, ScoredPatient o2)
+        {
+            return Double.compare(o1.getScore(), o2.getScore());
+        }
+    };
+
+    /** Provides the phenotype profiles of candidate patients. */
+    private final PatientPhenotypeProfileManager profileManager;
+
+    /** Provides the genotypes of candidate patients, may be {@code null}. */
+    private final PatientGenotypeManager genotypeManager;
+
+    /** The phenotype profile of the reference patient. */
+    private final PatientPhenotypeProfile referenceProfile;
+
+    /** The genotype of the reference patient, {@code null} if it has no genotype data. */
+    private final PatientGenotype referenceGenotype;
+
+    /** The identifiers of the disorders of the reference patient. */
+    private final Set<String> referenceDisorders;
+
+    /** The identifiers of the clinical diagnosis of the reference patient. */
+    private final Set<String> referenceClinicalDisorders;
+
+    /**
+     * Pre-processes the reference patient.
+     *
+     * @param reference the reference patient, must not be {@code null}
+     * @param profileManager provides the phenotype profiles of patients, must not be {@code null}
+     * @param genotypeManager provides the genotypes of patients, {@code null} to ignore genotypes
+     */
+    public PatientSimilarityScorer(Patient reference, PatientPhenotypeProfileManager profileManager,
+        PatientGenotypeManager genotypeManager)
+    {
+        this.profileManager = profileManager;
+        this.genotypeManager = genotypeManager;
+        this.referenceProfile = profileManager.getProfile(reference);
+        PatientGenotype genotype = genotypeManager == null ? null : genotypeManager.getGenotype(reference);
+        this.referenceGenotype = genotype != null && genotype.hasGenotypeData() ? genotype : null;
+        this.referenceDisorders = getDisorderIds(reference.getDisorders());
+        this.referenceClinicalDisorders = getDisorderIds(getClinicalDisorders(reference));
+    }
+
+    /**
+     * Score candidate patients, keeping only the best ones. The phenotype score is computed first, and the genotype of
+     * a candidate is not even looked at when the candidate could not make the cut with a perfect genotype score.
+     *
+     * @param matches the candidate patients, {@code null} items are ignored
+     * @param minScore only candidates with a score strictly above this threshold are kept
+     * @param maxResults the maximum number of candidates to keep, {@code 0} or less to keep all the candidates above
+     *            the threshold
+     * @return the retained candidates with their scores, in decreasing order of score; may be empty
+     */
+    public List<ScoredPatient> score(Collection<? extends Patient> matches, double minScore, int maxResults)
+    {
+        boolean limited = maxResults > 0;
+        PriorityQueue<ScoredPatient> best = new PriorityQueue<>(limited ? maxResults : 16, BY_SCORE);
+        double maxGenotypeScore = this.referenceGenotype == null ? 0.0 : 1.0;
+        for (Patient match : matches) {
+            if (match == null) {
+                continue;
+            }
+            double phenotypeScore = getPhenotypeScore(match);
+            double cutoff = minScore;
+            if (limited && best.size() == maxResults) {
+                cutoff = Math.max(cutoff, best.peek().getScore());
+            }
+            if (0.5 * (phenotypeScore + maxGenotypeScore) <= cutoff) {
+                continue;
+            }
+            double score = 0.5 * (phenotypeScore + getGenotypeScore(match));
+            if (score <= cutoff) {
+                continue;
+            }
+            if (limited && best.size() == maxResults) {
+                best.poll();
+            }
+            best.add(new ScoredPatient(match, score));
+        }
+
+        List<ScoredPatient> results = new ArrayList<>(best);
+        Collections.sort(results, Collections.reverseOrder(BY_SCORE));
+        return results;
+    }
+
+    /**
+     * Compute the similarity score of a candidate patient.
+     *
+     * @param match the candidate patient, must not be {@code null}
+     * @return the similarity score, a number between {@code 0} and {@code 1}
+     */
+    public double getScore(Patient match)
+    {
+        return 0.5 * (getPhenotypeScore(match) + getGenotypeScore(match));
+    }
+
+    /**
+     * Compute the phenotype score of a candidate patient, adjusted with the disorders shared with the reference.
+     *
+     * @param match the candidate patient, must not be {@code null}
+     * @return the phenotype score, a number between {@code 0} and {@code 1}
+     */
+    public double getPhenotypeScore(Patient match)
+    {
+        PatientPhenotypeProfile matchProfile = this.profileManager.getProfile(match);
+        if (this.referenceProfile.isEmpty() || matchProfile.isEmpty()) {
+            return 0.0;
+        }
+        double baseScore = this.referenceProfile.getSimilarity(matchProfile);
+        int matchingDisorders = countMatching(match.getDisorders(), this.referenceDisorders)
+            + countMatching(getClinicalDisorders(match), this.referenceClinicalDisorders);
+        return adjustScoreWithDisorders(baseScore, matchingDisorders);
+    }
+
+    /**
+     * Compute the genotype score of a candidate patient, i.e. the best score of a gene matching the reference.
+     *
+     * @param match the candidate patient, must not be {@code null}
+     * @return the genotype score, a number between {@code 0} and {@code 1}
+     */
+    public double getGenotypeScore(Patient match)
+    {
+        if (this.referenceGenotype == null) {
+            return 0.0;
+        }
+        PatientGenotype matchGenotype = this.genotypeManager.getGenotype(match);
+        if (matchGenotype == null || !matchGenotype.hasGenotypeData()) {
+            return 0.0;
+        }
+        double maxScore = 0.0;
+        for (Double score : DefaultPatientGenotypeSimilarityView.scoreGenes(this.referenceGenotype, matchGenotype)
+            .values()) {
+            maxScore = Math.max(maxScore, score);
+        }
+        return maxScore;
+    }
+
+    /**
+     * Adjust the similarity score by taking into account common disorders. Matching disorders will boost the base
+     * score given by the phenotypic similarity, while unmatched disorders don't affect the score at all.
+     *
+     * @param baseScore the score given by features alone, a number between {@code 0} and {@code 1}
+     * @param matchingDisorders the number of disorders shared by the two patients
+     * @return the adjusted similarity score, boosted closer to {@code 1} for each common disorder; the score is never
+     *         lowered, and never goes above {@code 1}
+     */
+    public static double adjustScoreWithDisorders(double baseScore, int matchingDisorders)
+    {
+        double adjustedScore = baseScore;
+        for (int i = 0; i < matchingDisorders; i++) {
+            // For each disorder match, reduce the distance between the current score to 1 by 1/3
+            adjustedScore = adjustedScore + (1 - adjustedScore) / DISORDER_BIAS;
+        }
+        return adjustedScore;
+    }
+
+    private static int countMatching(Collection<? extends Disorder> disorders, Set<String> referenceIds)
+    {
+        int count = 0;
+        for (Disorder disorder : disorders) {
+            if (referenceIds.contains(disorder.getId())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Set<String> getDisorderIds(Collection<? extends Disorder> disorders)
+    {
+        Set<String> ids = new HashSet<>();
+        for (Disorder disorder : disorders) {
+            ids.add(disorder.getId());
+        }
+        return ids;
+    }
+
+    private static Set<Disorder> getClinicalDisorders(Patient patient)
+    {
+        PatientData<Disorder> data = patient.getData(CLINICAL_DIAGNOSIS);
+        Set<Disorder> disorders = new TreeSet<>();
+        if (data != null) {
+            Iterator<Disorder> iterator = data.iterator();
+            while (iterator.hasNext()) {
+                disorders.add(iterator.next());
+            }
+        }
+        return disorders;
+    }
+
+    /**
+     * A candidate patient together with its similarity score.
+     */
+    public static final class ScoredPatient
+    {
+        private final Patient patient;
+
+        private final double score;
+
+        ScoredPatient(Patient patient, double score)
+        {
+            this.patient = patient;
+            this.score = score;
+        }
+
+        /**
+         * Return the scored candidate patient.
+         *
+         * @return the candidate patient
+         */
+        public Patient getPatient()
+        {
+            return this.patient;
+        }
+
+        /**
+         * Return the similarity score of the candidate patient.
+         *
+         * @return the similarity score, a number between {@code 0} and {@code 1}
+         */
+        public double getScore()
+        {
+            return this.score;
+        }
+    }
+}
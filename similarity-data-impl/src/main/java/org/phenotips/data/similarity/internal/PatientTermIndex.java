@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * In-memory index of the ancestor closures of patients, queried for the patients most similar to a reference closure.
+ * The similarity is the information content of the shared terms divided by the information content of all the terms
+ * in the two closures. Implementations must be safe to use from several threads.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public interface PatientTermIndex
+{
+    /**
+     * Returns the number of patients currently in the index.
+     *
+     * @return the number of indexed patients
+     */
+    int size();
+
+    /**
+     * Adds a patient to the index, replacing any previous entry for the same patient. Patients without any term are
+     * not indexed, since they can never be matched.
+     *
+     * @param id the identifier of the patient
+     * @param terms the ordinals of the terms in the closure of the patient, in increasing order
+     * @param totalIC the total information content of the terms in the closure
+     */
+    void put(String id, int[] terms, double totalIC);
+
+    /**
+     * Removes a patient from the index.
+     *
+     * @param id the identifier of the patient
+     */
+    void remove(String id);
+
+    /**
+     * Finds the indexed patients with the best score against a reference closure.
+     *
+     * @param terms the ordinals of the terms in the closure of the reference, in increasing order
+     * @param totalIC the total information content of the terms in the reference closure
+     * @param excludedId the identifier of a patient to leave out of the result, may be {@code null}
+     * @param maxResults the maximum number of patients to return, {@code 0} or less for no limit
+     * @param filter called for each patient about to enter the result, only accepted patients are returned; it is
+     *            called without holding any lock on the index, so it may be slow; may be {@code null}
+     * @return the identifiers of the best patients with a non-zero score, in decreasing order of score
+     */
+    List<String> findTopMatches(int[] terms, double totalIC, String excludedId, int maxResults,
+        Predicate<String> filter);
+}
@@ -0,0 +1,404 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.Predicate;
+
+/**
+ * Inverted index from term ordinals to the patients whose ancestor closure contains the term. Each patient gets a
+ * dense ordinal when it is added, and posting lists hold patient ordinals in increasing order, so that they can be
+ * traversed document-at-a-time. Updating a patient gives it a new ordinal, and removed ordinals are only skipped until
+ * there are enough of them to make compacting the posting lists worthwhile.
+ * <p>
+ * Top-k queries use the MaxScore strategy: the score of a candidate sharing terms with total information content
+ * {@code c} with the reference cannot exceed {@code c / refTotal}, so the reference terms with the lowest information
+ * content whose sum cannot beat the current k-th best score are not used for generating candidates anymore, and are
+ * only looked up for computing the exact score of the candidates found through the other terms.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class PhenotypeInvertedIndex implements PatientTermIndex
+{
+    /** Removed patients are compacted away once there are at least this many of them, and more than live ones. */
+    private static final int MIN_REMOVED_TO_COMPACT = 1024;
+
+    /** Number of bits needed to address a bit inside a {@code long} word. */
+    private static final int ADDRESS_BITS_PER_WORD = 6;
+
+    /** Initial capacity of the per-patient arrays and of the posting lists. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Provides the information content of each term ordinal. */
+    private final IntToDoubleFunction termICs;
+
+    /** Guards all the fields below; queries can run in parallel, updates are exclusive. */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Maps patient identifiers to their current ordinal. */
+    private final Map<String, Integer> patientOrdinals = new HashMap<>();
+
+    /** The identifier of each patient, indexed by ordinal, {@code null} for removed patients. */
+    private String[] patientIds = new String[INITIAL_CAPACITY];
+
+    /** The total information content of the closure of each patient, indexed by ordinal. */
+    private double[] patientTotals = new double[INITIAL_CAPACITY];
+
+    /** The number of patient ordinals assigned so far, including the removed ones. */
+    private int patientCount;
+
+    /** The number of removed patients whose ordinals are still present in the posting lists. */
+    private int removedCount;
+
+    /** The patient ordinals whose closure contains each term, indexed by term ordinal. */
+    private int[][] postings = new int[0][];
+
+    /** The number of valid entries in each posting list. */
+    private int[] postingSizes = new int[0];
+
+    /**
+     * Simple constructor passing the information content of terms.
+     *
+     * @param termICs returns the information content of a term ordinal
+     */
+    public PhenotypeInvertedIndex(IntToDoubleFunction termICs)
+    {
+        this.termICs = termICs;
+    }
+
+    /**
+     * Converts an ancestor closure bitset into the list of term ordinals it contains.
+     *
+     * @param closure the closure, where bit {@code i} is set iff the term with ordinal {@code i} is implied
+     * @return the ordinals of the terms in the closure, in increasing order
+     */
+    public static int[] toOrdinals(long[] closure)
+    {
+        int count = 0;
+        for (long word : closure) {
+            count += Long.bitCount(word);
+        }
+        int[] ordinals = new int[count];
+        int next = 0;
+        for (int i = 0; i < closure.length; i++) {
+            long remaining = closure[i];
+            while (remaining != 0) {
+                ordinals[next++] = (i << ADDRESS_BITS_PER_WORD) + Long.numberOfTrailingZeros(remaining);
+                remaining &= remaining - 1;
+            }
+        }
+        return ordinals;
+    }
+
+    @Override
+    public int size()
+    {
+        this.lock.readLock().lock();
+        try {
+            return this.patientOrdinals.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void put(String id, int[] terms, double totalIC)
+    {
+        this.lock.writeLock().lock();
+        try {
+            removeUnlocked(id);
+            if (terms.length == 0) {
+                return;
+            }
+            int ordinal = this.patientCount++;
+            if (ordinal == this.patientIds.length) {
+                this.patientIds = Arrays.copyOf(this.patientIds, ordinal * 2);
+                this.patientTotals = Arrays.copyOf(this.patientTotals, ordinal * 2);
+            }
+            this.patientIds[ordinal] = id;
+            this.patientTotals[ordinal] = totalIC;
+            this.patientOrdinals.put(id, ordinal);
+            for (int term : terms) {
+                addPosting(term, ordinal);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(String id)
+    {
+        this.lock.writeLock().lock();
+        try {
+            removeUnlocked(id);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> findTopMatches(int[] terms, double totalIC, String excludedId, int maxResults,
+        Predicate<String> filter)
+    {
+        if (filter == null) {
+            return search(terms, totalIC, excludedId, maxResults);
+        }
+        // The filter may be slow, for example it may load patients, so it is only called once the lock is released,
+        // on the ranked candidates; if it rejects too many of them, search again for a longer ranking
+        Map<String, Boolean> accepted = new HashMap<>();
+        int limit = maxResults;
+        while (true) {
+            List<String> ranked = search(terms, totalIC, excludedId, limit);
+            List<String> result = new ArrayList<>();
+            for (String id : ranked) {
+                if (maxResults > 0 && result.size() == maxResults) {
+                    break;
+                }
+                if (accepted.computeIfAbsent(id, filter::test)) {
+                    result.add(id);
+                }
+            }
+            if (limit <= 0 || result.size() == maxResults || ranked.size() < limit) {
+                return result;
+            }
+            limit = limit > Integer.MAX_VALUE / 2 ? 0 : limit * 2;
+        }
+    }
+
+    private List<String> search(int[] terms, double totalIC, String excludedId, int maxResults)
+    {
+        this.lock.readLock().lock();
+        try {
+            return searchUnlocked(terms, totalIC, excludedId, maxResults);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private List<String> searchUnlocked(int[] terms, double totalIC, String excludedId, int maxResults)
+    {
+        // The cursors over the posting lists of the reference terms, by increasing information content
+        List<Cursor> cursors = new ArrayList<>(terms.length);
+        for (int term : terms) {
+            double ic = this.termICs.applyAsDouble(term);
+            if (ic > 0 && term < this.postings.length && this.postingSizes[term] > 0) {
+                cursors.add(new Cursor(this.postings[term], this.postingSizes[term], ic));
+            }
+        }
+        if (cursors.isEmpty() || totalIC <= 0) {
+            return Collections.emptyList();
+        }
+        Collections.sort(cursors);
+        int count = cursors.size();
+        // boundBelow[i] is the total information content of the terms with a lower information content than term i
+        double[] boundBelow = new double[count + 1];
+        for (int i = 0; i < count; i++) {
+            boundBelow[i + 1] = boundBelow[i] + cursors.get(i).ic;
+        }
+
+        ScoredMatches best = new ScoredMatches(maxResults);
+        // Terms below this index can't generate candidates on their own, they are only used for scoring
+        int firstEssential = 0;
+        while (true) {
+            double threshold = best.getThreshold();
+            while (firstEssential < count && boundBelow[firstEssential + 1] / totalIC <= threshold) {
+                firstEssential++;
+            }
+            int candidate = nextCandidate(cursors, firstEssential);
+            if (candidate == Integer.MAX_VALUE) {
+                break;
+            }
+            double common = 0;
+            for (int i = firstEssential; i < count; i++) {
+                common += cursors.get(i).consume(candidate);
+            }
+            String id = this.patientIds[candidate];
+            if (id == null || id.equals(excludedId)) {
+                continue;
+            }
+            double candidateTotal = this.patientTotals[candidate];
+            double bound = Math.min(common + boundBelow[firstEssential], candidateTotal);
+            if (ScoredMatches.score(bound, totalIC, candidateTotal) <= threshold) {
+                continue;
+            }
+            for (int i = 0; i < firstEssential; i++) {
+                common += cursors.get(i).advanceTo(candidate);
+            }
+            double score = ScoredMatches.score(common, totalIC, candidateTotal);
+            if (score > threshold) {
+                best.add(id, score);
+            }
+        }
+        return best.getIds();
+    }
+
+    private static int nextCandidate(List<Cursor> cursors, int firstEssential)
+    {
+        int candidate = Integer.MAX_VALUE;
+        for (int i = firstEssential; i < cursors.size(); i++) {
+            candidate = Math.min(candidate, cursors.get(i).current());
+        }
+        return candidate;
+    }
+
+    private void addPosting(int term, int ordinal)
+    {
+        if (term >= this.postings.length) {
+            int length = Math.max(term + 1, this.postings.length * 2);
+            this.postings = Arrays.copyOf(this.postings, length);
+            this.postingSizes = Arrays.copyOf(this.postingSizes, length);
+        }
+        int[] posting = this.postings[term];
+        int size = this.postingSizes[term];
+        if (posting == null) {
+            posting = new int[INITIAL_CAPACITY];
+            this.postings[term] = posting;
+        } else if (size == posting.length) {
+            posting = Arrays.copyOf(posting, size * 2);
+            this.postings[term] = posting;
+        }
+        posting[size] = ordinal;
+        this.postingSizes[term] = size + 1;
+    }
+
+    private void removeUnlocked(String id)
+    {
+        Integer ordinal = this.patientOrdinals.remove(id);
+        if (ordinal == null) {
+            return;
+        }
+        this.patientIds[ordinal] = null;
+        this.removedCount++;
+        if (this.removedCount >= MIN_REMOVED_TO_COMPACT && this.removedCount > this.patientOrdinals.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Renumbers the remaining patients so that removed ordinals disappear from the posting lists. Renumbering
+     * preserves the relative order of the patients, so the posting lists stay sorted.
+     */
+    private void compact()
+    {
+        int[] renumbered = new int[this.patientCount];
+        int live = 0;
+        for (int ordinal = 0; ordinal < this.patientCount; ordinal++) {
+            if (this.patientIds[ordinal] == null) {
+                renumbered[ordinal] = -1;
+                continue;
+            }
+            renumbered[ordinal] = live;
+            this.patientIds[live] = this.patientIds[ordinal];
+            this.patientTotals[live] = this.patientTotals[ordinal];
+            this.patientOrdinals.put(this.patientIds[live], live);
+            live++;
+        }
+        Arrays.fill(this.patientIds, live, this.patientCount, null);
+        this.patientCount = live;
+        this.removedCount = 0;
+        for (int term = 0; term < this.postings.length; term++) {
+            int[] posting = this.postings[term];
+            int size = 0;
+            for (int i = 0; i < this.postingSizes[term]; i++) {
+                int ordinal = renumbered[posting[i]];
+                if (ordinal >= 0) {
+                    posting[size++] = ordinal;
+                }
+            }
+            this.postingSizes[term] = size;
+        }
+    }
+
+    /**
+     * Iterates over the posting list of one reference term.
+     */
+    private static final class Cursor implements Comparable<Cursor>
+    {
+        private final int[] posting;
+
+        private final int size;
+
+        private final double ic;
+
+        private int position;
+
+        Cursor(int[] posting, int size, double ic)
+        {
+            this.posting = posting;
+            this.size = size;
+            this.ic = ic;
+        }
+
+        /**
+         * Returns the patient ordinal under the cursor.
+         *
+         * @return the patient ordinal, {@link Integer#MAX_VALUE} once the list is exhausted
+         */
+        int current()
+        {
+            return this.position < this.size ? this.posting[this.position] : Integer.MAX_VALUE;
+        }
+
+        /**
+         * Moves past the given patient if it is the one under the cursor.
+         *
+         * @param patient the ordinal of the patient being scored
+         * @return the information content of the term if the patient has it, {@code 0} otherwise
+         */
+        double consume(int patient)
+        {
+            if (current() == patient) {
+                this.position++;
+                return this.ic;
+            }
+            return 0;
+        }
+
+        /**
+         * Moves to the first patient not lower than the given one, and past it if it has the term.
+         *
+         * @param patient the ordinal of the patient being scored
+         * @return the information content of the term if the patient has it, {@code 0} otherwise
+         */
+        double advanceTo(int patient)
+        {
+            if (current() < patient) {
+                int found = Arrays.binarySearch(this.posting, this.position, this.size, patient);
+                this.position = found >= 0 ? found : -found - 1;
+            }
+            return consume(patient);
+        }
+
+        @Override
+        public int compareTo(Cursor other)
+        {
+            return Double.compare(this.ic, other.ic);
+        }
+    }
+}
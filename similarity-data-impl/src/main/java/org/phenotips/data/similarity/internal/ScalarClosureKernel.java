@@ -0,0 +1,96 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+/**
+ * Portable {@link ClosureKernel} which looks up the information content of each set bit, one at a time. Empty words,
+ * by far the most common ones since closures only hold a few dozen terms out of thousands, cost a single test.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class ScalarClosureKernel implements ClosureKernel
+{
+    /** Number of bits needed to address a bit inside a {@code long} word. */
+    private static final int ADDRESS_BITS_PER_WORD = 6;
+
+    /** The information content of each term, indexed by ordinal. */
+    private final TermICTable termICs;
+
+    /**
+     * Simple constructor passing the information content of each term.
+     *
+     * @param termICs the information content of each term
+     */
+    public ScalarClosureKernel(TermICTable termICs)
+    {
+        this.termICs = termICs;
+    }
+
+    @Override
+    public double sum(long[] closure)
+    {
+        double total = 0;
+        for (int i = 0; i < closure.length; i++) {
+            total += sumWord(closure[i], i);
+        }
+        return total;
+    }
+
+    @Override
+    public double sumAnd(long[] a, long[] b)
+    {
+        double total = 0;
+        for (int i = 0; i < a.length; i++) {
+            total += sumWord(a[i] & b[i], i);
+        }
+        return total;
+    }
+
+    @Override
+    public double sumOr(long[] a, long[] b)
+    {
+        double total = 0;
+        for (int i = 0; i < a.length; i++) {
+            total += sumWord(a[i] | b[i], i);
+        }
+        return total;
+    }
+
+    /**
+     * Adds up the information content of the terms set in one bitset word.
+     *
+     * @param word the bits to add up
+     * @param wordIndex the index of the word inside the closure
+     * @return the sum of the information content of the set bits, {@code 0} for an empty word
+     */
+    private double sumWord(long word, int wordIndex)
+    {
+        if (word == 0) {
+            return 0;
+        }
+        double total = 0;
+        int base = wordIndex << ADDRESS_BITS_PER_WORD;
+        long remaining = word;
+        while (remaining != 0) {
+            total += this.termICs.getIC(base + Long.numberOfTrailingZeros(remaining));
+            remaining &= remaining - 1;
+        }
+        return total;
+    }
+}
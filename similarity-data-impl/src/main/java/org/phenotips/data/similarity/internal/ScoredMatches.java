@@ -0,0 +1,132 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Collects the best scored patients found by a {@link PatientTermIndex} query, keeping at most a fixed number of them.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+final class ScoredMatches
+{
+    /** Initial capacity of the queue when the number of matches is not limited. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Orders matches by increasing score. */
+    private static final Comparator<Match> BY_SCORE = new Comparator<Match>()
+    {
+        @Override
+        public int compare(Match o1, Match o2)
+        {
+            return Double.compare(o1.score, o2.score);
+        }
+    };
+
+    /** The maximum number of matches to keep, {@code 0} or less for no limit. */
+    private final int maxResults;
+
+    /** The matches kept so far, the worst one first. */
+    private final PriorityQueue<Match> best;
+
+    /**
+     * Simple constructor passing the number of matches to keep.
+     *
+     * @param maxResults the maximum number of matches to keep, {@code 0} or less for no limit
+     */
+    ScoredMatches(int maxResults)
+    {
+        this.maxResults = maxResults;
+        this.best = new PriorityQueue<>(maxResults > 0 ? maxResults + 1 : INITIAL_CAPACITY, BY_SCORE);
+    }
+
+    /**
+     * Returns the score a new match must exceed for being kept.
+     *
+     * @return the score of the worst kept match once the limit is reached, {@code 0} before
+     */
+    double getThreshold()
+    {
+        return this.maxResults > 0 && this.best.size() == this.maxResults ? this.best.peek().score : 0;
+    }
+
+    /**
+     * Adds a match, evicting the worst one if there are too many.
+     *
+     * @param id the identifier of the matched patient
+     * @param score the score of the match, should exceed {@link #getThreshold()}
+     */
+    void add(String id, double score)
+    {
+        this.best.add(new Match(id, score));
+        if (this.maxResults > 0 && this.best.size() > this.maxResults) {
+            this.best.poll();
+        }
+    }
+
+    /**
+     * Returns the kept matches.
+     *
+     * @return the identifiers of the kept patients, in decreasing order of score
+     */
+    List<String> getIds()
+    {
+        List<Match> matches = new ArrayList<>(this.best);
+        Collections.sort(matches, Collections.reverseOrder(BY_SCORE));
+        List<String> result = new ArrayList<>(matches.size());
+        for (Match match : matches) {
+            result.add(match.id);
+        }
+        return result;
+    }
+
+    /**
+     * Computes the similarity score of two closures.
+     *
+     * @param common the information content of the terms shared by the two closures
+     * @param referenceTotal the information content of the reference closure
+     * @param candidateTotal the information content of the candidate closure
+     * @return the information content of the shared terms divided by the information content of all the terms
+     */
+    static double score(double common, double referenceTotal, double candidateTotal)
+    {
+        return common / (referenceTotal + candidateTotal - common);
+    }
+
+    /**
+     * A matched patient together with its score.
+     */
+    private static final class Match
+    {
+        private final String id;
+
+        private final double score;
+
+        Match(String id, double score)
+        {
+            this.id = id;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+
+/**
+ * Counts, for each HPO term, how many times it is implied by the symptoms of a list of diseases. The diseases are split
+ * across a fork-join pool, each worker accumulates counts in its own primitive array indexed by term ordinal, and the
+ * partial counts are added up at the end. Since the counts are integers, and the counted terms are returned sorted by
+ * identifier, the result does not depend on the order in which diseases are processed.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class TermFrequencyCounter
+{
+    /** Number of diseases below which a task is processed sequentially instead of being split further. */
+    private static final int SEQUENTIAL_THRESHOLD = 64;
+
+    /** The human phenotype ontology, used for resolving disease symptoms. */
+    private final Vocabulary hpo;
+
+    /** Logging helper object. */
+    private final Logger logger;
+
+    /** Maps term identifiers to ordinals, assigned in the order terms are first encountered. */
+    private final Map<String, Integer> ordinals = new ConcurrentHashMap<>();
+
+    /** The next free ordinal. */
+    private final AtomicInteger nextOrdinal = new AtomicInteger();
+
+    /** The identifiers of the counted terms, sorted, see {@link #getTermIds()}. */
+    private String[] termIds = new String[0];
+
+    /**
+     * Simple constructor passing the vocabulary used for resolving symptoms.
+     *
+     * @param hpo the human phenotype ontology
+     * @param logger logging helper object
+     */
+    public TermFrequencyCounter(Vocabulary hpo, Logger logger)
+    {
+        this.hpo = hpo;
+        this.logger = logger;
+    }
+
+    /**
+     * Counts how many times each term is implied by the symptoms of the given diseases, i.e. the number of
+     * (disease symptom, ancestor) pairs where the ancestor is the term.
+     *
+     * @param diseases the diseases to process
+     * @param parallelism the number of worker threads to use
+     * @return the count for each term, in the same order as the identifiers returned by {@link #getTermIds()}
+     */
+    public int[] count(List<VocabularyTerm> diseases, int parallelism)
+    {
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        int[] counts;
+        try {
+            counts = pool.invoke(new CountTask(diseases, 0, diseases.size()));
+        } finally {
+            pool.shutdown();
+        }
+
+        // Ordinals depend on which worker saw a term first, so sort the terms to get the same output on every run
+        String[] ids = new String[this.nextOrdinal.get()];
+        for (Map.Entry<String, Integer> entry : this.ordinals.entrySet()) {
+            ids[entry.getValue()] = entry.getKey();
+        }
+        Arrays.sort(ids);
+        int[] sortedCounts = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            int ordinal = this.ordinals.get(ids[i]);
+            sortedCounts[i] = ordinal < counts.length ? counts[ordinal] : 0;
+        }
+        this.termIds = ids;
+        return sortedCounts;
+    }
+
+    /**
+     * Returns the identifiers of the terms counted by the last call to {@link #count(List, int)}.
+     *
+     * @return the term identifiers, sorted
+     */
+    public String[] getTermIds()
+    {
+        return this.termIds.clone();
+    }
+
+    /**
+     * Returns the ordinal assigned to a term, assigning a new one the first time the term is seen.
+     *
+     * @param id the term identifier
+     * @return the ordinal of the term
+     */
+    private int getOrdinal(String id)
+    {
+        return this.ordinals.computeIfAbsent(id, key -> this.nextOrdinal.getAndIncrement());
+    }
+
+    /**
+     * Return all terms associated with a particular disease.
+     *
+     * @param disease the MIM disease vocabulary term
+     * @return a collection of resolved VocabularyTerms associated with the disease, excluding terms that could not be
+     *         resolved to a VocubularyTerm
+     */
+    @SuppressWarnings("unchecked")
+    private Collection<VocabularyTerm> getDiseaseVocabularyTerms(VocabularyTerm disease)
+    {
+        Collection<VocabularyTerm> terms = new LinkedList<>();
+        Object symptomNames = disease.get("actual_symptom");
+        if (symptomNames != null) {
+            if (symptomNames instanceof Collection<?>) {
+                for (String symptomName : ((Collection<String>) symptomNames)) {
+                    VocabularyTerm symptom = this.hpo.getTerm(symptomName);
+                    // Ideally use frequency with which symptom occurs in disease
+                    // This information isn't prevalent or reliable yet, however
+                    if (symptom == null) {
+                        this.logger.warn("Unable to find term in HPO: " + symptomName);
+                    } else {
+                        terms.add(symptom);
+                    }
+                }
+            } else {
+                String err = "Solr returned non-collection symptoms: " + String.valueOf(symptomNames);
+                this.logger.error(err);
+                throw new RuntimeException(err);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Counts the terms implied by a range of diseases, splitting the range in two while it is large.
+     */
+    private final class CountTask extends RecursiveTask<int[]>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<VocabularyTerm> diseases;
+
+        private final int from;
+
+        private final int to;
+
+        CountTask(List<VocabularyTerm> diseases, int from, int to)
+        {
+            this.diseases = diseases;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected int[] compute()
+        {
+            if (this.to - this.from <= SEQUENTIAL_THRESHOLD) {
+                return countSequentially();
+            }
+            int middle = (this.from + this.to) >>> 1;
+            CountTask left = new CountTask(this.diseases, this.from, middle);
+            left.fork();
+            int[] right = new CountTask(this.diseases, middle, this.to).compute();
+            return merge(left.join(), right);
+        }
+
+        private int[] countSequentially()
+        {
+            int[] counts = new int[Math.max(16, TermFrequencyCounter.this.nextOrdinal.get())];
+            for (int i = this.from; i < this.to; i++) {
+                for (VocabularyTerm symptom : getDiseaseVocabularyTerms(this.diseases.get(i))) {
+                    for (VocabularyTerm impliedTerm : symptom.getAncestorsAndSelf()) {
+                        int ordinal = getOrdinal(impliedTerm.getId());
+                        if (ordinal >= counts.length) {
+                            counts = Arrays.copyOf(counts, Math.max(ordinal + 1, counts.length * 2));
+                        }
+                        counts[ordinal]++;
+                    }
+                }
+            }
+            return counts;
+        }
+
+        private int[] merge(int[] a, int[] b)
+        {
+            int[] larger = a.length >= b.length ? a : b;
+            int[] smaller = a.length >= b.length ? b : a;
+            for (int i = 0; i < smaller.length; i++) {
+                larger[i] += smaller[i];
+            }
+            return larger;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Binary snapshot of a {@link TermICTable} stored on disk, so that the information content of vocabulary terms does
+ * not have to be recomputed from the vocabularies on every startup. Each snapshot is tagged with a key describing the
+ * vocabularies it was computed from, and is only used if the key still matches the current vocabularies.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class TermICSnapshot
+{
+    /** Marks the beginning of a snapshot file. */
+    private static final int MAGIC = 0x50544943;
+
+    /** Version of the binary format, to be increased whenever the layout changes. */
+    private static final int FORMAT_VERSION = 1;
+
+    /** The file holding the snapshot. */
+    private final File file;
+
+    /**
+     * Simple constructor passing the file that holds the snapshot.
+     *
+     * @param file the snapshot file, does not need to exist
+     */
+    public TermICSnapshot(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * Builds the key identifying the vocabularies a snapshot is computed from.
+     *
+     * @param parts the version, size, or any other value that changes when one of the vocabularies is reindexed
+     * @return a key to use with {@link #load(String)} and {@link #store(String, TermICTable)}
+     */
+    public static String getKey(Object... parts)
+    {
+        return StringUtils.join(parts, '|');
+    }
+
+    /**
+     * Loads the table stored in the snapshot, if it was computed for the same vocabularies.
+     *
+     * @param key the key describing the current vocabularies, see {@link #getKey(Object...)}
+     * @return the stored table, or {@code null} if there is no snapshot or if it was computed for a different key
+     * @throws IOException if the snapshot exists but cannot be read
+     */
+    public TermICTable load(String key) throws IOException
+    {
+        if (!this.file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in =
+            new DataInputStream(new BufferedInputStream(Files.newInputStream(this.file.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !key.equals(in.readUTF())) {
+                return null;
+            }
+            int size = in.readInt();
+            String[] ids = new String[size];
+            double[] ics = new double[size];
+            for (int i = 0; i < size; i++) {
+                ids[i] = in.readUTF();
+                ics[i] = in.readDouble();
+            }
+            return new TermICTable(ids, ics);
+        }
+    }
+
+    /**
+     * Replaces the snapshot with the given table. The new snapshot is first written to a temporary file, then moved in
+     * place, so that a failed write never leaves a truncated snapshot behind.
+     *
+     * @param key the key describing the vocabularies the table was computed from, see {@link #getKey(Object...)}
+     * @param table the table to store
+     * @throws IOException if writing the snapshot fails
+     */
+    public void store(String key, TermICTable table) throws IOException
+    {
+        File directory = this.file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory.getAbsolutePath());
+        }
+        // a unique temporary file, so that concurrent writers don't overwrite each other's snapshot before the move
+        Path temporary = Files.createTempFile(this.file.getAbsoluteFile().getParentFile().toPath(),
+            this.file.getName(), ".tmp");
+        try {
+            try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(key);
+                out.writeInt(table.size());
+                for (int i = 0; i < table.size(); i++) {
+                    out.writeUTF(table.getId(i));
+                    out.writeDouble(table.getIC(i));
+                }
+            }
+            Files.move(temporary, this.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pre-computed information content (-logp) of vocabulary terms, stored in a primitive array indexed by a dense term
+ * ordinal. Ordinals are assigned in increasing order of the term identifiers, so the same set of terms always gets the
+ * same ordinals. Terms not present in the table have an information content of {@code 0}.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class TermICTable
+{
+    /** Returned by {@link #getOrdinal(String)} for terms not present in the table. */
+    public static final int UNKNOWN = -1;
+
+    /** The term identifiers, indexed by ordinal. */
+    private final String[] ids;
+
+    /** The information content of each term, indexed by ordinal. */
+    private final double[] ics;
+
+    /** Maps term identifiers back to their ordinal. */
+    private final Map<String, Integer> ordinals;
+
+    /**
+     * Builds a table from parallel arrays of term identifiers and their information content. The arrays are copied and
+     * re-ordered by identifier.
+     *
+     * @param ids the term identifiers, must not contain duplicates
+     * @param ics the information content of each term, same length as {@code ids}
+     * @throws IllegalArgumentException if the two arrays have different lengths or if an identifier is repeated
+     */
+    public TermICTable(String[] ids, double[] ics)
+    {
+        if (ids.length != ics.length) {
+            throw new IllegalArgumentException("Term identifiers and information content must have the same length");
+        }
+        Integer[] order = new Integer[ids.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> ids[a].compareTo(ids[b]));
+
+        this.ids = new String[ids.length];
+        this.ics = new double[ids.length];
+        this.ordinals = new HashMap<>(ids.length * 4 / 3 + 1);
+        for (int ordinal = 0; ordinal < order.length; ordinal++) {
+            this.ids[ordinal] = ids[order[ordinal]];
+            this.ics[ordinal] = ics[order[ordinal]];
+            if (this.ordinals.put(this.ids[ordinal], ordinal) != null) {
+                throw new IllegalArgumentException("Duplicate term identifier: " + this.ids[ordinal]);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of terms in the table; valid ordinals are {@code 0} to {@code size() - 1}.
+     *
+     * @return the number of terms
+     */
+    public int size()
+    {
+        return this.ids.length;
+    }
+
+    /**
+     * Returns the ordinal assigned to a term.
+     *
+     * @param id the term identifier, e.g. {@code HP:0000118}
+     * @return the ordinal of the term, or {@link #UNKNOWN} if the term is not in the table
+     */
+    public int getOrdinal(String id)
+    {
+        Integer ordinal = id == null ? null : this.ordinals.get(id);
+        return ordinal == null ? UNKNOWN : ordinal;
+    }
+
+    /**
+     * Returns the identifier of the term with the given ordinal.
+     *
+     * @param ordinal a valid ordinal
+     * @return the term identifier
+     */
+    public String getId(int ordinal)
+    {
+        return this.ids[ordinal];
+    }
+
+    /**
+     * Returns the information content of the term with the given ordinal.
+     *
+     * @param ordinal a valid ordinal
+     * @return the information content of the term
+     */
+    public double getIC(int ordinal)
+    {
+        return this.ics[ordinal];
+    }
+
+    /**
+     * Returns the information content of a term.
+     *
+     * @param id the term identifier
+     * @return the information content of the term, {@code 0} if the term is not in the table
+     */
+    public double getIC(String id)
+    {
+        int ordinal = getOrdinal(id);
+        return ordinal == UNKNOWN ? 0 : this.ics[ordinal];
+    }
+
+    /**
+     * Returns the total information content of several terms.
+     *
+     * @param termOrdinals the ordinals of the terms to add up, each term should be listed at most once
+     * @return the sum of the information content of the terms
+     */
+    public double sumIC(int[] termOrdinals)
+    {
+        double total = 0;
+        for (int ordinal : termOrdinals) {
+            total += this.ics[ordinal];
+        }
+        return total;
+    }
+}
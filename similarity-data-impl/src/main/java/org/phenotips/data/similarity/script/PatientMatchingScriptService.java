@@ -18,14 +18,23 @@
 package org.phenotips.data.similarity.script;
 
 import org.phenotips.data.similarity.ExomeManager;
+import org.phenotips.data.similarity.PatientGenotypeManager;
 import org.phenotips.data.similarity.PatientSimilarityViewFactory;
+import org.phenotips.data.similarity.genotype.DefaultPatientGenotypeManager;
 import org.phenotips.data.similarity.genotype.ExomiserExomeManager;
 import org.phenotips.data.similarity.internal.DefaultPatientSimilarityViewFactory;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.script.service.ScriptService;
 import org.xwiki.stability.Unstable;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -51,6 +60,14 @@ public class PatientMatchingScriptService implements ScriptService
     @Named("exomiser")
     private ExomeManager exomeManager;
 
+    @Inject
+    private PatientGenotypeManager genotypeManager;
+
+    /** Used for looking up all the view factories, each of them keeping its own cache. */
+    @Inject
+    @Named("wiki")
+    private ComponentManager componentManager;
+
     @Inject
     private Logger logger;
 
@@ -59,11 +76,45 @@ public class PatientMatchingScriptService implements ScriptService
      */
     public void clearCache()
     {
-        ((DefaultPatientSimilarityViewFactory) this.patientViewFactory).clearCache();
+        for (DefaultPatientSimilarityViewFactory factory : getViewFactories()) {
+            factory.clearCache();
+        }
         ((ExomiserExomeManager) this.exomeManager).clearCache();
+        ((DefaultPatientGenotypeManager) this.genotypeManager).clearCache();
         this.logger.info("Cleared caches.");
     }
 
+    /**
+     * Get the statistics of the patient similarity view cache.
+     *
+     * @return the number of cached views, and the number of hits, misses and evictions since the cache was created
+     */
+    public Map<String, Long> getCacheStatistics()
+    {
+        return ((DefaultPatientSimilarityViewFactory) this.patientViewFactory).getCacheStatistics();
+    }
+
+    /**
+     * Get the statistics of the exome cache.
+     *
+     * @return the number and estimated size of the cached exomes, the number of hits, misses, evictions and loads since
+     *         the cache was created, and the average load time
+     */
+    public Map<String, Long> getExomeCacheStatistics()
+    {
+        return ((ExomiserExomeManager) this.exomeManager).getCacheStatistics();
+    }
+
+    /**
+     * Get the statistics of the genotype cache.
+     *
+     * @return the number of cached genotypes, and the number of hits, misses and evictions since the cache was created
+     */
+    public Map<String, Long> getGenotypeCacheStatistics()
+    {
+        return ((DefaultPatientGenotypeManager) this.genotypeManager).getCacheStatistics();
+    }
+
     /**
      * Clear all (phenotype and genotype) patient similarity caches for a specific patient.
      *
@@ -72,9 +123,35 @@ public void clearCache()
     public void clearPatientCache(String id)
     {
         if (id != null) {
-            ((DefaultPatientSimilarityViewFactory) this.patientViewFactory).clearPatientCache(id);
+            for (DefaultPatientSimilarityViewFactory factory : getViewFactories()) {
+                factory.clearPatientCache(id);
+            }
             ((ExomiserExomeManager) this.exomeManager).clearPatientCache(id);
+            ((DefaultPatientGenotypeManager) this.genotypeManager).clearPatientCache(id);
             this.logger.info("Cleared cache for patient: " + id);
         }
     }
+
+    /**
+     * Get all the view factories, so that the views cached by any of them, e.g. the "restricted" one used for matching,
+     * are cleared along with the default one.
+     *
+     * @return the view factories keeping a cache of views
+     */
+    private List<DefaultPatientSimilarityViewFactory> getViewFactories()
+    {
+        List<DefaultPatientSimilarityViewFactory> result = new ArrayList<>();
+        try {
+            for (PatientSimilarityViewFactory factory : this.componentManager
+                .<PatientSimilarityViewFactory>getInstanceList(PatientSimilarityViewFactory.class)) {
+                if (factory instanceof DefaultPatientSimilarityViewFactory) {
+                    result.add((DefaultPatientSimilarityViewFactory) factory);
+                }
+            }
+        } catch (ComponentLookupException ex) {
+            this.logger.error("Failed to look up the similarity view factories: {}", ex.getMessage());
+            return Collections.singletonList((DefaultPatientSimilarityViewFactory) this.patientViewFactory);
+        }
+        return result;
+    }
 }
@@ -0,0 +1,190 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import org.phenotips.data.similarity.internal.mocks.MockVocabularyTerm;
+import org.phenotips.data.similarity.internal.mocks.TermICTables;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link AncestorClosureEngine}.
+ *
+ * @version $Id$
+ */
+public class AncestorClosureEngineTest
+{
+    private static final double EPS = 1e-12;
+
+    private Map<VocabularyTerm, Double> termICs;
+
+    private VocabularyTerm root;
+
+    private VocabularyTerm left;
+
+    private VocabularyTerm right;
+
+    private VocabularyTerm leftLeaf;
+
+    private VocabularyTerm unscored;
+
+    @Before
+    public void setUp()
+    {
+        this.root = new MockVocabularyTerm("HP:0000118", null);
+        this.left = new MockVocabularyTerm("HP:0000001", Collections.singleton(this.root));
+        this.right = new MockVocabularyTerm("HP:0000002", Collections.singleton(this.root));
+        this.leftLeaf = new MockVocabularyTerm("HP:0000003", Collections.singleton(this.left));
+        this.unscored = new MockVocabularyTerm("HP:0000004", Collections.singleton(this.right));
+
+        this.termICs = new HashMap<>();
+        this.termICs.put(this.root, 0.0);
+        this.termICs.put(this.left, 0.7);
+        this.termICs.put(this.right, 1.1);
+        this.termICs.put(this.leftLeaf, 2.3);
+    }
+
+    @Test
+    public void closureContainsScoredAncestors()
+    {
+        AncestorClosureEngine engine = new AncestorClosureEngine(TermICTables.fromMap(this.termICs));
+        Assert.assertEquals(4, engine.getTermICs().size());
+
+        long[] closure = engine.getClosure(Collections.singleton(this.leftLeaf));
+        Assert.assertEquals(0.7 + 2.3, engine.getTotalIC(closure), EPS);
+
+        closure = engine.getClosure(Collections.singleton(this.unscored));
+        Assert.assertEquals(1.1, engine.getTotalIC(closure), EPS);
+    }
+
+    @Test
+    public void commonAndUnionMatchSetOperations()
+    {
+        AncestorClosureEngine engine = new AncestorClosureEngine(TermICTables.fromMap(this.termICs));
+        long[] a = engine.getClosure(Arrays.asList(this.leftLeaf));
+        long[] b = engine.getClosure(Arrays.asList(this.left, this.unscored));
+
+        Set<VocabularyTerm> common = new HashSet<>(this.leftLeaf.getAncestorsAndSelf());
+        common.retainAll(this.unscored.getAncestorsAndSelf());
+        common.addAll(Arrays.asList(this.left));
+        Assert.assertEquals(sum(common), engine.getCommonIC(a, b), EPS);
+
+        Set<VocabularyTerm> all = new HashSet<>(this.leftLeaf.getAncestorsAndSelf());
+        all.addAll(this.unscored.getAncestorsAndSelf());
+        Assert.assertEquals(sum(all), engine.getUnionIC(a, b), EPS);
+    }
+
+    @Test
+    public void closuresSpanningSeveralWords()
+    {
+        Map<VocabularyTerm, Double> ics = new HashMap<>();
+        VocabularyTerm parent = this.root;
+        ics.put(parent, 0.0);
+        double expected = 0;
+        for (int i = 1; i < 200; i++) {
+            VocabularyTerm child = new MockVocabularyTerm("HP:" + (1000 + i), Collections.singleton(parent));
+            ics.put(child, 0.01 * i);
+            expected += 0.01 * i;
+            parent = child;
+        }
+        AncestorClosureEngine engine = new AncestorClosureEngine(TermICTables.fromMap(ics));
+        long[] closure = engine.getClosure(Collections.singleton(parent));
+        Assert.assertEquals(expected, engine.getTotalIC(closure), 1e-9);
+        Assert.assertEquals(expected, engine.getCommonIC(closure, closure), 1e-9);
+        Assert.assertEquals(0.0, engine.getCommonIC(closure, engine.getClosure(Collections.emptySet())), EPS);
+    }
+
+    @Test
+    public void scoresMatchSetBasedScoresUpToRoundingErrors()
+    {
+        Random random = new Random(42);
+        List<VocabularyTerm> terms = new ArrayList<>();
+        terms.add(this.root);
+        this.termICs.clear();
+        this.termICs.put(this.root, 0.0);
+        for (int i = 1; i < 500; i++) {
+            VocabularyTerm parent = terms.get(random.nextInt(terms.size()));
+            VocabularyTerm term = new MockVocabularyTerm("HP:" + (2000 + i), Collections.singleton(parent));
+            terms.add(term);
+            this.termICs.put(term, 10 * random.nextDouble());
+        }
+        AncestorClosureEngine engine = new AncestorClosureEngine(TermICTables.fromMap(this.termICs));
+
+        for (int pair = 0; pair < 100; pair++) {
+            List<VocabularyTerm> a = randomTerms(terms, random);
+            List<VocabularyTerm> b = randomTerms(terms, random);
+            long[] closureA = engine.getClosure(a);
+            long[] closureB = engine.getClosure(b);
+
+            // The previous set-based scoring
+            Set<VocabularyTerm> ancestorsA = ancestors(a);
+            Set<VocabularyTerm> ancestorsB = ancestors(b);
+            Set<VocabularyTerm> common = new HashSet<>(ancestorsA);
+            common.retainAll(ancestorsB);
+            Set<VocabularyTerm> all = new HashSet<>(ancestorsA);
+            all.addAll(ancestorsB);
+            double expected = sum(common) / sum(all);
+
+            double score = engine.getCommonIC(closureA, closureB) / engine.getUnionIC(closureA, closureB);
+            Assert.assertEquals(sum(ancestorsA), engine.getTotalIC(closureA), 1e-12 * sum(ancestorsA));
+            Assert.assertEquals(expected, score, 1e-12);
+        }
+    }
+
+    private List<VocabularyTerm> randomTerms(List<VocabularyTerm> terms, Random random)
+    {
+        List<VocabularyTerm> result = new ArrayList<>();
+        for (int i = 1 + random.nextInt(10); i > 0; i--) {
+            result.add(terms.get(1 + random.nextInt(terms.size() - 1)));
+        }
+        return result;
+    }
+
+    private Set<VocabularyTerm> ancestors(Collection<VocabularyTerm> terms)
+    {
+        Set<VocabularyTerm> result = new HashSet<>();
+        for (VocabularyTerm term : terms) {
+            result.addAll(term.getAncestorsAndSelf());
+        }
+        return result;
+    }
+
+    private double sum(Set<VocabularyTerm> terms)
+    {
+        double total = 0;
+        for (VocabularyTerm term : terms) {
+            Double ic = this.termICs.get(term);
+            total += ic == null ? 0 : ic;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ClosureKernel} implementations.
+ *
+ * @version $Id$
+ */
+public class ClosureKernelTest
+{
+    private static final double EPS = 1e-9;
+
+    @Test
+    public void scalarKernelMatchesNaiveSums()
+    {
+        Random random = new Random(7);
+        // sizes not aligned on words, to exercise the last partial word
+        for (int size : new int[] { 1, 7, 64, 131, 1000 }) {
+            TermICTable termICs = randomTable(size, random);
+            ClosureKernel kernel = new ScalarClosureKernel(termICs);
+            int words = (size + 63) / 64;
+            for (int i = 0; i < 20; i++) {
+                long[] a = randomClosure(size, words, random);
+                long[] b = randomClosure(size, words, random);
+                Assert.assertEquals(naiveSum(termICs, a, b, true), kernel.sumAnd(a, b), EPS);
+                Assert.assertEquals(naiveSum(termICs, a, b, false), kernel.sumOr(a, b), EPS);
+                Assert.assertEquals(naiveSum(termICs, a, a, true), kernel.sum(a), EPS);
+            }
+        }
+    }
+
+    @Test
+    public void sumsMatchTheTermICs()
+    {
+        TermICTable termICs = new TermICTable(new String[] { "a", "b", "c" }, new double[] { 0.5, 1.5, 2.0 });
+        long[] ab = new long[] { 0b011L };
+        long[] bc = new long[] { 0b110L };
+        ClosureKernel kernel = new ScalarClosureKernel(termICs);
+        Assert.assertEquals(2.0, kernel.sum(ab), EPS);
+        Assert.assertEquals(1.5, kernel.sumAnd(ab, bc), EPS);
+        Assert.assertEquals(4.0, kernel.sumOr(ab, bc), EPS);
+        Assert.assertEquals(0.0, kernel.sum(new long[] { 0L }), EPS);
+    }
+
+    private TermICTable randomTable(int size, Random random)
+    {
+        String[] ids = new String[size];
+        double[] ics = new double[size];
+        for (int i = 0; i < size; i++) {
+            // zero-padded, so that ordinals follow the creation order
+            ids[i] = String.format("HP:%07d", i);
+            ics[i] = random.nextDouble() * 10;
+        }
+        return new TermICTable(ids, ics);
+    }
+
+    private long[] randomClosure(int size, int words, Random random)
+    {
+        long[] closure = new long[words];
+        for (int i = 0; i < size; i++) {
+            if (random.nextInt(3) == 0) {
+                closure[i >> 6] |= 1L << i;
+            }
+        }
+        return closure;
+    }
+
+    private double naiveSum(TermICTable termICs, long[] a, long[] b, boolean both)
+    {
+        double total = 0;
+        for (int i = 0; i < termICs.size(); i++) {
+            boolean inA = (a[i >> 6] & 1L << i) != 0;
+            boolean inB = (b[i >> 6] & 1L << i) != 0;
+            if (both ? inA && inB : inA || inB) {
+                total += termICs.getIC(i);
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import org.phenotips.data.similarity.PatientPhenotypeProfile;
+import org.phenotips.data.similarity.internal.mocks.MockVocabularyTerm;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link DefaultPatientPhenotypeMatrix}.
+ *
+ * @version $Id$
+ */
+public class DefaultPatientPhenotypeMatrixTest
+{
+    private static final int TERMS = 300;
+
+    @Test
+    public void pairsMatchBruteForce()
+    {
+        Random random = new Random(11);
+        List<VocabularyTerm> terms = new ArrayList<>();
+        String[] ids = new String[TERMS];
+        double[] ics = new double[TERMS];
+        for (int i = 0; i < TERMS; i++) {
+            ids[i] = String.format("HP:%07d", i);
+            ics[i] = 0.1 + random.nextDouble() * 5;
+            terms.add(new MockVocabularyTerm(ids[i], null));
+        }
+        AncestorClosureEngine engine = new AncestorClosureEngine(new TermICTable(ids, ics));
+
+        // more profiles than a tile, with various sizes so that some tiles get pruned
+        List<PatientPhenotypeProfile> profiles = new ArrayList<>();
+        for (int i = 0; i < 700; i++) {
+            if (i % 97 == 0) {
+                profiles.add(null);
+                continue;
+            }
+            List<VocabularyTerm> present = new ArrayList<>();
+            int count = random.nextInt(40);
+            // draw terms from a small pool, so that many pairs are similar
+            for (int j = 0; j < count; j++) {
+                present.add(terms.get(random.nextInt(60)));
+            }
+            profiles.add(new DefaultPatientPhenotypeProfile("P" + i, null, present, engine));
+        }
+
+        DefaultPatientPhenotypeMatrix matrix = new DefaultPatientPhenotypeMatrix();
+        for (double threshold : new double[] { 0.0, 0.2, 0.5 }) {
+            int[][] rows = matrix.findSimilarPairs(profiles, threshold, 3);
+            Assert.assertEquals(profiles.size(), rows.length);
+            for (int i = 0; i < profiles.size(); i++) {
+                List<Integer> expected = new ArrayList<>();
+                for (int j = 0; j < profiles.size(); j++) {
+                    if (i != j && profiles.get(i) != null && profiles.get(j) != null
+                        && profiles.get(i).getSimilarity(profiles.get(j)) > threshold) {
+                        expected.add(j);
+                    }
+                }
+                Assert.assertEquals(expected, toList(rows[i]));
+            }
+        }
+    }
+
+    @Test
+    public void emptyProfilesAreNeverSimilar()
+    {
+        AncestorClosureEngine engine =
+            new AncestorClosureEngine(new TermICTable(new String[] { "HP:0000001" }, new double[] { 1.0 }));
+        List<PatientPhenotypeProfile> profiles = new ArrayList<>();
+        profiles.add(new DefaultPatientPhenotypeProfile("P1", null, Collections.<VocabularyTerm>emptySet(), engine));
+        profiles.add(new DefaultPatientPhenotypeProfile("P2", null, Collections.<VocabularyTerm>emptySet(), engine));
+
+        int[][] rows = new DefaultPatientPhenotypeMatrix().findSimilarPairs(profiles, 0);
+        Assert.assertEquals(0, rows[0].length);
+        Assert.assertEquals(0, rows[1].length);
+    }
+
+    private List<Integer> toList(int[] row)
+    {
+        List<Integer> result = new ArrayList<>();
+        for (int item : row) {
+            result.add(item);
+        }
+        return result;
+    }
+}
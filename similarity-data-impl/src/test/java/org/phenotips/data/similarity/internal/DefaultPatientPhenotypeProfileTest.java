@@ -0,0 +1,101 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import org.phenotips.data.similarity.internal.mocks.MockVocabularyTerm;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link DefaultPatientPhenotypeProfile}.
+ *
+ * @version $Id$
+ */
+public class DefaultPatientPhenotypeProfileTest
+{
+    private static final double EPS = 1e-12;
+
+    private AncestorClosureEngine engine;
+
+    private VocabularyTerm root;
+
+    private VocabularyTerm left;
+
+    private VocabularyTerm right;
+
+    private VocabularyTerm leftLeaf;
+
+    @Before
+    public void setUp()
+    {
+        this.root = new MockVocabularyTerm("HP:0000118", null);
+        this.left = new MockVocabularyTerm("HP:0000001", Collections.singleton(this.root));
+        this.right = new MockVocabularyTerm("HP:0000002", Collections.singleton(this.root));
+        this.leftLeaf = new MockVocabularyTerm("HP:0000003", Collections.singleton(this.left));
+
+        this.engine = new AncestorClosureEngine(new TermICTable(
+            new String[] { "HP:0000118", "HP:0000001", "HP:0000002", "HP:0000003" },
+            new double[] { 0.0, 0.7, 1.1, 2.3 }));
+    }
+
+    @Test
+    public void profileContainsClosureOfPresentTerms()
+    {
+        DefaultPatientPhenotypeProfile profile = new DefaultPatientPhenotypeProfile("P0000001", "1.1@0",
+            Arrays.asList(this.leftLeaf, this.right), this.engine);
+
+        Assert.assertEquals("P0000001", profile.getPatientId());
+        Assert.assertEquals("1.1@0", profile.getVersion());
+        Assert.assertFalse(profile.isEmpty());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("HP:0000118", "HP:0000001", "HP:0000002", "HP:0000003")),
+            profile.getAncestorIds());
+        Assert.assertEquals(0.7 + 1.1 + 2.3, profile.getTotalIC(), EPS);
+        Assert.assertArrayEquals(new int[] { this.engine.getTermICs().getOrdinal("HP:0000002"),
+            this.engine.getTermICs().getOrdinal("HP:0000003") }, profile.getTermOrdinals());
+    }
+
+    @Test
+    public void commonAndUnionUseBothClosures()
+    {
+        DefaultPatientPhenotypeProfile a =
+            new DefaultPatientPhenotypeProfile("P0000001", null, Arrays.asList(this.leftLeaf), this.engine);
+        DefaultPatientPhenotypeProfile b =
+            new DefaultPatientPhenotypeProfile("P0000002", null, Arrays.asList(this.left, this.right), this.engine);
+
+        Assert.assertEquals(0.7, a.getCommonIC(b), EPS);
+        Assert.assertEquals(0.7 + 1.1 + 2.3, a.getUnionIC(b), EPS);
+        Assert.assertEquals(a.getCommonIC(b), b.getCommonIC(a), EPS);
+        Assert.assertEquals(a.getCommonIC(b) / a.getUnionIC(b), a.getSimilarity(b), 0.0);
+        Assert.assertEquals(a.getSimilarity(b), b.getSimilarity(a), EPS);
+
+        DefaultPatientPhenotypeProfile empty = new DefaultPatientPhenotypeProfile("P0000003", null,
+            Collections.<VocabularyTerm>emptySet(), this.engine);
+        Assert.assertTrue(empty.isEmpty());
+        Assert.assertEquals(0.0, empty.getTotalIC(), EPS);
+        Assert.assertEquals(0.0, a.getCommonIC(empty), EPS);
+        Assert.assertEquals(0.0, a.getSimilarity(empty), EPS);
+        Assert.assertTrue(Double.isNaN(empty.getSimilarity(empty)));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link GenePostingIndex}.
+ *
+ * @version $Id$
+ */
+public class GenePostingIndexTest
+{
+    @Test
+    public void patientsSharingAnyGeneAreFound()
+    {
+        GenePostingIndex index = new GenePostingIndex();
+        index.put("P1", Arrays.asList("SRCAP", "BRCA1"));
+        index.put("P2", Arrays.asList("BRCA1"));
+        index.put("P3", Arrays.asList("HLA-DQB1", "HLA-DQB1"));
+        index.put("P4", Collections.<String>emptyList());
+
+        Assert.assertEquals(3, index.size());
+        Assert.assertEquals(Arrays.asList("P1", "P2"), index.find(Arrays.asList("BRCA1"), null));
+        Assert.assertEquals(Arrays.asList("P2"), index.find(Arrays.asList("BRCA1"), "P1"));
+        Assert.assertEquals(Arrays.asList("P1", "P3"), index.find(Arrays.asList("SRCAP", "HLA-DQB1", "TP53"), null));
+        Assert.assertTrue(index.find(Arrays.asList("TP53"), null).isEmpty());
+    }
+
+    @Test
+    public void updatedAndRemovedPatientsAreNotFoundUnderTheirOldGenes()
+    {
+        GenePostingIndex index = new GenePostingIndex();
+        index.put("P1", Arrays.asList("SRCAP"));
+        index.put("P2", Arrays.asList("SRCAP"));
+        index.put("P1", Arrays.asList("BRCA1"));
+        index.remove("P2");
+
+        Assert.assertTrue(index.find(Arrays.asList("SRCAP"), null).isEmpty());
+        Assert.assertEquals(Arrays.asList("P1"), index.find(Arrays.asList("BRCA1"), null));
+        Assert.assertEquals(1, index.size());
+    }
+
+    @Test
+    public void compactionKeepsTheRemainingPatients()
+    {
+        GenePostingIndex index = new GenePostingIndex();
+        for (int i = 0; i < 5000; i++) {
+            index.put("P" + i, Arrays.asList("G" + (i % 10), "ALL"));
+        }
+        for (int i = 0; i < 5000; i++) {
+            if (i % 100 != 0) {
+                index.remove("P" + i);
+            }
+        }
+        Assert.assertEquals(50, index.size());
+
+        List<String> found = index.find(Arrays.asList("ALL"), "P0");
+        Assert.assertEquals(49, found.size());
+        Set<String> expected = new HashSet<>();
+        for (int i = 100; i < 5000; i += 100) {
+            expected.add("P" + i);
+        }
+        Assert.assertEquals(expected, new HashSet<>(found));
+        Assert.assertEquals(50, index.find(Arrays.asList("G0"), null).size());
+        Assert.assertTrue(index.find(Arrays.asList("G1"), null).isEmpty());
+    }
+}
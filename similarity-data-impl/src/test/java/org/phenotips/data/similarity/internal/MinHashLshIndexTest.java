@@ -0,0 +1,188 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link MinHashLshIndex}, including a benchmark of its recall against the exact
+ * {@link PhenotypeInvertedIndex} on a synthetic cohort.
+ *
+ * @version $Id$
+ */
+public class MinHashLshIndexTest
+{
+    /** Number of terms in the synthetic vocabulary. */
+    private static final int TERMS = 3000;
+
+    /** Number of synthetic disorders, each with its own set of characteristic terms. */
+    private static final int DISORDERS = 150;
+
+    /** Number of characteristic terms of each disorder. */
+    private static final int DISORDER_TERMS = 12;
+
+    /** Number of synthetic patients. */
+    private static final int PATIENTS = 3000;
+
+    private static final int TOP_K = 10;
+
+    private int[] parents;
+
+    private double[] ics;
+
+    private int[][] closures;
+
+    private double[] totals;
+
+    @Before
+    public void setUp()
+    {
+        Random random = new Random(2017);
+
+        // A random tree, where each term's parent has a lower ordinal; deeper terms are more informative
+        this.parents = new int[TERMS];
+        int[] depths = new int[TERMS];
+        this.ics = new double[TERMS];
+        this.parents[0] = -1;
+        for (int term = 1; term < TERMS; term++) {
+            this.parents[term] = random.nextInt(term);
+            depths[term] = depths[this.parents[term]] + 1;
+            this.ics[term] = depths[term] * (0.5 + random.nextDouble());
+        }
+
+        int[][] disorders = new int[DISORDERS][DISORDER_TERMS];
+        for (int[] disorder : disorders) {
+            for (int i = 0; i < DISORDER_TERMS; i++) {
+                disorder[i] = TERMS / 3 + random.nextInt(TERMS - TERMS / 3);
+            }
+        }
+
+        // Each patient has part of the terms of one disorder, and a few unrelated terms
+        this.closures = new int[PATIENTS][];
+        this.totals = new double[PATIENTS];
+        for (int p = 0; p < PATIENTS; p++) {
+            int[] disorder = disorders[random.nextInt(DISORDERS)];
+            List<Integer> terms = new ArrayList<>();
+            for (int term : disorder) {
+                if (random.nextDouble() < 0.6) {
+                    terms.add(term);
+                }
+            }
+            for (int i = random.nextInt(4); i > 0; i--) {
+                terms.add(random.nextInt(TERMS));
+            }
+            this.closures[p] = closure(terms);
+            this.totals[p] = sum(this.closures[p]);
+        }
+    }
+
+    @Test
+    public void identicalPatientsAreAlwaysFound()
+    {
+        MinHashLshIndex index = new MinHashLshIndex(term -> this.ics[term], 4, 8, 1);
+        index.put("a", this.closures[0], this.totals[0]);
+        index.put("b", this.closures[1], this.totals[1]);
+        List<String> found = index.findTopMatches(this.closures[0], this.totals[0], null, 0, null);
+        Assert.assertEquals("a", found.get(0));
+
+        index.remove("a");
+        Assert.assertEquals(1, index.size());
+        Assert.assertFalse(index.findTopMatches(this.closures[0], this.totals[0], null, 0, null).contains("a"));
+
+        Assert.assertTrue(index.findTopMatches(new int[] { 0 }, 0, null, 0, null).isEmpty());
+    }
+
+    @Test
+    public void filteredPatientsAreSkipped()
+    {
+        MinHashLshIndex index = new MinHashLshIndex(term -> this.ics[term], 4, 8, 1);
+        index.put("a", this.closures[0], this.totals[0]);
+        index.put("b", this.closures[0], this.totals[0]);
+        List<String> found = index.findTopMatches(this.closures[0], this.totals[0], null, 1, id -> !"a".equals(id));
+        Assert.assertEquals(Arrays.asList("b"), found);
+    }
+
+    /**
+     * Compares the top matches found by the default LSH index with the exact ones, and checks that most of them are
+     * found while only a fraction of the cohort is scored.
+     */
+    @Test
+    public void recallAgainstExactSearch()
+    {
+        PhenotypeInvertedIndex exact = new PhenotypeInvertedIndex(term -> this.ics[term]);
+        MinHashLshIndex approximate = new MinHashLshIndex(term -> this.ics[term],
+            LshPatientPhenotypeIndex.DEFAULT_BANDS, LshPatientPhenotypeIndex.DEFAULT_ROWS, 1);
+        for (int p = 0; p < PATIENTS; p++) {
+            exact.put(String.valueOf(p), this.closures[p], this.totals[p]);
+            approximate.put(String.valueOf(p), this.closures[p], this.totals[p]);
+        }
+
+        int expected = 0;
+        int recalled = 0;
+        int scored = 0;
+        int queries = 200;
+        for (int p = 0; p < queries; p++) {
+            String id = String.valueOf(p);
+            Set<String> best = new HashSet<>(exact.findTopMatches(this.closures[p], this.totals[p], id, TOP_K, null));
+            // count all the candidates the LSH index had to score, not only the ones it returned
+            List<String> candidates = approximate.findTopMatches(this.closures[p], this.totals[p], id, 0, null);
+            scored += candidates.size();
+            for (String found : candidates.subList(0, Math.min(TOP_K, candidates.size()))) {
+                if (best.contains(found)) {
+                    recalled++;
+                }
+            }
+            expected += best.size();
+        }
+
+        double recall = (double) recalled / expected;
+        double scoredFraction = (double) scored / queries / PATIENTS;
+        Assert.assertTrue("Recall too low: " + recall, recall >= 0.9);
+        Assert.assertTrue("Too many candidates scored: " + scoredFraction, scoredFraction <= 0.25);
+    }
+
+    private int[] closure(List<Integer> terms)
+    {
+        BitSet closure = new BitSet(TERMS);
+        for (int term : terms) {
+            for (int t = term; t >= 0; t = this.parents[t]) {
+                closure.set(t);
+            }
+        }
+        return closure.stream().toArray();
+    }
+
+    private double sum(int[] terms)
+    {
+        double total = 0;
+        for (int term : terms) {
+            total += this.ics[term];
+        }
+        return total;
+    }
+}
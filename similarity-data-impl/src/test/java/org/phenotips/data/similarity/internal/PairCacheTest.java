@@ -0,0 +1,85 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link PairCache}.
+ *
+ * @version $Id$
+ */
+public class PairCacheTest
+{
+    @Test
+    public void valuesAreOnlyReturnedForTheSameVersion()
+    {
+        PairCache<String> cache = new PairCache<>(100);
+        cache.set("P1", "P2", "P1|P2", "1.1", "value");
+
+        Assert.assertEquals("value", cache.get("P1|P2", "1.1"));
+        Assert.assertNull(cache.get("P1|P2", "1.2"));
+        // outdated entries are dropped
+        Assert.assertNull(cache.get("P1|P2", "1.1"));
+        Assert.assertEquals(0, cache.size());
+
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void removeAssociatedDropsAllEntriesOfAnId()
+    {
+        PairCache<String> cache = new PairCache<>(100);
+        cache.set("P1", "P2", "P1|P2", "1", "a");
+        cache.set("P3", "P1", "P3|P1", "1", "b");
+        cache.set("P2", "P3", "P2|P3", "1", "c");
+
+        cache.removeAssociated("P1");
+        Assert.assertNull(cache.get("P1|P2", "1"));
+        Assert.assertNull(cache.get("P3|P1", "1"));
+        Assert.assertEquals("c", cache.get("P2|P3", "1"));
+
+        cache.removeAll();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertNull(cache.get("P2|P3", "1"));
+    }
+
+    @Test
+    public void evictionKeepsTheCacheBounded()
+    {
+        PairCache<Integer> cache = new PairCache<>(160);
+        for (int i = 0; i < 10000; i++) {
+            cache.set("P" + i, "P" + (i + 1), "key" + i, "1", i);
+        }
+        Assert.assertTrue(cache.size() <= 160);
+        Assert.assertEquals(10000 - cache.size(), cache.getEvictionCount());
+
+        // evicted entries are no longer associated with their ids, so removing them finds nothing to drop
+        int size = cache.size();
+        cache.removeAssociated("P0");
+        cache.removeAssociated("P1");
+        Assert.assertEquals(size, cache.size());
+
+        Assert.assertEquals(Integer.valueOf(9999), cache.get("key9999", "1"));
+        cache.removeAssociated("P10000");
+        Assert.assertNull(cache.get("key9999", "1"));
+        Assert.assertEquals(size - 1, cache.size());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.events.PatientChangedEvent;
+import org.phenotips.data.events.PatientDeletingEvent;
+import org.phenotips.data.similarity.PatientGeneIndex;
+import org.phenotips.data.similarity.PatientPhenotypeIndex;
+import org.phenotips.data.similarity.PatientPhenotypeProfileManager;
+import org.phenotips.data.similarity.PatientSimilarityViewFactory;
+import org.phenotips.data.similarity.genotype.DefaultPatientGenotypeManager;
+import org.phenotips.data.similarity.genotype.ExomiserExomeManager;
+
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.util.DefaultParameterizedType;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.Consumer;
+
+import javax.inject.Provider;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link PatientSimilarityCacheInvalidator}.
+ *
+ * @version $Id$
+ */
+public class PatientSimilarityCacheInvalidatorTest
+{
+    private static final String PATIENT_ID = "P0000001";
+
+    @Rule
+    public final MockitoComponentMockingRule<EventListener> mocker =
+        new MockitoComponentMockingRule<EventListener>(PatientSimilarityCacheInvalidator.class);
+
+    private XWikiDocument document;
+
+    private Patient patient;
+
+    private PatientRepository repository;
+
+    private ExomiserExomeManager exomeManager;
+
+    private DefaultPatientGenotypeManager genotypeManager;
+
+    private DefaultPatientSimilarityViewFactory viewFactory;
+
+    private PatientPhenotypeIndex phenotypeIndex;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.document = mock(XWikiDocument.class);
+        when(this.document.getDocumentReference()).thenReturn(new DocumentReference("xwiki", "data", PATIENT_ID));
+        this.patient = mock(Patient.class);
+        this.repository = mock(PatientRepository.class);
+        when(this.repository.load(this.document)).thenReturn(this.patient);
+        Provider<PatientRepository> repositoryProvider =
+            this.mocker.getInstance(new DefaultParameterizedType(null, Provider.class, PatientRepository.class));
+        when(repositoryProvider.get()).thenReturn(this.repository);
+
+        // the exome and genotype caches are only cleared for the implementations holding them
+        EventListener invalidator = this.mocker.getComponentUnderTest();
+        this.exomeManager = mock(ExomiserExomeManager.class);
+        ReflectionUtils.setFieldValue(invalidator, "exomeManager", this.exomeManager);
+        this.genotypeManager = mock(DefaultPatientGenotypeManager.class);
+        ReflectionUtils.setFieldValue(invalidator, "genotypeManager", this.genotypeManager);
+
+        this.viewFactory = mock(DefaultPatientSimilarityViewFactory.class);
+        this.phenotypeIndex = mock(PatientPhenotypeIndex.class);
+        ComponentManager componentManager = this.mocker.getInstance(ComponentManager.class, "wiki");
+        when(componentManager.<PatientSimilarityViewFactory>getInstanceList(PatientSimilarityViewFactory.class))
+            .thenReturn(Arrays.asList(this.viewFactory, mock(PatientSimilarityViewFactory.class)));
+        when(componentManager.<PatientPhenotypeIndex>getInstanceList(PatientPhenotypeIndex.class))
+            .thenReturn(Collections.singletonList(this.phenotypeIndex));
+    }
+
+    @Test
+    public void modifiedPatientsAreDroppedFromTheCachesAndIndexedAgain() throws Exception
+    {
+        this.mocker.getComponentUnderTest().onEvent(new PatientChangedEvent(), this.document, null);
+
+        verifyCachesCleared();
+        verify(this.mocker.<PatientGeneIndex>getInstance(PatientGeneIndex.class)).index(this.patient);
+        verify(this.phenotypeIndex).index(this.patient);
+    }
+
+    @Test
+    public void deletedPatientsAreDroppedFromTheCachesAndIndexes() throws Exception
+    {
+        this.mocker.getComponentUnderTest().onEvent(new PatientDeletingEvent(), this.document, null);
+
+        verifyCachesCleared();
+        verify(this.repository, never()).load(this.document);
+        verify(this.mocker.<PatientGeneIndex>getInstance(PatientGeneIndex.class)).remove(PATIENT_ID);
+        verify(this.phenotypeIndex).remove(PATIENT_ID);
+        verify(this.phenotypeIndex, never()).index(Matchers.any(Patient.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void changedExomesDropTheViewsOfThePatient() throws Exception
+    {
+        ((Initializable) this.mocker.getComponentUnderTest()).initialize();
+        ArgumentCaptor<Consumer<String>> listener = ArgumentCaptor.forClass((Class) Consumer.class);
+        verify(this.exomeManager).addChangeListener(listener.capture());
+
+        listener.getValue().accept(PATIENT_ID);
+
+        verify(this.viewFactory).clearPatientViews(PATIENT_ID);
+        verify(this.genotypeManager, never()).clearPatientCache(PATIENT_ID);
+    }
+
+    private void verifyCachesCleared() throws Exception
+    {
+        verify(this.mocker.<PatientPhenotypeProfileManager>getInstance(PatientPhenotypeProfileManager.class))
+            .clearPatientCache(PATIENT_ID);
+        verify(this.viewFactory).clearPatientViews(PATIENT_ID);
+        verify(this.exomeManager).clearPatientCache(PATIENT_ID);
+        verify(this.genotypeManager).clearPatientCache(PATIENT_ID);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import org.phenotips.data.Disorder;
+import org.phenotips.data.Patient;
+import org.phenotips.data.similarity.PatientPhenotypeProfileManager;
+import org.phenotips.data.similarity.internal.mocks.MockDisorder;
+import org.phenotips.data.similarity.internal.mocks.MockVocabularyTerm;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link PatientSimilarityScorer}.
+ *
+ * @version $Id$
+ */
+public class PatientSimilarityScorerTest
+{
+    private static final double EPS = 1e-12;
+
+    private PatientPhenotypeProfileManager profileManager;
+
+    private AncestorClosureEngine engine;
+
+    private VocabularyTerm left;
+
+    private VocabularyTerm right;
+
+    private VocabularyTerm leftLeaf;
+
+    private Patient reference;
+
+    @Before
+    public void setUp()
+    {
+        VocabularyTerm root = new MockVocabularyTerm("HP:0000118", null);
+        this.left = new MockVocabularyTerm("HP:0000001", Collections.singleton(root));
+        this.right = new MockVocabularyTerm("HP:0000002", Collections.singleton(root));
+        this.leftLeaf = new MockVocabularyTerm("HP:0000003", Collections.singleton(this.left));
+        this.engine = new AncestorClosureEngine(new TermICTable(
+            new String[] { "HP:0000118", "HP:0000001", "HP:0000002", "HP:0000003" },
+            new double[] { 0.0, 0.7, 1.1, 2.3 }));
+
+        this.profileManager = mock(PatientPhenotypeProfileManager.class);
+        this.reference = mockPatient("P0000001", this.leftLeaf, this.right);
+    }
+
+    @Test
+    public void scoreIsHalfThePhenotypeScoreWithoutGenotypes()
+    {
+        Patient match = mockPatient("P0000002", this.left);
+        PatientSimilarityScorer scorer = new PatientSimilarityScorer(this.reference, this.profileManager, null);
+
+        double expected = 0.7 / (0.7 + 1.1 + 2.3);
+        Assert.assertEquals(expected, scorer.getPhenotypeScore(match), EPS);
+        Assert.assertEquals(0.0, scorer.getGenotypeScore(match), EPS);
+        Assert.assertEquals(0.5 * expected, scorer.getScore(match), EPS);
+    }
+
+    @Test
+    public void sharedDisordersBoostThePhenotypeScore()
+    {
+        Disorder disorder = new MockDisorder("MIM:123456", "Some disorder");
+        doReturn(Collections.singleton(disorder)).when(this.reference).getDisorders();
+        Patient match = mockPatient("P0000002", this.left);
+        doReturn(Collections.singleton(new MockDisorder("MIM:123456", "Some disorder"))).when(match)
+            .getDisorders();
+
+        PatientSimilarityScorer scorer = new PatientSimilarityScorer(this.reference, this.profileManager, null);
+
+        double base = 0.7 / (0.7 + 1.1 + 2.3);
+        Assert.assertEquals(base + (1 - base) / 3, scorer.getPhenotypeScore(match), EPS);
+    }
+
+    @Test
+    public void emptyProfilesScoreZero()
+    {
+        Patient match = mockPatient("P0000002");
+        PatientSimilarityScorer scorer = new PatientSimilarityScorer(this.reference, this.profileManager, null);
+        Assert.assertEquals(0.0, scorer.getScore(match), EPS);
+    }
+
+    @Test
+    public void scoreKeepsBestCandidatesInDecreasingOrder()
+    {
+        Patient weak = mockPatient("P0000002", this.left);
+        Patient strong = mockPatient("P0000003", this.leftLeaf, this.right);
+        Patient medium = mockPatient("P0000004", this.leftLeaf);
+        Patient empty = mockPatient("P0000005");
+        PatientSimilarityScorer scorer = new PatientSimilarityScorer(this.reference, this.profileManager, null);
+
+        List<PatientSimilarityScorer.ScoredPatient> all =
+            scorer.score(Arrays.asList(weak, null, strong, empty, medium), 0.0, 0);
+        Assert.assertEquals(3, all.size());
+        Assert.assertSame(strong, all.get(0).getPatient());
+        Assert.assertSame(medium, all.get(1).getPatient());
+        Assert.assertSame(weak, all.get(2).getPatient());
+        Assert.assertEquals(0.5, all.get(0).getScore(), EPS);
+
+        List<PatientSimilarityScorer.ScoredPatient> top = scorer.score(Arrays.asList(weak, strong, medium), 0.0, 2);
+        Assert.assertEquals(2, top.size());
+        Assert.assertSame(strong, top.get(0).getPatient());
+        Assert.assertSame(medium, top.get(1).getPatient());
+
+        Assert.assertTrue(scorer.score(Arrays.asList(weak, medium), 0.5, 0).isEmpty());
+    }
+
+    @Test
+    public void adjustScoreWithDisordersNeverExceedsOne()
+    {
+        Assert.assertEquals(0.5, PatientSimilarityScorer.adjustScoreWithDisorders(0.5, 0), EPS);
+        Assert.assertEquals(0.5 + 0.5 / 3, PatientSimilarityScorer.adjustScoreWithDisorders(0.5, 1), EPS);
+        Assert.assertTrue(PatientSimilarityScorer.adjustScoreWithDisorders(0.9, 50) <= 1.0);
+    }
+
+    private Patient mockPatient(String id, VocabularyTerm... terms)
+    {
+        Patient patient = mock(Patient.class);
+        when(patient.getId()).thenReturn(id);
+        doReturn(Collections.emptySet()).when(patient).getDisorders();
+        when(this.profileManager.getProfile(patient))
+            .thenReturn(new DefaultPatientPhenotypeProfile(id, null, Arrays.asList(terms), this.engine));
+        return patient;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link PhenotypeInvertedIndex}.
+ *
+ * @version $Id$
+ */
+public class PhenotypeInvertedIndexTest
+{
+    private static final int TERMS = 300;
+
+    private static final int PATIENTS = 500;
+
+    private double[] ics;
+
+    private int[][] closures;
+
+    private double[] totals;
+
+    private PhenotypeInvertedIndex index;
+
+    @Before
+    public void setUp()
+    {
+        Random random = new Random(42);
+        this.ics = new double[TERMS];
+        for (int i = 1; i < TERMS; i++) {
+            this.ics[i] = random.nextDouble() * 5;
+        }
+        this.closures = new int[PATIENTS][];
+        this.totals = new double[PATIENTS];
+        this.index = new PhenotypeInvertedIndex(term -> this.ics[term]);
+        for (int p = 0; p < PATIENTS; p++) {
+            long[] closure = new long[(TERMS + 63) / 64];
+            int size = 1 + random.nextInt(30);
+            for (int i = 0; i < size; i++) {
+                int term = 1 + random.nextInt(TERMS - 1);
+                closure[term >> 6] |= 1L << term;
+            }
+            this.closures[p] = PhenotypeInvertedIndex.toOrdinals(closure);
+            this.totals[p] = sum(this.closures[p]);
+            this.index.put(String.valueOf(p), this.closures[p], this.totals[p]);
+        }
+    }
+
+    @Test
+    public void topMatchesAreTheExactBest()
+    {
+        for (int reference = 0; reference < 50; reference++) {
+            for (int k : new int[] { 1, 5, 20, 0 }) {
+                List<String> found = this.index.findTopMatches(this.closures[reference], this.totals[reference],
+                    String.valueOf(reference), k, null);
+                assertExact(reference, k, found);
+            }
+        }
+    }
+
+    @Test
+    public void updatesAndRemovalsAreSeenByQueries()
+    {
+        // move patient 1 to the same phenotype as patient 0, and remove all the others matching patient 0
+        this.index.put("1", this.closures[0], this.totals[0]);
+        this.closures[1] = this.closures[0];
+        this.totals[1] = this.totals[0];
+        for (int p = 2; p < PATIENTS; p++) {
+            this.index.remove(String.valueOf(p));
+        }
+        Assert.assertEquals(2, this.index.size());
+        List<String> found = this.index.findTopMatches(this.closures[0], this.totals[0], "0", 5, null);
+        Assert.assertEquals(Collections.singletonList("1"), found);
+    }
+
+    @Test
+    public void compactionKeepsRemainingPatients()
+    {
+        PhenotypeInvertedIndex large = new PhenotypeInvertedIndex(term -> 1.0);
+        for (int p = 0; p < 3000; p++) {
+            large.put(String.valueOf(p), new int[] { p % 7, 7 + p % 11 }, 2.0);
+        }
+        for (int p = 0; p < 2500; p++) {
+            large.remove(String.valueOf(p));
+        }
+        Assert.assertEquals(500, large.size());
+        // the 7 remaining patients with both terms of the reference: p % 7 == 3 and p % 11 == 5, i.e. p % 77 == 38
+        List<String> found = large.findTopMatches(new int[] { 3, 12 }, 2.0, null, 7, null);
+        List<String> expected = new ArrayList<>();
+        for (int p = 2500; p < 3000; p++) {
+            if (p % 77 == 38) {
+                expected.add(String.valueOf(p));
+            }
+        }
+        Collections.sort(expected);
+        Collections.sort(found);
+        Assert.assertEquals(expected, found);
+    }
+
+    @Test
+    public void filteredPatientsAreReplaced()
+    {
+        List<String> unfiltered = this.index.findTopMatches(this.closures[3], this.totals[3], "3", 5, null);
+        String best = unfiltered.get(0);
+        List<String> filtered =
+            this.index.findTopMatches(this.closures[3], this.totals[3], "3", 5, id -> !id.equals(best));
+        Assert.assertEquals(5, filtered.size());
+        Assert.assertFalse(filtered.contains(best));
+        Assert.assertEquals(unfiltered.subList(1, 5), filtered.subList(0, 4));
+    }
+
+    @Test
+    public void rankingIsExtendedWhenTheFilterRejectsManyPatients()
+    {
+        List<String> unfiltered = this.index.findTopMatches(this.closures[3], this.totals[3], "3", 25, null);
+        List<String> rejected = unfiltered.subList(0, 20);
+        List<String> filtered =
+            this.index.findTopMatches(this.closures[3], this.totals[3], "3", 5, id -> !rejected.contains(id));
+        Assert.assertEquals(unfiltered.subList(20, 25), filtered);
+    }
+
+    @Test(timeout = 10000)
+    public void filterRunsOutsideTheLock()
+    {
+        // the filter updates the index, which needs the write lock
+        List<String> found = this.index.findTopMatches(this.closures[3], this.totals[3], "3", 5, id -> {
+            this.index.put("new" + id, this.closures[0], this.totals[0]);
+            return true;
+        });
+        Assert.assertEquals(5, found.size());
+        Assert.assertEquals(PATIENTS + 5, this.index.size());
+    }
+
+    private void assertExact(int reference, int k, List<String> found)
+    {
+        List<Double> expected = new ArrayList<>();
+        for (int p = 0; p < PATIENTS; p++) {
+            double score = score(reference, p);
+            if (p != reference && score > 0) {
+                expected.add(score);
+            }
+        }
+        Collections.sort(expected, Collections.reverseOrder());
+        if (k > 0 && expected.size() > k) {
+            expected = expected.subList(0, k);
+        }
+        Assert.assertEquals(expected.size(), found.size());
+        for (int i = 0; i < found.size(); i++) {
+            Assert.assertEquals(expected.get(i), score(reference, Integer.parseInt(found.get(i))), 1e-9);
+        }
+    }
+
+    private double score(int a, int b)
+    {
+        int[] common = Arrays.stream(this.closures[a]).filter(t -> Arrays.binarySearch(this.closures[b], t) >= 0)
+            .toArray();
+        double shared = sum(common);
+        double union = this.totals[a] + this.totals[b] - shared;
+        return union == 0 ? 0 : shared / union;
+    }
+
+    private double sum(int[] terms)
+    {
+        double total = 0;
+        for (int term : terms) {
+            total += this.ics[term];
+        }
+        return total;
+    }
+}
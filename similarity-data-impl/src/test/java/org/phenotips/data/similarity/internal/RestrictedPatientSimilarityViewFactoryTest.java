@@ -27,12 +27,15 @@
 import org.phenotips.data.permissions.EntityPermissionsManager;
 import org.phenotips.data.permissions.Visibility;
 import org.phenotips.data.permissions.internal.EntityAccessManager;
+import org.phenotips.data.similarity.PatientPhenotypeProfileManager;
 import org.phenotips.data.similarity.PatientSimilarityView;
 import org.phenotips.data.similarity.PatientSimilarityViewFactory;
 import org.phenotips.data.similarity.internal.mocks.MockDisorder;
 import org.phenotips.data.similarity.internal.mocks.MockFeature;
 import org.phenotips.data.similarity.internal.mocks.MockFeatureMetadatum;
+import org.phenotips.data.similarity.internal.mocks.MockPatientPhenotypeProfileManager;
 import org.phenotips.data.similarity.internal.mocks.MockVocabularyTerm;
+import org.phenotips.data.similarity.internal.mocks.TermICTables;
 import org.phenotips.vocabulary.VocabularyManager;
 import org.phenotips.vocabulary.VocabularyTerm;
 
@@ -293,6 +296,8 @@ public void setupComponents() throws Exception
             when(vocabularyManager.resolveTerm(term.getId())).thenReturn(term);
         }
 
-        DefaultPatientSimilarityView.initializeStaticData(termICs, vocabularyManager);
+        PatientPhenotypeProfileManager profileManager =
+            new MockPatientPhenotypeProfileManager(TermICTables.fromMap(termICs), vocabularyManager);
+        DefaultPatientSimilarityView.initializeStaticData(profileManager, vocabularyManager);
     }
 }
@@ -33,12 +33,15 @@
 import org.phenotips.data.permissions.internal.access.OwnerAccessLevel;
 import org.phenotips.data.similarity.AccessType;
 import org.phenotips.data.similarity.PatientGenotypeManager;
+import org.phenotips.data.similarity.PatientPhenotypeProfileManager;
 import org.phenotips.data.similarity.PatientSimilarityView;
 import org.phenotips.data.similarity.genotype.DefaultPatientGenotypeManager;
 import org.phenotips.data.similarity.internal.mocks.MockDisorder;
 import org.phenotips.data.similarity.internal.mocks.MockFeature;
 import org.phenotips.data.similarity.internal.mocks.MockFeatureMetadatum;
+import org.phenotips.data.similarity.internal.mocks.MockPatientPhenotypeProfileManager;
 import org.phenotips.data.similarity.internal.mocks.MockVocabularyTerm;
+import org.phenotips.data.similarity.internal.mocks.TermICTables;
 import org.phenotips.data.similarity.permissions.internal.MatchAccessLevel;
 import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyManager;
@@ -756,6 +759,8 @@ public static void setupComponents() throws ComponentLookupException, CacheExcep
             when(vocabularyManager.resolveTerm(term.getId())).thenReturn(term);
         }
 
-        DefaultPatientSimilarityView.initializeStaticData(termICs, vocabularyManager);
+        PatientPhenotypeProfileManager profileManager =
+            new MockPatientPhenotypeProfileManager(TermICTables.fromMap(termICs), vocabularyManager);
+        DefaultPatientSimilarityView.initializeStaticData(profileManager, vocabularyManager);
     }
 }
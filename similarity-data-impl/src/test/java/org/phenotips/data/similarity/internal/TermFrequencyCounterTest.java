@@ -0,0 +1,92 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import org.phenotips.data.similarity.internal.mocks.MockVocabularyTerm;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link TermFrequencyCounter}.
+ *
+ * @version $Id$
+ */
+public class TermFrequencyCounterTest
+{
+    private Vocabulary hpo;
+
+    private List<VocabularyTerm> diseases;
+
+    @Before
+    public void setUp()
+    {
+        VocabularyTerm root = new MockVocabularyTerm("HP:0000118", null);
+        VocabularyTerm left = new MockVocabularyTerm("HP:0000001", Collections.singleton(root));
+        VocabularyTerm right = new MockVocabularyTerm("HP:0000002", Collections.singleton(root));
+        VocabularyTerm leftLeaf = new MockVocabularyTerm("HP:0000003", Collections.singleton(left));
+
+        this.hpo = mock(Vocabulary.class);
+        for (VocabularyTerm term : new VocabularyTerm[] { root, left, right, leftLeaf }) {
+            when(this.hpo.getTerm(term.getId())).thenReturn(term);
+        }
+
+        // Enough diseases to be split across several tasks, the leaf is seen before its ancestors
+        this.diseases = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            VocabularyTerm disease = mock(VocabularyTerm.class);
+            when(disease.get("actual_symptom"))
+                .thenReturn(Collections.singletonList(i < 150 ? leftLeaf.getId() : right.getId()));
+            this.diseases.add(disease);
+        }
+    }
+
+    @Test
+    public void countsAreReturnedInTermIdentifierOrder()
+    {
+        TermFrequencyCounter counter = new TermFrequencyCounter(this.hpo, mock(Logger.class));
+        int[] counts = counter.count(this.diseases, 1);
+
+        Assert.assertArrayEquals(new String[] { "HP:0000001", "HP:0000002", "HP:0000003", "HP:0000118" },
+            counter.getTermIds());
+        Assert.assertArrayEquals(new int[] { 150, 50, 150, 200 }, counts);
+    }
+
+    @Test
+    public void parallelCountsMatchSequentialCounts()
+    {
+        TermFrequencyCounter sequential = new TermFrequencyCounter(this.hpo, mock(Logger.class));
+        int[] expected = sequential.count(this.diseases, 1);
+
+        Collections.reverse(this.diseases);
+        TermFrequencyCounter parallel = new TermFrequencyCounter(this.hpo, mock(Logger.class));
+        Assert.assertArrayEquals(expected, parallel.count(this.diseases, 4));
+        Assert.assertArrayEquals(sequential.getTermIds(), parallel.getTermIds());
+    }
+}
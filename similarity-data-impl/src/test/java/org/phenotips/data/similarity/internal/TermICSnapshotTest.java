@@ -0,0 +1,117 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link TermICSnapshot}.
+ *
+ * @version $Id$
+ */
+public class TermICSnapshotTest
+{
+    private File file;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        File directory = Files.createTempDirectory("termics").toFile();
+        directory.deleteOnExit();
+        this.file = new File(new File(directory, "similarity"), "termICs.bin");
+    }
+
+    @Test
+    public void missingSnapshotReturnsNull() throws IOException
+    {
+        Assert.assertNull(new TermICSnapshot(this.file).load("any"));
+    }
+
+    @Test
+    public void storedTableIsLoadedBackForSameKey() throws IOException
+    {
+        TermICTable table = new TermICTable(new String[] { "HP:0000002", "HP:0000001" }, new double[] { 2.5, 0.1 });
+        String key = TermICSnapshot.getKey("hpo-2019", 14000, "mim-2019", 9000);
+        new TermICSnapshot(this.file).store(key, table);
+
+        TermICTable loaded = new TermICSnapshot(this.file).load(key);
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals(table.size(), loaded.size());
+        for (int i = 0; i < table.size(); i++) {
+            Assert.assertEquals(table.getId(i), loaded.getId(i));
+            Assert.assertEquals(Double.doubleToLongBits(table.getIC(i)), Double.doubleToLongBits(loaded.getIC(i)));
+        }
+        this.file.delete();
+        this.file.getParentFile().delete();
+    }
+
+    @Test
+    public void snapshotForDifferentKeyIsIgnored() throws IOException
+    {
+        TermICTable table = new TermICTable(new String[] { "HP:0000001" }, new double[] { 1 });
+        new TermICSnapshot(this.file).store(TermICSnapshot.getKey("hpo-1", 1), table);
+        Assert.assertNull(new TermICSnapshot(this.file).load(TermICSnapshot.getKey("hpo-2", 1)));
+        this.file.delete();
+        this.file.getParentFile().delete();
+    }
+
+    @Test
+    public void concurrentStoresDontShareTheirTemporaryFile() throws Exception
+    {
+        String key = TermICSnapshot.getKey("hpo-1", 1000);
+        String[] ids = new String[1000];
+        double[] ics = new double[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = String.format("HP:%07d", i);
+            ics[i] = i / 100.0;
+        }
+        TermICTable table = new TermICTable(ids, ics);
+        List<Callable<Void>> stores = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            stores.add(() -> {
+                new TermICSnapshot(this.file).store(key, table);
+                return null;
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(stores.size());
+        try {
+            for (Future<Void> store : executor.invokeAll(stores)) {
+                store.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals(ids.length, new TermICSnapshot(this.file).load(key).size());
+        Assert.assertArrayEquals(new String[] { this.file.getName() }, this.file.getParentFile().list());
+        this.file.delete();
+        this.file.getParentFile().delete();
+    }
+}
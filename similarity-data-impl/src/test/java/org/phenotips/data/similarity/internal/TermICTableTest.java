@@ -0,0 +1,68 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link TermICTable}.
+ *
+ * @version $Id$
+ */
+public class TermICTableTest
+{
+    private static final double EPS = 1e-12;
+
+    @Test
+    public void ordinalsFollowIdentifierOrder()
+    {
+        TermICTable table = new TermICTable(new String[] { "HP:0000003", "HP:0000001", "HP:0000002" },
+            new double[] { 3.0, 1.0, 2.0 });
+        Assert.assertEquals(3, table.size());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals("HP:000000" + (i + 1), table.getId(i));
+            Assert.assertEquals(i, table.getOrdinal(table.getId(i)));
+            Assert.assertEquals(i + 1.0, table.getIC(i), EPS);
+        }
+    }
+
+    @Test
+    public void unknownTermsHaveNoInformationContent()
+    {
+        TermICTable table = new TermICTable(new String[] { "HP:0000001" }, new double[] { 1.5 });
+        Assert.assertEquals(TermICTable.UNKNOWN, table.getOrdinal("HP:0000002"));
+        Assert.assertEquals(TermICTable.UNKNOWN, table.getOrdinal(null));
+        Assert.assertEquals(0.0, table.getIC("HP:0000002"), EPS);
+        Assert.assertEquals(1.5, table.getIC("HP:0000001"), EPS);
+    }
+
+    @Test
+    public void sumICAddsUpSelectedTerms()
+    {
+        TermICTable table = new TermICTable(new String[] { "a", "b", "c", "d" }, new double[] { 0.5, 1, 2, 4 });
+        Assert.assertEquals(7.0, table.sumIC(new int[] { 1, 2, 3 }), EPS);
+        Assert.assertEquals(0.0, table.sumIC(new int[0]), EPS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateIdentifiersAreRejected()
+    {
+        new TermICTable(new String[] { "a", "a" }, new double[] { 1, 2 });
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal.mocks;
+
+import org.phenotips.data.Feature;
+import org.phenotips.data.Patient;
+import org.phenotips.data.similarity.PatientPhenotypeProfile;
+import org.phenotips.data.similarity.PatientPhenotypeProfileManager;
+import org.phenotips.data.similarity.internal.AncestorClosureEngine;
+import org.phenotips.data.similarity.internal.DefaultPatientPhenotypeProfile;
+import org.phenotips.data.similarity.internal.TermICTable;
+import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Simple profile manager, computing the profile of each patient on demand from pre-specified term IC values.
+ *
+ * @version $Id$
+ */
+public class MockPatientPhenotypeProfileManager implements PatientPhenotypeProfileManager
+{
+    private final AncestorClosureEngine engine;
+
+    private final VocabularyManager vocabularyManager;
+
+    public MockPatientPhenotypeProfileManager(TermICTable termICs, VocabularyManager vocabularyManager)
+    {
+        this.engine = new AncestorClosureEngine(termICs);
+        this.vocabularyManager = vocabularyManager;
+    }
+
+    @Override
+    public PatientPhenotypeProfile getProfile(Patient patient)
+    {
+        if (patient == null) {
+            return null;
+        }
+        Set<VocabularyTerm> terms = new LinkedHashSet<>();
+        for (Feature feature : patient.getFeatures()) {
+            VocabularyTerm term = feature.isPresent() ? this.vocabularyManager.resolveTerm(feature.getId()) : null;
+            if (term != null) {
+                terms.add(term);
+            }
+        }
+        return new DefaultPatientPhenotypeProfile(patient.getId(), null, terms, this.engine);
+    }
+
+    @Override
+    public double getTermIC(int ordinal)
+    {
+        TermICTable termICs = this.engine.getTermICs();
+        return ordinal >= 0 && ordinal < termICs.size() ? termICs.getIC(ordinal) : 0;
+    }
+
+    @Override
+    public void clearCache()
+    {
+        // Nothing is cached
+    }
+
+    @Override
+    public void clearPatientCache(String id)
+    {
+        // Nothing is cached
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.internal.mocks;
+
+import org.phenotips.data.similarity.internal.TermICTable;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.Map;
+
+/**
+ * Builds {@link TermICTable term IC tables} from the term to IC maps used in tests.
+ *
+ * @version $Id$
+ */
+public final class TermICTables
+{
+    private TermICTables()
+    {
+        // Utility class
+    }
+
+    /**
+     * Copies a map of term information content into a table.
+     *
+     * @param ics the information content of each term
+     * @return a table holding the same values
+     */
+    public static TermICTable fromMap(Map<VocabularyTerm, Double> ics)
+    {
+        String[] ids = new String[ics.size()];
+        double[] values = new double[ics.size()];
+        int i = 0;
+        for (Map.Entry<VocabularyTerm, Double> entry : ics.entrySet()) {
+            ids[i] = entry.getKey().getId();
+            values[i] = entry.getValue();
+            i++;
+        }
+        return new TermICTable(ids, values);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.script;
+
+import org.phenotips.data.similarity.PatientSimilarityViewFactory;
+import org.phenotips.data.similarity.genotype.DefaultPatientGenotypeManager;
+import org.phenotips.data.similarity.genotype.ExomiserExomeManager;
+import org.phenotips.data.similarity.internal.DefaultPatientSimilarityViewFactory;
+
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.script.service.ScriptService;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link PatientMatchingScriptService}.
+ *
+ * @version $Id$
+ */
+public class PatientMatchingScriptServiceTest
+{
+    private static final String PATIENT_ID = "P0000001";
+
+    @Rule
+    public final MockitoComponentMockingRule<ScriptService> mocker =
+        new MockitoComponentMockingRule<ScriptService>(PatientMatchingScriptService.class);
+
+    private PatientMatchingScriptService service;
+
+    private DefaultPatientSimilarityViewFactory defaultFactory;
+
+    private DefaultPatientSimilarityViewFactory restrictedFactory;
+
+    private ExomiserExomeManager exomeManager;
+
+    private DefaultPatientGenotypeManager genotypeManager;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.service = (PatientMatchingScriptService) this.mocker.getComponentUnderTest();
+        this.defaultFactory = mock(DefaultPatientSimilarityViewFactory.class);
+        ReflectionUtils.setFieldValue(this.service, "patientViewFactory", this.defaultFactory);
+        this.exomeManager = mock(ExomiserExomeManager.class);
+        ReflectionUtils.setFieldValue(this.service, "exomeManager", this.exomeManager);
+        this.genotypeManager = mock(DefaultPatientGenotypeManager.class);
+        ReflectionUtils.setFieldValue(this.service, "genotypeManager", this.genotypeManager);
+
+        // the restricted factory, used for matching, keeps its own cache of views
+        this.restrictedFactory = mock(DefaultPatientSimilarityViewFactory.class);
+        ComponentManager componentManager = this.mocker.getInstance(ComponentManager.class, "wiki");
+        when(componentManager.<PatientSimilarityViewFactory>getInstanceList(PatientSimilarityViewFactory.class))
+            .thenReturn(Arrays.asList(this.defaultFactory, this.restrictedFactory,
+                mock(PatientSimilarityViewFactory.class)));
+    }
+
+    @Test
+    public void clearCacheClearsTheViewsOfAllTheFactories() throws Exception
+    {
+        this.service.clearCache();
+
+        verify(this.defaultFactory).clearCache();
+        verify(this.restrictedFactory).clearCache();
+        verify(this.exomeManager).clearCache();
+        verify(this.genotypeManager).clearCache();
+    }
+
+    @Test
+    public void clearPatientCacheClearsTheViewsOfAllTheFactories() throws Exception
+    {
+        this.service.clearPatientCache(PATIENT_ID);
+
+        verify(this.defaultFactory).clearPatientCache(PATIENT_ID);
+        verify(this.restrictedFactory).clearPatientCache(PATIENT_ID);
+        verify(this.exomeManager).clearPatientCache(PATIENT_ID);
+        verify(this.genotypeManager).clearPatientCache(PATIENT_ID);
+    }
+}
@@ -20,7 +20,7 @@
 import org.phenotips.data.similarity.Exome;
 import org.phenotips.data.similarity.Variant;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -45,6 +45,9 @@ public abstract class AbstractExome implements Exome
     /** The variants in each gene. */
     protected Map<String, List<Variant>> variants = new HashMap<>();
 
+    /** The genes sorted by decreasing score, built once all the gene scores are known; see {@link #rankGenes()}. */
+    private volatile List<String> rankedGenes;
+
     @Override
     public Set<String> getGenes()
     {
@@ -65,6 +68,7 @@ public List<Variant> getTopVariants(String gene, int k)
             return Collections.emptyList();
         }
 
+        // the lists are sorted when the exome is built, so this is only a view on the top of the list
         if (k < result.size()) {
             return result.subList(0, k);
         } else {
@@ -79,11 +83,29 @@ public List<String> getTopGenes(int n)
             return Collections.emptyList();
         }
 
-        // Basic implementation that just sorts all genes and returns the top n
-        // TODO: store in a data structure where this is efficient
+        List<String> geneNames = this.rankedGenes;
+        if (geneNames == null) {
+            geneNames = rankGenes();
+        }
+        if (n <= 0 || n > geneNames.size()) {
+            return geneNames;
+        } else {
+            return geneNames.subList(0, n);
+        }
+    }
+
+    /**
+     * Sort the genes by decreasing score, so that {@link #getTopGenes(int)} only needs to return the top of the sorted
+     * list. Implementations should call this once all the gene scores are known, otherwise the genes are sorted the
+     * first time they are requested. The gene scores must not change afterwards.
+     *
+     * @return the unmodifiable list of genes, sorted by decreasing score
+     */
+    protected List<String> rankGenes()
+    {
         final Map<String, Double> scoredGenes = this.geneScores;
-        List<String> geneNames = new ArrayList<>(scoredGenes.keySet());
-        Collections.sort(geneNames, new Comparator<String>()
+        String[] geneNames = scoredGenes.keySet().toArray(new String[scoredGenes.size()]);
+        Arrays.sort(geneNames, new Comparator<String>()
         {
             @Override
             public int compare(String g1, String g2)
@@ -92,12 +114,9 @@ public int compare(String g1, String g2)
                 return Double.compare(scoredGenes.get(g2), scoredGenes.get(g1));
             }
         });
-
-        if (n <= 0 || n > geneNames.size()) {
-            return geneNames;
-        } else {
-            return geneNames.subList(0, n);
-        }
+        List<String> result = Collections.unmodifiableList(Arrays.asList(geneNames));
+        this.rankedGenes = result;
+        return result;
     }
 
     @Override
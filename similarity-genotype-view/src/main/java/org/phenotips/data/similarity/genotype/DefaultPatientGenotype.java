@@ -23,11 +23,9 @@
 import org.phenotips.data.PatientData;
 import org.phenotips.data.similarity.Exome;
 import org.phenotips.data.similarity.ExomeManager;
+import org.phenotips.data.similarity.GeneDictionary;
 import org.phenotips.data.similarity.PatientGenotype;
 import org.phenotips.data.similarity.Variant;
-import org.phenotips.vocabulary.Vocabulary;
-import org.phenotips.vocabulary.VocabularyManager;
-import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
@@ -54,8 +52,8 @@ public class DefaultPatientGenotype extends AbstractExome implements PatientGeno
     /** Factory for loading exome data. */
     protected static ExomeManager exomeManager;
 
-    /** Manager to allow access to HGNC vocabulary gene data. */
-    protected static VocabularyManager vocabularyManager;
+    /** Resolves the HGNC gene symbols. */
+    protected static GeneDictionary geneDictionary;
 
     private static final String STATUS_CANDIDATE = "candidate";
 
@@ -81,28 +79,52 @@ public class DefaultPatientGenotype extends AbstractExome implements PatientGeno
      */
     public DefaultPatientGenotype(Patient patient)
     {
-        // Initialize static exome and vocabulary managers
+        this(patient, loadExome(patient));
+    }
+
+    /**
+     * Constructor for a {@link PatientGenotype} object, representing the candidate genes of the given {@link Patient}
+     * and an already loaded exome.
+     *
+     * @param patient the patient object
+     * @param exome the exome of the patient, {@code null} if the patient has no exome data
+     * @since 1.3
+     */
+    public DefaultPatientGenotype(Patient patient, Exome exome)
+    {
+        initializeManagers();
+        this.exome = exome;
+        this.genesStatus = STATUS_SOLVED;
+        this.candidateGenes = new HashSet<>();
+        this.candidateGenes.addAll(getManualGeneNames(patient));
+    }
+
+    /**
+     * Load the exome of a patient, through the static exome manager.
+     *
+     * @param patient the patient object
+     * @return the exome of the patient, {@code null} if the patient has no exome data
+     */
+    private static Exome loadExome(Patient patient)
+    {
+        initializeManagers();
+        return exomeManager == null ? null : exomeManager.getExome(patient);
+    }
+
+    /**
+     * Initialize the static exome manager and gene dictionary, the first time a genotype is created.
+     */
+    private static void initializeManagers()
+    {
         if (exomeManager == null) {
             ComponentManager componentManager = ComponentManagerRegistry.getContextComponentManager();
             try {
                 exomeManager = componentManager.getInstance(ExomeManager.class, "exomiser");
-                vocabularyManager = componentManager.getInstance(VocabularyManager.class);
+                geneDictionary = componentManager.getInstance(GeneDictionary.class);
             } catch (ComponentLookupException e) {
                 LOGGER.error("Error loading static components: {}", e.getMessage(), e);
             }
         }
-
-        if (exomeManager != null) {
-            this.exome = exomeManager.getExome(patient);
-        }
-        this.genesStatus = STATUS_SOLVED;
-        this.candidateGenes = new HashSet<>();
-        this.candidateGenes.addAll(getManualGeneNames(patient));
-
-        // Score all genes
-        for (String gene : this.getGenes()) {
-            this.geneScores.put(gene, this.getGeneScore(gene));
-        }
     }
 
     /**
@@ -202,6 +224,20 @@ public Double getGeneScore(String gene)
         return score;
     }
 
+    @Override
+    public synchronized List<String> getTopGenes(int n)
+    {
+        // Genes are scored individually by getGeneScore, so the scores of all the genes are only needed, and
+        // computed, the first time the genes have to be ranked; genotypes are cached and shared between threads, so
+        // the scores must only be filled in once
+        if (this.geneScores.isEmpty()) {
+            for (String gene : this.getGenes()) {
+                this.geneScores.put(gene, this.getGeneScore(gene));
+            }
+        }
+        return super.getTopGenes(n);
+    }
+
     @Override
     public String getGenesStatus()
     {
@@ -216,12 +252,6 @@ public boolean hasExomeData()
 
     private String getGeneSymbol(String geneEnsemblId)
     {
-        String symbol = geneEnsemblId;
-        if (vocabularyManager != null) {
-            Vocabulary hgnc = vocabularyManager.getVocabulary("HGNC");
-            VocabularyTerm term = hgnc.getTerm(geneEnsemblId);
-            symbol = (term != null) ? (String) term.get("symbol") : symbol;
-        }
-        return symbol;
+        return geneDictionary == null ? geneEnsemblId : geneDictionary.getSymbol(geneEnsemblId);
     }
 }
@@ -18,21 +18,29 @@
 package org.phenotips.data.similarity.genotype;
 
 import org.phenotips.data.Patient;
+import org.phenotips.data.similarity.Exome;
+import org.phenotips.data.similarity.ExomeManager;
 import org.phenotips.data.similarity.PatientGenotype;
 import org.phenotips.data.similarity.PatientGenotypeManager;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+
+import java.util.Collections;
+import java.util.Map;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.slf4j.Logger;
 
 /**
  * This is an implementation of the {@link PatientGenotypeManager}, and allows accessing the {@link PatientGenotype} for
- * the given {@link Patient}.
+ * the given {@link Patient}. Genotypes of local patients are cached, so that the candidate genes and the exome of a
+ * patient are only looked up once for all the matches involving the patient, until the patient or its exome change.
  *
  * @version $Id$
  * @since 1.0M6
@@ -45,10 +53,34 @@ public class DefaultPatientGenotypeManager implements PatientGenotypeManager, In
     @Inject
     protected static Logger logger;
 
+    /** Configuration key for the maximum number of cached genotypes. */
+    private static final String CACHE_SIZE_KEY = "phenotips.similarity.genotype.cacheSize";
+
+    /** Default maximum number of cached genotypes. */
+    private static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /** Provides the exomes of patients. */
+    @Inject
+    @Named("exomiser")
+    protected ExomeManager exomeManager;
+
+    /** Provides the size of the genotype cache. */
+    @Inject
+    @Named("xwikiproperties")
+    protected ConfigurationSource configuration;
+
+    /** Cache for storing patient genotypes. */
+    protected GenotypeCache genotypeCache;
+
     @Override
     public void initialize() throws InitializationException
     {
         logger.info("Initializing DefaultPatientGenotypeManager");
+        this.genotypeCache = new GenotypeCache(this.configuration.getProperty(CACHE_SIZE_KEY, DEFAULT_CACHE_SIZE));
+        if (this.exomeManager instanceof ExomiserExomeManager) {
+            // genotypes built without an exome are trusted by the cache, drop them once an exome appears
+            ((ExomiserExomeManager) this.exomeManager).addLoadListener((id, exome) -> this.genotypeCache.remove(id));
+        }
     }
 
     @Override
@@ -57,6 +89,65 @@ public PatientGenotype getGenotype(Patient patient)
         if (patient == null) {
             return null;
         }
-        return new DefaultPatientGenotype(patient);
+        if (this.genotypeCache == null || this.exomeManager == null) {
+            // not initialized as a component, the genotype looks up the exome by itself
+            return new DefaultPatientGenotype(patient);
+        }
+        String version = PatientVersions.getVersion(patient);
+        if (version == null) {
+            // this must be a remote patient, which can't be tracked for changes
+            return new DefaultPatientGenotype(patient, this.exomeManager.getExome(patient));
+        }
+
+        // Exomes are cached by the exome manager, and a reloaded exome is a new object, so a genotype built from an
+        // outdated exome is detected by comparing the exomes; the exome is only looked up once the version matches
+        String id = patient.getId();
+        PatientGenotype genotype = this.genotypeCache.get(id, version, () -> this.exomeManager.getExome(patient));
+        if (genotype == null) {
+            Exome exome = this.exomeManager.getExome(patient);
+            genotype = new DefaultPatientGenotype(patient, exome);
+            this.genotypeCache.set(id, version, exome, genotype);
+        }
+        return genotype;
+    }
+
+    /**
+     * Return the statistics of the genotype cache, to be used for sizing it.
+     *
+     * @return the statistics of the genotype cache, see {@link GenotypeCache#getStatistics()}
+     * @since 1.3
+     */
+    public Map<String, Long> getCacheStatistics()
+    {
+        if (this.genotypeCache == null) {
+            return Collections.emptyMap();
+        }
+        return this.genotypeCache.getStatistics();
+    }
+
+    /**
+     * Clear all cached patient genotypes.
+     *
+     * @since 1.3
+     */
+    public void clearCache()
+    {
+        if (this.genotypeCache != null) {
+            this.genotypeCache.removeAll();
+            logger.info("Cleared genotype cache.");
+        }
+    }
+
+    /**
+     * Clear the cached genotype of a particular patient.
+     *
+     * @param id the document ID of the patient to remove from the cache
+     * @since 1.3
+     */
+    public void clearPatientCache(String id)
+    {
+        if (this.genotypeCache != null) {
+            this.genotypeCache.remove(id);
+        }
     }
 }
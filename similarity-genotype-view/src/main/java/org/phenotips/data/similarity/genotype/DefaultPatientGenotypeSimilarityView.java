@@ -20,11 +20,10 @@
 import org.phenotips.components.ComponentManagerRegistry;
 import org.phenotips.data.Patient;
 import org.phenotips.data.similarity.AccessType;
+import org.phenotips.data.similarity.GeneDictionary;
+import org.phenotips.data.similarity.PatientGenotype;
 import org.phenotips.data.similarity.PatientGenotypeManager;
 import org.phenotips.data.similarity.Variant;
-import org.phenotips.vocabulary.Vocabulary;
-import org.phenotips.vocabulary.VocabularyManager;
-import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
@@ -32,6 +31,7 @@
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -55,8 +55,8 @@ public class DefaultPatientGenotypeSimilarityView extends AbstractPatientGenotyp
     /** Manager to allow access to underlying genotype data. */
     protected static PatientGenotypeManager genotypeManager;
 
-    /** Manager to allow access to HGNC vocabulary gene data. */
-    protected static VocabularyManager vocabularyManager;
+    /** Resolves the Ensembl IDs of genes. */
+    protected static GeneDictionary geneDictionary;
 
     /** Logging helper object. */
     private static Logger logger = LoggerFactory.getLogger(DefaultPatientGenotypeSimilarityView.class);
@@ -75,16 +75,16 @@ public class DefaultPatientGenotypeSimilarityView extends AbstractPatientGenotyp
 
     static {
         PatientGenotypeManager gm = null;
-        VocabularyManager vm = null;
+        GeneDictionary gd = null;
         try {
             ComponentManager ccm = ComponentManagerRegistry.getContextComponentManager();
             gm = ccm.getInstance(PatientGenotypeManager.class);
-            vm = ccm.getInstance(VocabularyManager.class);
+            gd = ccm.getInstance(GeneDictionary.class);
         } catch (ComponentLookupException e) {
             logger.error("Error loading static components: {}", e.getMessage(), e);
         }
         genotypeManager = gm;
-        vocabularyManager = vm;
+        geneDictionary = gd;
     }
 
     /**
@@ -115,20 +115,38 @@ public DefaultPatientGenotypeSimilarityView(Patient match, Patient reference, Ac
     }
 
     /**
-     * Return the set of candidate genes found in either the match or reference patient.
+     * Score the genes matching between two genotypes. Only genes listed as solved or candidate in at least one of the
+     * two patients are considered.
      *
-     * @return a (potentially-empty) set of gene names
+     * @param reference the genotype of the reference patient, must not be {@code null}
+     * @param match the genotype of the matched patient, must not be {@code null}
+     * @return the score of each gene with a non-zero score, potentially empty
+     * @since 1.3
      */
-    private Set<String> getCandidateGeneUnion()
+    public static Map<String, Double> scoreGenes(PatientGenotype reference, PatientGenotype match)
     {
-        Set<String> sharedGenes = new HashSet<>();
-        if (this.matchGenotype != null && this.refGenotype != null) {
-            Set<String> matchGenes = this.matchGenotype.getCandidateGenes();
-            Set<String> refGenes = this.refGenotype.getCandidateGenes();
-            sharedGenes.addAll(matchGenes);
-            sharedGenes.addAll(refGenes);
+        Map<String, Double> scores = new HashMap<>();
+        // Only consider genes listed as a solved/candidate in at least one of the two patients
+        Set<String> candidateGenes = new HashSet<>(match.getCandidateGenes());
+        candidateGenes.addAll(reference.getCandidateGenes());
+        for (String gene : candidateGenes) {
+            // Compute gene score based on the genotype scores for the two patients
+            Double refScore = reference.getGeneScore(gene);
+            Double matchScore = match.getGeneScore(gene);
+            double geneScore;
+            // Average the scores as long as the gene is listed for both patients (solved/candidate or exome)
+            if (refScore == null || matchScore == null
+                || refScore < lowerGeneScoreThreshold || matchScore < lowerGeneScoreThreshold) {
+                geneScore = 0.0;
+            } else {
+                geneScore = (refScore + matchScore) / 2.0;
+            }
+
+            if (geneScore > 0) {
+                scores.put(gene, geneScore);
+            }
         }
-        return sharedGenes;
+        return scores;
     }
 
     @Override
@@ -147,25 +165,8 @@ public Set<String> getMatchingGenes()
      */
     private void matchGenes()
     {
-        // Only consider genes listed as a solved/candidate in at least one of the two patients
-        for (String gene : getCandidateGeneUnion()) {
-            // Compute gene score based on the genotype scores for the two patients
-            Double refScore = this.refGenotype.getGeneScore(gene);
-            Double matchScore = this.matchGenotype.getGeneScore(gene);
-            double geneScore;
-            // Average the scores as long as the gene is listed for both patients (solved/candidate or exome)
-            if (refScore == null || matchScore == null
-                || refScore < lowerGeneScoreThreshold || matchScore < lowerGeneScoreThreshold) {
-                geneScore = 0.0;
-            } else {
-                geneScore = (refScore + matchScore) / 2.0;
-            }
-
-            if (geneScore > 0) {
-                // Save score and variants for display
-                this.geneScores.put(gene, geneScore);
-            }
-        }
+        // Save scores for display
+        this.geneScores.putAll(scoreGenes(this.refGenotype, this.matchGenotype));
     }
 
     @Override
@@ -278,16 +279,7 @@ public int compare(Map.Entry<String, Double> e1, Map.Entry<String, Double> e2)
 
     private String getEnsemblId(String geneSymbol)
     {
-        String ensemblId = geneSymbol;
-        if (vocabularyManager != null) {
-            Vocabulary hgnc = vocabularyManager.getVocabulary("HGNC");
-            VocabularyTerm term = hgnc.getTerm(geneSymbol);
-            @SuppressWarnings("unchecked")
-            final List<String> ensemblIdList = term != null ? (List<String>) term.get("ensembl_gene_id") : null;
-            ensemblId = ensemblIdList != null && !ensemblIdList.isEmpty() ? ensemblIdList.get(0) : null;
-            // Retain information as is if we can't find Ensembl ID.
-            ensemblId = ensemblId != null ? ensemblId : geneSymbol;
-        }
-        return ensemblId;
+        // Retain information as is if we can't find Ensembl ID
+        return geneDictionary == null ? geneSymbol : geneDictionary.getEnsemblId(geneSymbol);
     }
 }
@@ -0,0 +1,233 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.genotype;
+
+import org.phenotips.data.similarity.Exome;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache for the exomes of patients, bounded by the estimated memory used by the cached exomes. Once the budget is
+ * exceeded, the least recently used exomes are evicted first. The cache also keeps the statistics needed for sizing it:
+ * occupancy, hits, misses, evictions, and the time spent loading the exomes that were missing.
+ * <p>
+ * Patients without an exome are remembered too, so that looking them up again doesn't check the exome directory every
+ * time. They don't use any of the budget, and stay cached until they are removed, e.g. once an exome file is created.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class ExomeCache
+{
+    /** Estimated memory used by each gene of an exome: name, score, and the map entries holding them. */
+    static final long GENE_FOOTPRINT = 200;
+
+    /** Estimated memory used by a parsed variant: its fields, its row of values, and the values not shared. */
+    static final long VARIANT_FOOTPRINT = 600;
+
+    /** The maximum estimated size of the cached exomes, in bytes. */
+    private final long capacity;
+
+    /** The cached exomes, in access order. */
+    private final LinkedHashMap<String, Entry> exomes = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The estimated size of the cached exomes, in bytes. */
+    private long weight;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    private long loads;
+
+    private long loadTime;
+
+    /**
+     * Create a cache holding exomes up to the given estimated size.
+     *
+     * @param capacity the maximum estimated size of the cached exomes, in bytes
+     */
+    public ExomeCache(long capacity)
+    {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Estimate the memory retained by an exome. The variants of {@link ExomeStore stored exomes} stay in the mapped
+     * file, and are accounted for by the {@link VariantCache} once loaded, so only their gene table is counted here.
+     *
+     * @param exome the exome to measure
+     * @return the estimated size of the exome, in bytes
+     */
+    public static long estimateSize(Exome exome)
+    {
+        long size = GENE_FOOTPRINT * exome.getGenes().size();
+        if (exome instanceof AbstractExome && !(exome instanceof ExomeStore.StoredExome)) {
+            for (List<?> variants : ((AbstractExome) exome).variants.values()) {
+                size += VARIANT_FOOTPRINT * variants.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get a cached exome.
+     *
+     * @param id the identifier of the patient
+     * @return the cached exome, or {@code null} if it is not cached or if the patient is known to have no exome, see
+     *         {@link #isMissing(String)}
+     */
+    public synchronized Exome get(String id)
+    {
+        Entry entry = this.exomes.get(id);
+        if (entry == null) {
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        return entry.exome;
+    }
+
+    /**
+     * Check if a patient is known to have no exome.
+     *
+     * @param id the identifier of the patient
+     * @return {@code true} if the patient was marked with {@link #setMissing(String)} and wasn't removed since
+     */
+    public synchronized boolean isMissing(String id)
+    {
+        Entry entry = this.exomes.get(id);
+        return entry != null && entry.exome == null;
+    }
+
+    /**
+     * Remember that a patient has no exome, replacing any cached exome of the patient.
+     *
+     * @param id the identifier of the patient
+     */
+    public synchronized void setMissing(String id)
+    {
+        Entry previous = this.exomes.put(id, new Entry(null, 0));
+        if (previous != null) {
+            this.weight -= previous.size;
+        }
+    }
+
+    /**
+     * Add a newly loaded exome to the cache, evicting older exomes if needed. Exomes larger than the whole budget are
+     * not cached.
+     *
+     * @param id the identifier of the patient
+     * @param exome the loaded exome
+     * @param loadTime the time it took to load the exome, in nanoseconds
+     */
+    public synchronized void set(String id, Exome exome, long loadTime)
+    {
+        this.loads++;
+        this.loadTime += loadTime;
+        long size = estimateSize(exome);
+        Entry previous = size > this.capacity ? this.exomes.remove(id) : this.exomes.put(id, new Entry(exome, size));
+        if (previous != null) {
+            this.weight -= previous.size;
+        }
+        if (size <= this.capacity) {
+            this.weight += size;
+            evict();
+        }
+    }
+
+    /**
+     * Remove the exome of a patient from the cache.
+     *
+     * @param id the identifier of the patient
+     */
+    public synchronized void remove(String id)
+    {
+        Entry entry = this.exomes.remove(id);
+        if (entry != null) {
+            this.weight -= entry.size;
+        }
+    }
+
+    /**
+     * Remove all the exomes from the cache.
+     */
+    public synchronized void removeAll()
+    {
+        this.exomes.clear();
+        this.weight = 0;
+    }
+
+    /**
+     * Return the statistics of the cache.
+     *
+     * @return the number of cached exomes, their estimated size and the size budget in bytes, the number of patients
+     *         known to have no exome, the number of hits, misses, evictions and loads since the cache was created, and
+     *         the average load time in milliseconds
+     */
+    public synchronized Map<String, Long> getStatistics()
+    {
+        long missing = this.exomes.values().stream().filter(entry -> entry.exome == null).count();
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("size", this.exomes.size() - missing);
+        result.put("weight", this.weight);
+        result.put("capacity", this.capacity);
+        result.put("missing", missing);
+        result.put("hits", this.hits);
+        result.put("misses", this.misses);
+        result.put("evictions", this.evictions);
+        result.put("loads", this.loads);
+        result.put("averageLoadTime", this.loads == 0 ? 0 : this.loadTime / this.loads / 1000000);
+        return result;
+    }
+
+    private void evict()
+    {
+        Iterator<Entry> it = this.exomes.values().iterator();
+        while (this.weight > this.capacity && it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.exome != null) {
+                this.weight -= entry.size;
+                it.remove();
+                this.evictions++;
+            }
+        }
+    }
+
+    /**
+     * A cached exome, along with its estimated size; the exome is {@code null} for patients without an exome.
+     */
+    private static final class Entry
+    {
+        private final Exome exome;
+
+        private final long size;
+
+        Entry(Exome exome, long size)
+        {
+            this.exome = exome;
+            this.size = size;
+        }
+    }
+}
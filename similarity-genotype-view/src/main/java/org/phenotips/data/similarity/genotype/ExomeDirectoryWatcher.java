@@ -0,0 +1,254 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.genotype;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the directory holding the exomes of all the patients, laid out as {@code <directory>/<id>/<id><suffix>}, and
+ * reports the exome files which are created, modified or deleted. Since the watch service is not recursive, the
+ * directory of each patient is registered separately, as soon as it appears.
+ * <p>
+ * A changed exome is reported twice: right away, so that the stale copy can be dropped, and once no more changes were
+ * seen for a while, so that the new version can be loaded in the background once it is completely written.
+ * </p>
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class ExomeDirectoryWatcher implements Closeable
+{
+    private static final String NAME = "exome-directory-watcher";
+
+    /** Logging helper object. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExomeDirectoryWatcher.class);
+
+    /** The directory holding one subdirectory for each patient. */
+    private final Path directory;
+
+    /** The suffix of the exome files, following the patient identifier. */
+    private final String suffix;
+
+    /** Called with the patient identifier as soon as an exome file changes. */
+    private final Consumer<String> onChange;
+
+    /** Called with the patient identifier once an updated exome file stopped changing. */
+    private final Consumer<String> onUpdate;
+
+    /** How long an exome file must stay unchanged before reporting it as updated, in milliseconds. */
+    private final long delay;
+
+    /** The watched directories, by their registration. */
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+
+    /** The pending updates, by patient identifier. */
+    private final Map<String, PendingUpdate> pending = new ConcurrentHashMap<>();
+
+    private final WatchService watchService;
+
+    private final ScheduledExecutorService executor;
+
+    private final Thread thread;
+
+    /**
+     * Start watching a directory.
+     *
+     * @param directory the directory holding one subdirectory for each patient, must exist
+     * @param suffix the suffix of the exome files, following the patient identifier
+     * @param onChange called with the patient identifier as soon as an exome file changes
+     * @param onUpdate called with the patient identifier once a created or modified exome file stopped changing
+     * @param delay how long an exome file must stay unchanged before calling {@code onUpdate}, in milliseconds
+     * @throws IOException if the directory cannot be watched
+     */
+    public ExomeDirectoryWatcher(File directory, String suffix, Consumer<String> onChange, Consumer<String> onUpdate,
+        long delay) throws IOException
+    {
+        this.directory = directory.toPath();
+        this.suffix = suffix;
+        this.onChange = onChange;
+        this.onUpdate = onUpdate;
+        this.delay = delay;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        register(this.directory);
+        File[] patientDirectories = directory.listFiles(File::isDirectory);
+        if (patientDirectories != null) {
+            for (File patientDirectory : patientDirectories) {
+                register(patientDirectory.toPath());
+            }
+        }
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread updater = new Thread(runnable, NAME + "-updater");
+            updater.setDaemon(true);
+            return updater;
+        });
+        this.thread = new Thread(this::watch, NAME);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        this.watchService.close();
+        this.executor.shutdownNow();
+    }
+
+    private void register(Path path)
+    {
+        try {
+            this.keys.put(path.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), path);
+        } catch (IOException ex) {
+            LOGGER.warn("Cannot watch exome directory [{}]: {}", path, ex.getMessage());
+        }
+    }
+
+    private void watch()
+    {
+        try {
+            while (true) {
+                WatchKey key = this.watchService.take();
+                Path path = this.keys.get(key);
+                if (path != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        process(path, event);
+                    }
+                }
+                if (!key.reset()) {
+                    // the directory was deleted
+                    this.keys.remove(key);
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException ex) {
+            // stopped
+        }
+    }
+
+    private void process(Path path, WatchEvent<?> event)
+    {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            // some changes were lost, consider all the exomes as changed
+            LOGGER.warn("Too many changes in the exome directory, dropping all the loaded exomes");
+            for (Path patientDirectory : this.keys.values()) {
+                if (!patientDirectory.equals(this.directory)) {
+                    this.onChange.accept(patientDirectory.getFileName().toString());
+                }
+            }
+            return;
+        }
+        Path child = path.resolve((Path) event.context());
+        if (path.equals(this.directory)) {
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && child.toFile().isDirectory()) {
+                register(child);
+                // the exome may have been written before the new directory was registered
+                String id = child.getFileName().toString();
+                if (child.resolve(id + this.suffix).toFile().isFile()) {
+                    changed(id, true);
+                }
+            }
+            return;
+        }
+        String id = path.getFileName().toString();
+        if (child.getFileName().toString().equals(id + this.suffix)) {
+            changed(id, event.kind() != StandardWatchEventKinds.ENTRY_DELETE);
+        }
+    }
+
+    private void changed(String id, boolean exists)
+    {
+        LOGGER.debug("Exome of patient [{}] changed", id);
+        this.onChange.accept(id);
+        // the update is only scheduled once it is pending, so that it can always remove itself when it runs
+        PendingUpdate update = exists ? new PendingUpdate(id) : null;
+        PendingUpdate previous = exists ? this.pending.put(id, update) : this.pending.remove(id);
+        if (previous != null) {
+            previous.cancel();
+        }
+        if (update != null) {
+            update.schedule();
+        }
+    }
+
+    private void update(String id)
+    {
+        try {
+            this.onUpdate.accept(id);
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Failed to reload the exome of patient [{}]: {}", id, ex.getMessage());
+        }
+    }
+
+    /** A report of an updated exome, scheduled after the delay. */
+    private final class PendingUpdate implements Runnable
+    {
+        private final String id;
+
+        private ScheduledFuture<?> future;
+
+        private boolean cancelled;
+
+        PendingUpdate(String id)
+        {
+            this.id = id;
+        }
+
+        synchronized void schedule()
+        {
+            if (!this.cancelled) {
+                this.future = ExomeDirectoryWatcher.this.executor.schedule(this, ExomeDirectoryWatcher.this.delay,
+                    TimeUnit.MILLISECONDS);
+            }
+        }
+
+        synchronized void cancel()
+        {
+            this.cancelled = true;
+            if (this.future != null) {
+                this.future.cancel(false);
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            // the exome may have changed again once this update started, keep the newer update pending
+            ExomeDirectoryWatcher.this.pending.remove(this.id, this);
+            update(this.id);
+        }
+    }
+}
@@ -0,0 +1,437 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.genotype;
+
+import org.phenotips.data.similarity.Exome;
+import org.phenotips.data.similarity.Variant;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Binary, column oriented copy of an Exomiser output file, written once after the text file is parsed and then
+ * memory-mapped for reading, so that loading an exome doesn't need to parse the text file again, and the variants stay
+ * in the mapped file instead of the heap. Each store is tagged with the size and modification date of the Exomiser file
+ * it was converted from, and is only used while they still match.
+ * <p>
+ * All the strings are kept in a single dictionary and referenced by their index. The file contains, in order:
+ * </p>
+ * <ul>
+ * <li>a header: magic number, format version, size and modification date of the source file</li>
+ * <li>the string dictionary: number of strings, offset of each string, UTF-8 encoded strings</li>
+ * <li>the column names</li>
+ * <li>the gene table: name, score, index of the first variant and number of variants of each gene</li>
+ * <li>the variants, grouped by gene and sorted by decreasing score in each gene, stored column by column: chromosome,
+ * position, reference and alternate alleles, genotype, effect, score, then the value of every annotation column</li>
+ * </ul>
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class ExomeStore
+{
+    /** Marks a missing string. */
+    static final int NONE = -1;
+
+    /** Marks the beginning of a store file. */
+    private static final int MAGIC = 0x50544558;
+
+    /** Version of the binary format, to be increased whenever the layout changes. */
+    private static final int FORMAT_VERSION = 1;
+
+    /** The file holding the store. */
+    private final File file;
+
+    /** Caches the variants read from the loaded exomes, may be {@code null}. */
+    private final VariantCache variantCache;
+
+    /**
+     * Simple constructor passing the file that holds the store. The variants of the loaded exomes are read from the
+     * file each time they are requested.
+     *
+     * @param file the store file, does not need to exist
+     */
+    public ExomeStore(File file)
+    {
+        this(file, null);
+    }
+
+    /**
+     * Constructor passing the file that holds the store, and the cache to use for the variants of the loaded exomes.
+     *
+     * @param file the store file, does not need to exist
+     * @param variantCache caches the variants read from the loaded exomes, {@code null} for reading them every time
+     */
+    public ExomeStore(File file, VariantCache variantCache)
+    {
+        this.file = file;
+        this.variantCache = variantCache;
+    }
+
+    /**
+     * Maps the stored exome, if it was converted from the current version of the Exomiser file.
+     *
+     * @param source the Exomiser file the store was converted from
+     * @return the stored exome, or {@code null} if there is no store or if it was converted from another version of the
+     *         Exomiser file
+     * @throws IOException if the store exists but cannot be read
+     */
+    public StoredExome load(File source) throws IOException
+    {
+        if (!this.file.isFile()) {
+            return null;
+        }
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.remaining() < 24 || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION
+            || buffer.getLong() != source.length() || buffer.getLong() != source.lastModified()) {
+            return null;
+        }
+        try {
+            return new StoredExome(buffer, this.variantCache);
+        } catch (RuntimeException ex) {
+            throw new IOException("Corrupted exome store " + this.file.getAbsolutePath(), ex);
+        }
+    }
+
+    /**
+     * Replaces the store with the given exome. The new store is first written to a temporary file, then moved in place,
+     * so that a failed write never leaves a truncated store behind.
+     *
+     * @param source the Exomiser file the exome was parsed from
+     * @param exome the parsed exome
+     * @throws IOException if writing the store fails
+     */
+    public void store(File source, ExomiserExome exome) throws IOException
+    {
+        List<String> columns = exome.getColumns();
+        Dictionary strings = new Dictionary();
+        List<String> genes = new ArrayList<>(exome.getGenes());
+        List<Variant> variants = new ArrayList<>();
+        for (String gene : genes) {
+            strings.add(gene);
+            variants.addAll(exome.getTopVariants(gene, Integer.MAX_VALUE));
+        }
+        int[] columnIds = new int[columns.size()];
+        for (int i = 0; i < columnIds.length; i++) {
+            columnIds[i] = strings.add(columns.get(i));
+        }
+        int[][] values = new int[6 + columns.size()][variants.size()];
+        for (int row = 0; row < variants.size(); row++) {
+            Variant variant = variants.get(row);
+            values[0][row] = strings.add(variant.getChrom());
+            values[1][row] = variant.getPosition();
+            values[2][row] = strings.add(variant.getRef());
+            values[3][row] = strings.add(variant.getAlt());
+            values[4][row] = strings.add(variant instanceof AbstractVariant ? ((AbstractVariant) variant).gt : null);
+            values[5][row] = strings.add(variant.getEffect());
+            for (int column = 0; column < columns.size(); column++) {
+                values[6 + column][row] = strings.add(variant.getAnnotation(columns.get(column)));
+            }
+        }
+
+        // a unique temporary file, so that concurrent loads of the same exome don't write to the same file
+        Path directory = this.file.getAbsoluteFile().getParentFile().toPath();
+        Path temporary = Files.createTempFile(directory, this.file.getName(), ".tmp");
+        try {
+            try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(source.length());
+                out.writeLong(source.lastModified());
+                strings.write(out);
+                writeInts(out, columnIds);
+
+                out.writeInt(genes.size());
+                int first = 0;
+                for (String gene : genes) {
+                    int count = exome.getTopVariants(gene, Integer.MAX_VALUE).size();
+                    out.writeInt(strings.add(gene));
+                    out.writeDouble(exome.getGeneScore(gene));
+                    out.writeInt(first);
+                    out.writeInt(count);
+                    first += count;
+                }
+
+                out.writeInt(variants.size());
+                for (int i = 0; i < 6; i++) {
+                    writeColumn(out, values[i]);
+                }
+                for (Variant variant : variants) {
+                    out.writeDouble(variant.getScore());
+                }
+                for (int i = 6; i < values.length; i++) {
+                    writeColumn(out, values[i]);
+                }
+            }
+            Files.move(temporary, this.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException
+    {
+        out.writeInt(values.length);
+        writeColumn(out, values);
+    }
+
+    private static void writeColumn(DataOutputStream out, int[] values) throws IOException
+    {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * Assigns consecutive indexes to distinct strings.
+     */
+    private static final class Dictionary
+    {
+        private final Map<String, Integer> indexes = new LinkedHashMap<>();
+
+        int add(String value)
+        {
+            if (value == null) {
+                return NONE;
+            }
+            Integer index = this.indexes.get(value);
+            if (index == null) {
+                index = this.indexes.size();
+                this.indexes.put(value, index);
+            }
+            return index;
+        }
+
+        void write(DataOutputStream out) throws IOException
+        {
+            List<byte[]> encoded = new ArrayList<>(this.indexes.size());
+            for (String value : this.indexes.keySet()) {
+                encoded.add(value.getBytes(StandardCharsets.UTF_8));
+            }
+            out.writeInt(encoded.size());
+            int offset = 0;
+            for (byte[] value : encoded) {
+                out.writeInt(offset);
+                offset += value.length;
+            }
+            out.writeInt(offset);
+            for (byte[] value : encoded) {
+                out.write(value);
+            }
+        }
+    }
+
+    /**
+     * An {@link Exome} backed by a mapped store. The gene table is read when the exome is loaded, while the variants
+     * are only read from the mapped file when they are requested, and then kept in the {@link VariantCache}.
+     */
+    public static final class StoredExome extends AbstractExome
+    {
+        private final ByteBuffer buffer;
+
+        private final VariantCache variantCache;
+
+        private final int stringCount;
+
+        private final int stringOffsets;
+
+        private final int stringData;
+
+        private final Map<String, Integer> columns;
+
+        private final Map<String, int[]> geneRows;
+
+        private final int variantCount;
+
+        private final int variantColumns;
+
+        StoredExome(ByteBuffer buffer, VariantCache variantCache)
+        {
+            this.buffer = buffer;
+            this.variantCache = variantCache;
+            this.stringCount = buffer.getInt();
+            this.stringOffsets = buffer.position();
+            this.stringData = this.stringOffsets + 4 * (this.stringCount + 1);
+            buffer.position(this.stringData + buffer.getInt(this.stringOffsets + 4 * this.stringCount));
+
+            int columnCount = buffer.getInt();
+            this.columns = new LinkedHashMap<>();
+            for (int i = 0; i < columnCount; i++) {
+                this.columns.put(getString(buffer.getInt()), i);
+            }
+
+            int geneCount = buffer.getInt();
+            this.geneRows = new LinkedHashMap<>();
+            for (int i = 0; i < geneCount; i++) {
+                String gene = getString(buffer.getInt());
+                this.geneScores.put(gene, buffer.getDouble());
+                this.geneRows.put(gene, new int[] { buffer.getInt(), buffer.getInt() });
+            }
+
+            rankGenes();
+
+            this.variantCount = buffer.getInt();
+            this.variantColumns = buffer.position();
+            int end = this.variantColumns + this.variantCount * (4 * (6 + columnCount) + 8);
+            if (end > buffer.limit()) {
+                throw new IllegalStateException("Truncated exome store");
+            }
+        }
+
+        @Override
+        public Set<String> getGenes()
+        {
+            return Collections.unmodifiableSet(this.geneRows.keySet());
+        }
+
+        @Override
+        public List<Variant> getTopVariants(String gene, int k)
+        {
+            if (!this.geneRows.containsKey(gene)) {
+                return Collections.emptyList();
+            }
+            List<Variant> result =
+                this.variantCache == null ? readVariants(gene) : this.variantCache.get(this, gene, this::readVariants);
+            return k < 0 || k >= result.size() ? result : result.subList(0, k);
+        }
+
+        @Override
+        public JSONArray toJSON()
+        {
+            JSONArray geneList = new JSONArray();
+            for (String geneName : this.geneRows.keySet()) {
+                JSONObject gene = new JSONObject();
+                gene.put("gene", geneName);
+                gene.put("score", getGeneScore(geneName));
+
+                JSONArray variantList = new JSONArray();
+                for (Variant v : getTopVariants(geneName, Integer.MAX_VALUE)) {
+                    variantList.put(v.toJSON());
+                }
+                gene.put("variants", variantList);
+
+                geneList.put(gene);
+            }
+            return geneList;
+        }
+
+        /**
+         * Return the number of variants in the exome.
+         *
+         * @return the number of variants
+         */
+        public int getVariantCount()
+        {
+            return this.variantCount;
+        }
+
+        private List<Variant> readVariants(String gene)
+        {
+            int[] rows = this.geneRows.get(gene);
+            List<Variant> result = new ArrayList<>(rows[1]);
+            for (int i = 0; i < rows[1]; i++) {
+                result.add(new StoredVariant(rows[0] + i));
+            }
+            return Collections.unmodifiableList(result);
+        }
+
+        private int getValue(int column, int row)
+        {
+            return this.buffer.getInt(this.variantColumns + 4 * (column * this.variantCount + row));
+        }
+
+        private double getScore(int row)
+        {
+            return this.buffer.getDouble(this.variantColumns + 4 * 6 * this.variantCount + 8 * row);
+        }
+
+        private String getAnnotation(int row, String key)
+        {
+            Integer column = this.columns.get(key);
+            if (column == null) {
+                return null;
+            }
+            int offset = this.variantColumns + 4 * 6 * this.variantCount + 8 * this.variantCount;
+            return getString(this.buffer.getInt(offset + 4 * (column * this.variantCount + row)));
+        }
+
+        private String getString(int index)
+        {
+            if (index == NONE) {
+                return null;
+            }
+            if (index < 0 || index >= this.stringCount) {
+                throw new IllegalStateException("Invalid string index " + index);
+            }
+            int start = this.buffer.getInt(this.stringOffsets + 4 * index);
+            int end = this.buffer.getInt(this.stringOffsets + 4 * (index + 1));
+            byte[] bytes = new byte[end - start];
+            ByteBuffer view = this.buffer.duplicate();
+            view.position(this.stringData + start);
+            view.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * A variant read from the columns of the store.
+         */
+        private final class StoredVariant extends AbstractVariant
+        {
+            private final int row;
+
+            StoredVariant(int row)
+            {
+                this.row = row;
+                this.chrom = getString(getValue(0, row));
+                this.position = getValue(1, row);
+                setGenotype(getString(getValue(2, row)), getString(getValue(3, row)), getString(getValue(4, row)));
+                setEffect(getString(getValue(5, row)));
+                setScore(StoredExome.this.getScore(row));
+            }
+
+            @Override
+            public String getAnnotation(String key)
+            {
+                return StoredExome.this.getAnnotation(this.row, key);
+            }
+        }
+    }
+}
@@ -27,6 +27,7 @@
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.json.JSONArray;
@@ -41,14 +42,8 @@
  */
 public class ExomiserExome extends AbstractExome implements Exome
 {
-    /** Info field key for the variant's gene. */
-    private static final String GENE_KEY = "EXOMISER_GENE";
-
-    /** Info field key for gene score. */
-    private static final String GENE_SCORE_KEY = "EXOMISER_GENE_COMBINED_SCORE";
-
-    /** Delimiter for fields in Exomiser output. */
-    private static final String FIELD_DELIMITER = "\t";
+    /** The columns of the Exomiser file. */
+    private ExomiserSchema schema = new ExomiserSchema(Collections.<String>emptyList());
 
     /**
      * Constructor for empty {@link Exome} object.
@@ -57,6 +52,22 @@ public class ExomiserExome extends AbstractExome implements Exome
     {
     }
 
+    /**
+     * Create an {@link Exome} object from the variants of an Exomiser output file already parsed by an
+     * {@link ExomiserParser}.
+     *
+     * @param schema the columns of the file
+     * @param geneScores the score of each gene
+     * @param variants the variants of each gene, sorted by decreasing score
+     */
+    ExomiserExome(ExomiserSchema schema, Map<String, Double> geneScores, Map<String, List<Variant>> variants)
+    {
+        this.schema = schema;
+        this.geneScores = geneScores;
+        this.variants = variants;
+        index();
+    }
+
     /**
      * Create an {@link Exome} object from an Exomiser output file.
      *
@@ -68,11 +79,7 @@ public class ExomiserExome extends AbstractExome implements Exome
         BufferedReader reader = new BufferedReader(exomiserOutput);
 
         // Parse column names from header
-        String header = reader.readLine();
-        if (header == null || !header.startsWith("#")) {
-            throw new IOException("Missing header in Exomiser file");
-        }
-        List<String> columns = Arrays.asList(header.substring(1).trim().split(FIELD_DELIMITER));
+        this.schema = ExomiserSchema.fromHeader(reader.readLine());
 
         while (true) {
             String line = reader.readLine();
@@ -80,11 +87,11 @@ public class ExomiserExome extends AbstractExome implements Exome
                 break;
             }
 
-            String[] values = line.split(FIELD_DELIMITER);
-            Variant variant = parseVariant(columns, values);
+            String[] values = line.split(ExomiserSchema.FIELD_DELIMITER);
+            Variant variant = parseVariant(values);
 
-            String gene = getRequiredAnnotation(variant, GENE_KEY);
-            String rawGeneScore = getRequiredAnnotation(variant, GENE_SCORE_KEY);
+            String gene = getRequired(this.schema.getGene(values), ExomiserSchema.GENE_KEY);
+            String rawGeneScore = getRequired(this.schema.getGeneScore(values), ExomiserSchema.GENE_SCORE_KEY);
             Double geneScore = Double.parseDouble(rawGeneScore);
             this.geneScores.put(gene, geneScore);
 
@@ -98,37 +105,58 @@ public class ExomiserExome extends AbstractExome implements Exome
             geneMutations.add(variant);
         }
         reader.close();
+        this.schema.clearSharedValues();
 
         // Sort variants within each gene by harmfulness score
         // Required as precondition for many methods in this class.
-        // TODO: have lists maintain sorted order, instead of sorting at the end
         for (List<Variant> vs : this.variants.values()) {
             if (vs.size() > 1) {
                 Collections.sort(vs);
             }
         }
+        index();
+    }
+
+    /**
+     * Freeze the sorted variant lists and rank the genes, so that the top genes and variants are returned as views
+     * without sorting or copying anything.
+     */
+    private void index()
+    {
+        for (Map.Entry<String, List<Variant>> entry : this.variants.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        rankGenes();
     }
 
     /**
      * Parse a variant from an Exomiser TSV line.
      *
-     * @param columns the column headers for the TSV file
      * @param values the values in each column for the current row
      * @return a Variant with the data from the row
      * @throws IOException if there is an error parsing the row
      */
-    private Variant parseVariant(List<String> columns, String[] values) throws IOException
+    private Variant parseVariant(String[] values) throws IOException
     {
         try {
-            return new ExomiserVariant(columns, values);
+            return new ExomiserVariant(this.schema, values);
         } catch (IllegalArgumentException e) {
             throw new IOException("Error parsing variant line: " + Arrays.toString(values));
         }
     }
 
-    private String getRequiredAnnotation(Variant variant, String key) throws IOException
+    /**
+     * Get the names of the columns of the Exomiser file, which are also the annotation keys of the variants.
+     *
+     * @return an unmodifiable list of column names, empty for an empty exome
+     */
+    List<String> getColumns()
+    {
+        return this.schema.getColumns();
+    }
+
+    private String getRequired(String value, String key) throws IOException
     {
-        String value = variant.getAnnotation(key);
         if (value == null) {
             throw new IOException("Exomiser variant missing required field: " + key);
         }
@@ -21,20 +21,23 @@
 import org.phenotips.data.similarity.Exome;
 import org.phenotips.data.similarity.ExomeManager;
 
-import org.xwiki.cache.Cache;
-import org.xwiki.cache.CacheException;
-import org.xwiki.cache.CacheManager;
-import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.environment.Environment;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.Reader;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -52,7 +55,7 @@
 @Component
 @Named("exomiser")
 @Singleton
-public class ExomiserExomeManager implements ExomeManager, Initializable
+public class ExomiserExomeManager implements ExomeManager, Initializable, Disposable
 {
     /** Logging helper object. */
     @Inject
@@ -64,30 +67,89 @@ public class ExomiserExomeManager implements ExomeManager, Initializable
     /** Suffix of patient exome files. */
     private static final String GENOTYPE_SUFFIX = ".variants.tsv";
 
+    /** Suffix of the binary copies of the patient exome files. */
+    private static final String STORE_SUFFIX = ".variants.bin";
+
+    /** Configuration key for the maximum number of variants kept in memory, across all the loaded exomes. */
+    private static final String VARIANT_CACHE_SIZE_KEY = "phenotips.similarity.exome.variantCacheSize";
+
+    /** Default maximum number of variants kept in memory. */
+    private static final int DEFAULT_VARIANT_CACHE_SIZE = 100000;
+
+    /** Configuration key for the memory budget of the exome cache, in megabytes. */
+    private static final String CACHE_SIZE_KEY = "phenotips.similarity.exome.cacheSize";
+
+    /** Default memory budget of the exome cache, in megabytes. */
+    private static final long DEFAULT_CACHE_SIZE = 256;
+
+    /** The number of bytes in a megabyte. */
+    private static final long MEGABYTE = 1024 * 1024;
+
+    /**
+     * Configuration key for how long an exome file must stay unchanged before it is reloaded in the background, in
+     * seconds; a negative value disables watching the exome directory.
+     */
+    private static final String RELOAD_DELAY_KEY = "phenotips.similarity.exome.reloadDelay";
+
+    /** Default delay before reloading an updated exome file. */
+    private static final long DEFAULT_RELOAD_DELAY = 10;
+
     /** Environment handle, to access exome data on filesystem. */
     @Inject
     protected Environment environment;
 
-    /** Manager to create exome caches. */
+    /** Provides the size of the exome and variant caches. */
     @Inject
-    protected CacheManager cacheManager;
+    @Named("xwikiproperties")
+    protected ConfigurationSource configuration;
 
     /** Cache for storing patient exomes. */
-    protected Cache<Exome> exomeCache;
+    protected ExomeCache exomeCache;
+
+    /** Cache for the variants of the stored exomes, which are only read when they are displayed. */
+    protected VariantCache variantCache;
 
     /** Directory containing exome information for all patients (e.g. Exomiser files). */
     protected File exomeDirectory;
 
+    /** Reloads the exomes updated by Exomiser, {@code null} if the exome directory is not watched. */
+    protected ExomeDirectoryWatcher watcher;
+
+    /** Notified each time an exome is loaded from disk, see {@link #addLoadListener(BiConsumer)}. */
+    private final List<BiConsumer<String, Exome>> loadListeners = new CopyOnWriteArrayList<>();
+
+    /** Notified each time the exome file of a patient changes on disk, see {@link #addChangeListener(Consumer)}. */
+    private final List<Consumer<String>> changeListeners = new CopyOnWriteArrayList<>();
+
     @Override
     public void initialize() throws InitializationException
     {
         this.exomeDirectory = getExomeDirectory();
+        this.variantCache = new VariantCache(
+            this.configuration.getProperty(VARIANT_CACHE_SIZE_KEY, DEFAULT_VARIANT_CACHE_SIZE));
+        this.exomeCache = new ExomeCache(this.configuration.getProperty(CACHE_SIZE_KEY, DEFAULT_CACHE_SIZE) * MEGABYTE);
 
-        // Set up exome cache
-        try {
-            this.exomeCache = this.cacheManager.createNewLocalCache(new CacheConfiguration());
-        } catch (CacheException e) {
-            logger.error("Unable to create patient genotype cache: " + e.toString());
+        long reloadDelay = this.configuration.getProperty(RELOAD_DELAY_KEY, DEFAULT_RELOAD_DELAY);
+        if (reloadDelay >= 0 && this.exomeDirectory != null && this.exomeDirectory.isDirectory()) {
+            try {
+                this.watcher = new ExomeDirectoryWatcher(this.exomeDirectory, GENOTYPE_SUFFIX, this::exomeChanged,
+                    this::reloadExome, TimeUnit.SECONDS.toMillis(reloadDelay));
+            } catch (IOException e) {
+                logger.warn("Cannot watch the exome directory, updated exomes will only be reloaded on request: {}",
+                    e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.watcher != null) {
+            try {
+                this.watcher.close();
+            } catch (IOException e) {
+                logger.warn("Failed to stop watching the exome directory: {}", e.getMessage());
+            }
         }
     }
 
@@ -102,19 +164,106 @@ public Exome getExome(Patient patient)
         Exome exome = null;
         if (this.exomeCache != null) {
             exome = this.exomeCache.get(id);
+            if (exome == null && this.exomeCache.isMissing(id)) {
+                // the cached absence is removed once an exome file is created for the patient
+                return null;
+            }
         }
 
         if (exome == null && this.exomeDirectory != null) {
             // Attempt to load exome from file
+            long start = System.nanoTime();
             exome = loadExomeById(id);
             // Cache exome
             if (exome != null && this.exomeCache != null) {
-                this.exomeCache.set(id, exome);
+                this.exomeCache.set(id, exome, System.nanoTime() - start);
+            } else if (exome == null && this.exomeCache != null && this.watcher != null) {
+                // only the watcher drops the absence once an exome file is written, otherwise look again next time
+                this.exomeCache.setMissing(id);
+            }
+            if (exome != null) {
+                notifyLoaded(id, exome);
             }
         }
         return exome;
     }
 
+    /**
+     * Register a listener called each time the exome of a patient is loaded from disk, either the first time it is
+     * needed, after it was evicted from the cache, or in the background after the Exomiser file was updated.
+     *
+     * @param listener called with the patient identifier and the loaded exome
+     * @since 1.3
+     */
+    public void addLoadListener(BiConsumer<String, Exome> listener)
+    {
+        this.loadListeners.add(listener);
+    }
+
+    private void notifyLoaded(String id, Exome exome)
+    {
+        for (BiConsumer<String, Exome> listener : this.loadListeners) {
+            try {
+                listener.accept(id, exome);
+            } catch (RuntimeException e) {
+                logger.warn("Failed to process the loaded genotype of {}: {}", id, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Register a listener called each time the exome file of a patient is created, modified or deleted on disk, so
+     * that the data computed from the previous exome can be dropped. Changes are only reported while the exome
+     * directory is watched; the listener is called once as soon as the file changes, and once more after the updated
+     * exome was reloaded in the background.
+     *
+     * @param listener called with the patient identifier
+     * @since 1.3
+     */
+    public void addChangeListener(Consumer<String> listener)
+    {
+        this.changeListeners.add(listener);
+    }
+
+    private void notifyChanged(String id)
+    {
+        for (Consumer<String> listener : this.changeListeners) {
+            try {
+                listener.accept(id);
+            } catch (RuntimeException e) {
+                logger.warn("Failed to process the changed genotype of {}: {}", id, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Drop the stale exome of a patient as soon as its Exomiser file changes.
+     *
+     * @param id the patient record identifier
+     */
+    private void exomeChanged(String id)
+    {
+        this.exomeCache.remove(id);
+        notifyChanged(id);
+    }
+
+    /**
+     * Load an updated exome in the background, so that it is already parsed and stored the first time it is needed.
+     *
+     * @param id the patient record identifier
+     */
+    private void reloadExome(String id)
+    {
+        long start = System.nanoTime();
+        Exome exome = loadExomeById(id);
+        if (exome != null) {
+            this.exomeCache.set(id, exome, System.nanoTime() - start);
+            notifyLoaded(id, exome);
+            // data computed while the file was still being written may have used a partial exome
+            notifyChanged(id);
+        }
+    }
+
     /**
      * Get the directory containing processed exome (e.g. Exomiser) files for patients.
      *
@@ -136,23 +285,34 @@ private File getExomeDirectory()
     }
 
     /**
-     * Load a patient's {@link ExomiserExome}, based on the patient's id.
+     * Load a patient's exome, based on the patient's id. The Exomiser file is only parsed the first time it is loaded,
+     * and is then converted to an {@link ExomeStore} which is mapped in memory on the following loads. Only the gene
+     * scores of a stored exome are loaded right away, its variants are read when needed and kept in the
+     * {@link #variantCache}.
      *
      * @param id the patient record identifier
-     * @return the {@link ExomiserExome} for the corresponding patient
+     * @return the {@link Exome} for the corresponding patient
      */
     private Exome loadExomeById(String id)
     {
         File patientDirectory = new File(this.exomeDirectory, id);
         File exomeFile = new File(patientDirectory, id + GENOTYPE_SUFFIX);
         if (patientDirectory.isDirectory() && exomeFile.isFile()) {
+            ExomeStore store = new ExomeStore(new File(patientDirectory, id + STORE_SUFFIX), this.variantCache);
             try {
-                Reader exomeReader = new FileReader(exomeFile);
-                Exome exome = new ExomiserExome(exomeReader);
+                Exome exome = store.load(exomeFile);
+                if (exome != null) {
+                    logger.debug("Loaded stored genotype for {}", id);
+                    return exome;
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to read the stored genotype for {}: {}", id, e.getMessage());
+            }
+
+            try {
+                ExomiserExome exome = ExomiserParser.parse(exomeFile, Runtime.getRuntime().availableProcessors());
                 logger.info("Loading genotype for " + id + " from: " + exomeFile);
-                return exome;
-            } catch (FileNotFoundException e) {
-                logger.info("No exome data exists for " + id + " at: " + exomeFile);
+                return storeExome(store, exomeFile, exome);
             } catch (IOException e) {
                 logger.error("Encountered error reading genotype: " + exomeFile);
             }
@@ -160,6 +320,44 @@ private Exome loadExomeById(String id)
         return null;
     }
 
+    /**
+     * Convert a freshly parsed exome to the binary store, and use the stored copy instead of the parsed one.
+     *
+     * @param store the store to write
+     * @param exomeFile the Exomiser file the exome was parsed from
+     * @param exome the parsed exome
+     * @return the stored exome, or the parsed exome if the store could not be written
+     */
+    private Exome storeExome(ExomeStore store, File exomeFile, ExomiserExome exome)
+    {
+        try {
+            store.store(exomeFile, exome);
+            Exome stored = store.load(exomeFile);
+            if (stored != null) {
+                return stored;
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to store the genotype parsed from {}: {}", exomeFile, e.getMessage());
+        }
+        return exome;
+    }
+
+    /**
+     * Return the statistics of the exome cache, to be used for sizing it.
+     *
+     * @return the statistics of the exome cache, see {@link ExomeCache#getStatistics()}, and the number of variants in
+     *         the variant cache
+     */
+    public Map<String, Long> getCacheStatistics()
+    {
+        if (this.exomeCache == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Long> result = this.exomeCache.getStatistics();
+        result.put("variants", (long) this.variantCache.getWeight());
+        return result;
+    }
+
     /**
      * Clear all cached patient exome data.
      */
@@ -169,6 +367,9 @@ public void clearCache()
             this.exomeCache.removeAll();
             logger.info("Cleared cache.");
         }
+        if (this.variantCache != null) {
+            this.variantCache.clear();
+        }
     }
 
     /**
@@ -180,7 +381,7 @@ public void clearPatientCache(String id)
     {
         if (this.exomeCache != null) {
             this.exomeCache.remove(id);
-            logger.info("Cleared patient from cache: " + id);
+            logger.debug("Cleared patient from cache: {}", id);
         }
     }
 }
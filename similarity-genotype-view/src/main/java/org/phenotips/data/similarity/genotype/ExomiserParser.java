@@ -0,0 +1,358 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.genotype;
+
+import org.phenotips.data.similarity.Variant;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Parses large Exomiser files in parallel. The file is split into chunks of whole lines, each chunk is tokenized on its
+ * own thread and its variants sorted by gene, and the sorted variants of each gene are finally merged across chunks in
+ * a single pass. Ties between variants with the same score are broken by their order in the file, and lines are split
+ * the same way {@link java.io.BufferedReader#readLine()} does, so the result is exactly the same as the one of
+ * {@link ExomiserExome#ExomiserExome(Reader)}. The chunks of all the files are parsed by a single pool of threads, with
+ * one thread for each processor.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public final class ExomiserParser
+{
+    /** Files smaller than this are parsed in a single chunk, on the calling thread. */
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+    /** Number of chunks created for each worker thread, so that threads finishing early can take more work. */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static final byte FIELD_DELIMITER = '\t';
+
+    private static final byte LINE_DELIMITER = '\n';
+
+    private static final byte CARRIAGE_RETURN = '\r';
+
+    private ExomiserParser()
+    {
+        // Utility class
+    }
+
+    /**
+     * Parse an Exomiser output file.
+     *
+     * @param file the Exomiser output file
+     * @param parallelism the number of threads the parsing is split for, the chunks being parsed by the shared pool
+     * @return the parsed exome
+     * @throws IOException if the file cannot be read or does not follow the Exomiser format
+     */
+    public static ExomiserExome parse(File file, int parallelism) throws IOException
+    {
+        return parse(file, parallelism, MIN_CHUNK_SIZE);
+    }
+
+    /**
+     * Parse an Exomiser output file, with a custom minimal chunk size so that small files can be split too.
+     *
+     * @param file the Exomiser output file
+     * @param parallelism the number of threads the parsing is split for, the chunks being parsed by the shared pool
+     * @param minChunkSize files smaller than this are parsed in a single chunk, in bytes
+     * @return the parsed exome
+     * @throws IOException if the file cannot be read or does not follow the Exomiser format
+     */
+    static ExomiserExome parse(File file, int parallelism, int minChunkSize) throws IOException
+    {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                // too large to be mapped at once
+                try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                    return new ExomiserExome(reader);
+                }
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int headerEnd = nextLine(buffer, 0);
+        ExomiserSchema schema = ExomiserSchema.fromHeader(decode(buffer, 0, headerEnd));
+        List<Chunk> chunks = split(buffer, schema, headerEnd, parallelism, minChunkSize);
+        try {
+            parse(chunks, parallelism);
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        } catch (RuntimeException ex) {
+            throw new IOException("Failed to parse " + file, ex);
+        }
+        schema.clearSharedValues();
+        return merge(schema, chunks);
+    }
+
+    /**
+     * Parse all the chunks, on the calling thread if there is only one.
+     */
+    private static void parse(List<Chunk> chunks, int parallelism) throws IOException
+    {
+        if (chunks.size() == 1) {
+            chunks.get(0).call();
+            return;
+        }
+        try {
+            for (Future<Chunk> result : Workers.POOL.invokeAll(chunks)) {
+                result.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Split the lines following the header into chunks of roughly equal size, each ending at the end of a line.
+     */
+    private static List<Chunk> split(ByteBuffer buffer, ExomiserSchema schema, int start, int parallelism,
+        int minChunkSize)
+    {
+        int size = buffer.limit() - start;
+        int count = Math.max(1, Math.min(parallelism * CHUNKS_PER_THREAD, size / minChunkSize));
+        List<Chunk> chunks = new ArrayList<>(count);
+        int chunkStart = start;
+        for (int i = 1; i <= count && chunkStart < buffer.limit(); i++) {
+            int chunkEnd = i == count ? buffer.limit() : nextLine(buffer, start + (int) ((long) size * i / count));
+            if (chunkEnd > chunkStart) {
+                chunks.add(new Chunk(buffer, schema, chunkStart, chunkEnd));
+                chunkStart = chunkEnd;
+            }
+        }
+        if (chunks.isEmpty()) {
+            chunks.add(new Chunk(buffer, schema, start, start));
+        }
+        return chunks;
+    }
+
+    /**
+     * Merge the variants of each gene, already sorted in each chunk, into a single sorted list.
+     */
+    private static ExomiserExome merge(ExomiserSchema schema, List<Chunk> chunks)
+    {
+        Map<String, Double> geneScores = new HashMap<>();
+        Map<String, List<List<Variant>>> geneChunks = new HashMap<>();
+        for (Chunk chunk : chunks) {
+            // the last score seen for a gene wins, as when reading the file line by line
+            geneScores.putAll(chunk.geneScores);
+            for (Map.Entry<String, List<Variant>> entry : chunk.variants.entrySet()) {
+                geneChunks.computeIfAbsent(entry.getKey(), gene -> new ArrayList<>()).add(entry.getValue());
+            }
+        }
+
+        Map<String, List<Variant>> variants = new HashMap<>(geneChunks.size() * 4 / 3 + 1);
+        for (Map.Entry<String, List<List<Variant>>> entry : geneChunks.entrySet()) {
+            List<List<Variant>> lists = entry.getValue();
+            variants.put(entry.getKey(), lists.size() == 1 ? lists.get(0) : mergeSorted(lists));
+        }
+        return new ExomiserExome(schema, geneScores, variants);
+    }
+
+    /**
+     * K-way merge of variant lists sorted by decreasing score, listed in file order.
+     */
+    private static List<Variant> mergeSorted(List<List<Variant>> lists)
+    {
+        int total = 0;
+        for (List<Variant> list : lists) {
+            total += list.size();
+        }
+        int[] positions = new int[lists.size()];
+        PriorityQueue<Integer> heads = new PriorityQueue<>(lists.size(), (a, b) -> {
+            int result = lists.get(a).get(positions[a]).compareTo(lists.get(b).get(positions[b]));
+            // on equal scores, the variant from the earlier chunk comes first
+            return result != 0 ? result : Integer.compare(a, b);
+        });
+        for (int i = 0; i < lists.size(); i++) {
+            heads.add(i);
+        }
+        List<Variant> result = new ArrayList<>(total);
+        while (!heads.isEmpty()) {
+            int list = heads.poll();
+            result.add(lists.get(list).get(positions[list]++));
+            if (positions[list] < lists.get(list).size()) {
+                heads.add(list);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the position following the end of the line containing the given position. Like
+     * {@link java.io.BufferedReader#readLine()}, a line ends with {@code \n}, {@code \r}, or {@code \r\n}.
+     */
+    private static int nextLine(ByteBuffer buffer, int position)
+    {
+        int i = position;
+        while (i < buffer.limit() && buffer.get(i) != LINE_DELIMITER && buffer.get(i) != CARRIAGE_RETURN) {
+            i++;
+        }
+        if (i + 1 < buffer.limit() && buffer.get(i) == CARRIAGE_RETURN && buffer.get(i + 1) == LINE_DELIMITER) {
+            i++;
+        }
+        return Math.min(i + 1, buffer.limit());
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end)
+    {
+        byte[] bytes = new byte[end - start];
+        ByteBuffer view = buffer.duplicate();
+        view.position(start);
+        view.get(bytes);
+        int length = bytes.length;
+        while (length > 0 && (bytes[length - 1] == LINE_DELIMITER || bytes[length - 1] == CARRIAGE_RETURN)) {
+            length--;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Holds the pool parsing the chunks of all the files, only started the first time a large file is parsed.
+     */
+    private static final class Workers
+    {
+        private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * A range of whole lines, parsed into variants grouped by gene.
+     */
+    private static final class Chunk implements Callable<Chunk>
+    {
+        private final ByteBuffer buffer;
+
+        private final ExomiserSchema schema;
+
+        private final int start;
+
+        private final int end;
+
+        private final Map<String, Double> geneScores = new HashMap<>();
+
+        private final Map<String, List<Variant>> variants = new HashMap<>();
+
+        Chunk(ByteBuffer buffer, ExomiserSchema schema, int start, int end)
+        {
+            this.buffer = buffer;
+            this.schema = schema;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Chunk call()
+        {
+            byte[] bytes = new byte[this.end - this.start];
+            ByteBuffer view = this.buffer.duplicate();
+            view.position(this.start);
+            view.get(bytes);
+
+            List<String> fields = new ArrayList<>(this.schema.getColumns().size());
+            int lineStart = 0;
+            while (lineStart < bytes.length) {
+                int lineEnd = lineStart;
+                while (lineEnd < bytes.length && bytes[lineEnd] != LINE_DELIMITER
+                    && bytes[lineEnd] != CARRIAGE_RETURN) {
+                    lineEnd++;
+                }
+                tokenize(bytes, lineStart, lineEnd, fields);
+                add(fields.toArray(new String[fields.size()]));
+                lineStart = lineEnd + 1;
+                if (lineEnd + 1 < bytes.length && bytes[lineEnd] == CARRIAGE_RETURN
+                    && bytes[lineEnd + 1] == LINE_DELIMITER) {
+                    lineStart++;
+                }
+            }
+
+            for (List<Variant> list : this.variants.values()) {
+                if (list.size() > 1) {
+                    Collections.sort(list);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Split a line into fields like {@link String#split(String)} does: the trailing empty fields are dropped,
+         * unless the line has no delimiter at all, so that a blank line is rejected as an invalid variant.
+         */
+        private void tokenize(byte[] bytes, int lineStart, int lineEnd, List<String> fields)
+        {
+            fields.clear();
+            int fieldStart = lineStart;
+            for (int i = lineStart; i <= lineEnd; i++) {
+                if (i == lineEnd || bytes[i] == FIELD_DELIMITER) {
+                    fields.add(new String(bytes, fieldStart, i - fieldStart, StandardCharsets.UTF_8));
+                    fieldStart = i + 1;
+                }
+            }
+            boolean delimited = fields.size() > 1;
+            while (delimited && !fields.isEmpty() && fields.get(fields.size() - 1).isEmpty()) {
+                fields.remove(fields.size() - 1);
+            }
+        }
+
+        private void add(String[] values)
+        {
+            Variant variant;
+            try {
+                variant = new ExomiserVariant(this.schema, values);
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                String line = String.join("\t", values);
+                throw new UncheckedIOException(new IOException("Error parsing variant line: " + line));
+            }
+            String gene = required(this.schema.getGene(values), ExomiserSchema.GENE_KEY);
+            String geneScore = required(this.schema.getGeneScore(values), ExomiserSchema.GENE_SCORE_KEY);
+            this.geneScores.put(gene, Double.parseDouble(geneScore));
+            this.variants.computeIfAbsent(gene, key -> new ArrayList<>()).add(variant);
+        }
+
+        private String required(String value, String key)
+        {
+            if (value == null) {
+                throw new UncheckedIOException(new IOException("Exomiser variant missing required field: " + key));
+            }
+            return value;
+        }
+    }
+}
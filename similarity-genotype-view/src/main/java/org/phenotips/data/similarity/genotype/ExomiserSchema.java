@@ -0,0 +1,226 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.genotype;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The columns of an Exomiser file, shared by all the {@link ExomiserVariant variants} read from that file. Column names
+ * are resolved to indexes once per file, so that each variant only needs to keep the array of its values. While the
+ * file is being read, equal values are also shared across variants through the schema, since most columns only take a
+ * few distinct values, such as chromosomes, genotypes, effects, or {@code .} for missing values. Columns with many
+ * distinct values, such as positions, are detected while reading and their values are no longer shared.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+final class ExomiserSchema
+{
+    /** Column for the variant's gene. */
+    static final String GENE_KEY = "EXOMISER_GENE";
+
+    /** Column for the gene score. */
+    static final String GENE_SCORE_KEY = "EXOMISER_GENE_COMBINED_SCORE";
+
+    /** Column for the variant effect. */
+    static final String EFFECT_KEY = "FUNCTIONAL_CLASS";
+
+    /** Column for the variant harmfulness score. */
+    static final String VARIANT_SCORE_KEY = "EXOMISER_VARIANT_SCORE";
+
+    /** Delimiter for fields in Exomiser output. */
+    static final String FIELD_DELIMITER = "\t";
+
+    /** Returned by {@link #indexOf(String)} for unknown columns. */
+    static final int MISSING = -1;
+
+    /** Number of distinct values of a column past which its values are no longer shared. */
+    private static final int MAX_SHARED_VALUES = 1024;
+
+    private final List<String> columns;
+
+    private final Map<String, Integer> indexes;
+
+    /** The shared values of each column. */
+    private final List<Map<String, String>> sharedValues;
+
+    private final int geneIndex;
+
+    private final int geneScoreIndex;
+
+    private final int effectIndex;
+
+    private final int scoreIndex;
+
+    /**
+     * Resolve the columns of a file.
+     *
+     * @param columns the names of the columns, in order
+     */
+    ExomiserSchema(List<String> columns)
+    {
+        this.columns = Collections.unmodifiableList(columns);
+        this.indexes = new HashMap<>();
+        for (int i = 0; i < columns.size(); i++) {
+            this.indexes.put(columns.get(i), i);
+        }
+        this.geneIndex = indexOf(GENE_KEY);
+        this.geneScoreIndex = indexOf(GENE_SCORE_KEY);
+        this.effectIndex = indexOf(EFFECT_KEY);
+        this.scoreIndex = indexOf(VARIANT_SCORE_KEY);
+        this.sharedValues = new ArrayList<>(columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            this.sharedValues.add(new ConcurrentHashMap<String, String>());
+        }
+    }
+
+    /**
+     * Read the columns from the header line of a file.
+     *
+     * @param header the first line of the file
+     * @return the columns listed in the header
+     * @throws IOException if the line is not a valid header
+     */
+    static ExomiserSchema fromHeader(String header) throws IOException
+    {
+        if (header == null || !header.startsWith("#")) {
+            throw new IOException("Missing header in Exomiser file");
+        }
+        return new ExomiserSchema(Arrays.asList(header.substring(1).trim().split(FIELD_DELIMITER)));
+    }
+
+    /**
+     * Get the names of the columns.
+     *
+     * @return an unmodifiable list of column names
+     */
+    List<String> getColumns()
+    {
+        return this.columns;
+    }
+
+    /**
+     * Get the index of a column.
+     *
+     * @param column the name of the column
+     * @return the index of the last column with that name, or {@link #MISSING} if there is no such column
+     */
+    int indexOf(String column)
+    {
+        Integer index = this.indexes.get(column);
+        return index == null ? MISSING : index;
+    }
+
+    /**
+     * Get the value of a column in a row.
+     *
+     * @param values the values of the row
+     * @param index the index of the column
+     * @return the value, or {@code null} if the row has no value for the column
+     */
+    static String get(String[] values, int index)
+    {
+        return index >= 0 && index < values.length ? values[index] : null;
+    }
+
+    /**
+     * Get the gene of a row.
+     *
+     * @param values the values of the row
+     * @return the gene name, or {@code null} if missing
+     */
+    String getGene(String[] values)
+    {
+        return get(values, this.geneIndex);
+    }
+
+    /**
+     * Get the gene score of a row.
+     *
+     * @param values the values of the row
+     * @return the raw gene score, or {@code null} if missing
+     */
+    String getGeneScore(String[] values)
+    {
+        return get(values, this.geneScoreIndex);
+    }
+
+    /**
+     * Get the effect of the variant in a row.
+     *
+     * @param values the values of the row
+     * @return the raw effect, or {@code null} if missing
+     */
+    String getEffect(String[] values)
+    {
+        return get(values, this.effectIndex);
+    }
+
+    /**
+     * Get the harmfulness score of the variant in a row.
+     *
+     * @param values the values of the row
+     * @return the raw score, or {@code null} if missing
+     */
+    String getScore(String[] values)
+    {
+        return get(values, this.scoreIndex);
+    }
+
+    /**
+     * Forget the values shared so far, once all the variants of the file were read.
+     */
+    void clearSharedValues()
+    {
+        for (Map<String, String> values : this.sharedValues) {
+            values.clear();
+        }
+    }
+
+    /**
+     * Return a single instance for equal values of a column, to be used for values repeated across many variants.
+     *
+     * @param column the index of the column
+     * @param value the value to share, may be {@code null}
+     * @return an instance equal to the value, the same one for all equal values unless the column has too many
+     *         distinct values to be worth sharing
+     */
+    String share(int column, String value)
+    {
+        if (value == null || column >= this.sharedValues.size()) {
+            return value;
+        }
+        Map<String, String> values = this.sharedValues.get(column);
+        String shared = values.get(value);
+        if (shared != null) {
+            return shared;
+        }
+        if (values.size() >= MAX_SHARED_VALUES) {
+            return value;
+        }
+        shared = values.putIfAbsent(value, value);
+        return shared == null ? value : shared;
+    }
+}
@@ -17,54 +17,77 @@
  */
 package org.phenotips.data.similarity.genotype;
 
-import java.util.HashMap;
-import java.util.List;
-
 /**
- * A variant after being annotated by Exomiser.
+ * A variant after being annotated by Exomiser. Only the values of the row are kept, the annotations are looked up
+ * through the {@link ExomiserSchema} shared by all the variants of the same file.
  *
  * @version $Id$
  * @since 1.0M2
  */
 public class ExomiserVariant extends AbstractVariant
 {
-    /** Info field key for variant effect. */
-    private static final String EFFECT_KEY = "FUNCTIONAL_CLASS";
+    /** The columns of the file the variant was read from. */
+    private final ExomiserSchema schema;
+
+    /** The value in each column. */
+    private final String[] values;
 
-    /** Info field key for variant harmfulness score. */
-    private static final String VARIANT_SCORE_KEY = "EXOMISER_VARIANT_SCORE";
+    /** See {@link #getPosition()}. */
+    private final int pos;
+
+    /** See {@link #getScore()}. */
+    private final double harmfulness;
 
     /**
      * Create a {@link Variant} from a line of an Exomiser variant TSV file.
      *
-     * @param columns the names of the TSV columns
+     * @param schema the columns of the TSV file
      * @param values the value in each TSV column
      * @throws IllegalArgumentException if the variant cannot be parsed
      */
-    ExomiserVariant(List<String> columns, String[] values) throws IllegalArgumentException
+    ExomiserVariant(ExomiserSchema schema, String[] values) throws IllegalArgumentException
     {
+        this.schema = schema;
+        this.values = values;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = schema.share(i, values[i]);
+        }
         setChrom(values[0]);
-        setPosition(Integer.parseInt(values[1]));
+        this.chrom = schema.share(0, this.chrom);
+        this.pos = Integer.parseInt(values[1]);
         setGenotype(values[2], values[3], values[6]);
 
-        // Parse into annotation map
-        this.annotations = new HashMap<>();
-        for (int i = 0; i < Math.min(columns.size(), values.length); i++) {
-            this.annotations.put(columns.get(i), values[i]);
-        }
-
-        String lineEffect = this.annotations.get(EFFECT_KEY);
+        String lineEffect = schema.getEffect(values);
         if (lineEffect == null) {
-            throw new IllegalArgumentException("Variant missing effect annotation: " + EFFECT_KEY);
+            throw new IllegalArgumentException("Variant missing effect annotation: " + ExomiserSchema.EFFECT_KEY);
         } else {
             setEffect(lineEffect);
         }
 
-        String lineScore = this.annotations.get(VARIANT_SCORE_KEY);
+        String lineScore = schema.getScore(values);
         if (lineScore == null) {
-            throw new IllegalArgumentException("Variant missing score annotation: " + VARIANT_SCORE_KEY);
+            throw new IllegalArgumentException(
+                "Variant missing score annotation: " + ExomiserSchema.VARIANT_SCORE_KEY);
         } else {
-            setScore(Double.parseDouble(lineScore));
+            this.harmfulness = Double.parseDouble(lineScore);
         }
     }
+
+    @Override
+    public Integer getPosition()
+    {
+        return this.pos;
+    }
+
+    @Override
+    public Double getScore()
+    {
+        return this.harmfulness;
+    }
+
+    @Override
+    public String getAnnotation(String key)
+    {
+        return ExomiserSchema.get(this.values, this.schema.indexOf(key));
+    }
 }
@@ -0,0 +1,227 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.genotype;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Compact, immutable table of genes, resolving any identifier of a gene (approved symbol, previous or alias symbol,
+ * Ensembl ID, HGNC ID) to the gene's approved symbol, Ensembl ID and HGNC ID. Genes are stored in parallel arrays
+ * indexed by a gene ordinal, and the identifiers are looked up in an open addressing hash table mapping each identifier
+ * to an ordinal, so that no object is allocated per identifier besides the identifier itself. Approved symbols,
+ * Ensembl IDs and HGNC IDs always take precedence over previous and alias symbols, which are often reused by other
+ * genes; among aliases, the first gene added wins.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public final class GeneTable
+{
+    /** An empty table, used until the genes are loaded. */
+    public static final GeneTable EMPTY = new Builder().build();
+
+    /** Returned by {@link #getOrdinal(String)} for unknown identifiers. */
+    public static final int UNKNOWN = -1;
+
+    /** The HGNC ID of each gene, indexed by ordinal. */
+    private final String[] ids;
+
+    /** The approved symbol of each gene, indexed by ordinal. */
+    private final String[] symbols;
+
+    /** The Ensembl ID of each gene, indexed by ordinal, {@code null} for genes without one. */
+    private final String[] ensemblIds;
+
+    /** The slots of the hash table: the identifiers, {@code null} for empty slots. */
+    private final String[] keys;
+
+    /** The slots of the hash table: the ordinal of the gene identified by the key in the same slot. */
+    private final int[] ordinals;
+
+    /** The number of identifiers in the hash table. */
+    private int keyCount;
+
+    private GeneTable(Builder builder)
+    {
+        int size = builder.ids.size();
+        this.ids = builder.ids.toArray(new String[size]);
+        this.symbols = builder.symbols.toArray(new String[size]);
+        this.ensemblIds = builder.ensemblIds.toArray(new String[size]);
+
+        // at least twice as many slots as identifiers, so that probe sequences stay short
+        int maxKeys = Math.max(1, 3 * size + builder.aliases.size());
+        int capacity = Integer.highestOneBit(maxKeys * 2 - 1) * 2;
+        this.keys = new String[capacity];
+        this.ordinals = new int[capacity];
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            put(this.ids[ordinal], ordinal);
+            put(this.symbols[ordinal], ordinal);
+            put(this.ensemblIds[ordinal], ordinal);
+        }
+        for (int i = 0; i < builder.aliases.size(); i++) {
+            put(builder.aliases.get(i), builder.aliasOrdinals.get(i));
+        }
+    }
+
+    /**
+     * Return the number of genes in the table; valid ordinals are {@code 0} to {@code size() - 1}.
+     *
+     * @return the number of genes
+     */
+    public int size()
+    {
+        return this.ids.length;
+    }
+
+    /**
+     * Return the number of distinct identifiers known to the table.
+     *
+     * @return the number of identifiers
+     */
+    public int getIdentifierCount()
+    {
+        return this.keyCount;
+    }
+
+    /**
+     * Look up a gene.
+     *
+     * @param gene any identifier of the gene
+     * @return the ordinal of the gene, or {@link #UNKNOWN} if the gene is not in the table
+     */
+    public int getOrdinal(String gene)
+    {
+        if (gene == null) {
+            return UNKNOWN;
+        }
+        int mask = this.keys.length - 1;
+        for (int slot = hash(gene) & mask; this.keys[slot] != null; slot = (slot + 1) & mask) {
+            if (this.keys[slot].equals(gene)) {
+                return this.ordinals[slot];
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Return the HGNC ID of a gene.
+     *
+     * @param ordinal a valid ordinal
+     * @return the HGNC ID
+     */
+    public String getId(int ordinal)
+    {
+        return this.ids[ordinal];
+    }
+
+    /**
+     * Return the approved symbol of a gene.
+     *
+     * @param ordinal a valid ordinal
+     * @return the approved symbol
+     */
+    public String getSymbol(int ordinal)
+    {
+        return this.symbols[ordinal];
+    }
+
+    /**
+     * Return the Ensembl ID of a gene.
+     *
+     * @param ordinal a valid ordinal
+     * @return the Ensembl gene ID, {@code null} if the gene doesn't have one
+     */
+    public String getEnsemblId(int ordinal)
+    {
+        return this.ensemblIds[ordinal];
+    }
+
+    private void put(String key, int ordinal)
+    {
+        if (key == null) {
+            return;
+        }
+        int mask = this.keys.length - 1;
+        int slot = hash(key) & mask;
+        while (this.keys[slot] != null) {
+            if (this.keys[slot].equals(key)) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        this.keys[slot] = key;
+        this.ordinals[slot] = ordinal;
+        this.keyCount++;
+    }
+
+    private static int hash(String key)
+    {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Collects the genes of a {@link GeneTable}.
+     */
+    public static final class Builder
+    {
+        private final List<String> ids = new ArrayList<>();
+
+        private final List<String> symbols = new ArrayList<>();
+
+        private final List<String> ensemblIds = new ArrayList<>();
+
+        private final List<String> aliases = new ArrayList<>();
+
+        private final List<Integer> aliasOrdinals = new ArrayList<>();
+
+        /**
+         * Add a gene to the table.
+         *
+         * @param id the HGNC ID of the gene, must not be {@code null}
+         * @param symbol the approved symbol of the gene, must not be {@code null}
+         * @param ensemblId the Ensembl ID of the gene, may be {@code null}
+         * @param otherSymbols the previous and alias symbols of the gene, may be empty
+         * @return this builder
+         */
+        public Builder add(String id, String symbol, String ensemblId, Collection<String> otherSymbols)
+        {
+            int ordinal = this.ids.size();
+            this.ids.add(id.intern());
+            this.symbols.add(symbol.intern());
+            this.ensemblIds.add(ensemblId == null ? null : ensemblId.intern());
+            for (String alias : otherSymbols) {
+                this.aliases.add(alias);
+                this.aliasOrdinals.add(ordinal);
+            }
+            return this;
+        }
+
+        /**
+         * Build the table with all the genes added so far.
+         *
+         * @return the new table
+         */
+        public GeneTable build()
+        {
+            return new GeneTable(this);
+        }
+    }
+}
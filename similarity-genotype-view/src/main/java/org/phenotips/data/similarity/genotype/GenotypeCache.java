@@ -0,0 +1,171 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.genotype;
+
+import org.phenotips.data.similarity.Exome;
+import org.phenotips.data.similarity.PatientGenotype;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Cache for the genotypes of patients, holding a bounded number of genotypes and evicting the least recently used ones
+ * first. A cached genotype is only returned as long as it was built from the current version of the patient and from
+ * the exome currently loaded for the patient, so that genotypes are rebuilt after the patient is modified or after its
+ * exome file is reloaded, even if the cache was not explicitly cleared. Genotypes built without an exome are returned
+ * without looking up the exome again, so they must be removed once an exome is loaded for the patient.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class GenotypeCache
+{
+    /** The maximum number of cached genotypes. */
+    private final int capacity;
+
+    /** The cached genotypes, in access order. */
+    private final LinkedHashMap<String, Entry> genotypes;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    /**
+     * Create a cache holding up to the given number of genotypes.
+     *
+     * @param capacity the maximum number of cached genotypes
+     */
+    public GenotypeCache(int capacity)
+    {
+        this.capacity = capacity;
+        this.genotypes = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+            {
+                if (size() > GenotypeCache.this.capacity) {
+                    GenotypeCache.this.evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get a cached genotype.
+     *
+     * @param id the identifier of the patient
+     * @param version the current version of the patient
+     * @param exome provides the exome currently loaded for the patient, only called if the cached genotype was built
+     *            from the current version of the patient and from an exome; called without holding the lock of the
+     *            cache, since it may load the exome
+     * @return the cached genotype, or {@code null} if it is not cached or if it was built from another version of the
+     *         patient or from another exome
+     */
+    public PatientGenotype get(String id, String version, Supplier<Exome> exome)
+    {
+        Entry entry;
+        synchronized (this) {
+            entry = this.genotypes.get(id);
+        }
+        boolean valid = entry != null && entry.version.equals(version)
+            && (entry.exome == null || entry.exome == exome.get());
+        synchronized (this) {
+            if (valid) {
+                this.hits++;
+            } else {
+                this.misses++;
+            }
+        }
+        return valid ? entry.genotype : null;
+    }
+
+    /**
+     * Add a newly built genotype to the cache, replacing any other genotype of the same patient.
+     *
+     * @param id the identifier of the patient
+     * @param version the version of the patient the genotype was built from
+     * @param exome the exome the genotype was built from, may be {@code null}
+     * @param genotype the genotype to cache
+     */
+    public synchronized void set(String id, String version, Exome exome, PatientGenotype genotype)
+    {
+        this.genotypes.put(id, new Entry(Objects.requireNonNull(version), exome, genotype));
+    }
+
+    /**
+     * Remove the genotype of a patient from the cache.
+     *
+     * @param id the identifier of the patient
+     */
+    public synchronized void remove(String id)
+    {
+        this.genotypes.remove(id);
+    }
+
+    /**
+     * Remove all the genotypes from the cache.
+     */
+    public synchronized void removeAll()
+    {
+        this.genotypes.clear();
+    }
+
+    /**
+     * Return the statistics of the cache.
+     *
+     * @return the number of cached genotypes, the maximum number of genotypes, and the number of hits, misses and
+     *         evictions since the cache was created
+     */
+    public synchronized Map<String, Long> getStatistics()
+    {
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("size", (long) this.genotypes.size());
+        result.put("capacity", (long) this.capacity);
+        result.put("hits", this.hits);
+        result.put("misses", this.misses);
+        result.put("evictions", this.evictions);
+        return result;
+    }
+
+    /**
+     * A cached genotype, along with the patient version and the exome it was built from.
+     */
+    private static final class Entry
+    {
+        private final String version;
+
+        private final Exome exome;
+
+        private final PatientGenotype genotype;
+
+        Entry(String version, Exome exome, PatientGenotype genotype)
+        {
+            this.version = version;
+            this.exome = exome;
+            this.genotype = genotype;
+        }
+    }
+}
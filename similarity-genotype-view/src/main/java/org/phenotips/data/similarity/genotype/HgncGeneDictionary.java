@@ -0,0 +1,265 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.genotype;
+
+import org.phenotips.data.similarity.GeneDictionary;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.component.annotation.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.solr.common.params.CommonParams;
+import org.slf4j.Logger;
+
+/**
+ * {@link GeneDictionary} backed by the HGNC vocabulary. All the genes are loaded in a {@link GeneTable} the first time
+ * a gene is resolved, and the version of the vocabulary is checked again at most once a minute, the table being
+ * reloaded after the vocabulary is reindexed. Lookups never wait for a reload: the previous table is used while the new
+ * one is being loaded.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component
+@Singleton
+public class HgncGeneDictionary implements GeneDictionary
+{
+    /** The name of the vocabulary holding the genes. */
+    private static final String HGNC = "HGNC";
+
+    /** The field holding the HGNC ID of a gene, when it is not used as the term identifier. */
+    private static final String HGNC_ID = "hgnc_id";
+
+    /** The field holding the approved symbol of a gene. */
+    private static final String SYMBOL = "symbol";
+
+    /** The field holding the Ensembl IDs of a gene. */
+    private static final String ENSEMBL_ID = "ensembl_gene_id";
+
+    /** The fields holding the other symbols of a gene. */
+    private static final String[] OTHER_SYMBOLS = { "prev_symbol", "alias_symbol" };
+
+    /** How often the version of the vocabulary is checked. */
+    private static final long REFRESH_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
+    /** Logging helper object. */
+    @Inject
+    private Logger logger;
+
+    /** Provides access to the HGNC vocabulary. */
+    @Inject
+    private VocabularyManager vocabularyManager;
+
+    /** Held while the table is being loaded. */
+    private final ReentrantLock loadLock = new ReentrantLock();
+
+    /** The loaded genes, {@code null} until the genes are first loaded. */
+    private volatile GeneTable table;
+
+    /** The version of the vocabulary the table was loaded from. */
+    private volatile String version;
+
+    /** When the version of the vocabulary was last checked, see {@link System#nanoTime()}. */
+    private volatile long lastCheck;
+
+    @Override
+    public String getSymbol(String gene)
+    {
+        GeneTable genes = getTable();
+        int ordinal = genes.getOrdinal(gene);
+        return ordinal == GeneTable.UNKNOWN ? gene : genes.getSymbol(ordinal);
+    }
+
+    @Override
+    public String getEnsemblId(String gene)
+    {
+        GeneTable genes = getTable();
+        int ordinal = genes.getOrdinal(gene);
+        String ensemblId = ordinal == GeneTable.UNKNOWN ? null : genes.getEnsemblId(ordinal);
+        // Retain information as is if we can't find Ensembl ID
+        return ensemblId == null ? gene : ensemblId;
+    }
+
+    @Override
+    public String getId(String gene)
+    {
+        GeneTable genes = getTable();
+        int ordinal = genes.getOrdinal(gene);
+        return ordinal == GeneTable.UNKNOWN ? null : genes.getId(ordinal);
+    }
+
+    @Override
+    public Map<String, String> getSymbols(Collection<String> genes)
+    {
+        GeneTable current = getTable();
+        Map<String, String> result = new LinkedHashMap<>();
+        for (String gene : genes) {
+            int ordinal = current.getOrdinal(gene);
+            result.put(gene, ordinal == GeneTable.UNKNOWN ? gene : current.getSymbol(ordinal));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, String> getEnsemblIds(Collection<String> genes)
+    {
+        GeneTable current = getTable();
+        Map<String, String> result = new LinkedHashMap<>();
+        for (String gene : genes) {
+            int ordinal = current.getOrdinal(gene);
+            String ensemblId = ordinal == GeneTable.UNKNOWN ? null : current.getEnsemblId(ordinal);
+            result.put(gene, ensemblId == null ? gene : ensemblId);
+        }
+        return result;
+    }
+
+    /**
+     * Return the current table of genes, loading it the first time, and reloading it if the vocabulary was reindexed.
+     * Only the first load blocks; later reloads are done by one of the callers while the others use the old table.
+     *
+     * @return the loaded genes, {@link GeneTable#EMPTY} if the vocabulary is not available
+     */
+    private GeneTable getTable()
+    {
+        GeneTable current = this.table;
+        if (current != null && System.nanoTime() - this.lastCheck < REFRESH_INTERVAL) {
+            return current;
+        }
+        if (current == null) {
+            this.loadLock.lock();
+        } else if (!this.loadLock.tryLock()) {
+            return current;
+        }
+        try {
+            if (this.table == null || System.nanoTime() - this.lastCheck >= REFRESH_INTERVAL) {
+                refresh();
+            }
+            return this.table;
+        } finally {
+            this.loadLock.unlock();
+        }
+    }
+
+    /**
+     * Reload the table if the vocabulary changed since it was loaded. Must be called while holding the load lock.
+     */
+    private void refresh()
+    {
+        this.lastCheck = System.nanoTime();
+        Vocabulary hgnc = this.vocabularyManager.getVocabulary(HGNC);
+        if (hgnc == null) {
+            if (this.table == null) {
+                this.table = GeneTable.EMPTY;
+            }
+            return;
+        }
+        String currentVersion = hgnc.getVersion() + '|' + hgnc.size();
+        if (this.table != null && currentVersion.equals(this.version)) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            GeneTable loaded = load(hgnc);
+            this.table = loaded;
+            this.version = currentVersion;
+            this.logger.info("Loaded {} genes with {} identifiers from HGNC in {} ms", loaded.size(),
+                loaded.getIdentifierCount(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (RuntimeException ex) {
+            this.logger.error("Failed to load the HGNC genes: {}", ex.getMessage(), ex);
+            if (this.table == null) {
+                this.table = GeneTable.EMPTY;
+            }
+        }
+    }
+
+    /**
+     * Load all the genes of the vocabulary.
+     *
+     * @param hgnc the HGNC vocabulary
+     * @return the table of all the genes having a symbol
+     */
+    private GeneTable load(Vocabulary hgnc)
+    {
+        Map<String, String> queryAll = new HashMap<>();
+        queryAll.put("id", "*");
+        Map<String, String> queryAllParams = new HashMap<>();
+        queryAllParams.put(CommonParams.ROWS, String.valueOf(hgnc.size()));
+        queryAllParams.put(CommonParams.FL, StringUtils.join(
+            new String[] { "id", HGNC_ID, SYMBOL, ENSEMBL_ID, OTHER_SYMBOLS[0], OTHER_SYMBOLS[1] }, ','));
+
+        GeneTable.Builder builder = new GeneTable.Builder();
+        for (VocabularyTerm term : hgnc.search(queryAll, queryAllParams)) {
+            List<String> symbol = getValues(term, SYMBOL);
+            if (StringUtils.isBlank(term.getId()) || symbol.isEmpty()) {
+                continue;
+            }
+            List<String> hgncId = getValues(term, HGNC_ID);
+            List<String> ensemblIds = getValues(term, ENSEMBL_ID);
+            List<String> otherSymbols = new ArrayList<>();
+            if (!hgncId.isEmpty()) {
+                // the term identifier is then another way of identifying the gene
+                otherSymbols.add(term.getId());
+            }
+            for (String field : OTHER_SYMBOLS) {
+                otherSymbols.addAll(getValues(term, field));
+            }
+            builder.add(hgncId.isEmpty() ? term.getId() : hgncId.get(0), symbol.get(0),
+                ensemblIds.isEmpty() ? null : ensemblIds.get(0), otherSymbols);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Read a field of a term, which may be single or multi-valued.
+     *
+     * @param term the term to read
+     * @param field the name of the field
+     * @return the non-blank values of the field, may be empty
+     */
+    private static List<String> getValues(VocabularyTerm term, String field)
+    {
+        Object value = term.get(field);
+        if (value instanceof Collection<?>) {
+            List<String> result = new ArrayList<>(((Collection<?>) value).size());
+            for (Object item : (Collection<?>) value) {
+                if (item != null && StringUtils.isNotBlank(item.toString())) {
+                    result.add(item.toString());
+                }
+            }
+            return result;
+        } else if (value != null && StringUtils.isNotBlank(value.toString())) {
+            return Collections.singletonList(value.toString());
+        }
+        return Collections.emptyList();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.genotype;
+
+import org.phenotips.data.Patient;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Identifies the stored version of patients, so that the data cached for a patient, e.g. its genotype or phenotype
+ * profile, can be checked against the current version of the patient without reading the patient again.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public final class PatientVersions
+{
+    private PatientVersions()
+    {
+        // Utility class
+    }
+
+    /**
+     * Return the version of the stored patient record, changing each time the patient is saved.
+     *
+     * @param patient the patient to process
+     * @return the version and date of the patient document, or {@code null} if the patient is not stored locally
+     */
+    public static String getVersion(Patient patient)
+    {
+        if (patient.getDocumentReference() == null) {
+            return null;
+        }
+        XWikiDocument document = patient.getXDocument();
+        if (document == null || document.getDate() == null) {
+            return null;
+        }
+        return document.getVersion() + '@' + document.getDate().getTime();
+    }
+}
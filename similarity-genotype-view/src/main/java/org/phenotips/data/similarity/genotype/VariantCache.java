@@ -0,0 +1,145 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.genotype;
+
+import org.phenotips.data.similarity.Variant;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Cache for the variant lists of the genes of loaded exomes, kept apart from the exomes themselves so that the gene
+ * scores of many exomes can stay loaded while only the recently displayed variants are kept in memory. The cache is
+ * bounded by the total number of cached variants, and evicts the least recently used lists first.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class VariantCache
+{
+    /** The maximum number of variants to keep. */
+    private final int capacity;
+
+    /** The cached lists, in access order. */
+    private final LinkedHashMap<Key, List<Variant>> lists = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** The number of variants in the cached lists. */
+    private int weight;
+
+    /**
+     * Create a cache holding at most the given number of variants.
+     *
+     * @param capacity the maximum number of variants to keep, lists larger than this are never cached
+     */
+    public VariantCache(int capacity)
+    {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Get the variants of a gene from the cache, loading them if they are not cached.
+     *
+     * @param exome the exome the variants belong to
+     * @param gene the gene name
+     * @param loader reads the variants of a gene from the exome
+     * @return the variants of the gene
+     */
+    public List<Variant> get(Object exome, String gene, Function<String, List<Variant>> loader)
+    {
+        Key key = new Key(exome, gene);
+        synchronized (this) {
+            List<Variant> result = this.lists.get(key);
+            if (result != null) {
+                return result;
+            }
+        }
+        List<Variant> result = loader.apply(gene);
+        if (result.size() <= this.capacity) {
+            synchronized (this) {
+                List<Variant> previous = this.lists.put(key, result);
+                this.weight += result.size() - (previous == null ? 0 : previous.size());
+                evict();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the number of cached variants.
+     *
+     * @return the total size of the cached lists
+     */
+    public synchronized int getWeight()
+    {
+        return this.weight;
+    }
+
+    /**
+     * Remove all the cached lists.
+     */
+    public synchronized void clear()
+    {
+        this.lists.clear();
+        this.weight = 0;
+    }
+
+    private void evict()
+    {
+        Iterator<List<Variant>> it = this.lists.values().iterator();
+        while (this.weight > this.capacity && it.hasNext()) {
+            this.weight -= it.next().size();
+            it.remove();
+        }
+    }
+
+    /**
+     * Identifies the variants of a gene in a specific exome instance, so that a reloaded exome never gets the variants
+     * of its previous version.
+     */
+    private static final class Key
+    {
+        private final Object exome;
+
+        private final String gene;
+
+        Key(Object exome, String gene)
+        {
+            this.exome = exome;
+            this.gene = gene;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return this.exome == other.exome && this.gene.equals(other.gene);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * System.identityHashCode(this.exome) + this.gene.hashCode();
+        }
+    }
+}
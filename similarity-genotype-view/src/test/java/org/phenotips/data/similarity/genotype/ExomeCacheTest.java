@@ -0,0 +1,112 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.genotype;
+
+import org.phenotips.data.similarity.Exome;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ExomeCache}.
+ *
+ * @version $Id$
+ */
+public class ExomeCacheTest
+{
+    private static final String EXOME = "#CHROM\tPOS\tREF\tALT\tQUAL\tFILTER\tGENOTYPE\tCOVERAGE\tFUNCTIONAL_CLASS"
+        + "\tEXOMISER_GENE\tEXOMISER_VARIANT_SCORE\tEXOMISER_GENE_COMBINED_SCORE\n"
+        + "chr16\t30748691\tC\tT\t225.0\tPASS\t0/1\t40\tSTOPGAIN\tSRCAP\t0.95\t0.9876266\n"
+        + "chr6\t32628660\tT\tC\t225.0\tPASS\t1/1\t94\tSPLICING\tHLA-DQB1\t0.5\t0.9057237\n";
+
+    @Test
+    public void sizeIsEstimatedFromGenesAndVariants() throws IOException
+    {
+        Exome exome = new ExomiserExome(new StringReader(EXOME));
+        Assert.assertEquals(2 * ExomeCache.GENE_FOOTPRINT + 2 * ExomeCache.VARIANT_FOOTPRINT,
+            ExomeCache.estimateSize(exome));
+    }
+
+    @Test
+    public void leastRecentlyUsedExomesAreEvictedPastTheBudget() throws IOException
+    {
+        Exome exome = new ExomiserExome(new StringReader(EXOME));
+        long size = ExomeCache.estimateSize(exome);
+        ExomeCache cache = new ExomeCache(2 * size);
+
+        cache.set("P1", exome, 1000000);
+        cache.set("P2", exome, 3000000);
+        Assert.assertSame(exome, cache.get("P1"));
+        cache.set("P3", exome, 2000000);
+        Assert.assertNull(cache.get("P2"));
+        Assert.assertSame(exome, cache.get("P3"));
+
+        Map<String, Long> statistics = cache.getStatistics();
+        Assert.assertEquals(Long.valueOf(2), statistics.get("size"));
+        Assert.assertEquals(Long.valueOf(2 * size), statistics.get("weight"));
+        Assert.assertEquals(Long.valueOf(2), statistics.get("hits"));
+        Assert.assertEquals(Long.valueOf(1), statistics.get("misses"));
+        Assert.assertEquals(Long.valueOf(1), statistics.get("evictions"));
+        Assert.assertEquals(Long.valueOf(2), statistics.get("averageLoadTime"));
+
+        cache.remove("P1");
+        Assert.assertEquals(Long.valueOf(size), cache.getStatistics().get("weight"));
+        cache.removeAll();
+        Assert.assertEquals(Long.valueOf(0), cache.getStatistics().get("weight"));
+    }
+
+    @Test
+    public void patientsWithoutExomesAreCachedOutsideTheBudget() throws IOException
+    {
+        Exome exome = new ExomiserExome(new StringReader(EXOME));
+        ExomeCache cache = new ExomeCache(ExomeCache.estimateSize(exome));
+
+        Assert.assertFalse(cache.isMissing("P1"));
+        cache.setMissing("P1");
+        Assert.assertNull(cache.get("P1"));
+        Assert.assertTrue(cache.isMissing("P1"));
+        cache.set("P2", exome, 0);
+        cache.set("P3", exome, 0);
+        Assert.assertTrue(cache.isMissing("P1"));
+        Assert.assertFalse(cache.isMissing("P3"));
+
+        Map<String, Long> statistics = cache.getStatistics();
+        Assert.assertEquals(Long.valueOf(1), statistics.get("size"));
+        Assert.assertEquals(Long.valueOf(1), statistics.get("missing"));
+        Assert.assertEquals(Long.valueOf(1), statistics.get("hits"));
+        Assert.assertEquals(Long.valueOf(0), statistics.get("misses"));
+        Assert.assertEquals(Long.valueOf(1), statistics.get("evictions"));
+
+        cache.remove("P1");
+        Assert.assertFalse(cache.isMissing("P1"));
+    }
+
+    @Test
+    public void exomesLargerThanTheBudgetAreNotCached() throws IOException
+    {
+        Exome exome = new ExomiserExome(new StringReader(EXOME));
+        ExomeCache cache = new ExomeCache(ExomeCache.estimateSize(exome) - 1);
+        cache.set("P1", exome, 0);
+        Assert.assertNull(cache.get("P1"));
+        Assert.assertEquals(Long.valueOf(0), cache.getStatistics().get("weight"));
+    }
+}
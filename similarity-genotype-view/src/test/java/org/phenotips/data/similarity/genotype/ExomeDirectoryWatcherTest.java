@@ -0,0 +1,124 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.genotype;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ExomeDirectoryWatcher}.
+ *
+ * @version $Id$
+ */
+public class ExomeDirectoryWatcherTest
+{
+    private static final String SUFFIX = ".variants.tsv";
+
+    private File directory;
+
+    private final List<String> changed = new CopyOnWriteArrayList<>();
+
+    private final BlockingQueue<String> updated = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws IOException
+    {
+        this.directory = Files.createTempDirectory("exomiser").toFile();
+        this.directory.deleteOnExit();
+    }
+
+    @Test
+    public void newAndModifiedExomesAreReported() throws Exception
+    {
+        File existing = new File(this.directory, "P0000001");
+        existing.mkdir();
+        try (ExomeDirectoryWatcher watcher = new ExomeDirectoryWatcher(this.directory, SUFFIX, this.changed::add,
+            this.updated::add, 100)) {
+            write(new File(existing, "P0000001" + SUFFIX));
+            Assert.assertEquals("P0000001", this.updated.poll(10, TimeUnit.SECONDS));
+            Assert.assertTrue(this.changed.contains("P0000001"));
+
+            File created = new File(this.directory, "P0000002");
+            created.mkdir();
+            Thread.sleep(200);
+            write(new File(created, "P0000002" + SUFFIX));
+            Assert.assertEquals("P0000002", this.updated.poll(10, TimeUnit.SECONDS));
+
+            // other files in the patient directories are ignored
+            this.changed.clear();
+            write(new File(created, "P0000002.variants.bin"));
+            write(new File(created, "P0000001" + SUFFIX));
+            Assert.assertNull(this.updated.poll(1, TimeUnit.SECONDS));
+            Assert.assertTrue(this.changed.isEmpty());
+        }
+    }
+
+    @Test
+    public void deletedExomesAreOnlyDropped() throws Exception
+    {
+        File patient = new File(this.directory, "P0000003");
+        patient.mkdir();
+        File exome = new File(patient, "P0000003" + SUFFIX);
+        write(exome);
+        try (ExomeDirectoryWatcher watcher = new ExomeDirectoryWatcher(this.directory, SUFFIX, this.changed::add,
+            this.updated::add, 100)) {
+            Assert.assertTrue(exome.delete());
+            long end = System.currentTimeMillis() + 10000;
+            while (this.changed.isEmpty() && System.currentTimeMillis() < end) {
+                Thread.sleep(50);
+            }
+            Assert.assertEquals("P0000003", this.changed.get(0));
+            Assert.assertNull(this.updated.poll(1, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void exomesModifiedAgainAreReportedWithoutDelay() throws Exception
+    {
+        File patient = new File(this.directory, "P0000004");
+        patient.mkdir();
+        File exome = new File(patient, "P0000004" + SUFFIX);
+        try (ExomeDirectoryWatcher watcher = new ExomeDirectoryWatcher(this.directory, SUFFIX, this.changed::add,
+            this.updated::add, 0)) {
+            for (int i = 0; i < 3; i++) {
+                write(exome);
+                Assert.assertEquals("P0000004", this.updated.poll(10, TimeUnit.SECONDS));
+                // wait for the other events of the same write
+                Thread.sleep(200);
+                this.updated.clear();
+            }
+        }
+    }
+
+    private void write(File file) throws IOException
+    {
+        Files.write(file.toPath(), "#CHROM\n".getBytes(StandardCharsets.UTF_8));
+        file.deleteOnExit();
+    }
+}
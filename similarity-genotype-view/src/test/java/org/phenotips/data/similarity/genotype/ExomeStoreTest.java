@@ -0,0 +1,145 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.genotype;
+
+import org.phenotips.data.similarity.Exome;
+import org.phenotips.data.similarity.Variant;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ExomeStore}.
+ *
+ * @version $Id$
+ */
+public class ExomeStoreTest
+{
+    private static final String EXOME = "#CHROM\tPOS\tREF\tALT\tQUAL\tFILTER\tGENOTYPE\tCOVERAGE\tFUNCTIONAL_CLASS"
+        + "\tHGVS\tEXOMISER_GENE\tEXOMISER_VARIANT_SCORE\tEXOMISER_GENE_COMBINED_SCORE\n"
+        + "chr16\t30748691\tC\tT\t225.0\tPASS\t0/1\t40\tSTOPGAIN\tSRCAP:c.6715C>T\tSRCAP\t0.95\t0.9876266\n"
+        + "chr6\t32628660\tT\tC\t225.0\tPASS\t1/1\t94\tSPLICING\tHLA-DQB1:c.773-1A>G\tHLA-DQB1\t0.5\t0.9057237\n"
+        + "chr6\t32628661\tT\tC\u00e9\t225.0\tPASS\t0/1\t94\tSPLICING\tHLA-DQB1:c.773-2A>G\tHLA-DQB1\t0.9\t0.9057237\n";
+
+    private File source;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        File directory = Files.createTempDirectory("exomes").toFile();
+        directory.deleteOnExit();
+        this.source = new File(directory, "P0000001.variants.tsv");
+        Files.write(this.source.toPath(), EXOME.getBytes(StandardCharsets.UTF_8));
+        this.source.deleteOnExit();
+        this.file = new File(directory, "P0000001.variants.bin");
+        this.file.deleteOnExit();
+    }
+
+    @Test
+    public void missingStoreReturnsNull() throws IOException
+    {
+        Assert.assertNull(new ExomeStore(this.file).load(this.source));
+    }
+
+    @Test
+    public void storedExomeMatchesParsedExome() throws IOException
+    {
+        ExomiserExome parsed = new ExomiserExome(new StringReader(EXOME));
+        new ExomeStore(this.file).store(this.source, parsed);
+        Exome stored = new ExomeStore(this.file).load(this.source);
+
+        Assert.assertNotNull(stored);
+        Assert.assertEquals(parsed.getGenes(), stored.getGenes());
+        Assert.assertEquals(parsed.getTopGenes(0), stored.getTopGenes(0));
+        for (String gene : parsed.getGenes()) {
+            Assert.assertEquals(parsed.getGeneScore(gene), stored.getGeneScore(gene));
+            List<Variant> expected = parsed.getTopVariants(gene, 10);
+            List<Variant> actual = stored.getTopVariants(gene, 10);
+            Assert.assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                Variant e = expected.get(i);
+                Variant a = actual.get(i);
+                Assert.assertEquals(e.getChrom(), a.getChrom());
+                Assert.assertEquals(e.getPosition(), a.getPosition());
+                Assert.assertEquals(e.getRef(), a.getRef());
+                Assert.assertEquals(e.getAlt(), a.getAlt());
+                Assert.assertEquals(e.isHomozygous(), a.isHomozygous());
+                Assert.assertEquals(e.getEffect(), a.getEffect());
+                Assert.assertEquals(e.getScore(), a.getScore());
+                Assert.assertEquals(e.getAnnotation("HGVS"), a.getAnnotation("HGVS"));
+                Assert.assertNull(a.getAnnotation("MISSING"));
+            }
+        }
+        Variant top = parsed.getTopVariants("HLA-DQB1", 1).get(0);
+        Assert.assertEquals("HLA-DQB1:c.773-2A>G", top.getAnnotation("HGVS"));
+        Assert.assertEquals("0.9", top.getAnnotation("EXOMISER_VARIANT_SCORE"));
+        Assert.assertEquals(1, stored.getTopVariants("HLA-DQB1", 1).size());
+        Assert.assertTrue(stored.getTopVariants("NOTCH2", 1).isEmpty());
+    }
+
+    @Test
+    public void concurrentStoresDontShareTheirTemporaryFile() throws Exception
+    {
+        ExomiserExome parsed = new ExomiserExome(new StringReader(EXOME));
+        List<Callable<Void>> stores = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            stores.add(() -> {
+                new ExomeStore(this.file).store(this.source, parsed);
+                return null;
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(stores.size());
+        try {
+            for (Future<Void> store : executor.invokeAll(stores)) {
+                store.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals(parsed.getGenes(), new ExomeStore(this.file).load(this.source).getGenes());
+        String[] files = this.file.getParentFile().list();
+        Arrays.sort(files);
+        Assert.assertArrayEquals(new String[] { this.file.getName(), this.source.getName() }, files);
+    }
+
+    @Test
+    public void storeIsIgnoredWhenTheSourceChanges() throws IOException
+    {
+        new ExomeStore(this.file).store(this.source, new ExomiserExome(new StringReader(EXOME)));
+        String updated = EXOME + EXOME.substring(EXOME.indexOf('\n') + 1);
+        Files.write(this.source.toPath(), updated.getBytes(StandardCharsets.UTF_8));
+        Assert.assertNull(new ExomeStore(this.file).load(this.source));
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.genotype;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.similarity.ExomeManager;
+
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Matchers;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link ExomiserExomeManager}.
+ *
+ * @version $Id$
+ */
+public class ExomiserExomeManagerTest
+{
+    private static final String PATIENT_ID = "P0000001";
+
+    private static final String RELOAD_DELAY_KEY = "phenotips.similarity.exome.reloadDelay";
+
+    @Rule
+    public final MockitoComponentMockingRule<ExomeManager> mocker =
+        new MockitoComponentMockingRule<ExomeManager>(ExomiserExomeManager.class);
+
+    private File exomeDirectory;
+
+    private Patient patient;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        File permanentDirectory = Files.createTempDirectory("permanent").toFile();
+        permanentDirectory.deleteOnExit();
+        this.exomeDirectory = new File(permanentDirectory, "exomiser");
+        Environment environment = this.mocker.getInstance(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(permanentDirectory);
+
+        ConfigurationSource configuration = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(configuration.getProperty(Matchers.anyString(), Matchers.<Object>any()))
+            .thenAnswer(invocation -> invocation.getArguments()[1]);
+
+        this.patient = mock(Patient.class);
+        when(this.patient.getId()).thenReturn(PATIENT_ID);
+        when(this.patient.getDocumentReference()).thenReturn(new DocumentReference("xwiki", "data", PATIENT_ID));
+    }
+
+    @Test
+    public void missingExomesAreLookedUpAgainWhenTheDirectoryIsNotWatched() throws Exception
+    {
+        // the exome directory doesn't exist yet, so it cannot be watched
+        ExomeManager manager = this.mocker.getComponentUnderTest();
+        Assert.assertNull(manager.getExome(this.patient));
+        Assert.assertNull(manager.getExome(this.patient));
+
+        writeExome();
+
+        Assert.assertNotNull(manager.getExome(this.patient));
+    }
+
+    @Test
+    public void missingExomesAreLookedUpAgainWhenWatchingIsDisabled() throws Exception
+    {
+        this.exomeDirectory.mkdir();
+        ConfigurationSource configuration = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(configuration.getProperty(RELOAD_DELAY_KEY, 10L)).thenReturn(-1L);
+        ExomeManager manager = this.mocker.getComponentUnderTest();
+        Assert.assertNull(manager.getExome(this.patient));
+
+        writeExome();
+
+        Assert.assertNotNull(manager.getExome(this.patient));
+    }
+
+    private void writeExome() throws IOException
+    {
+        File patientDirectory = new File(this.exomeDirectory, PATIENT_ID);
+        patientDirectory.mkdirs();
+        Files.write(new File(patientDirectory, PATIENT_ID + ".variants.tsv").toPath(),
+            ExomiserParserTest.generate(10, "\n").getBytes(StandardCharsets.UTF_8));
+    }
+}
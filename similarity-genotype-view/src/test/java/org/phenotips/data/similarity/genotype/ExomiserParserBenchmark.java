@@ -0,0 +1,76 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.genotype;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Compares the speed of the {@link ExomiserParser} with the line by line parser of {@link ExomiserExome} on a
+ * synthetic whole genome file. This is not run with the tests, since it writes and parses a large file; run its
+ * {@link #main(String[])} method manually, with the test classpath.
+ *
+ * @version $Id$
+ */
+public final class ExomiserParserBenchmark
+{
+    /** Default number of variants in the synthetic whole genome file. */
+    private static final int VARIANTS = 300000;
+
+    private static final long MILLISECOND = 1000000;
+
+    private ExomiserParserBenchmark()
+    {
+        // Manual runner
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args optionally, the number of variants in the synthetic file, and the number of threads to parse it
+     * @throws IOException if the synthetic file cannot be written or parsed
+     */
+    public static void main(String[] args) throws IOException
+    {
+        int variants = args.length > 0 ? Integer.parseInt(args[0]) : VARIANTS;
+        int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        File file = File.createTempFile("exome", ".variants.tsv");
+        file.deleteOnExit();
+        Files.write(file.toPath(), ExomiserParserTest.generate(variants, "\n").getBytes(StandardCharsets.UTF_8));
+
+        long start = System.nanoTime();
+        ExomiserExome expected;
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            expected = new ExomiserExome(reader);
+        }
+        long sequential = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        ExomiserExome actual = ExomiserParser.parse(file, parallelism);
+        long parallel = System.nanoTime() - start;
+
+        ExomiserParserTest.assertSameExome(expected, actual);
+        System.out.println(String.format("Parsed %d variants in %d ms line by line, %d ms with %d threads", variants,
+            sequential / MILLISECOND, parallel / MILLISECOND, parallelism));
+        Files.delete(file.toPath());
+    }
+}
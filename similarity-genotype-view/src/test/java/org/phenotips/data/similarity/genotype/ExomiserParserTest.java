@@ -0,0 +1,184 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.genotype;
+
+import org.phenotips.data.similarity.Variant;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ExomiserParser}, comparing it with the line by line parser of {@link ExomiserExome}. The
+ * {@link ExomiserParserBenchmark} compares their speed on a synthetic whole genome file.
+ *
+ * @version $Id$
+ */
+public class ExomiserParserTest
+{
+    /** Size of the chunks small files are split into, so that lines are split across chunks. */
+    private static final int CHUNK_SIZE = 4096;
+
+    /** Number of genes in the synthetic file. */
+    private static final int GENES = 18000;
+
+    private static final String HEADER = "#CHROM\tPOS\tREF\tALT\tQUAL\tFILTER\tGENOTYPE\tCOVERAGE\tFUNCTIONAL_CLASS"
+        + "\tHGVS\tEXOMISER_GENE\tCADD(>0.483)\tPOLYPHEN(>0.956|>0.446)\tMUTATIONTASTER(>0.94)\tSIFT(<0.06)\tDBSNP_ID"
+        + "\tMAX_FREQUENCY\tDBSNP_FREQUENCY\tEVS_EA_FREQUENCY\tEVS_AA_FREQUENCY\tEXOMISER_VARIANT_SCORE"
+        + "\tEXOMISER_GENE_PHENO_SCORE\tEXOMISER_GENE_VARIANT_SCORE\tEXOMISER_GENE_COMBINED_SCORE\n";
+
+    private static final String[] EFFECTS = { "MISSENSE", "SPLICING", "STOPGAIN", "FS_INSERTION", "SYNONYMOUS" };
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        this.file = File.createTempFile("exome", ".variants.tsv");
+        this.file.deleteOnExit();
+    }
+
+    @Test
+    public void parallelParserMatchesSequentialParser() throws IOException
+    {
+        // the same line endings as BufferedReader, across the boundaries of the chunks
+        for (String lineEnd : new String[] { "\n", "\r", "\r\n" }) {
+            write(generate(300, lineEnd));
+            ExomiserExome actual = ExomiserParser.parse(this.file, 4, CHUNK_SIZE);
+            try (Reader reader = Files.newBufferedReader(this.file.toPath(), StandardCharsets.UTF_8)) {
+                assertSameExome(new ExomiserExome(reader), actual);
+            }
+        }
+    }
+
+    @Test
+    public void smallFilesAndWindowsLineEndingsAreSupported() throws IOException
+    {
+        write(generate(500, "\r\n"));
+        ExomiserExome actual = ExomiserParser.parse(this.file, 4);
+        write(generate(500, "\n"));
+        try (Reader reader = Files.newBufferedReader(this.file.toPath(), StandardCharsets.UTF_8)) {
+            assertSameExome(new ExomiserExome(reader), actual);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void blankLinesAreRejected() throws IOException
+    {
+        write(generate(10, "\n") + "\n" + generate(10, "\n").substring(HEADER.length()));
+        ExomiserParser.parse(this.file, 4, CHUNK_SIZE);
+    }
+
+    @Test(expected = IOException.class)
+    public void missingHeaderIsRejected() throws IOException
+    {
+        write("chr1\t1\tA\tT\n");
+        ExomiserParser.parse(this.file, 4);
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidVariantIsRejected() throws IOException
+    {
+        write(HEADER + "chr1\tone\tA\tT\n");
+        ExomiserParser.parse(this.file, 4);
+    }
+
+    @Test
+    public void topGenesAndVariantsAreReturnedInOrder() throws IOException
+    {
+        write(generate(5000, "\n"));
+        ExomiserExome exome = ExomiserParser.parse(this.file, 4);
+
+        List<String> genes = exome.getTopGenes(0);
+        Assert.assertEquals(exome.getGenes().size(), genes.size());
+        for (int i = 1; i < genes.size(); i++) {
+            Assert.assertTrue(exome.getGeneScore(genes.get(i - 1)) >= exome.getGeneScore(genes.get(i)));
+        }
+        Assert.assertEquals(genes.subList(0, 10), exome.getTopGenes(10));
+        Assert.assertEquals(genes, exome.getTopGenes(genes.size() + 1));
+
+        List<Variant> variants = exome.getTopVariants(genes.get(0), Integer.MAX_VALUE);
+        for (int i = 1; i < variants.size(); i++) {
+            Assert.assertTrue(variants.get(i - 1).getScore() >= variants.get(i).getScore());
+        }
+        try {
+            exome.getTopGenes(10).clear();
+            Assert.fail("The top genes should not be modifiable");
+        } catch (UnsupportedOperationException ex) {
+            // Expected
+        }
+    }
+
+    static void assertSameExome(ExomiserExome expected, ExomiserExome actual)
+    {
+        Assert.assertEquals(expected.getGenes(), actual.getGenes());
+        Assert.assertEquals(expected.getColumns(), actual.getColumns());
+        for (String gene : expected.getGenes()) {
+            Assert.assertEquals(expected.getGeneScore(gene), actual.getGeneScore(gene));
+            List<Variant> e = expected.getTopVariants(gene, Integer.MAX_VALUE);
+            List<Variant> a = actual.getTopVariants(gene, Integer.MAX_VALUE);
+            Assert.assertEquals(e.size(), a.size());
+            for (int i = 0; i < e.size(); i++) {
+                Assert.assertEquals(e.get(i).getChrom(), a.get(i).getChrom());
+                Assert.assertEquals(e.get(i).getPosition(), a.get(i).getPosition());
+                Assert.assertEquals(e.get(i).getScore(), a.get(i).getScore());
+                Assert.assertEquals(e.get(i).getAnnotation("HGVS"), a.get(i).getAnnotation("HGVS"));
+            }
+        }
+    }
+
+    /**
+     * Generate a synthetic Exomiser file, always the same for a given number of variants.
+     *
+     * @param variants the number of variants in the file
+     * @param lineEnd the line terminator
+     * @return the content of the file
+     */
+    static String generate(int variants, String lineEnd)
+    {
+        Random random = new Random(42);
+        StringBuilder result = new StringBuilder(HEADER.replace("\n", lineEnd));
+        for (int i = 0; i < variants; i++) {
+            int gene = random.nextInt(GENES);
+            int chrom = 1 + gene % 22;
+            int position = 10000 + i;
+            // scores with few distinct values, so that ties have to be broken in file order
+            double score = random.nextInt(20) / 20.0;
+            result.append("chr").append(chrom).append('\t').append(position).append("\tC\tT\t225.0\tPASS\t")
+                .append(random.nextBoolean() ? "0/1" : "1/1").append('\t').append(random.nextInt(100)).append('\t')
+                .append(EFFECTS[random.nextInt(EFFECTS.length)]).append("\tGENE").append(gene).append(":c.")
+                .append(position).append("C>T\tGENE").append(gene).append("\t.\t.\t.\t.\t.\t0.0\t.\t.\t.\t")
+                .append(score).append("\t0.5\t").append(score).append('\t').append(gene % 100 / 100.0)
+                .append(lineEnd);
+        }
+        return result.toString();
+    }
+
+    private void write(String content) throws IOException
+    {
+        Files.write(this.file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.genotype;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link GeneTable}.
+ *
+ * @version $Id$
+ */
+public class GeneTableTest
+{
+    @Test
+    public void genesAreResolvedFromAnyIdentifier()
+    {
+        GeneTable table = new GeneTable.Builder()
+            .add("HGNC:16974", "SRCAP", "ENSG00000080603", Arrays.asList("KIAA0309", "FLHS"))
+            .add("HGNC:4944", "HLA-DQB1", null, Collections.<String>emptyList())
+            .build();
+
+        Assert.assertEquals(2, table.size());
+        Assert.assertEquals(7, table.getIdentifierCount());
+        for (String id : Arrays.asList("HGNC:16974", "SRCAP", "ENSG00000080603", "KIAA0309", "FLHS")) {
+            int ordinal = table.getOrdinal(id);
+            Assert.assertEquals("SRCAP", table.getSymbol(ordinal));
+            Assert.assertEquals("ENSG00000080603", table.getEnsemblId(ordinal));
+            Assert.assertEquals("HGNC:16974", table.getId(ordinal));
+        }
+        Assert.assertNull(table.getEnsemblId(table.getOrdinal("HLA-DQB1")));
+        Assert.assertEquals(GeneTable.UNKNOWN, table.getOrdinal("BRCA1"));
+        Assert.assertEquals(GeneTable.UNKNOWN, table.getOrdinal(null));
+        Assert.assertEquals(GeneTable.UNKNOWN, GeneTable.EMPTY.getOrdinal("SRCAP"));
+    }
+
+    @Test
+    public void approvedSymbolsTakePrecedenceOverAliases()
+    {
+        // the alias of the first gene is the approved symbol of the second one
+        GeneTable table = new GeneTable.Builder()
+            .add("HGNC:1", "GENE1", "ENSG1", Arrays.asList("GENE2", "OLD"))
+            .add("HGNC:2", "GENE2", "ENSG2", Arrays.asList("OLD"))
+            .build();
+
+        Assert.assertEquals("GENE2", table.getSymbol(table.getOrdinal("GENE2")));
+        Assert.assertEquals("GENE1", table.getSymbol(table.getOrdinal("OLD")));
+    }
+
+    @Test
+    public void largeTablesKeepAllIdentifiers()
+    {
+        GeneTable.Builder builder = new GeneTable.Builder();
+        for (int i = 0; i < 50000; i++) {
+            builder.add("HGNC:" + i, "G" + i, "ENSG" + i, Collections.singletonList("A" + i));
+        }
+        GeneTable table = builder.build();
+        Assert.assertEquals(200000, table.getIdentifierCount());
+        for (int i = 0; i < 50000; i += 7) {
+            Assert.assertEquals("ENSG" + i, table.getEnsemblId(table.getOrdinal("A" + i)));
+            Assert.assertEquals("G" + i, table.getSymbol(table.getOrdinal("ENSG" + i)));
+        }
+    }
+}
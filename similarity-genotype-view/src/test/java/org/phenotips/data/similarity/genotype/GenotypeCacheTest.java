@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.genotype;
+
+import org.phenotips.data.similarity.Exome;
+import org.phenotips.data.similarity.PatientGenotype;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link GenotypeCache}.
+ *
+ * @version $Id$
+ */
+public class GenotypeCacheTest
+{
+    private static final String EXOME = "#CHROM\tPOS\tREF\tALT\tQUAL\tFILTER\tGENOTYPE\tCOVERAGE\tFUNCTIONAL_CLASS"
+        + "\tEXOMISER_GENE\tEXOMISER_VARIANT_SCORE\tEXOMISER_GENE_COMBINED_SCORE\n"
+        + "chr16\t30748691\tC\tT\t225.0\tPASS\t0/1\t40\tSTOPGAIN\tSRCAP\t0.95\t0.9876266\n";
+
+    @Test
+    public void genotypesAreOnlyReturnedForTheSameVersionAndExome() throws IOException
+    {
+        Exome exome = new ExomiserExome(new StringReader(EXOME));
+        PatientGenotype genotype = new TestGenotype();
+        GenotypeCache cache = new GenotypeCache(10);
+
+        cache.set("P1", "1.1@1000", exome, genotype);
+        Assert.assertSame(genotype, cache.get("P1", "1.1@1000", () -> exome));
+        Assert.assertNull(cache.get("P1", "1.2@2000", () -> exome));
+        Exome reloaded = new ExomiserExome(new StringReader(EXOME));
+        Assert.assertNull(cache.get("P1", "1.1@1000", () -> reloaded));
+        Assert.assertNull(cache.get("P1", "1.1@1000", () -> null));
+
+        // genotypes built without an exome don't look up the exome again
+        cache.set("P2", "1.1@1000", null, genotype);
+        Assert.assertSame(genotype, cache.get("P2", "1.1@1000", GenotypeCacheTest::failLookup));
+        cache.remove("P2");
+        Assert.assertNull(cache.get("P2", "1.1@1000", GenotypeCacheTest::failLookup));
+
+        Map<String, Long> statistics = cache.getStatistics();
+        Assert.assertEquals(Long.valueOf(1), statistics.get("size"));
+        Assert.assertEquals(Long.valueOf(2), statistics.get("hits"));
+        Assert.assertEquals(Long.valueOf(4), statistics.get("misses"));
+    }
+
+    @Test
+    public void leastRecentlyUsedGenotypesAreEvicted()
+    {
+        PatientGenotype genotype = new TestGenotype();
+        GenotypeCache cache = new GenotypeCache(2);
+
+        cache.set("P1", "1.1", null, genotype);
+        cache.set("P2", "1.1", null, genotype);
+        Assert.assertSame(genotype, cache.get("P1", "1.1", () -> null));
+        cache.set("P3", "1.1", null, genotype);
+        Assert.assertNull(cache.get("P2", "1.1", () -> null));
+        Assert.assertSame(genotype, cache.get("P1", "1.1", () -> null));
+        Assert.assertSame(genotype, cache.get("P3", "1.1", () -> null));
+        Assert.assertEquals(Long.valueOf(1), cache.getStatistics().get("evictions"));
+
+        cache.removeAll();
+        Assert.assertEquals(Long.valueOf(0), cache.getStatistics().get("size"));
+    }
+
+    private static Exome failLookup()
+    {
+        throw new AssertionError("The exome should not be looked up");
+    }
+
+    /**
+     * A genotype without any data, the cache only stores references to genotypes.
+     */
+    private static final class TestGenotype extends AbstractExome implements PatientGenotype
+    {
+        @Override
+        public boolean hasGenotypeData()
+        {
+            return false;
+        }
+
+        @Override
+        public Set<String> getCandidateGenes()
+        {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public String getGenesStatus()
+        {
+            return null;
+        }
+
+        @Override
+        public boolean hasExomeData()
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.data.similarity.genotype;
+
+import org.phenotips.data.similarity.Variant;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the {@link VariantCache}.
+ *
+ * @version $Id$
+ */
+public class VariantCacheTest
+{
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void listsAreLoadedOncePerExome()
+    {
+        VariantCache cache = new VariantCache(10);
+        Object exome = new Object();
+        List<Variant> first = cache.get(exome, "SRCAP", loader(3));
+        Assert.assertSame(first, cache.get(exome, "SRCAP", loader(3)));
+        Assert.assertEquals(1, this.loads.get());
+
+        // a reloaded exome doesn't see the variants of the previous instance
+        cache.get(new Object(), "SRCAP", loader(3));
+        Assert.assertEquals(2, this.loads.get());
+        Assert.assertEquals(6, cache.getWeight());
+    }
+
+    @Test
+    public void leastRecentlyUsedListsAreEvictedPastTheBudget()
+    {
+        VariantCache cache = new VariantCache(10);
+        Object exome = new Object();
+        cache.get(exome, "A", loader(4));
+        cache.get(exome, "B", loader(4));
+        cache.get(exome, "A", loader(4));
+        cache.get(exome, "C", loader(4));
+        Assert.assertEquals(8, cache.getWeight());
+        Assert.assertEquals(3, this.loads.get());
+
+        cache.get(exome, "A", loader(4));
+        Assert.assertEquals(3, this.loads.get());
+        cache.get(exome, "B", loader(4));
+        Assert.assertEquals(4, this.loads.get());
+
+        // lists larger than the budget are not cached at all
+        cache.get(exome, "D", loader(11));
+        Assert.assertEquals(8, cache.getWeight());
+
+        cache.clear();
+        Assert.assertEquals(0, cache.getWeight());
+    }
+
+    private Function<String, List<Variant>> loader(int size)
+    {
+        return gene -> {
+            this.loads.incrementAndGet();
+            List<Variant> result = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                result.add(null);
+            }
+            return Collections.unmodifiableList(result);
+        };
+    }
+}
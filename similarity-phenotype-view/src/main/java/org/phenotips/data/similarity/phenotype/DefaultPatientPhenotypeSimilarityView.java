@@ -83,6 +83,27 @@ public class DefaultPatientPhenotypeSimilarityView implements PatientPhenotypeSi
      */
     public DefaultPatientPhenotypeSimilarityView(Set<? extends Feature> matchFeatures,
         Set<? extends Feature> referenceFeatures)
+    {
+        this(matchFeatures, referenceFeatures, null, null);
+    }
+
+    /**
+     * Constructor passing the {@link #matchFeatures matched features} and the {@link #referenceFeatures reference
+     * features}, together with the vocabulary terms already resolved from their present features, so that they don't
+     * have to be resolved again.
+     *
+     * @param matchFeatures the features in the matched patient, can be empty
+     * @param referenceFeatures the features in the reference patient, can be empty
+     * @param matchTerms the terms resolved from the present features of the matched patient, or {@code null} to
+     *            resolve them from {@code matchFeatures}
+     * @param referenceTerms the terms resolved from the present features of the reference patient, or {@code null} to
+     *            resolve them from {@code referenceFeatures}
+     * @throws IllegalArgumentException if match or reference features are null
+     * @since 1.3
+     */
+    public DefaultPatientPhenotypeSimilarityView(Set<? extends Feature> matchFeatures,
+        Set<? extends Feature> referenceFeatures, Collection<VocabularyTerm> matchTerms,
+        Collection<VocabularyTerm> referenceTerms)
     {
         if (matchFeatures == null || referenceFeatures == null) {
             throw new IllegalArgumentException("match and reference feture sets must not be null");
@@ -103,7 +124,9 @@ public DefaultPatientPhenotypeSimilarityView(Set<? extends Feature> matchFeature
 
         this.matchFeatures = matchFeatures;
         this.referenceFeatures = referenceFeatures;
-        this.featureClusters = constructFeatureClusters();
+        this.featureClusters = constructFeatureClusters(
+            matchTerms != null ? matchTerms : getPresentPatientTerms(matchFeatures),
+            referenceTerms != null ? referenceTerms : getPresentPatientTerms(referenceFeatures));
     }
 
     /**
@@ -141,7 +164,8 @@ private FeatureClusterView createFeatureClusterView(Collection<Feature> matchFea
     }
 
     @SuppressWarnings({ "checkstyle:ExecutableStatementCount", "checkstyle:CyclomaticComplexity" })
-    private Collection<FeatureClusterView> constructFeatureClusters()
+    private Collection<FeatureClusterView> constructFeatureClusters(Collection<VocabularyTerm> matchTerms,
+        Collection<VocabularyTerm> refTerms)
     {
         Collection<FeatureClusterView> clusters = new LinkedList<>();
 
@@ -153,10 +177,6 @@ private Collection<FeatureClusterView> constructFeatureClusters()
         Map<String, Feature> matchFeatureLookup = getTermLookup(this.matchFeatures);
         Map<String, Feature> refFeatureLookup = getTermLookup(this.referenceFeatures);
 
-        // Get the present vocabulary terms
-        Collection<VocabularyTerm> matchTerms = getPresentPatientTerms(this.matchFeatures);
-        Collection<VocabularyTerm> refTerms = getPresentPatientTerms(this.referenceFeatures);
-
         // Get free text terms
         Collection<Feature> matchFreeTextFeatures = getFreeTextTerms(this.matchFeatures);
         Collection<Feature> refFreeTextFeatures = getFreeTextTerms(this.referenceFeatures);
@@ -23,7 +23,10 @@
 import org.xwiki.component.annotation.Role;
 import org.xwiki.stability.Unstable;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 
 /**
  * Allows searching for patients similar to a reference patient in the current PhenoTips instance.
@@ -66,4 +69,38 @@
      *         reference patient is invalid
      */
     List<PatientSimilarityView> findSimilarPrototypes(Patient referencePatient);
+
+    /**
+     * Selects the patients which may be returned as matches of a reference patient, applying the same checks as
+     * {@link #findSimilarPatients(Patient)}: the patients must be matchable and not in the family of the reference
+     * patient. This allows patients which were not found by a search, e.g. previously stored matches, to be scored
+     * again without matching patients that the search would never return.
+     *
+     * @param referencePatient the reference patient, must not be {@code null}
+     * @param candidates the patients to check, {@code null} items are discarded
+     * @return the candidates which may be matched with the reference patient, in the same order
+     * @since 1.3
+     */
+    List<Patient> filterCandidates(Patient referencePatient, Collection<Patient> candidates);
+
+    /**
+     * Finds the similar patients of many patients at once, for batch jobs refreshing the matches of the whole cohort.
+     * Only the listed patients are considered, both as reference patients and as matches. The phenotypes of all the
+     * patients are compared pairwise in a single pass, instead of searching the whole database once for each patient.
+     * <p>
+     * Similarity is symmetric, so each pair of similar patients is only scored and reported once: a pair is included if
+     * either patient would find the other one with {@link #findSimilarPatients(Patient)}, and it is reported with the
+     * patient having the smaller identifier as the reference, which is also the orientation used for storing local
+     * matches.
+     * </p>
+     *
+     * @param patientIds the identifiers of the patients to process, e.g. all the local patients
+     * @param referenceFilter selects the patients whose similar patients are searched; the other patients can only be
+     *            found as matches of the selected ones
+     * @param consumer called once for each matchable patient, with the (possibly empty) list of its similar patients
+     *            having a greater identifier, in decreasing order of score
+     * @since 1.3
+     */
+    void findAllSimilarPatients(Collection<String> patientIds, Predicate<Patient> referenceFilter,
+        BiConsumer<Patient, List<PatientSimilarityView>> consumer);
 }
@@ -18,7 +18,6 @@
 package org.phenotips.similarity.internal;
 
 import org.phenotips.consents.ConsentManager;
-import org.phenotips.data.Feature;
 import org.phenotips.data.Gene;
 import org.phenotips.data.Patient;
 import org.phenotips.data.PatientData;
@@ -26,27 +25,39 @@
 import org.phenotips.data.permissions.EntityAccess;
 import org.phenotips.data.permissions.EntityPermissionsManager;
 import org.phenotips.data.permissions.Visibility;
+import org.phenotips.data.similarity.PatientGeneIndex;
+import org.phenotips.data.similarity.PatientPhenotypeIndex;
+import org.phenotips.data.similarity.PatientPhenotypeMatrix;
+import org.phenotips.data.similarity.PatientPhenotypeProfile;
+import org.phenotips.data.similarity.PatientPhenotypeProfileManager;
 import org.phenotips.data.similarity.PatientSimilarityView;
 import org.phenotips.data.similarity.PatientSimilarityViewFactory;
 import org.phenotips.similarity.SimilarPatientsFinder;
 import org.phenotips.studies.family.Family;
 import org.phenotips.studies.family.FamilyRepository;
 import org.phenotips.vocabulary.SolrCoreContainerHandler;
-import org.phenotips.vocabulary.VocabularyManager;
-import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -74,8 +85,26 @@
 @SuppressWarnings("checkstyle:ClassFanOutComplexity")
 public class SolrSimilarPatientsFinder implements SimilarPatientsFinder, Initializable
 {
-    /** The number of records that have similar phenotypes that SOLR should find. */
-    private static final int SOLR_SEED_QUERY_SIZE_FOR_PHENOTYPE_SIMILARITY = 50;
+    /** The number of records with the most similar phenotypes that should be considered. */
+    private static final int PHENOTYPE_SEED_SIZE = 50;
+
+    /** The prefix of the names of the OMIM disorder prototype documents. */
+    private static final String PROTOTYPE_PREFIX = "MIM";
+
+    /** The configuration key holding the hint of the {@link PatientPhenotypeIndex} to use. */
+    private static final String PHENOTYPE_INDEX_KEY = "phenotips.similarity.phenotypeIndex";
+
+    /**
+     * The configuration key holding the minimal phenotype score of the pairs kept by batch searches. By default, any
+     * pair with a non-zero phenotype score is kept, like the phenotype seeds of {@link #findSimilarPatients(Patient)},
+     * so batch and per-patient searches return the same matches; a higher value makes large batches faster, but drops
+     * the weaker matches.
+     */
+    private static final String BATCH_THRESHOLD_KEY = "phenotips.similarity.batch.minPhenotypeScore";
+
+    private static final double DEFAULT_BATCH_THRESHOLD = 0;
+
+    private static final String DEFAULT_HINT = "default";
 
     private static final double MIN_SCORE_TO_CONSIDER_NON_ZERO = 0.001;
 
@@ -101,8 +130,26 @@ public class SolrSimilarPatientsFinder implements SimilarPatientsFinder, Initial
     @Named("restricted")
     private PatientSimilarityViewFactory factory;
 
+    /** Provides the cached phenotype profiles of patients, shared with the similarity views. */
+    @Inject
+    private PatientPhenotypeProfileManager profileManager;
+
+    /** Provides the configured phenotype index. */
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /** Finds the similar pairs of patients during batch searches. */
+    @Inject
+    private PatientPhenotypeMatrix phenotypeMatrix;
+
+    /** Finds the patients sharing genes with the reference patient. */
+    @Inject
+    private PatientGeneIndex geneIndex;
+
     @Inject
-    private VocabularyManager vocabularies;
+    @Named("wiki")
+    private ComponentManager componentManager;
 
     @Inject
     private SolrCoreContainerHandler cores;
@@ -116,10 +163,26 @@ public class SolrSimilarPatientsFinder implements SimilarPatientsFinder, Initial
     /** The Solr server instance used. */
     private SolrClient server;
 
+    /** Finds the patients with the most similar phenotypes. */
+    private PatientPhenotypeIndex phenotypeIndex;
+
     @Override
     public void initialize() throws InitializationException
     {
         this.server = new EmbeddedSolrServer(this.cores.getContainer(), "patients");
+
+        // The exact index by default, "lsh" trades some recall for speed on very large cohorts
+        String indexHint = this.configuration.getProperty(PHENOTYPE_INDEX_KEY, DEFAULT_HINT);
+        try {
+            this.phenotypeIndex = this.componentManager.getInstance(PatientPhenotypeIndex.class, indexHint);
+        } catch (ComponentLookupException ex) {
+            this.logger.warn("Unknown phenotype index [{}], using the default one", indexHint);
+            try {
+                this.phenotypeIndex = this.componentManager.getInstance(PatientPhenotypeIndex.class);
+            } catch (ComponentLookupException e) {
+                throw new InitializationException("Failed to look up the phenotype index", e);
+            }
+        }
     }
 
     @Override
@@ -140,100 +203,191 @@ public List<PatientSimilarityView> findSimilarPrototypes(Patient referencePatien
         return find(referencePatient, null, true);
     }
 
+    @Override
+    public List<Patient> filterCandidates(Patient referencePatient, Collection<Patient> candidates)
+    {
+        Family family = getFamily(referencePatient);
+        List<Patient> result = new ArrayList<>(candidates.size());
+        for (Patient candidate : candidates) {
+            if (!filterPatient(candidate, family, null) && !isPrototype(candidate.getId())) {
+                result.add(candidate);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void findAllSimilarPatients(Collection<String> patientIds, Predicate<Patient> referenceFilter,
+        BiConsumer<Patient, List<PatientSimilarityView>> consumer)
+    {
+        // 1. load all the matchable patients, with their compact profiles, only once
+        Cohort cohort = new Cohort(patientIds.size());
+        for (String patientId : patientIds) {
+            Patient patient = this.patients.get(patientId);
+            if (!filterPatient(patient, null, null) && !isPrototype(patient.getId())) {
+                cohort.add(patient, referenceFilter.test(patient));
+            }
+        }
+
+        // 2. find all the pairs of patients with similar phenotypes at once
+        double threshold = this.configuration.getProperty(BATCH_THRESHOLD_KEY, DEFAULT_BATCH_THRESHOLD);
+        int[][] similarPairs = this.phenotypeMatrix.findSimilarPairs(cohort.profiles, threshold);
+        this.logger.debug("Compared the phenotypes of {} patients", cohort.ids.size());
+
+        // 3. collect the candidates of all the reference patients as unordered pairs, so that a pair found by both
+        //    patients is only scored once, by the patient with the smaller identifier
+        List<Set<Integer>> pairs = cohort.getPairs(similarPairs);
+
+        // 4. score each pair of patients
+        for (int i = 0; i < cohort.ids.size(); i++) {
+            List<Patient> candidates = new ArrayList<>(pairs.get(i).size());
+            for (int j : pairs.get(i)) {
+                candidates.add(cohort.patients.get(j));
+            }
+            Patient referencePatient = cohort.patients.get(i);
+            consumer.accept(referencePatient, scoreCandidates(referencePatient, candidates));
+        }
+    }
+
     private List<PatientSimilarityView> find(Patient referencePatient, String requiredConsentId, boolean prototypes)
     {
         this.logger.debug("Searching for patients similar to [{}] using visibility level {}",
             referencePatient.getId(), this.visibilityLevelThreshold.getName());
 
-        Set<String> patientDocuments = this.findAllMatchingPatients(referencePatient, prototypes);
-        this.logger.debug("Found {} potential matches", patientDocuments.size());
-
-        List<PatientSimilarityView> results = new ArrayList<>(patientDocuments.size());
-        if (patientDocuments.size() == 0) {
-            return results;
-        }
+        // get reference patient's family once, to be used multiple times below
+        Family family = getFamily(referencePatient);
 
-        // get reference patient's family once, to be used multiple times in the loop below
-        Family family = (referencePatient.getDocumentReference() == null)
-                        ? null
-                        : this.familyRepository.getFamilyForPatient(referencePatient);
+        Collection<Patient> candidates =
+            this.findAllMatchingPatients(referencePatient, prototypes, family, requiredConsentId);
+        this.logger.debug("Found {} potential matches", candidates.size());
 
-        for (String patientDocumentName : patientDocuments) {
-            Patient matchPatient = this.patients.get(patientDocumentName);
+        return scoreCandidates(referencePatient, candidates);
+    }
 
-            if (filterPatient(matchPatient, family, requiredConsentId)) {
-                continue;
-            }
+    private Family getFamily(Patient patient)
+    {
+        return (patient.getDocumentReference() == null) ? null : this.familyRepository.getFamilyForPatient(patient);
+    }
 
-            PatientSimilarityView result = this.factory.makeSimilarPatient(matchPatient, referencePatient);
-            this.logger.debug("Found match: [{}] with score: {}", patientDocumentName, result.getScore());
-            if (result.getScore() > MIN_SCORE_TO_CONSIDER_NON_ZERO) {
-                results.add(result);
-            }
+    private List<PatientSimilarityView> scoreCandidates(Patient referencePatient, Collection<Patient> candidates)
+    {
+        if (candidates.isEmpty()) {
+            return new ArrayList<>();
         }
 
-        // Sort by score
-        Collections.sort(results, new Comparator<PatientSimilarityView>()
-        {
-            @Override
-            public int compare(PatientSimilarityView o1, PatientSimilarityView o2)
-            {
-                double score1 = o1.getScore();
-                double score2 = o2.getScore();
-                return (int) Math.signum(score2 - score1);
-            }
-        });
+        // score all candidates against the reference patient at once, only keeping the non-zero matches,
+        // which are returned sorted by decreasing score
+        List<PatientSimilarityView> results =
+            this.factory.makeSimilarPatients(candidates, referencePatient, MIN_SCORE_TO_CONSIDER_NON_ZERO);
+        this.logger.debug("Found {} matches with a non-zero score out of {} candidates", results.size(),
+            candidates.size());
 
         return results;
     }
 
     /**
-     * Finds ALL patients with matching genes and at most SOLR_SEED_QUERY_SIZE_FOR_PHENOTYPE_SIMILARITY
-     * patients with matching phenotypes (selected as most similar according to SOLR).
+     * Finds ALL patients with matching genes and the PHENOTYPE_SEED_SIZE patients with the most similar phenotypes.
+     * The phenotype matches of real patients are the best ones according to the phenotype score, found using the
+     * configured phenotype index (exact by default), and the genotype matches are found using the gene index; OMIM
+     * disorder prototypes are not indexed, so the matches found by SOLR are used instead.
      *
-     * No check is performed to see if a document is accessible, matchable, etc.
+     * Only patients which are accessible, matchable, have the required consent and are not in the same family as the
+     * reference patient are returned.
      *
      * @param referencePatient reference patient to find matches for
      * @param prototypes if true, OMIM disorder prototypes are included in results
-     * @return a list of patient document names for patients which are similar to the reference patient
-     *         (patient itself is not returned)
+     * @param family the family of the reference patient, may be {@code null}
+     * @param requiredConsentId if not null, only patients with this consent are returned
+     * @return the patients which are similar to the reference patient (patient itself is not returned)
      */
-    private Set<String> findAllMatchingPatients(Patient referencePatient, boolean prototypes)
+    private Collection<Patient> findAllMatchingPatients(Patient referencePatient, boolean prototypes, Family family,
+        String requiredConsentId)
     {
-        Set<String> results = new HashSet<>();
-
-        // 1. find at most SOLR_SEED_QUERY_SIZE_FOR_PHENOTYPE_SIMILARITY patients matching by
-        //    phenotypes (disregarding all other data)
-        SolrQuery queryP = generatePhenotypeQuery(referencePatient, prototypes);
-        if (queryP != null) {
-            queryP.setRows(SOLR_SEED_QUERY_SIZE_FOR_PHENOTYPE_SIMILARITY);
-            SolrDocumentList docsMatchedOnPhenotypes = search(queryP);
-            this.logger.debug("Found {} potential matches using phenotype search", docsMatchedOnPhenotypes.size());
-
-            for (SolrDocument doc : docsMatchedOnPhenotypes) {
-                results.add((String) doc.getFieldValue("document"));
+        Map<String, Patient> results = new LinkedHashMap<>();
+
+        // 1. find the PHENOTYPE_SEED_SIZE patients matching best by phenotypes (disregarding all other data)
+        if (prototypes) {
+            SolrQuery queryP = generatePhenotypeQuery(referencePatient, prototypes);
+            if (queryP != null) {
+                queryP.setRows(PHENOTYPE_SEED_SIZE);
+                SolrDocumentList docsMatchedOnPhenotypes = search(queryP);
+                this.logger.debug("Found {} potential matches using phenotype search",
+                    docsMatchedOnPhenotypes.size());
+
+                for (SolrDocument doc : docsMatchedOnPhenotypes) {
+                    addCandidate(results, (String) doc.getFieldValue("document"), family, requiredConsentId);
+                }
+            }
+        } else {
+            // patients are checked only as they make it into the top matches, accepted ones are kept for reuse
+            Map<String, Patient> accepted = new HashMap<>();
+            List<String> matchedOnPhenotypes = this.phenotypeIndex.findTopMatches(referencePatient,
+                PHENOTYPE_SEED_SIZE, id -> !isPrototype(id) && addCandidate(accepted, id, family, requiredConsentId));
+            this.logger.debug("Found {} potential matches using the phenotype index", matchedOnPhenotypes.size());
+
+            for (String id : matchedOnPhenotypes) {
+                Patient patient = accepted.get(id);
+                results.put(patient.getId(), patient);
             }
         }
 
         // 2. find all patients with matching genes (disregarding all other data),
         //    and merge the resulting list of patients with the patients found in step 1.
-        SolrQuery queryG = generateGenotypeQuery(referencePatient, prototypes);
-        if (queryG != null) {
+        if (prototypes) {
+            SolrQuery queryG = generateGenotypeQuery(referencePatient, prototypes);
+            if (queryG != null) {
 
-            // there should be no limit on the number of returned "genetic" matches,
-            // but unfortunately SOLR has a built-in limit of 10, and there is no way to
-            // completely disable the limit. So using DB size as the limit for the number of rows
-            queryG.setRows(this.getSolrIndexSize().intValue());
+                // there should be no limit on the number of returned "genetic" matches,
+                // but unfortunately SOLR has a built-in limit of 10, and there is no way to
+                // completely disable the limit. So using DB size as the limit for the number of rows
+                queryG.setRows(this.getSolrIndexSize().intValue());
 
-            SolrDocumentList docsMatchedOnGenotype = search(queryG);
-            this.logger.debug("Found {} potential matches using genotype search", docsMatchedOnGenotype.size());
+                SolrDocumentList docsMatchedOnGenotype = search(queryG);
+                this.logger.debug("Found {} potential matches using genotype search", docsMatchedOnGenotype.size());
 
-            for (SolrDocument doc : docsMatchedOnGenotype) {
-                results.add((String) doc.getFieldValue("document"));
+                for (SolrDocument doc : docsMatchedOnGenotype) {
+                    addCandidate(results, (String) doc.getFieldValue("document"), family, requiredConsentId);
+                }
+            }
+        } else {
+            // posting lists of the genes of the reference patient, without any query to the patients index
+            List<String> matchedOnGenotype = this.geneIndex.findMatches(referencePatient);
+            this.logger.debug("Found {} potential matches using the gene index", matchedOnGenotype.size());
+            for (String id : matchedOnGenotype) {
+                if (!isPrototype(id)) {
+                    addCandidate(results, id, family, requiredConsentId);
+                }
             }
         }
 
-        return results;
+        return results.values();
+    }
+
+    /**
+     * Loads a patient and adds it to the candidates, unless it must be filtered out.
+     *
+     * @param candidates the accepted candidates, indexed by patient identifier
+     * @param patientDocumentName the name or identifier of the patient document
+     * @param family the family of the reference patient, may be {@code null}
+     * @param requiredConsentId if not null, the consent that the patient must have
+     * @return {@code true} if the patient was accepted
+     */
+    private boolean addCandidate(Map<String, Patient> candidates, String patientDocumentName, Family family,
+        String requiredConsentId)
+    {
+        Patient matchPatient = this.patients.get(patientDocumentName);
+        if (filterPatient(matchPatient, family, requiredConsentId)) {
+            return false;
+        }
+        if (!candidates.containsKey(matchPatient.getId())) {
+            candidates.put(matchPatient.getId(), matchPatient);
+        }
+        return true;
+    }
+
+    private boolean isPrototype(String patientId)
+    {
+        return patientId.startsWith(PROTOTYPE_PREFIX);
     }
 
     private boolean filterPatient(Patient matchPatient, Family family, String requiredConsentId)
@@ -345,21 +499,8 @@ private SolrDocumentList search(SolrQuery query)
 
     private Collection<String> getPresentPhenotypeTerms(Patient patient)
     {
-        Collection<String> termIds = new HashSet<>();
-        for (Feature phenotype : patient.getFeatures()) {
-            if (phenotype != null && phenotype.isPresent()) {
-                String termId = phenotype.getId();
-                if (StringUtils.isNotBlank(termId)) {
-                    VocabularyTerm term = this.vocabularies.resolveTerm(termId);
-                    if (term != null) {
-                        for (VocabularyTerm ancestor : term.getAncestorsAndSelf()) {
-                            termIds.add(ancestor.getId());
-                        }
-                    }
-                }
-            }
-        }
-        return termIds;
+        PatientPhenotypeProfile profile = this.profileManager.getProfile(patient);
+        return profile == null ? Collections.<String>emptySet() : profile.getAncestorIds();
     }
 
     private Collection<String> getGenesToSearch(Patient patient)
@@ -409,4 +550,136 @@ private Long getSolrIndexSize()
             return null;
         }
     }
+
+    /**
+     * The matchable patients processed by a batch search.
+     */
+    private final class Cohort
+    {
+        private final List<String> ids;
+
+        private final List<Patient> patients;
+
+        /** The family of each reference patient, {@code null} for patients without a family and for non-references. */
+        private final List<Family> families;
+
+        private final List<PatientPhenotypeProfile> profiles;
+
+        private final List<Boolean> references;
+
+        /** The index of each patient in the cohort, by identifier. */
+        private final Map<String, Integer> indexes;
+
+        Cohort(int size)
+        {
+            this.ids = new ArrayList<>(size);
+            this.patients = new ArrayList<>(size);
+            this.families = new ArrayList<>(size);
+            this.profiles = new ArrayList<>(size);
+            this.references = new ArrayList<>(size);
+            this.indexes = new HashMap<>(size);
+        }
+
+        /**
+         * Adds a patient to the cohort.
+         *
+         * @param patient a patient which passed the checks of {@link #filterPatient} that don't depend on the reference
+         * @param reference whether the similar patients of this patient are searched
+         */
+        void add(Patient patient, boolean reference)
+        {
+            this.indexes.put(patient.getId(), this.ids.size());
+            this.ids.add(patient.getId());
+            this.patients.add(patient);
+            this.families.add(reference ? getFamily(patient) : null);
+            this.profiles.add(SolrSimilarPatientsFinder.this.profileManager.getProfile(patient));
+            this.references.add(reference);
+        }
+
+        /**
+         * Collects the candidates of all the reference patients as unordered pairs of patients.
+         *
+         * @param similarPairs the indexes of the patients with similar phenotypes, for each patient
+         * @return for each patient, the indexes of the patients with a greater identifier it was paired with
+         */
+        List<Set<Integer>> getPairs(int[][] similarPairs)
+        {
+            List<Set<Integer>> pairs = new ArrayList<>(this.ids.size());
+            for (int i = 0; i < this.ids.size(); i++) {
+                pairs.add(new HashSet<Integer>());
+            }
+            for (int i = 0; i < this.ids.size(); i++) {
+                if (!this.references.get(i)) {
+                    continue;
+                }
+                for (int j : getCandidates(i, similarPairs[i])) {
+                    if (this.ids.get(i).compareTo(this.ids.get(j)) < 0) {
+                        pairs.get(i).add(j);
+                    } else {
+                        pairs.get(j).add(i);
+                    }
+                }
+            }
+            return pairs;
+        }
+
+        /**
+         * Returns the same candidates as {@link #findAllMatchingPatients}, but only among the patients of the cohort:
+         * the PHENOTYPE_SEED_SIZE patients with the most similar phenotypes, and all the patients with matching genes.
+         * The gene matches are found through the same {@link PatientGeneIndex}, so that genes written differently in
+         * two records, e.g. as a symbol and as an Ensembl ID, are matched by both searches alike.
+         *
+         * @param index the index of the reference patient in the cohort
+         * @param similar the indexes of the patients with a phenotype similar to the reference
+         * @return the indexes of the accepted candidates
+         */
+        private Collection<Integer> getCandidates(int index, int[] similar)
+        {
+            Family family = this.families.get(index);
+            Set<Integer> candidates = new LinkedHashSet<>();
+
+            int seeds = 0;
+            for (int j : sortBySimilarity(this.profiles.get(index), similar)) {
+                if (seeds >= PHENOTYPE_SEED_SIZE) {
+                    break;
+                }
+                if (isCandidate(j, family)) {
+                    candidates.add(j);
+                    seeds++;
+                }
+            }
+            for (String id : SolrSimilarPatientsFinder.this.geneIndex.findMatches(this.patients.get(index))) {
+                // patients outside of the cohort are not part of the batch
+                Integer j = this.indexes.get(id);
+                if (j != null && j != index && !candidates.contains(j) && isCandidate(j, family)) {
+                    candidates.add(j);
+                }
+            }
+            return candidates;
+        }
+
+        /** The other checks of {@link #filterPatient} were done when the patients were added to the cohort. */
+        private boolean isCandidate(int index, Family family)
+        {
+            return family == null || !family.isMember(this.patients.get(index));
+        }
+
+        private List<Integer> sortBySimilarity(PatientPhenotypeProfile reference, int[] similar)
+        {
+            Map<Integer, Double> scores = new HashMap<>();
+            for (int j : similar) {
+                scores.put(j, reference.getSimilarity(this.profiles.get(j)));
+            }
+            List<Integer> sorted = new ArrayList<>(scores.keySet());
+            Collections.sort(sorted, new Comparator<Integer>()
+            {
+                @Override
+                public int compare(Integer o1, Integer o2)
+                {
+                    return Double.compare(scores.get(o2), scores.get(o1));
+                }
+            });
+            return sorted;
+        }
+    }
 }
@@ -0,0 +1,394 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.similarity.internal;
+
+import org.phenotips.data.Patient;
+import org.phenotips.data.PatientRepository;
+import org.phenotips.data.permissions.EntityAccess;
+import org.phenotips.data.permissions.EntityPermissionsManager;
+import org.phenotips.data.permissions.Visibility;
+import org.phenotips.data.similarity.PatientGeneIndex;
+import org.phenotips.data.similarity.PatientPhenotypeIndex;
+import org.phenotips.data.similarity.PatientPhenotypeMatrix;
+import org.phenotips.data.similarity.PatientPhenotypeProfile;
+import org.phenotips.data.similarity.PatientPhenotypeProfileManager;
+import org.phenotips.data.similarity.PatientSimilarityView;
+import org.phenotips.data.similarity.PatientSimilarityViewFactory;
+import org.phenotips.similarity.SimilarPatientsFinder;
+import org.phenotips.studies.family.Family;
+import org.phenotips.studies.family.FamilyRepository;
+import org.phenotips.vocabulary.SolrCoreContainerHandler;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.apache.solr.core.CoreContainer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Matchers;
+
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link SolrSimilarPatientsFinder}.
+ *
+ * @version $Id$
+ */
+public class SolrSimilarPatientsFinderTest
+{
+    private static final int PATIENTS = 300;
+
+    private static final int TERMS = 120;
+
+    @Rule
+    public final MockitoComponentMockingRule<SimilarPatientsFinder> mocker =
+        new MockitoComponentMockingRule<SimilarPatientsFinder>(SolrSimilarPatientsFinder.class);
+
+    private final List<Patient> cohort = new ArrayList<>();
+
+    private final Map<Patient, PatientPhenotypeProfile> profiles = new HashMap<>();
+
+    /** The unordered pairs of patients passed to the view factory for scoring. */
+    private final Set<String> scoredPairs = new HashSet<>();
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception
+    {
+        Random random = new Random(42);
+        double[] ics = new double[TERMS];
+        for (int i = 0; i < TERMS; i++) {
+            ics[i] = 0.1 + 5 * random.nextDouble();
+        }
+
+        PatientRepository repository = this.mocker.getInstance(PatientRepository.class);
+        PatientPhenotypeProfileManager profileManager = this.mocker.getInstance(PatientPhenotypeProfileManager.class);
+        long[] previous = null;
+        for (int p = 0; p < PATIENTS; p++) {
+            String id = String.format("P%07d", p);
+            Patient patient = mock(Patient.class);
+            when(patient.getId()).thenReturn(id);
+            when(patient.getDocumentReference()).thenReturn(new DocumentReference("xwiki", "data", id));
+            when(repository.get(id)).thenReturn(patient);
+
+            long[] closure = new long[(TERMS + 63) / 64];
+            for (int i = 4 + random.nextInt(8); i > 0; i--) {
+                int term = random.nextInt(TERMS);
+                closure[term >> 6] |= 1L << term;
+            }
+            // the first two patients have very similar phenotypes, but are in the same family
+            if (p == 1) {
+                closure[0] |= previous[0];
+                closure[1] |= previous[1];
+            }
+            previous = closure;
+            PatientPhenotypeProfile profile = new TestProfile(id, closure, ics);
+            when(profileManager.getProfile(patient)).thenReturn(profile);
+            this.profiles.put(patient, profile);
+            this.cohort.add(patient);
+        }
+        Family family = mock(Family.class);
+        FamilyRepository families = this.mocker.getInstance(FamilyRepository.class);
+        for (Patient member : this.cohort.subList(0, 2)) {
+            when(family.isMember(member)).thenReturn(true);
+            when(families.getFamilyForPatient(member)).thenReturn(family);
+        }
+
+        // all the patients are matchable
+        EntityPermissionsManager permissions = this.mocker.getInstance(EntityPermissionsManager.class);
+        when(permissions.getEntityAccess(Matchers.any(Patient.class))).thenReturn(mock(EntityAccess.class));
+
+        ConfigurationSource configuration = this.mocker.getInstance(ConfigurationSource.class, "xwikiproperties");
+        when(configuration.getProperty(Matchers.anyString(), Matchers.anyString()))
+            .thenAnswer(invocation -> invocation.getArguments()[1]);
+        when(configuration.getProperty(Matchers.anyString(), Matchers.anyDouble()))
+            .thenAnswer(invocation -> invocation.getArguments()[1]);
+
+        SolrCoreContainerHandler cores = this.mocker.getInstance(SolrCoreContainerHandler.class);
+        when(cores.getContainer()).thenReturn(mock(CoreContainer.class));
+
+        // exact phenotype index and matrix, comparing all the profiles
+        PatientPhenotypeIndex index = mock(PatientPhenotypeIndex.class);
+        doAnswer(invocation -> findTopMatches((Patient) invocation.getArguments()[0],
+            (Integer) invocation.getArguments()[1], (Predicate<String>) invocation.getArguments()[2]))
+                .when(index)
+                .findTopMatches(Matchers.any(Patient.class), Matchers.anyInt(), Matchers.any(Predicate.class));
+        ComponentManager componentManager = this.mocker.getInstance(ComponentManager.class, "wiki");
+        doReturn(index).when(componentManager).getInstance(PatientPhenotypeIndex.class, "default");
+
+        PatientPhenotypeMatrix matrix = this.mocker.getInstance(PatientPhenotypeMatrix.class);
+        doAnswer(invocation -> findSimilarPairs((List<PatientPhenotypeProfile>) invocation.getArguments()[0],
+            (Double) invocation.getArguments()[1]))
+                .when(matrix).findSimilarPairs(Matchers.anyList(), Matchers.anyDouble());
+
+        PatientSimilarityViewFactory factory =
+            this.mocker.getInstance(PatientSimilarityViewFactory.class, "restricted");
+        doAnswer(invocation -> score((Collection<Patient>) invocation.getArguments()[0],
+            (Patient) invocation.getArguments()[1]))
+                .when(factory).makeSimilarPatients(Matchers.anyCollection(), Matchers.any(Patient.class),
+                    Matchers.anyDouble());
+    }
+
+    @Test
+    public void batchSearchScoresTheSamePairsAsPerPatientSearches() throws Exception
+    {
+        SimilarPatientsFinder finder = this.mocker.getComponentUnderTest();
+        for (Patient patient : this.cohort) {
+            finder.findSimilarPatients(patient);
+        }
+        Set<String> expected = new HashSet<>(this.scoredPairs);
+        this.scoredPairs.clear();
+
+        List<String> ids = new ArrayList<>();
+        for (Patient patient : this.cohort) {
+            ids.add(patient.getId());
+        }
+        List<String> references = new ArrayList<>();
+        finder.findAllSimilarPatients(ids, patient -> true, (patient, matches) -> references.add(patient.getId()));
+
+        Assert.assertEquals(ids, references);
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertFalse(expected.contains("P0000000|P0000001"));
+        Assert.assertEquals(expected, this.scoredPairs);
+    }
+
+    @Test
+    public void batchSearchFindsTheSameGeneMatchesAsPerPatientSearches() throws Exception
+    {
+        // two patients without any phenotype in common, sharing a gene written differently in each record, which
+        // only the gene index resolves to the same gene
+        Patient first = null;
+        Patient second = null;
+        for (int i = 2; i < PATIENTS && second == null; i++) {
+            for (int j = i + 1; j < PATIENTS && second == null; j++) {
+                if (this.profiles.get(this.cohort.get(i)).getCommonIC(this.profiles.get(this.cohort.get(j))) == 0) {
+                    first = this.cohort.get(i);
+                    second = this.cohort.get(j);
+                }
+            }
+        }
+        Assert.assertNotNull(second);
+        PatientGeneIndex geneIndex = this.mocker.getInstance(PatientGeneIndex.class);
+        when(geneIndex.findMatches(first)).thenReturn(Arrays.asList(second.getId(), "P9999999"));
+        when(geneIndex.findMatches(second)).thenReturn(Collections.singletonList(first.getId()));
+
+        SimilarPatientsFinder finder = this.mocker.getComponentUnderTest();
+        for (Patient patient : this.cohort) {
+            finder.findSimilarPatients(patient);
+        }
+        Set<String> expected = new HashSet<>(this.scoredPairs);
+        this.scoredPairs.clear();
+
+        List<String> ids = new ArrayList<>();
+        for (Patient patient : this.cohort) {
+            ids.add(patient.getId());
+        }
+        finder.findAllSimilarPatients(ids, patient -> true, (patient, matches) -> { });
+
+        Assert.assertTrue(expected.contains(first.getId() + '|' + second.getId()));
+        Assert.assertEquals(expected, this.scoredPairs);
+    }
+
+    @Test
+    public void filterCandidatesAppliesTheChecksOfTheSearch() throws Exception
+    {
+        Patient hidden = this.cohort.get(3);
+        Visibility privateVisibility = mock(Visibility.class);
+        EntityAccess access = mock(EntityAccess.class);
+        when(access.getVisibility()).thenReturn(privateVisibility);
+        EntityPermissionsManager permissions = this.mocker.getInstance(EntityPermissionsManager.class);
+        when(permissions.getEntityAccess(hidden)).thenReturn(access);
+        Visibility threshold = this.mocker.getInstance(Visibility.class, "matchable");
+        when(threshold.compareTo(privateVisibility)).thenReturn(1);
+        Patient prototype = mock(Patient.class);
+        when(prototype.getId()).thenReturn("MIM:100100");
+
+        List<Patient> candidates =
+            Arrays.asList(this.cohort.get(1), this.cohort.get(2), null, hidden, prototype, this.cohort.get(4));
+        List<Patient> accepted = this.mocker.getComponentUnderTest().filterCandidates(this.cohort.get(0), candidates);
+
+        Assert.assertEquals(Arrays.asList(this.cohort.get(2), this.cohort.get(4)), accepted);
+    }
+
+    private List<String> findTopMatches(Patient reference, int maxResults, Predicate<String> filter)
+    {
+        List<String> result = new ArrayList<>();
+        for (Patient match : sortBySimilarity(reference)) {
+            if (result.size() == maxResults) {
+                break;
+            }
+            if (filter == null || filter.test(match.getId())) {
+                result.add(match.getId());
+            }
+        }
+        return result;
+    }
+
+    private List<Patient> sortBySimilarity(Patient reference)
+    {
+        PatientPhenotypeProfile profile = this.profiles.get(reference);
+        Map<Patient, Double> scores = new HashMap<>();
+        for (Patient match : this.cohort) {
+            double score = profile.getSimilarity(this.profiles.get(match));
+            if (match != reference && score > 0) {
+                scores.put(match, score);
+            }
+        }
+        List<Patient> sorted = new ArrayList<>(scores.keySet());
+        Collections.sort(sorted, (a, b) -> Double.compare(scores.get(b), scores.get(a)));
+        return sorted;
+    }
+
+    private int[][] findSimilarPairs(List<PatientPhenotypeProfile> candidates, double minSimilarity)
+    {
+        int[][] pairs = new int[candidates.size()][];
+        for (int i = 0; i < candidates.size(); i++) {
+            List<Integer> similar = new ArrayList<>();
+            for (int j = 0; j < candidates.size(); j++) {
+                if (i != j && candidates.get(i).getSimilarity(candidates.get(j)) > minSimilarity) {
+                    similar.add(j);
+                }
+            }
+            pairs[i] = similar.stream().mapToInt(Integer::intValue).toArray();
+        }
+        return pairs;
+    }
+
+    private List<PatientSimilarityView> score(Collection<Patient> candidates, Patient reference)
+    {
+        for (Patient candidate : candidates) {
+            String a = reference.getId();
+            String b = candidate.getId();
+            this.scoredPairs.add(a.compareTo(b) < 0 ? a + '|' + b : b + '|' + a);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Phenotype profile holding a closure bitset over terms with pre-defined information content.
+     */
+    private static final class TestProfile implements PatientPhenotypeProfile
+    {
+        private final String id;
+
+        private final long[] closure;
+
+        private final double[] ics;
+
+        TestProfile(String id, long[] closure, double[] ics)
+        {
+            this.id = id;
+            this.closure = closure;
+            this.ics = ics;
+        }
+
+        @Override
+        public String getPatientId()
+        {
+            return this.id;
+        }
+
+        @Override
+        public boolean isEmpty()
+        {
+            return getTotalIC() == 0;
+        }
+
+        @Override
+        public Collection<VocabularyTerm> getPresentTerms()
+        {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Set<String> getAncestorIds()
+        {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public int[] getTermOrdinals()
+        {
+            return new int[0];
+        }
+
+        @Override
+        public long[] getAncestorClosure()
+        {
+            return this.closure;
+        }
+
+        @Override
+        public double getTotalIC()
+        {
+            return sum(this.closure, this.closure, false);
+        }
+
+        @Override
+        public double getCommonIC(PatientPhenotypeProfile other)
+        {
+            return sum(this.closure, other.getAncestorClosure(), false);
+        }
+
+        @Override
+        public double getUnionIC(PatientPhenotypeProfile other)
+        {
+            return sum(this.closure, other.getAncestorClosure(), true);
+        }
+
+        @Override
+        public double getSimilarity(PatientPhenotypeProfile other)
+        {
+            return getCommonIC(other) / getUnionIC(other);
+        }
+
+        private double sum(long[] a, long[] b, boolean union)
+        {
+            double total = 0;
+            for (int term = 0; term < this.ics.length; term++) {
+                long bit = 1L << term;
+                boolean inA = (a[term >> 6] & bit) != 0;
+                boolean inB = (b[term >> 6] & bit) != 0;
+                if (union ? inA || inB : inA && inB) {
+                    total += this.ics[term];
+                }
+            }
+            return total;
+        }
+    }
+}